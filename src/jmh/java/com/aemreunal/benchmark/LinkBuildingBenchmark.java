@@ -0,0 +1,113 @@
+package com.aemreunal.benchmark;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.mvc.ControllerLinkBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import com.aemreunal.controller.beacon.BeaconController;
+import com.aemreunal.controller.beaconGroup.BeaconGroupController;
+import com.aemreunal.controller.project.ProjectController;
+import com.aemreunal.controller.user.UserController;
+import com.aemreunal.domain.Beacon;
+import com.aemreunal.domain.BeaconGroup;
+import com.aemreunal.helper.LinkTemplates;
+
+import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
+
+/**
+ * Compares adding the links of 1000 beacons with {@code linkTo(methodOn(...))} and
+ * with {@link LinkTemplates}. Each invocation is a new request, so the base URI of the
+ * templates is built once per invocation, as in a real response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LinkBuildingBenchmark {
+    private static final String USERNAME   = "testuser";
+    private static final Long   PROJECT_ID = 12L;
+
+    @Param({ "1000" })
+    public int beaconCount;
+
+    private List<Beacon> beacons;
+
+    @Setup
+    public void setUp() {
+        BeaconGroup group = new BeaconGroup();
+        group.setBeaconGroupId(3L);
+        beacons = new ArrayList<Beacon>(beaconCount);
+        for (int i = 0; i < beaconCount; i++) {
+            Beacon beacon = new Beacon();
+            beacon.setBeaconId((long) i);
+            if (i % 2 == 0) {
+                beacon.setGroup(group);
+            }
+            beacons.add(beacon);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void startRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/iBeacon/human/testuser/projects/12/beacons");
+        request.setContextPath("/iBeacon");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @TearDown(Level.Invocation)
+    public void endRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Benchmark
+    public int methodOnProxies() {
+        int linkCount = 0;
+        for (Beacon beacon : beacons) {
+            List<Link> links = new ArrayList<Link>(4);
+            links.add(ControllerLinkBuilder.linkTo(methodOn(BeaconController.class).getBeacon(USERNAME, PROJECT_ID, beacon.getBeaconId(), null)).withSelfRel());
+            links.add(ControllerLinkBuilder.linkTo(methodOn(UserController.class).getUserByUsername(USERNAME)).withRel("owner"));
+            links.add(ControllerLinkBuilder.linkTo(methodOn(ProjectController.class).getProjectById(USERNAME, PROJECT_ID, null)).withRel("project"));
+            if (beacon.getGroup() != null) {
+                links.add(ControllerLinkBuilder.linkTo(methodOn(BeaconGroupController.class).viewBeaconGroup(USERNAME, PROJECT_ID, beacon.getGroup().getBeaconGroupId(), null)).withRel("group"));
+            }
+            linkCount += links.size();
+        }
+        return linkCount;
+    }
+
+    @Benchmark
+    public int linkTemplates() {
+        int linkCount = 0;
+        for (Beacon beacon : beacons) {
+            List<Link> links = new ArrayList<Link>(4);
+            links.add(LinkTemplates.BEACON.link(Link.REL_SELF, USERNAME, PROJECT_ID, beacon.getBeaconId()));
+            links.add(LinkTemplates.USER.link("owner", USERNAME));
+            links.add(LinkTemplates.PROJECT.link("project", USERNAME, PROJECT_ID));
+            if (beacon.getGroup() != null) {
+                links.add(LinkTemplates.BEACONGROUP.link("group", USERNAME, PROJECT_ID, beacon.getGroup().getBeaconGroupId()));
+            }
+            linkCount += links.size();
+        }
+        return linkCount;
+    }
+}
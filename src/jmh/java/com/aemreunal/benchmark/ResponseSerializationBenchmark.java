@@ -0,0 +1,128 @@
+package com.aemreunal.benchmark;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.*;
+import com.aemreunal.config.MVCConfig;
+import com.aemreunal.domain.Beacon;
+import com.aemreunal.domain.Scenario;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.hibernate4.Hibernate4Module;
+
+/**
+ * Compares the time it takes to serialize beacon and scenario lists with the reflective
+ * mapper used before ("reflective") and the mapper of {@link MVCConfig}
+ * ("afterburner"), with and without compression. The sizes of the responses, plain and
+ * compressed, are printed before each run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseSerializationBenchmark {
+    @Param({ "reflective", "afterburner" })
+    public String mapperType;
+
+    @Param({ "1000" })
+    public int listSize;
+
+    private ObjectMapper   mapper;
+    private List<Beacon>   beacons;
+    private List<Scenario> scenarios;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+
+    @Setup
+    public void setUp() throws IOException {
+        if (mapperType.equals("reflective")) {
+            mapper = new ObjectMapper();
+            mapper.registerModule(new Hibernate4Module());
+        } else {
+            mapper = MVCConfig.createObjectMapper();
+        }
+        beacons = new ArrayList<Beacon>(listSize);
+        scenarios = new ArrayList<Scenario>(listSize);
+        for (int i = 0; i < listSize; i++) {
+            beacons.add(createBeacon(i));
+            scenarios.add(createScenario(i));
+        }
+        System.out.println();
+        System.out.println("Beacon list: " + serialize(beacons, false) + " bytes, " + serialize(beacons, true) + " bytes compressed");
+        System.out.println("Scenario list: " + serialize(scenarios, false) + " bytes, " + serialize(scenarios, true) + " bytes compressed");
+    }
+
+    private Beacon createBeacon(int i) {
+        Beacon beacon = new Beacon();
+        beacon.setBeaconId((long) i);
+        beacon.setUuid(String.format("F7826DA6-4FA2-4E98-8024-BC5B71E0%04X", i % 0x10000));
+        beacon.setMajor(Integer.toHexString(i / 100));
+        beacon.setMinor(Integer.toHexString(i % 100));
+        beacon.setDescription("Beacon number " + i + " on the second floor");
+        beacon.setCreationDate(new Date());
+        return beacon;
+    }
+
+    private Scenario createScenario(int i) {
+        Scenario scenario = new Scenario();
+        scenario.setScenarioId((long) i);
+        scenario.setName("Scenario " + i);
+        scenario.setDescription("Shown near the entrance of room " + i);
+        scenario.setMessageShort("Welcome to room " + i + "!");
+        scenario.setMessageLong("Room " + i + " hosts the exhibition of the week. Ask the staff for a guided tour.");
+        scenario.setUrl("http://example.com/rooms/" + i);
+        scenario.setCreationDate(new Date());
+        return scenario;
+    }
+
+    private int serialize(Object value, boolean compress) throws IOException {
+        out.reset();
+        if (compress) {
+            GZIPOutputStream gzipStream = new GZIPOutputStream(out, 8192);
+            mapper.writeValue(gzipStream, value);
+            gzipStream.finish();
+        } else {
+            mapper.writeValue(out, value);
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public int beaconList() throws IOException {
+        return serialize(beacons, false);
+    }
+
+    @Benchmark
+    public int beaconListCompressed() throws IOException {
+        return serialize(beacons, true);
+    }
+
+    @Benchmark
+    public int scenarioList() throws IOException {
+        return serialize(scenarios, false);
+    }
+
+    @Benchmark
+    public int scenarioListCompressed() throws IOException {
+        return serialize(scenarios, true);
+    }
+}
@@ -1,17 +1,24 @@
 package com.aemreunal.config;
 
 import java.util.Properties;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
 import javax.sql.DataSource;
+import liquibase.exception.LiquibaseException;
+import liquibase.integration.spring.SpringLiquibase;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
 import org.hibernate.Hibernate;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Primary;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
@@ -34,11 +41,42 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 @Configuration
 @EnableJpaRepositories(basePackages = { "com.aemreunal.repository" })
 @EnableTransactionManagement
+@EnableScheduling
 @ComponentScan(basePackages = { "com.aemreunal" })
 public class CoreConfig {
+    /**
+     * Applies the schema migrations before the entity manager factory validates the
+     * mappings against the schema.
+     */
     @Bean
+    public SpringLiquibase liquibase() {
+        SpringLiquibase liquibase = new SpringLiquibase() {
+            @Override
+            public void afterPropertiesSet() throws LiquibaseException {
+                long start = System.currentTimeMillis();
+                super.afterPropertiesSet();
+                System.out.println("Schema migrations took " + (System.currentTimeMillis() - start) + " ms");
+            }
+        };
+        liquibase.setDataSource(dataSource());
+        liquibase.setChangeLog(GlobalSettings.DB_CHANGELOG);
+        liquibase.setShouldRun(Boolean.parseBoolean(System.getProperty(GlobalSettings.DB_MIGRATIONS_PROPERTY, "true")));
+        return liquibase;
+    }
+
+    @Bean
+    @DependsOn("liquibase")
     public LocalContainerEntityManagerFactoryBean entityManagerFactory() {
-        LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean();
+        LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean() {
+            @Override
+            protected EntityManagerFactory createNativeEntityManagerFactory() throws PersistenceException {
+                // Includes the validation of the schema
+                long start = System.currentTimeMillis();
+                EntityManagerFactory entityManagerFactory = super.createNativeEntityManagerFactory();
+                System.out.println("Entity manager factory took " + (System.currentTimeMillis() - start) + " ms to start");
+                return entityManagerFactory;
+            }
+        };
         factory.setJpaVendorAdapter(vendorAdapter());
         factory.setPackagesToScan("com.aemreunal.domain");
         factory.setDataSource(dataSource());
@@ -49,19 +87,50 @@ public class CoreConfig {
     private HibernateJpaVendorAdapter vendorAdapter() {
         HibernateJpaVendorAdapter vendorAdapter = new HibernateJpaVendorAdapter();
         vendorAdapter.setDatabase(DatabaseSettings.DB_TYPE);
-        vendorAdapter.setGenerateDdl(true);
+        // The schema is managed by Liquibase
+        vendorAdapter.setGenerateDdl(false);
         vendorAdapter.setShowSql(GlobalSettings.SHOW_SQL);
         return vendorAdapter;
     }
 
+    /**
+     * The connections are routed by the {@link ReplicaRoutingDataSource}, which decides
+     * when a connection is first used instead of when the transaction begins.
+     */
     @Bean
+    @Primary
     public DataSource dataSource() {
-        DriverManagerDataSource dataSource = new DriverManagerDataSource();
-        dataSource.setDriverClassName(DatabaseSettings.DB_DRIVER_CLASS_NAME);
-        dataSource.setUrl(DatabaseSettings.DB_URL);
-        dataSource.setUsername(DatabaseSettings.DB_USERNAME);
-        dataSource.setPassword(DatabaseSettings.DB_PASSWORD);
-        return dataSource;
+        return new LazyConnectionDataSourceProxy(routingDataSource());
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource routingDataSource() {
+        String replicaUrls = System.getProperty(GlobalSettings.DB_REPLICA_URLS_PROPERTY, "").trim();
+        String[] urls = replicaUrls.isEmpty() ? new String[0] : replicaUrls.split(",");
+        org.apache.tomcat.jdbc.pool.DataSource[] replicas = new org.apache.tomcat.jdbc.pool.DataSource[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            replicas[i] = createPool(urls[i].trim(), true);
+        }
+        return new ReplicaRoutingDataSource(createPool(DatabaseSettings.DB_URL, false), replicas);
+    }
+
+    private org.apache.tomcat.jdbc.pool.DataSource createPool(String url, boolean readOnly) {
+        PoolProperties properties = new PoolProperties();
+        properties.setDriverClassName(DatabaseSettings.DB_DRIVER_CLASS_NAME);
+        properties.setUrl(url);
+        properties.setUsername(DatabaseSettings.DB_USERNAME);
+        properties.setPassword(DatabaseSettings.DB_PASSWORD);
+        properties.setDefaultReadOnly(readOnly);
+        properties.setMaxActive(GlobalSettings.DB_POOL_MAX_ACTIVE);
+        properties.setMaxIdle(GlobalSettings.DB_POOL_MAX_ACTIVE);
+        properties.setMinIdle(GlobalSettings.DB_POOL_MIN_IDLE);
+        properties.setInitialSize(GlobalSettings.DB_POOL_MIN_IDLE);
+        properties.setMaxWait(GlobalSettings.DB_POOL_MAX_WAIT_MILLIS);
+        // Connections dropped by the server while idle are replaced
+        properties.setTestOnBorrow(true);
+        properties.setValidationQuery("SELECT 1");
+        properties.setValidationInterval(GlobalSettings.DB_POOL_VALIDATION_INTERVAL_MILLIS);
+        return new org.apache.tomcat.jdbc.pool.DataSource(properties);
     }
 
     private Properties jpaProperties() {
@@ -70,6 +139,8 @@ public class CoreConfig {
         properties.put("hibernate.show_sql", GlobalSettings.SHOW_SQL_PROPERTY);
         properties.put("hibernate.format_sql", GlobalSettings.FORMAT_SQL_PROPERTY);
         properties.put("hibernate.hbm2ddl.auto", GlobalSettings.HBM2DDL_PROPERTY);
+        properties.put("hibernate.jdbc.batch_size", GlobalSettings.JDBC_BATCH_SIZE_PROPERTY);
+        properties.put("hibernate.order_inserts", GlobalSettings.ORDER_INSERTS_PROPERTY);
         return properties;
     }
 
@@ -80,11 +151,6 @@ public class CoreConfig {
         return transactionManager;
     }
 
-    @Bean
-    public BCryptPasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder(GlobalSettings.BCRYPT_LOG_FACTOR);
-    }
-
     public static void initLazily(Object proxy) {
         if(!Hibernate.isInitialized(proxy)) {
             Hibernate.initialize(proxy);
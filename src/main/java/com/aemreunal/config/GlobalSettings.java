@@ -24,13 +24,24 @@ public class GlobalSettings {
     public static final boolean DEBUGGING = true;
 
     /**
-     * The BCrypt-hashed password field length (in User.class) is assumed to be 60 with a
-     * 2-digit log factor. For example, in '$2a$10$...', the '10' is the log factor. If it
-     * ever gets a 3-digit log factor (highly unlikely), the length of that field must
-     * become 61.
+     * The minimum BCrypt log factor. The BCrypt-hashed password field length (in
+     * User.class) is assumed to be 60 with a 2-digit log factor. For example, in
+     * '$2a$10$...', the '10' is the log factor. If it ever gets a 3-digit log factor
+     * (highly unlikely), the length of that field must become 61.
      */
     public static final int BCRYPT_LOG_FACTOR = 10;
 
+    /**
+     * The PasswordHashingService raises the BCrypt log factor above BCRYPT_LOG_FACTOR
+     * while a hash still takes less than the target time on the server, up to the maximum
+     * log factor. Hashing runs on its own threads, with a bounded number of hashes
+     * waiting.
+     */
+    public static final int  BCRYPT_MAX_LOG_FACTOR  = 14;
+    public static final long BCRYPT_TARGET_MILLIS   = 250;
+    public static final int  HASHING_THREADS        = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public static final int  HASHING_QUEUE_CAPACITY = 100;
+
     /**
      * This context path is defined inside the gradle build script, named 'build.gradle'.
      * This value only reflects that one and if that context path is changed, this must be
@@ -49,14 +60,22 @@ public class GlobalSettings {
     public static final String USER_CREATE_MAPPING                  = "/register";
     public static final String USER_USERNAME_MAPPING                = "/{username}";
     public static final String USER_SPECIFIC_MAPPING                = USER_PATH_MAPPING + USER_USERNAME_MAPPING;
+    public static final String USER_LOGIN_MAPPING                   = USER_USERNAME_MAPPING + "/login";
+    public static final String USER_LOGOUT_MAPPING                  = USER_USERNAME_MAPPING + "/logout";
     // Project
     public static final String PROJECT_PATH_MAPPING                 = USER_SPECIFIC_MAPPING + "/projects";
     public static final String PROJECT_ID_MAPPING                   = "/{projectId}";
     public static final String PROJECT_SPECIFIC_MAPPING             = PROJECT_PATH_MAPPING + PROJECT_ID_MAPPING;
+    public static final String PROJECT_EXPORT_MAPPING               = PROJECT_ID_MAPPING + "/export";
+    public static final String PROJECT_IMPORT_MAPPING               = "/import";
+    public static final String PROJECT_TRIGGERS_MAPPING             = PROJECT_ID_MAPPING + "/triggers";
+    public static final String PROJECT_HEATMAP_MAPPING              = PROJECT_ID_MAPPING + "/heatmap";
+    public static final String PROJECT_SIGHTINGS_MAPPING            = PROJECT_ID_MAPPING + "/sightings";
     // Beacon
     public static final String BEACON_PATH_MAPPING                  = PROJECT_SPECIFIC_MAPPING + "/beacons";
     public static final String BEACON_ID_MAPPING                    = "/{beaconId}";
     public static final String BEACON_SPECIFIC_MAPPING              = BEACON_PATH_MAPPING + BEACON_ID_MAPPING;
+    public static final String BEACON_DWELL_MAPPING                 = BEACON_ID_MAPPING + "/dwell";
     // Beacon group
     public static final String BEACONGROUP_PATH_MAPPING             = PROJECT_SPECIFIC_MAPPING + "/beacongroups";
     public static final String BEACONGROUP_ID_MAPPING               = "/{beaconGroupId}";
@@ -74,11 +93,278 @@ public class GlobalSettings {
     public static final String SCENARIO_REMOVE_BEACON_MAPPING       = SCENARIO_ID_MAPPING + "/removebeacon";
     public static final String SCENARIO_ADD_BEACONGROUP_MAPPING     = SCENARIO_ID_MAPPING + "/addbeacongroup";
     public static final String SCENARIO_REMOVE_BEACONGROUP_MAPPING  = SCENARIO_ID_MAPPING + "/removebeacongroup";
+    public static final String SCENARIO_PUSH_MAPPING                = SCENARIO_ID_MAPPING + "/push";
+    public static final String SCENARIO_DWELL_MAPPING               = SCENARIO_ID_MAPPING + "/dwell";
     // API
     public static final String API_PATH_MAPPING                     = "/robot";
     public static final String API_BEACON_QUERY_PATH_MAPPING        = "/querybeacon";
+    public static final String API_REGISTER_DEVICE_PATH_MAPPING     = "/registerdevice";
+    public static final String API_BUNDLE_PATH_MAPPING              = "/bundle";
+    // Status
+    public static final String STATUS_PATH_MAPPING                  = "/status";
+    public static final String STATUS_PURGE_MAPPING                 = "/purges/{jobId}";
+    public static final String STATUS_READY_MAPPING                 = "/ready";
+
+    //-------------------------------------------------------------------------------------------
+    // Push notifications (APNS)
+    //
+    // The certificate and the gateway destinations are read from the system properties
+    // below, see README.md. Push notifications are disabled without a certificate.
+    //----------------------------------------
+    // The path of the APNS certificate of the iOS app (in PKCS12 format), and its password
+    public static final String APNS_CERTIFICATE_PROPERTY          = "ibeacon.apnsCertificate";
+    public static final String APNS_CERTIFICATE_PASSWORD_PROPERTY = "ibeacon.apnsCertificatePassword";
+    // "true" to use the production gateway instead of the sandbox
+    public static final String APNS_PRODUCTION_PROPERTY           = "ibeacon.apnsProduction";
+    // Set to point the server to another gateway, for example a local mock gateway
+    public static final String APNS_GATEWAY_HOST_PROPERTY         = "ibeacon.apnsGatewayHost";
+    public static final String APNS_GATEWAY_PORT_PROPERTY         = "ibeacon.apnsGatewayPort";
+    public static final String APNS_FEEDBACK_HOST_PROPERTY        = "ibeacon.apnsFeedbackHost";
+    public static final String APNS_FEEDBACK_PORT_PROPERTY        = "ibeacon.apnsFeedbackPort";
+    public static final int    APNS_GATEWAY_PORT                  = 2195;
+    public static final int    APNS_FEEDBACK_PORT                 = 2196;
+    /**
+     * The maximum number of scenario pushes that may be waiting to be fanned out. When
+     * full, new pushes are rejected instead of blocking the HTTP request.
+     */
+    public static final int  PUSH_JOB_QUEUE_CAPACITY     = 100;
+    /**
+     * The maximum number of device token batches waiting to be sent to the APNS gateway.
+     * The fan-out of a push blocks (on its own thread) while this queue is full.
+     */
+    public static final int  PUSH_BATCH_QUEUE_CAPACITY   = 200;
+    // Number of device tokens read from the database and sent to APNS at once
+    public static final int  PUSH_BATCH_SIZE             = 500;
+    // Number of threads sending batches, as well as the size of the APNS connection pool
+    public static final int  PUSH_SENDER_THREADS         = 4;
+    // How many times a failed batch is retried, and the backoff before the first retry
+    public static final int  PUSH_MAX_RETRIES            = 5;
+    public static final long PUSH_INITIAL_BACKOFF_MILLIS = 500;
+    // How often the APNS feedback service is queried for inactive device tokens
+    public static final long PUSH_FEEDBACK_INTERVAL_MILLIS = 60 * 60 * 1000;
+    //-------------------------------------------------------------------------------------------
 
 
+    //-------------------------------------------------------------------------------------------
+    // Access tokens
+    //
+    // Users log in with their password to get an access token, which is then sent in the
+    // "Authorization: Bearer <token>" header of the requests to their resources.
+    //----------------------------------------
+    /**
+     * Whether requests to the resources of a user are rejected without an access token.
+     * Requests that do carry a token are always verified.
+     */
+    public static final boolean REQUIRE_ACCESS_TOKENS              = false;
+    public static final long    ACCESS_TOKEN_LIFETIME_SECONDS      = 15 * 60;
+    // How often the revocations of expired tokens are dropped
+    public static final long    ACCESS_TOKEN_PRUNE_INTERVAL_MILLIS = 5 * 60 * 1000;
+    // The system property holding the key that signs the tokens, see AccessTokenService
+    public static final String  ACCESS_TOKEN_KEY_PROPERTY          = "ibeacon.accessTokenKey";
+    //-------------------------------------------------------------------------------------------
+
+
+    /**
+     * Responses shorter than this many bytes are not compressed, as compressing them
+     * saves less than it costs. This is also the size of the buffer used to decide.
+     */
+    public static final int GZIP_MIN_RESPONSE_SIZE = 1024;
+
+    /**
+     * How many times a group or scenario membership change is attempted when it keeps
+     * conflicting with concurrent changes, and the backoff before the first retry. The
+     * backoff doubles with each retry.
+     */
+    public static final int  MEMBERSHIP_UPDATE_MAX_ATTEMPTS  = 4;
+    public static final long MEMBERSHIP_UPDATE_BACKOFF_MILLIS = 10;
+
+    /**
+     * The number of entities imported before the session is flushed and cleared, which
+     * is also the JDBC batch size.
+     */
+    public static final int TRANSFER_BATCH_SIZE = 500;
+
+    /**
+     * The number of elements in a page of a collection when the request doesn't specify
+     * a size, and the largest size a request can specify.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE     = 100;
+
+    /**
+     * How long the resolution changes of a project are kept. Apps that have not synced
+     * their resolution bundle for longer receive a full bundle.
+     */
+    public static final int  RESOLUTION_CHANGE_RETENTION_DAYS        = 30;
+    public static final long RESOLUTION_CHANGE_PRUNE_INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+
+    /**
+     * Deleted projects and users are purged in the background, this many rows of a table
+     * per transaction. A purge job that keeps failing is given up after the maximum
+     * number of attempts, one attempt per interval.
+     */
+    public static final int  PURGE_CHUNK_SIZE      = 1000;
+    public static final long PURGE_INTERVAL_MILLIS = 10 * 1000;
+    public static final int  PURGE_MAX_ATTEMPTS    = 5;
+
+    /**
+     * The change log is polled by every server instance to update its caches with the
+     * changes made on the others, at most a batch of entries per query. A skipped
+     * sequence number is polled again until the gap timeout, in case its transaction
+     * has not committed yet. At most this many skipped sequence numbers are tracked.
+     */
+    public static final long CHANGE_LOG_POLL_INTERVAL_MILLIS  = 1000;
+    public static final int  CHANGE_LOG_BATCH_SIZE            = 500;
+    public static final long CHANGE_LOG_GAP_TIMEOUT_MILLIS    = 60 * 1000;
+    public static final int  CHANGE_LOG_MAX_GAPS              = 1000;
+    public static final int  CHANGE_LOG_RETENTION_HOURS       = 24;
+    public static final long CHANGE_LOG_PRUNE_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * The query cache is warmed up on startup, in partitions of this many IDs of a
+     * table, with at most this many partitions being loaded at once. A failed warm-up
+     * is retried after the interval.
+     */
+    public static final int  WARMUP_PARTITION_SIZE        = 10000;
+    public static final int  WARMUP_PARALLELISM           = 4;
+    public static final long WARMUP_RETRY_INTERVAL_MILLIS = 10 * 1000;
+
+    /**
+     * The requests of the robot API are rate limited per project, with a token bucket
+     * refilled at this rate and holding at most the burst size. The buckets are split
+     * into stripes with locks of their own, and at most the maximum number of buckets
+     * are kept. Besides, at most this many robot requests are processed at once, over
+     * all projects. Requests over either limit are rejected with 429 Too Many Requests.
+     */
+    public static final double ROBOT_RATE_LIMIT_PER_SECOND            = 200;
+    public static final int    ROBOT_RATE_LIMIT_BURST                 = 400;
+    public static final int    ROBOT_RATE_LIMIT_STRIPES               = 64;
+    public static final int    ROBOT_RATE_LIMIT_MAX_KEYS              = 100000;
+    public static final int    ROBOT_MAX_CONCURRENT_REQUESTS          = 100;
+    public static final long   ROBOT_RATE_LIMIT_PRUNE_INTERVAL_MILLIS = 60 * 1000;
+
+    /**
+     * The beacon queries that carry a device ID are turned into visits of the device to
+     * the beacon. A visit ends when the device has not sighted the beacon for the gap
+     * timeout, which can be overridden with the system property below. At most this many
+     * devices, each with at most this many visits in progress, are tracked at once. The
+     * ended visits are queued, and written in batches at each flush interval. The dwell
+     * distributions cover the given number of days by default.
+     */
+    public static final String VISIT_GAP_TIMEOUT_PROPERTY    = "ibeacon.visitGapSeconds";
+    public static final int    VISIT_GAP_TIMEOUT_SECONDS     = 2 * 60;
+    public static final long   VISIT_SWEEP_INTERVAL_MILLIS   = 5 * 1000;
+    public static final int    VISIT_MAX_DEVICES             = 200000;
+    public static final int    VISIT_MAX_OPEN_PER_DEVICE     = 8;
+    public static final int    VISIT_QUEUE_CAPACITY          = 100000;
+    public static final int    VISIT_BATCH_SIZE              = 500;
+    public static final long   VISIT_FLUSH_INTERVAL_MILLIS   = 5 * 1000;
+    public static final int    VISIT_DWELL_DEFAULT_DAYS      = 30;
+
+    /**
+     * The device IDs that the beacon queries carry are checked against the registered
+     * devices. The project of each device is cached, for at most this many devices in
+     * this many stripes. A device ID that isn't registered is cached for the given time.
+     */
+    public static final int  DEVICE_CACHE_MAX_DEVICES        = 200000;
+    public static final int  DEVICE_CACHE_STRIPES            = 64;
+    public static final long DEVICE_CACHE_UNKNOWN_TTL_MILLIS = 60 * 1000;
+
+    /**
+     * The sightings of beacons with a scenario are counted as triggers, per project,
+     * scenario, beacon and minute, in this many in-memory stripes holding at most this
+     * many counters in total. At each flush interval, the counters are added to the
+     * minute, hour and day rollup tables, this many rows per upsert. The minute and hour
+     * rollups are kept for the given number of days, the day rollups indefinitely.
+     */
+    public static final int  ROLLUP_STRIPES                 = 16;
+    public static final int  ROLLUP_MAX_PENDING_COUNTERS    = 500000;
+    public static final long ROLLUP_FLUSH_INTERVAL_MILLIS   = 10 * 1000;
+    public static final int  ROLLUP_UPSERT_BATCH_SIZE       = 500;
+    public static final int  ROLLUP_MINUTE_RETENTION_DAYS   = 2;
+    public static final int  ROLLUP_HOUR_RETENTION_DAYS     = 90;
+    public static final long ROLLUP_PRUNE_INTERVAL_MILLIS   = 60 * 60 * 1000;
+
+    /**
+     * The sightings of location beacons (major 0) by devices are counted as the distinct
+     * devices per project, room and hour, tracking at most this many device and room
+     * pairs in the open hour. The counts of the closed hours are upserted at the next
+     * tick, and read back after the grace period, by when every server instance should
+     * have written its own. The heatmaps cover the given number of days by default, and
+     * at most the retention.
+     */
+    public static final long HEATMAP_TICK_INTERVAL_MILLIS  = 30 * 1000;
+    public static final long HEATMAP_CLOSE_GRACE_MILLIS    = 2 * 60 * 1000;
+    public static final int  HEATMAP_MAX_PRESENCES         = 1000000;
+    public static final int  HEATMAP_UPSERT_BATCH_SIZE     = 500;
+    public static final int  HEATMAP_RETENTION_DAYS        = 35;
+    public static final int  HEATMAP_DEFAULT_DAYS          = 7;
+
+    /**
+     * The recent sightings are kept in columnar chunks per project, each of at most this
+     * many sightings from a single hour. The chunks older than the memory retention, or
+     * the oldest ones while the chunks in memory take more than the given bytes, are
+     * spilled to files in the directory given with the system property below (a
+     * directory in java.io.tmpdir by default). The chunks older than the disk retention
+     * are deleted. The sightings queries are scanned on a fork-join pool of the given
+     * parallelism, and return at most this many results.
+     */
+    public static final String SIGHTING_STORE_SPILL_DIR_PROPERTY       = "ibeacon.sightingSpillDir";
+    public static final int    SIGHTING_STORE_CHUNK_ROWS               = 64 * 1024;
+    public static final int    SIGHTING_STORE_MEMORY_RETENTION_HOURS   = 48;
+    public static final int    SIGHTING_STORE_DISK_RETENTION_DAYS      = 14;
+    public static final long   SIGHTING_STORE_MAX_MEMORY_BYTES         = 256L * 1024 * 1024;
+    public static final long   SIGHTING_STORE_MAINTENANCE_MILLIS       = 60 * 1000;
+    public static final int    SIGHTING_STORE_SCAN_PARALLELISM         = Runtime.getRuntime().availableProcessors();
+    public static final int    SIGHTING_STORE_DEFAULT_HOURS            = 24;
+    public static final int    SIGHTING_STORE_MAX_RESULTS              = 1000;
+
+    //-------------------------------------------------------------------------------------------
+    // Embedded server
+    //
+    // The defaults of the connector of the embedded server, which runs the application
+    // without an external Tomcat. Each can be overridden with a system property, or in
+    // the properties file given in the SERVER_CONFIG_PROPERTY system property, under the
+    // same name prefixed with SERVER_SETTING_PREFIX, for example "ibeacon.server.port".
+    //----------------------------------------
+    public static final String SERVER_CONFIG_PROPERTY                  = "ibeacon.serverConfig";
+    public static final String SERVER_SETTING_PREFIX                   = "ibeacon.server.";
+    public static final int    SERVER_PORT                             = 8080;
+    public static final String SERVER_CONTEXT_PATH                     = "/iBeacon";
+    public static final int    SERVER_ACCEPTOR_THREADS                 = 2;
+    public static final int    SERVER_MAX_THREADS                      = 200;
+    public static final int    SERVER_MIN_SPARE_THREADS                = 10;
+    // Idle keep-alive connections don't hold a thread with the NIO connector
+    public static final int    SERVER_MAX_CONNECTIONS                  = 10000;
+    public static final int    SERVER_ACCEPT_COUNT                     = 100;
+    public static final int    SERVER_CONNECTION_TIMEOUT_MILLIS        = 20 * 1000;
+    public static final int    SERVER_KEEP_ALIVE_TIMEOUT_MILLIS        = 30 * 1000;
+    public static final int    SERVER_MAX_KEEP_ALIVE_REQUESTS          = 1000;
+    public static final String SERVER_COMPRESSION                      = "on";
+    public static final int    SERVER_COMPRESSION_MIN_SIZE             = GZIP_MIN_RESPONSE_SIZE;
+    public static final String SERVER_COMPRESSIBLE_MIME_TYPES          = "application/json,text/plain,text/html";
+    //-------------------------------------------------------------------------------------------
+
+    //-------------------------------------------------------------------------------------------
+    // Database connections
+    //
+    // Each database, the primary and the read replicas, has a connection pool of its own.
+    // The replicas are read from the system property below, as a comma-separated list of
+    // JDBC URLs, and use the credentials in DatabaseSettings. Without replicas, every
+    // connection goes to the primary.
+    //----------------------------------------
+    public static final String DB_REPLICA_URLS_PROPERTY           = "ibeacon.replicaUrls";
+    public static final int    DB_POOL_MAX_ACTIVE                 = 20;
+    public static final int    DB_POOL_MIN_IDLE                   = 2;
+    public static final int    DB_POOL_MAX_WAIT_MILLIS            = 10 * 1000;
+    public static final long   DB_POOL_VALIDATION_INTERVAL_MILLIS = 30 * 1000;
+    /**
+     * How long the read-only transactions of a user go to the primary after a write of
+     * that user, so that the user doesn't read from a replica that lags behind it.
+     */
+    public static final long   REPLICA_READ_YOUR_WRITES_MILLIS    = 5 * 1000;
+    //-------------------------------------------------------------------------------------------
+
     //-------------------------------------------------------------------------------------------
     // Property name: "hibernate.hbm2ddl.auto"
     //
@@ -92,8 +378,15 @@ public class GlobalSettings {
     // update: update the schema.
     // create: creates the schema, destroying previous data.
     // create-drop: drop the schema at the end of the session.
+    //
+    // The schema is created and migrated by Liquibase instead, from the change log
+    // below, so Hibernate only validates its mappings against it. The migrations can
+    // also be applied offline with the Liquibase command line tool, in which case they
+    // can be skipped on startup by setting the system property below to "false".
     //----------------------------------------
-    public static final String HBM2DDL_PROPERTY = "update";
+    public static final String HBM2DDL_PROPERTY        = "validate";
+    public static final String DB_CHANGELOG            = "classpath:db/changelog/db.changelog-master.xml";
+    public static final String DB_MIGRATIONS_PROPERTY  = "ibeacon.runMigrations";
     //-------------------------------------------------------------------------------------------
 
     //-------------------------------------------------------------------------------------------
@@ -116,4 +409,11 @@ public class GlobalSettings {
     //----------------------------------------
     public static final String DB_DIALECT_PROPERTY = "org.hibernate.dialect.MySQL5InnoDBDialect";
     //-------------------------------------------------------------------------------------------
+
+    //-------------------------------------------------------------------------------------------
+    // Property names: "hibernate.jdbc.batch_size", "hibernate.order_inserts"
+    //----------------------------------------
+    public static final String JDBC_BATCH_SIZE_PROPERTY = String.valueOf(TRANSFER_BATCH_SIZE);
+    public static final String ORDER_INSERTS_PROPERTY   = "true";
+    //-------------------------------------------------------------------------------------------
 }
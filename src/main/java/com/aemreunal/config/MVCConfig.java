@@ -17,15 +17,22 @@ package com.aemreunal.config;
  */
 
 import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.web.PageableHandlerMethodArgumentResolver;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import com.aemreunal.interceptor.AccessTokenInterceptor;
+import com.aemreunal.interceptor.ReplicaClientInterceptor;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.hibernate4.Hibernate4Module;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
 
 /*
  * http://www.petrikainulainen.net/programming/spring-framework/unit-testing-of-spring-mvc-controllers-configuration/
@@ -37,9 +44,22 @@ import com.fasterxml.jackson.datatype.hibernate4.Hibernate4Module;
 public class MVCConfig extends WebMvcConfigurerAdapter {
     // TODO find out what this class is used for
 
+    @Autowired
+    private AccessTokenInterceptor accessTokenInterceptor;
+
+    @Autowired
+    private ReplicaClientInterceptor replicaClientInterceptor;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         super.addInterceptors(registry);
+        // Registering and logging in are the only requests to a user that have no token
+        registry.addInterceptor(accessTokenInterceptor)
+                .addPathPatterns(GlobalSettings.USER_SPECIFIC_MAPPING, GlobalSettings.USER_SPECIFIC_MAPPING + "/**")
+                .excludePathPatterns(GlobalSettings.USER_PATH_MAPPING + GlobalSettings.USER_CREATE_MAPPING,
+                                     GlobalSettings.USER_PATH_MAPPING + GlobalSettings.USER_LOGIN_MAPPING);
+        registry.addInterceptor(replicaClientInterceptor)
+                .addPathPatterns(GlobalSettings.USER_SPECIFIC_MAPPING, GlobalSettings.USER_SPECIFIC_MAPPING + "/**");
         // TODO Add security interceptor for HTTP to HTTPS redirect
         // http://docs.spring.io/spring/docs/4.0.0.RELEASE/spring-framework-reference/htmlsingle/#mvc-container-config
         // http://docs.spring.io/autorepo/docs/spring-framework/3.1.x/javadoc-api/org/springframework/web/WebApplicationInitializer.html
@@ -49,13 +69,29 @@ public class MVCConfig extends WebMvcConfigurerAdapter {
 
     public MappingJackson2HttpMessageConverter jacksonMessageConverter() {
         MappingJackson2HttpMessageConverter messageConverter = new MappingJackson2HttpMessageConverter();
+        // The converter writes straight to the response stream, which is compressed by
+        // the GzipResponseFilter when the response is large enough
+        messageConverter.setObjectMapper(createObjectMapper());
+        return messageConverter;
+    }
 
+    public static ObjectMapper createObjectMapper() {
         ObjectMapper mapper = new ObjectMapper();
         //Registering Hibernate4Module to support lazy objects
         mapper.registerModule(new Hibernate4Module());
+        // Generates bytecode for the getters and setters of the entities instead of
+        // calling them with reflection
+        mapper.registerModule(new AfterburnerModule());
+        return mapper;
+    }
 
-        messageConverter.setObjectMapper(mapper);
-        return messageConverter;
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> argumentResolvers) {
+        // Resolves the "page", "size" and "sort" request parameters into a Pageable
+        PageableHandlerMethodArgumentResolver pageableResolver = new PageableHandlerMethodArgumentResolver();
+        pageableResolver.setFallbackPageable(new PageRequest(0, GlobalSettings.DEFAULT_PAGE_SIZE));
+        pageableResolver.setMaxPageSize(GlobalSettings.MAX_PAGE_SIZE);
+        argumentResolvers.add(pageableResolver);
     }
 
     @Override
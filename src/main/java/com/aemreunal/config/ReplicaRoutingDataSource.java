@@ -0,0 +1,158 @@
+package com.aemreunal.config;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/*
+ **************************
+ * Copyright (c) 2014     *
+ *                        *
+ * This code belongs to:  *
+ *                        *
+ * Ahmet Emre Ünal        *
+ * S001974                *
+ *                        *
+ * aemreunal@gmail.com    *
+ * emre.unal@ozu.edu.tr   *
+ *                        *
+ * aemreunal.com          *
+ **************************
+ */
+
+/**
+ * Routes the connections of read-only transactions to the read replicas, round-robin,
+ * and every other connection to the primary database.
+ * <p/>
+ * The routing is decided when a connection is first used, so this must be wrapped in a
+ * LazyConnectionDataSourceProxy: the transaction manager opens the connection before
+ * the transaction is marked as read-only.
+ * <p/>
+ * Replicas lag behind the primary, so a client that has just written something may not
+ * find it on a replica. The requests to the resources of a user are made on behalf of
+ * that user (see {@link #setCurrentClient(String)}), and the read-only transactions of
+ * a user are routed to the primary for {@value
+ * com.aemreunal.config.GlobalSettings#REPLICA_READ_YOUR_WRITES_MILLIS} ms after a write
+ * transaction of that user commits.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+    public static final String PRIMARY_KEY        = "primary";
+    public static final String REPLICA_KEY_PREFIX = "replica-";
+
+    // The user that the requests of the current thread are made on behalf of
+    private static final ThreadLocal<String> CURRENT_CLIENT = new ThreadLocal<String>();
+
+    // Above this many clients, the ones that haven't written recently are dropped
+    private static final int MAX_TRACKED_CLIENTS = 10000;
+
+    private final Map<String, DataSource> pools = new LinkedHashMap<String, DataSource>();
+    private final String[]                replicaKeys;
+    private final AtomicInteger           nextReplica = new AtomicInteger();
+
+    // Client -> the last time a write transaction of the client committed
+    private final ConcurrentMap<String, Long> lastWrites = new ConcurrentHashMap<String, Long>();
+
+    private final AtomicLong primaryConnections   = new AtomicLong();
+    private final AtomicLong replicaConnections   = new AtomicLong();
+    private final AtomicLong readYourWritesRoutes = new AtomicLong();
+
+    /**
+     * @param primary
+     *     The pool of the primary database
+     * @param replicas
+     *     The pools of the read replicas, which may be empty
+     */
+    public ReplicaRoutingDataSource(DataSource primary, DataSource... replicas) {
+        Map<Object, Object> targets = new LinkedHashMap<Object, Object>();
+        pools.put(PRIMARY_KEY, primary);
+        targets.put(PRIMARY_KEY, primary);
+        replicaKeys = new String[replicas.length];
+        for (int i = 0; i < replicas.length; i++) {
+            replicaKeys[i] = REPLICA_KEY_PREFIX + (i + 1);
+            pools.put(replicaKeys[i], replicas[i]);
+            targets.put(replicaKeys[i], replicas[i]);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+    }
+
+    /**
+     * Sets the user that the requests of the current thread are made on behalf of, or
+     * clears it if null.
+     */
+    public static void setCurrentClient(String client) {
+        if (client == null) {
+            CURRENT_CLIENT.remove();
+        } else {
+            CURRENT_CLIENT.set(client);
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        final String client = CURRENT_CLIENT.get();
+        if (replicaKeys.length == 0 || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            primaryConnections.incrementAndGet();
+            if (client != null && TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCommit() {
+                        recordWrite(client);
+                    }
+                });
+            }
+            return PRIMARY_KEY;
+        }
+        if (client != null) {
+            Long lastWrite = lastWrites.get(client);
+            if (lastWrite != null && System.currentTimeMillis() - lastWrite < GlobalSettings.REPLICA_READ_YOUR_WRITES_MILLIS) {
+                primaryConnections.incrementAndGet();
+                readYourWritesRoutes.incrementAndGet();
+                return PRIMARY_KEY;
+            }
+        }
+        replicaConnections.incrementAndGet();
+        // The mask keeps the index positive when the counter overflows
+        return replicaKeys[(nextReplica.getAndIncrement() & Integer.MAX_VALUE) % replicaKeys.length];
+    }
+
+    private void recordWrite(String client) {
+        long now = System.currentTimeMillis();
+        lastWrites.put(client, now);
+        if (lastWrites.size() > MAX_TRACKED_CLIENTS) {
+            for (Iterator<Long> iterator = lastWrites.values().iterator(); iterator.hasNext(); ) {
+                if (now - iterator.next() >= GlobalSettings.REPLICA_READ_YOUR_WRITES_MILLIS) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * The connection pools, by their routing keys, the primary first.
+     */
+    public Map<String, DataSource> getPools() {
+        return Collections.unmodifiableMap(pools);
+    }
+
+    public long getPrimaryConnections() {
+        return primaryConnections.get();
+    }
+
+    public long getReplicaConnections() {
+        return replicaConnections.get();
+    }
+
+    public long getReadYourWritesRoutes() {
+        return readYourWritesRoutes.get();
+    }
+}
@@ -10,6 +10,7 @@ import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
 import org.springframework.web.filter.DelegatingFilterProxy;
 import org.springframework.web.servlet.DispatcherServlet;
+import com.aemreunal.filter.GzipResponseFilter;
 
 /*
  **************************
@@ -43,6 +44,9 @@ public class WebAppInitializer implements WebApplicationInitializer {
         dispatcher.setLoadOnStartup(1);
         dispatcher.addMapping("/");
 
+        FilterRegistration.Dynamic gzipFilter = servletContext.addFilter("gzipResponseFilter", new GzipResponseFilter());
+        gzipFilter.addMappingForUrlPatterns(null, false, "/*");
+
 //        configureSpringSecurity(servletContext, webAppContext);
     }
 
@@ -18,11 +18,17 @@ package com.aemreunal.controller;
 
 import net.minidev.json.JSONObject;
 
+import org.springframework.data.mapping.PropertyReferenceException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import com.aemreunal.exception.ConcurrentUpdateException;
+import com.aemreunal.exception.HashingQueueFullException;
 import com.aemreunal.exception.MalformedRequestException;
+import com.aemreunal.exception.purge.PurgeJobNotFoundException;
 import com.aemreunal.helper.JsonBuilder;
 
 @ControllerAdvice
@@ -34,4 +40,53 @@ public class GeneralControllerAdvice {
                                                    .build();
         return new ResponseEntity<JSONObject>(responseBody, HttpStatus.BAD_REQUEST);
     }
+
+    /*
+     * Thrown when the request body is not valid JSON, or has a value of the wrong type
+     */
+    @ExceptionHandler(HttpMessageNotReadableException.class)
+    public ResponseEntity<JSONObject> messageNotReadableExceptionHandler(HttpMessageNotReadableException ex) {
+        JSONObject responseBody = new JsonBuilder().add("reason", "request")
+                                                   .add("error", new MalformedRequestException().getLocalizedMessage())
+                                                   .build();
+        return new ResponseEntity<JSONObject>(responseBody, HttpStatus.BAD_REQUEST);
+    }
+
+    /*
+     * Thrown when a collection is requested with a "sort" parameter that isn't a property
+     * of its elements
+     */
+    @ExceptionHandler(PropertyReferenceException.class)
+    public ResponseEntity<JSONObject> propertyReferenceExceptionHandler(PropertyReferenceException ex) {
+        JSONObject responseBody = new JsonBuilder().add("reason", "request")
+                                                   .add("error", ex.getLocalizedMessage())
+                                                   .build();
+        return new ResponseEntity<JSONObject>(responseBody, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(ConcurrentUpdateException.class)
+    public ResponseEntity<JSONObject> concurrentUpdateExceptionHandler(ConcurrentUpdateException ex) {
+        JSONObject responseBody = new JsonBuilder().add("reason", "conflict")
+                                                   .add("error", ex.getLocalizedMessage())
+                                                   .build();
+        return new ResponseEntity<JSONObject>(responseBody, HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(PurgeJobNotFoundException.class)
+    public ResponseEntity<JSONObject> purgeJobNotFoundExceptionHandler(PurgeJobNotFoundException ex) {
+        JSONObject responseBody = new JsonBuilder().add("reason", "purge")
+                                                   .add("error", ex.getLocalizedMessage())
+                                                   .build();
+        return new ResponseEntity<JSONObject>(responseBody, HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler(HashingQueueFullException.class)
+    public ResponseEntity<JSONObject> hashingQueueFullExceptionHandler(HashingQueueFullException ex) {
+        JSONObject responseBody = new JsonBuilder().add("reason", "busy")
+                                                   .add("error", ex.getLocalizedMessage())
+                                                   .build();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Retry-After", "1");
+        return new ResponseEntity<JSONObject>(responseBody, headers, HttpStatus.SERVICE_UNAVAILABLE);
+    }
 }
@@ -2,6 +2,9 @@ package com.aemreunal.controller.api;
 
 import net.minidev.json.JSONObject;
 
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -10,9 +13,19 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import com.aemreunal.config.GlobalSettings;
-import com.aemreunal.domain.Scenario;
-import com.aemreunal.exception.MalformedRequestException;
-import com.aemreunal.service.ScenarioService;
+import com.aemreunal.domain.Device;
+import com.aemreunal.exception.beacon.BeaconNotFoundException;
+import com.aemreunal.exception.scenario.NoScenarioForQueryException;
+import com.aemreunal.helper.JsonBuilder;
+import com.aemreunal.request.BeaconQuery;
+import com.aemreunal.request.BundleRequest;
+import com.aemreunal.request.DeviceRegistration;
+import com.aemreunal.service.AdmissionControlService;
+import com.aemreunal.service.BeaconQueryService;
+import com.aemreunal.service.DeviceService;
+import com.aemreunal.service.ProjectService;
+import com.aemreunal.service.ResolutionService;
+import com.aemreunal.service.SightingService;
 
 /*
  ***************************
@@ -34,38 +47,86 @@ import com.aemreunal.service.ScenarioService;
 @RequestMapping(GlobalSettings.API_PATH_MAPPING)
 public class APIController {
     @Autowired
-    private ScenarioService scenarioService;
+    private BeaconQueryService beaconQueryService;
+
+    @Autowired
+    private DeviceService deviceService;
+
+    @Autowired
+    private ProjectService projectService;
+
+    @Autowired
+    private ResolutionService resolutionService;
+
+    @Autowired
+    private AdmissionControlService admissionControlService;
+
+    @Autowired
+    private SightingService sightingService;
 
     /*
-     * Beacon query JSON example:
-     * {
-     *      "uuid":   <beacon UUID>
-     *      "major":  <beacon Major>
-     *      "minor":  <beacon Minor>
-     *      "secret": <project Secret>
-     * }
+     * See BeaconQuery for the request JSON.
      */
     @RequestMapping(method = RequestMethod.POST, value = GlobalSettings.API_BEACON_QUERY_PATH_MAPPING, produces = "application/json; charset=UTF-8")
-    public ResponseEntity<JSONObject> queryForScenario(@RequestBody JSONObject beaconQueryJson) {
-        verifyQueryRequest(beaconQueryJson);
-        Scenario scenario = getScenario(beaconQueryJson);
-        return new ResponseEntity<JSONObject>(scenario.generateQueryResponse(), HttpStatus.OK);
+    public ResponseEntity<JSONObject> queryForScenario(@RequestBody BeaconQuery query, HttpServletRequest request) {
+        // Rejects over-limit requests before any database or BCrypt work
+        admissionControlService.admit(query.getSecret(), request.getRemoteAddr());
+        try {
+            JSONObject response = beaconQueryService.queryForScenario(query.getUuid(), query.getMajor(), query.getMinor(), query.getSecret());
+            recordSighting(query);
+            return new ResponseEntity<JSONObject>(response, HttpStatus.OK);
+        } catch (BeaconNotFoundException | NoScenarioForQueryException e) {
+            // Even if the beacon has no scenario; it is only recorded if the secret has
+            // been verified and the beacon is in its project
+            recordSighting(query);
+            throw e;
+        } finally {
+            admissionControlService.release();
+        }
     }
 
-    private void verifyQueryRequest(JSONObject beaconQueryJson) {
-        if (!beaconQueryJson.containsKey("uuid") ||
-            !beaconQueryJson.containsKey("major") ||
-            !beaconQueryJson.containsKey("minor") ||
-            !beaconQueryJson.containsKey("secret")) {
-            throw new MalformedRequestException();
+    private void recordSighting(BeaconQuery query) {
+        try {
+            sightingService.recordSighting(query.getDeviceId(), query.getUuid(), query.getMajor(), query.getMinor(), query.getSecret());
+        } catch (RuntimeException e) {
+            // A failed sighting must not fail the query
+            System.err.println("Unable to record the sighting of a beacon query: " + e.getMessage());
         }
     }
 
-    private Scenario getScenario(JSONObject beaconQueryJson) {
-        String uuid = beaconQueryJson.get("uuid").toString().toUpperCase();
-        String major = beaconQueryJson.get("major").toString().toUpperCase();
-        String minor = beaconQueryJson.get("minor").toString().toUpperCase();
-        String secret = beaconQueryJson.get("secret").toString().toUpperCase();
-        return scenarioService.queryForScenario(uuid, major, minor, secret);
+    /*
+     * See DeviceRegistration for the request JSON.
+     */
+    @RequestMapping(method = RequestMethod.POST, value = GlobalSettings.API_REGISTER_DEVICE_PATH_MAPPING, produces = "application/json; charset=UTF-8")
+    public ResponseEntity<JSONObject> registerDevice(@RequestBody DeviceRegistration registration, HttpServletRequest request) {
+        admissionControlService.admit(registration.getSecret(), request.getRemoteAddr());
+        try {
+            Device device = deviceService.register(registration.getProjectId(), registration.getSecret(), registration.getToken());
+            JSONObject responseBody = new JsonBuilder().add("deviceId", device.getDeviceId())
+                                                       .add("token", device.getToken())
+                                                       .build();
+            return new ResponseEntity<JSONObject>(responseBody, HttpStatus.OK);
+        } finally {
+            admissionControlService.release();
+        }
+    }
+
+    /*
+     * See BundleRequest for the request JSON, and ResolutionService for the format of the
+     * bundle. The bundle is compressed by the GzipResponseFilter if the client accepts it.
+     */
+    @RequestMapping(method = RequestMethod.POST, value = GlobalSettings.API_BUNDLE_PATH_MAPPING)
+    public void getResolutionBundle(@RequestBody BundleRequest bundleRequest,
+                                    HttpServletRequest request,
+                                    HttpServletResponse response) throws IOException {
+        admissionControlService.admit(bundleRequest.getSecret(), request.getRemoteAddr());
+        try {
+            // Authenticate before the response is committed
+            projectService.findProjectByIdAndSecret(bundleRequest.getProjectId(), bundleRequest.getSecret());
+            response.setContentType("application/json;charset=UTF-8");
+            resolutionService.writeBundle(bundleRequest.getProjectId(), bundleRequest.getSinceVersion(), response.getOutputStream());
+        } finally {
+            admissionControlService.release();
+        }
     }
 }
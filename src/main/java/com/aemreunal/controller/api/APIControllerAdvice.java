@@ -2,10 +2,13 @@ package com.aemreunal.controller.api;
 
 import net.minidev.json.JSONObject;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import com.aemreunal.exception.RateLimitExceededException;
+import com.aemreunal.exception.push.InvalidDeviceTokenException;
 import com.aemreunal.exception.scenario.NoScenarioForQueryException;
 import com.aemreunal.helper.JsonBuilder;
 
@@ -34,4 +37,22 @@ public class APIControllerAdvice {
                                                    .build();
         return new ResponseEntity<JSONObject>(responseBody, HttpStatus.BAD_REQUEST);
     }
+
+    @ExceptionHandler(InvalidDeviceTokenException.class)
+    public ResponseEntity<JSONObject> invalidDeviceTokenExceptionHandler(InvalidDeviceTokenException ex) {
+        JSONObject responseBody = new JsonBuilder().add("reason", "device")
+                                                   .add("error", ex.getLocalizedMessage())
+                                                   .build();
+        return new ResponseEntity<JSONObject>(responseBody, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(RateLimitExceededException.class)
+    public ResponseEntity<JSONObject> rateLimitExceededExceptionHandler(RateLimitExceededException ex) {
+        JSONObject responseBody = new JsonBuilder().add("reason", "rateLimit")
+                                                   .add("error", ex.getLocalizedMessage())
+                                                   .build();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Retry-After", String.valueOf(ex.getRetryAfterSeconds()));
+        return new ResponseEntity<JSONObject>(responseBody, headers, HttpStatus.TOO_MANY_REQUESTS);
+    }
 }
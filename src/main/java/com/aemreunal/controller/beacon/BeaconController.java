@@ -1,8 +1,13 @@
 package com.aemreunal.controller.beacon;
 
+import net.minidev.json.JSONObject;
+
 import java.util.List;
+import javax.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.hateoas.mvc.ControllerLinkBuilder;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.hateoas.Link;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -11,13 +16,14 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.util.UriComponentsBuilder;
 import com.aemreunal.config.GlobalSettings;
-import com.aemreunal.controller.beaconGroup.BeaconGroupController;
-import com.aemreunal.controller.project.ProjectController;
-import com.aemreunal.controller.user.UserController;
 import com.aemreunal.domain.Beacon;
+import com.aemreunal.exception.MalformedRequestException;
+import com.aemreunal.helper.EntityVersion;
+import com.aemreunal.helper.LinkTemplates;
+import com.aemreunal.helper.Paging;
 import com.aemreunal.service.BeaconService;
-
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
+import com.aemreunal.service.ProjectService;
+import com.aemreunal.service.VisitService;
 
 /*
  **************************
@@ -41,6 +47,12 @@ public class BeaconController {
     @Autowired
     private BeaconService beaconService;
 
+    @Autowired
+    private ProjectService projectService;
+
+    @Autowired
+    private VisitService visitService;
+
     /**
      * Get all the {@link com.aemreunal.domain.Beacon beacons} that belong to the
      * specified {@link com.aemreunal.domain.Project project}. Returns an empty list if no
@@ -66,12 +78,16 @@ public class BeaconController {
      *     (Optional) The Major constraint for the beacon search
      * @param minor
      *     (Optional) The Minor constraint for the beacon search
+     * @param pageable
+     *     The requested page, given with the "page", "size" and "sort" parameters
+     * @param request
+     *     The request, to check whether the client already has the current list
      *
-     * @return If no optional parameters are specified, returns all the beacons that
-     * belong to a project (an empty list if the project has no beacons). If optional
-     * constraints are given, returns a list of all the matching beacons or throws a
-     * {@link com.aemreunal.exception.beacon.BeaconNotFoundException
-     * BeaconNotFoundException} if no beacons match the constraints.
+     * @return If no optional parameters are specified, returns the requested page of the
+     * beacons that belong to a project. If optional constraints are given, returns the
+     * requested page of the matching beacons. The page is empty if there are no such
+     * beacons, the total count is in the X-Total-Count header and the adjacent pages are
+     * in the Link header.
      */
     @Transactional
     @RequestMapping(method = RequestMethod.GET, produces = "application/json;charset=UTF-8")
@@ -79,13 +95,19 @@ public class BeaconController {
                                                             @PathVariable Long projectId,
                                                             @RequestParam(value = "uuid", required = false, defaultValue = "") String uuid,
                                                             @RequestParam(value = "major", required = false, defaultValue = "") String major,
-                                                            @RequestParam(value = "minor", required = false, defaultValue = "") String minor) {
+                                                            @RequestParam(value = "minor", required = false, defaultValue = "") String minor,
+                                                            Pageable pageable,
+                                                            HttpServletRequest request) {
+        EntityVersion version = projectService.getContentVersion(username, projectId);
+        if (version.isNotModified(request)) {
+            return version.toNotModifiedResponse();
+        }
         if (uuid.equals("") && major.equals("") && minor.equals("")) {
-            List<Beacon> beaconList = beaconService.getBeaconsOfProject(username, projectId);
-            return new ResponseEntity<List<Beacon>>(beaconList, HttpStatus.OK);
+            Page<Beacon> beacons = beaconService.getBeaconsOfProject(username, projectId, pageable);
+            return Paging.toResponse(beacons, version.toHeaders(), request);
         } else {
-            List<Beacon> beacons = beaconService.findBeaconsBySpecs(username, projectId, uuid, major, minor);
-            return new ResponseEntity<List<Beacon>>(beacons, HttpStatus.OK);
+            Page<Beacon> beacons = beaconService.findBeaconsBySpecs(username, projectId, uuid, major, minor, pageable);
+            return Paging.toResponse(beacons, version.toHeaders(), request);
         }
     }
 
@@ -98,25 +120,59 @@ public class BeaconController {
      *     The ID of the project
      * @param beaconId
      *     The ID of the beacon
+     * @param request
+     *     The request, to check whether the client already has the current version
      *
      * @return The beacon
      */
     @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.BEACON_ID_MAPPING, produces = "application/json;charset=UTF-8")
     public ResponseEntity<Beacon> getBeacon(@PathVariable String username,
                                             @PathVariable Long projectId,
-                                            @PathVariable Long beaconId) {
+                                            @PathVariable Long beaconId,
+                                            HttpServletRequest request) {
+        EntityVersion version = beaconService.getBeaconVersion(username, projectId, beaconId);
+        if (version.isNotModified(request)) {
+            return version.toNotModifiedResponse();
+        }
         Beacon beacon = beaconService.getBeacon(username, projectId, beaconId);
         addLinks(username, projectId, beacon);
-        return new ResponseEntity<Beacon>(beacon, HttpStatus.OK);
+        return new ResponseEntity<Beacon>(beacon, version.toHeaders(), HttpStatus.OK);
     }
 
     private void addLinks(String username, Long projectId, Beacon beacon) {
-        beacon.add(ControllerLinkBuilder.linkTo(methodOn(BeaconController.class).getBeacon(username, projectId, beacon.getBeaconId())).withSelfRel());
-        beacon.add(ControllerLinkBuilder.linkTo(methodOn(UserController.class).getUserByUsername(username)).withRel("owner"));
-        beacon.add(ControllerLinkBuilder.linkTo(methodOn(ProjectController.class).getProjectById(username, projectId)).withRel("project"));
+        beacon.add(LinkTemplates.BEACON.link(Link.REL_SELF, username, projectId, beacon.getBeaconId()));
+        beacon.add(LinkTemplates.USER.link("owner", username));
+        beacon.add(LinkTemplates.PROJECT.link("project", username, projectId));
         if (beacon.getGroup() != null) {
-            beacon.add(ControllerLinkBuilder.linkTo(methodOn(BeaconGroupController.class).viewBeaconGroup(username, projectId, beacon.getGroup().getBeaconGroupId())).withRel("group"));
+            beacon.add(LinkTemplates.BEACONGROUP.link("group", username, projectId, beacon.getGroup().getBeaconGroupId()));
+        }
+    }
+
+    /**
+     * Get the dwell time distribution of the visits to the specified beacon, built from
+     * the beacon queries of the devices. See VisitService.
+     *
+     * @param projectId
+     *     The ID of the project
+     * @param beaconId
+     *     The ID of the beacon
+     * @param days
+     *     (Optional) Only the visits that started in this many last days are included
+     *
+     * @return The number of visits, their average and longest dwell times, and the
+     * number of visits in each dwell time bucket
+     */
+    @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.BEACON_DWELL_MAPPING, produces = "application/json;charset=UTF-8")
+    public ResponseEntity<JSONObject> getBeaconDwell(@PathVariable String username,
+                                                     @PathVariable Long projectId,
+                                                     @PathVariable Long beaconId,
+                                                     @RequestParam(value = "days", required = false, defaultValue = "" + GlobalSettings.VISIT_DWELL_DEFAULT_DAYS) int days) {
+        if (days <= 0) {
+            throw new MalformedRequestException("days");
         }
+        // Throws if the beacon is not in the project of the user
+        beaconService.getBeacon(username, projectId, beaconId);
+        return new ResponseEntity<JSONObject>(visitService.getBeaconDwell(projectId, beaconId, days), HttpStatus.OK);
     }
 
     /**
@@ -17,7 +17,10 @@ package com.aemreunal.controller.beaconGroup;
  */
 
 import java.util.List;
+import javax.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -27,7 +30,12 @@ import org.springframework.web.util.UriComponentsBuilder;
 import com.aemreunal.config.GlobalSettings;
 import com.aemreunal.domain.Beacon;
 import com.aemreunal.domain.BeaconGroup;
+import com.aemreunal.helper.EntityVersion;
+import com.aemreunal.helper.NameMatch;
+import com.aemreunal.helper.Paging;
 import com.aemreunal.service.BeaconGroupService;
+import com.aemreunal.service.MembershipService;
+import com.aemreunal.service.ProjectService;
 
 @Controller
 @RequestMapping(GlobalSettings.BEACONGROUP_PATH_MAPPING)
@@ -35,24 +43,49 @@ public class BeaconGroupController {
     @Autowired
     private BeaconGroupService beaconGroupService;
 
+    @Autowired
+    private ProjectService projectService;
+
+    @Autowired
+    private MembershipService membershipService;
+
     /**
      * Get beacon groups that belong to a project.
      *
      * @param projectId
      *     The ID of the project
      *
-     * @return The list of beacon groups that belong to the project with the specified ID
+     * @param beaconGroupName
+     *     (Optional) The name of the beacon groups to search for
+     * @param match
+     *     (Optional) Whether the beacon group names should start with ("prefix") or
+     *     contain ("contains", the default) the given name
+     * @param pageable
+     *     The requested page, given with the "page", "size" and "sort" parameters
+     * @param request
+     *     The request, to check whether the client already has the current list
+     *
+     * @return The requested page of the beacon groups that belong to the project with
+     * the specified ID (Optionally, of the ones that match the given name), with their
+     * total count in the X-Total-Count header and the adjacent pages in the Link header
      */
     @RequestMapping(method = RequestMethod.GET, produces = "application/json")
     public ResponseEntity<List<BeaconGroup>> viewBeaconGroupsOfProject(@PathVariable String username,
                                                                        @PathVariable Long projectId,
-                                                                       @RequestParam(value = "name", required = false, defaultValue = "") String beaconGroupName) {
+                                                                       @RequestParam(value = "name", required = false, defaultValue = "") String beaconGroupName,
+                                                                       @RequestParam(value = "match", required = false, defaultValue = "contains") String match,
+                                                                       Pageable pageable,
+                                                                       HttpServletRequest request) {
+        EntityVersion version = projectService.getContentVersion(username, projectId);
+        if (version.isNotModified(request)) {
+            return version.toNotModifiedResponse();
+        }
         if (beaconGroupName.equals("")) {
-            List<BeaconGroup> beaconGroups = beaconGroupService.getAllBeaconGroupsOf(username, projectId);
-            return new ResponseEntity<List<BeaconGroup>>(beaconGroups, HttpStatus.OK);
+            Page<BeaconGroup> beaconGroups = beaconGroupService.getAllBeaconGroupsOf(username, projectId, pageable);
+            return Paging.toResponse(beaconGroups, version.toHeaders(), request);
         } else {
-            List<BeaconGroup> beaconGroups = beaconGroupService.findBeaconGroupsBySpecs(username, projectId, beaconGroupName);
-            return new ResponseEntity<List<BeaconGroup>>(beaconGroups, HttpStatus.OK);
+            Page<BeaconGroup> beaconGroups = beaconGroupService.findBeaconGroupsBySpecs(username, projectId, beaconGroupName, NameMatch.fromParameter(match), pageable);
+            return Paging.toResponse(beaconGroups, version.toHeaders(), request);
         }
     }
 
@@ -63,16 +96,23 @@ public class BeaconGroupController {
      *     The ID of the project
      * @param beaconGroupId
      *     The ID of the group
+     * @param request
+     *     The request, to check whether the client already has the current version
      *
      * @return The beacon group
      */
     @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.BEACONGROUP_ID_MAPPING, produces = "application/json")
     public ResponseEntity<BeaconGroup> viewBeaconGroup(@PathVariable String username,
                                                        @PathVariable Long projectId,
-                                                       @PathVariable Long beaconGroupId) {
+                                                       @PathVariable Long beaconGroupId,
+                                                       HttpServletRequest request) {
+        EntityVersion version = beaconGroupService.getBeaconGroupVersion(username, projectId, beaconGroupId);
+        if (version.isNotModified(request)) {
+            return version.toNotModifiedResponse();
+        }
         BeaconGroup beaconGroup = beaconGroupService.getBeaconGroup(username, projectId, beaconGroupId);
         // TODO add links
-        return new ResponseEntity<BeaconGroup>(beaconGroup, HttpStatus.OK);
+        return new ResponseEntity<BeaconGroup>(beaconGroup, version.toHeaders(), HttpStatus.OK);
     }
 
     /**
@@ -82,16 +122,27 @@ public class BeaconGroupController {
      *     The ID of the project to operate in
      * @param beaconGroupId
      *     The ID of the group
+     * @param pageable
+     *     The requested page, given with the "page", "size" and "sort" parameters
+     * @param request
+     *     The request, to check whether the client already has the current list
      *
-     * @return The list of beacons that belong to the group
+     * @return The requested page of the beacons that belong to the group
      */
     // TODO maybe return just the list of Beacon IDs, queried from beacon_groups_to_beacon
     @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.BEACONGROUP_MEMBERS_MAPPING, produces = "application/json")
     public ResponseEntity<List<Beacon>> viewBeaconGroupMembers(@PathVariable String username,
                                                                @PathVariable Long projectId,
-                                                               @PathVariable Long beaconGroupId) {
-        List<Beacon> beaconList = beaconGroupService.getMembersOfBeaconGroup(username, projectId, beaconGroupId);
-        return new ResponseEntity<List<Beacon>>(beaconList, HttpStatus.OK);
+                                                               @PathVariable Long beaconGroupId,
+                                                               Pageable pageable,
+                                                               HttpServletRequest request) {
+        // Membership changes are covered by the content version of the project
+        EntityVersion version = beaconGroupService.getBeaconGroupVersion(username, projectId, beaconGroupId);
+        if (version.isNotModified(request)) {
+            return version.toNotModifiedResponse();
+        }
+        Page<Beacon> beacons = beaconGroupService.getMembersOfBeaconGroup(username, projectId, beaconGroupId, pageable);
+        return Paging.toResponse(beacons, version.toHeaders(), request);
     }
 
     /**
@@ -155,7 +206,7 @@ public class BeaconGroupController {
                                                         @PathVariable Long projectId,
                                                         @PathVariable Long beaconGroupId,
                                                         @RequestParam(value = "beaconId", required = true) Long beaconId) {
-        BeaconGroup beaconGroup = beaconGroupService.addBeaconToGroup(username, projectId, beaconGroupId, beaconId);
+        BeaconGroup beaconGroup = membershipService.addBeaconToGroup(username, projectId, beaconGroupId, beaconId);
         return new ResponseEntity<BeaconGroup>(beaconGroup, HttpStatus.OK);
     }
 
@@ -180,7 +231,7 @@ public class BeaconGroupController {
                                                              @PathVariable Long projectId,
                                                              @PathVariable Long beaconGroupId,
                                                              @RequestParam(value = "beaconId", required = true) Long beaconId) {
-        BeaconGroup beaconGroup = beaconGroupService.removeBeaconFromGroup(username, projectId, beaconGroupId, beaconId);
+        BeaconGroup beaconGroup = membershipService.removeBeaconFromGroup(username, projectId, beaconGroupId, beaconId);
         return new ResponseEntity<BeaconGroup>(beaconGroup, HttpStatus.OK);
     }
 
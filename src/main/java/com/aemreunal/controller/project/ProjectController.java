@@ -2,10 +2,20 @@ package com.aemreunal.controller.project;
 
 import net.minidev.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.transaction.Transactional;
 import javax.validation.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.hateoas.Link;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -13,14 +23,20 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.util.UriComponentsBuilder;
 import com.aemreunal.config.GlobalSettings;
-import com.aemreunal.controller.beacon.BeaconController;
-import com.aemreunal.controller.beaconGroup.BeaconGroupController;
-import com.aemreunal.controller.user.UserController;
 import com.aemreunal.domain.Project;
+import com.aemreunal.domain.PurgeJob;
+import com.aemreunal.helper.EntityVersion;
+import com.aemreunal.helper.JsonBuilder;
+import com.aemreunal.helper.LinkTemplates;
+import com.aemreunal.helper.NameMatch;
+import com.aemreunal.helper.Paging;
+import com.aemreunal.helper.PurgeJobs;
+import com.aemreunal.service.BeaconGroupService;
+import com.aemreunal.service.HeatmapService;
 import com.aemreunal.service.ProjectService;
-
-import static org.springframework.hateoas.core.DummyInvocationUtils.methodOn;
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
+import com.aemreunal.service.ProjectTransferService;
+import com.aemreunal.service.SightingStoreService;
+import com.aemreunal.service.TriggerRollupService;
 
 /*
  **************************
@@ -44,6 +60,21 @@ public class ProjectController {
     @Autowired
     private ProjectService projectService;
 
+    @Autowired
+    private ProjectTransferService projectTransferService;
+
+    @Autowired
+    private TriggerRollupService triggerRollupService;
+
+    @Autowired
+    private HeatmapService heatmapService;
+
+    @Autowired
+    private BeaconGroupService beaconGroupService;
+
+    @Autowired
+    private SightingStoreService sightingStoreService;
+
     /**
      * Get all projects of the user. Optionally the user may search their projects by
      * name
@@ -52,16 +83,32 @@ public class ProjectController {
      *     The username of the owner of the projects
      * @param projectName
      *     (Optional) The name of the project
+     * @param match
+     *     (Optional) Whether the project names should start with ("prefix") or contain
+     *     ("contains", the default) the given name
+     * @param pageable
+     *     The requested page, given with the "page", "size" and "sort" parameters
+     * @param request
+     *     The request, to check whether the client already has the current list
      *
-     * @return All existing projects (Optionally, all that match the given criteria)
+     * @return The requested page of the projects (Optionally, of the ones that match the
+     * given criteria), with their total count in the X-Total-Count header and the
+     * adjacent pages in the Link header
      */
     @RequestMapping(method = RequestMethod.GET, produces = "application/json;charset=UTF-8")
     public ResponseEntity<List<Project>> getAllProjectsOfUser(@PathVariable String username,
-                                                              @RequestParam(value = "name", required = false, defaultValue = "") String projectName) {
+                                                              @RequestParam(value = "name", required = false, defaultValue = "") String projectName,
+                                                              @RequestParam(value = "match", required = false, defaultValue = "contains") String match,
+                                                              Pageable pageable,
+                                                              HttpServletRequest request) {
+        EntityVersion version = projectService.getProjectsVersion(username);
+        if (version.isNotModified(request)) {
+            return version.toNotModifiedResponse();
+        }
         if (projectName.equals("")) {
-            return new ResponseEntity<List<Project>>(projectService.findAllProjectsOf(username), HttpStatus.OK);
+            return Paging.toResponse(projectService.findAllProjectsOf(username, pageable), version.toHeaders(), request);
         } else {
-            return getProjectsWithMatchingCriteria(username, projectName);
+            return getProjectsWithMatchingCriteria(username, projectName, NameMatch.fromParameter(match), pageable, version, request);
         }
     }
 
@@ -72,12 +119,25 @@ public class ProjectController {
      *     The username of the owner of the projects
      * @param projectName
      *     (Optional) The name of the project
+     * @param match
+     *     Whether the project names should start with or contain the given name
+     * @param pageable
+     *     The requested page
+     * @param version
+     *     The version of the projects of the user
+     * @param request
+     *     The request, to link the adjacent pages
      *
-     * @return The list of projects that match the given criteria
+     * @return The requested page of the projects that match the given criteria
      */
-    private ResponseEntity<List<Project>> getProjectsWithMatchingCriteria(String username, String projectName) {
-        List<Project> projects = projectService.findProjectsBySpecs(username, projectName);
-        return new ResponseEntity<List<Project>>(projects, HttpStatus.OK);
+    private ResponseEntity<List<Project>> getProjectsWithMatchingCriteria(String username,
+                                                                          String projectName,
+                                                                          NameMatch match,
+                                                                          Pageable pageable,
+                                                                          EntityVersion version,
+                                                                          HttpServletRequest request) {
+        Page<Project> projects = projectService.findProjectsBySpecs(username, projectName, match, pageable);
+        return Paging.toResponse(projects, version.toHeaders(), request);
     }
 
     /**
@@ -85,14 +145,130 @@ public class ProjectController {
      *
      * @param projectId
      *     The ID of the project
+     * @param request
+     *     The request, to check whether the client already has the current version
      *
      * @return The project
      */
     @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.PROJECT_ID_MAPPING, produces = "application/json;charset=UTF-8")
     public ResponseEntity<Project> getProjectById(@PathVariable String username,
-                                                  @PathVariable Long projectId) {
+                                                  @PathVariable Long projectId,
+                                                  HttpServletRequest request) {
+        EntityVersion version = projectService.getProjectVersion(username, projectId);
+        if (version.isNotModified(request)) {
+            return version.toNotModifiedResponse();
+        }
         Project project = projectService.findProjectById(username, projectId);
-        return new ResponseEntity<Project>(addLinks(project), HttpStatus.OK);
+        return new ResponseEntity<Project>(addLinks(project), version.toHeaders(), HttpStatus.OK);
+    }
+
+    /**
+     * Get the trigger counts of the project, i.e. how many times the beacons of the
+     * project were sighted while they resolved to a scenario, per time bucket and
+     * scenario. The counts are read from pre-aggregated rollups, so the response time
+     * doesn't depend on the number of sightings. See TriggerRollupService.
+     *
+     * @param projectId
+     *     The ID of the project
+     * @param granularity
+     *     (Optional) The length of the buckets, "minute", "hour" (the default) or "day"
+     * @param days
+     *     (Optional) The number of last days to cover, 1 by default
+     * @param scenarioId
+     *     (Optional) Only counts the triggers of this scenario
+     * @param beaconId
+     *     (Optional) Only counts the triggers of this beacon
+     *
+     * @return The trigger counts, ordered by the start of their buckets
+     */
+    @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.PROJECT_TRIGGERS_MAPPING, produces = "application/json;charset=UTF-8")
+    public ResponseEntity<JSONObject> getTriggerCounts(@PathVariable String username,
+                                                       @PathVariable Long projectId,
+                                                       @RequestParam(value = "granularity", required = false, defaultValue = "hour") String granularity,
+                                                       @RequestParam(value = "days", required = false, defaultValue = "1") int days,
+                                                       @RequestParam(value = "scenarioId", required = false) Long scenarioId,
+                                                       @RequestParam(value = "beaconId", required = false) Long beaconId) {
+        // Throws if the project doesn't belong to the user
+        projectService.getProjectVersion(username, projectId);
+        JSONObject responseBody = triggerRollupService.getTriggerCounts(projectId, granularity, days, scenarioId, beaconId);
+        return new ResponseEntity<JSONObject>(responseBody, HttpStatus.OK);
+    }
+
+    /**
+     * Get the room heatmap of the project, i.e. how many distinct devices sighted the
+     * location beacons (major 0) of each room (the minor of the beacons), per hour of each
+     * day, in UTC. The heatmap is built from in-memory hourly counters, and only covers
+     * the hours that have closed. See HeatmapService.
+     *
+     * @param projectId
+     *     The ID of the project
+     * @param days
+     *     (Optional) The number of last days to cover, including today, 7 by default
+     *
+     * @return The start of the first day, the room IDs, and the device counts indexed by
+     * day, room and hour of day
+     */
+    @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.PROJECT_HEATMAP_MAPPING, produces = "application/json;charset=UTF-8")
+    public ResponseEntity<JSONObject> getHeatmap(@PathVariable String username,
+                                                 @PathVariable Long projectId,
+                                                 @RequestParam(value = "days", required = false, defaultValue = "" + GlobalSettings.HEATMAP_DEFAULT_DAYS) int days) {
+        // Throws if the project doesn't belong to the user
+        projectService.getProjectVersion(username, projectId);
+        JSONObject responseBody = heatmapService.getHeatmap(projectId, days);
+        return new ResponseEntity<JSONObject>(responseBody, HttpStatus.OK);
+    }
+
+    /**
+     * Aggregate the recent sightings of the project, i.e. count the sightings, or the
+     * distinct devices that sighted the beacons, per beacon or per hour. The sightings
+     * are scanned in the in-memory columnar store of the server instance, so only the
+     * sightings it received are counted. See SightingStoreService.
+     *
+     * @param projectId
+     *     The ID of the project
+     * @param from
+     *     (Optional) The start of the time range in milliseconds, inclusive, 24 hours ago
+     *     by default
+     * @param to
+     *     (Optional) The end of the time range in milliseconds, exclusive, now by default
+     * @param beaconGroupId
+     *     (Optional) Only counts the sightings of the beacons of this beacon group
+     * @param beaconId
+     *     (Optional) Only counts the sightings of this beacon
+     * @param groupBy
+     *     (Optional) "beacon" (the default) or "hour"
+     * @param metric
+     *     (Optional) "devices" (the default) or "sightings"
+     * @param min
+     *     (Optional) Only returns the groups with at least this count, 1 by default
+     *
+     * @return The groups and their counts, largest first
+     */
+    @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.PROJECT_SIGHTINGS_MAPPING, produces = "application/json;charset=UTF-8")
+    public ResponseEntity<JSONObject> getSightings(@PathVariable String username,
+                                                   @PathVariable Long projectId,
+                                                   @RequestParam(value = "from", required = false) Long from,
+                                                   @RequestParam(value = "to", required = false) Long to,
+                                                   @RequestParam(value = "beaconGroupId", required = false) Long beaconGroupId,
+                                                   @RequestParam(value = "beaconId", required = false) Long beaconId,
+                                                   @RequestParam(value = "groupBy", required = false, defaultValue = "beacon") String groupBy,
+                                                   @RequestParam(value = "metric", required = false, defaultValue = "devices") String metric,
+                                                   @RequestParam(value = "min", required = false, defaultValue = "1") long min) {
+        // Throws if the project doesn't belong to the user
+        projectService.getProjectVersion(username, projectId);
+        Collection<Long> beaconIds = null;
+        if (beaconGroupId != null) {
+            beaconIds = beaconGroupService.getMemberIdsOfBeaconGroup(username, projectId, beaconGroupId);
+            if (beaconId != null) {
+                beaconIds = beaconIds.contains(beaconId) ? Collections.singletonList(beaconId) : Collections.<Long>emptyList();
+            }
+        } else if (beaconId != null) {
+            beaconIds = Collections.singletonList(beaconId);
+        }
+        long toMillis = to == null ? System.currentTimeMillis() : to;
+        long fromMillis = from == null ? toMillis - TimeUnit.HOURS.toMillis(GlobalSettings.SIGHTING_STORE_DEFAULT_HOURS) : from;
+        JSONObject responseBody = sightingStoreService.query(projectId, fromMillis, toMillis, beaconIds, groupBy, metric, min);
+        return new ResponseEntity<JSONObject>(responseBody, HttpStatus.OK);
     }
 
     /**
@@ -166,13 +342,71 @@ public class ProjectController {
     private Project addLinks(Project project) {
         String username = project.getOwner().getUsername();
         Long projectId = project.getProjectId();
-        project.getLinks().add(linkTo(methodOn(ProjectController.class).getProjectById(username, projectId)).withSelfRel());
-        project.getLinks().add(linkTo(methodOn(BeaconController.class).getBeaconsOfProject(username, projectId, "", "", "")).withRel("beacons"));
-        project.getLinks().add(linkTo(methodOn(BeaconGroupController.class).viewBeaconGroupsOfProject(username, projectId, "")).withRel("groups"));
-        project.getLinks().add(linkTo(methodOn(UserController.class).getUserByUsername(username)).withRel("owner"));
+        project.getLinks().add(LinkTemplates.PROJECT.link(Link.REL_SELF, username, projectId));
+        project.getLinks().add(LinkTemplates.BEACONS.link("beacons", username, projectId));
+        project.getLinks().add(LinkTemplates.BEACONGROUPS.link("groups", username, projectId));
+        project.getLinks().add(LinkTemplates.USER.link("owner", username));
         return project;
     }
 
+    /**
+     * Export the project, along with all its scenarios, beacon groups and beacons, as
+     * line-delimited JSON. The export is streamed to the client as it is read from the
+     * database. See {@link com.aemreunal.service.ProjectTransferService
+     * ProjectTransferService} for the format.
+     *
+     * @param username
+     *     The username of the owner of the project
+     * @param projectId
+     *     The ID of the project to export
+     * @param response
+     *     The response to stream the export into
+     */
+    @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.PROJECT_EXPORT_MAPPING)
+    public void exportProject(@PathVariable String username,
+                              @PathVariable Long projectId,
+                              HttpServletResponse response) throws IOException {
+        // Verify the project exists before the response is committed
+        projectService.findProjectById(username, projectId);
+        response.setContentType("application/x-ndjson;charset=UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"project-" + projectId + ".ndjson\"");
+        projectTransferService.exportProject(username, projectId, response.getOutputStream());
+    }
+
+    /**
+     * Create a new project from an export of a project, with all the scenarios, beacon
+     * groups and beacons in the export and the memberships between them. The new
+     * project gets a new secret, which is returned once, like when a project is created.
+     * An export with two beacons of the same UUID, major and minor is rejected as a
+     * whole.
+     *
+     * @param username
+     *     The username of the owner of the new project
+     * @param exportStream
+     *     The export, as line-delimited JSON
+     * @param builder
+     *     The URI builder for post-creation redirect
+     *
+     * @return A summary of the imported project, with its secret
+     */
+    @RequestMapping(method = RequestMethod.POST, value = GlobalSettings.PROJECT_IMPORT_MAPPING, produces = "application/json;charset=UTF-8")
+    public ResponseEntity<JSONObject> importProject(@PathVariable String username,
+                                                    InputStream exportStream,
+                                                    UriComponentsBuilder builder) {
+        ProjectTransferService.ImportSummary summary = projectTransferService.importProject(username, exportStream);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setLocation(builder.path(GlobalSettings.PROJECT_SPECIFIC_MAPPING)
+                                   .buildAndExpand(username, summary.getProjectId().toString())
+                                   .toUri());
+        JSONObject responseBody = new JsonBuilder().add("projectId", summary.getProjectId())
+                                                   .add("secret", summary.getSecret())
+                                                   .add("scenarios", summary.getScenarios())
+                                                   .add("beaconGroups", summary.getBeaconGroups())
+                                                   .add("beacons", summary.getBeacons())
+                                                   .build();
+        return new ResponseEntity<JSONObject>(responseBody, headers, HttpStatus.CREATED);
+    }
+
     /**
      * Delete the specified project, along with all the beacons, beacon groups and
      * scenarios in the project.
@@ -187,17 +421,18 @@ public class ProjectController {
      * @param confirmation
      *     The confirmation parameter
      *
-     * @return
+     * @return The purge job of the project, whose status is at the Location header
      */
     @RequestMapping(method = RequestMethod.DELETE, value = GlobalSettings.PROJECT_ID_MAPPING)
-    public ResponseEntity<Project> deleteProject(@PathVariable String username,
-                                                 @PathVariable Long projectId,
-                                                 @RequestParam(value = "confirm", required = true) String confirmation) {
+    public ResponseEntity<PurgeJob> deleteProject(@PathVariable String username,
+                                                  @PathVariable Long projectId,
+                                                  @RequestParam(value = "confirm", required = true) String confirmation,
+                                                  UriComponentsBuilder builder) {
         if (confirmation.toLowerCase().equals("yes")) {
-            Project deletedProject = projectService.delete(username, projectId);
-            return new ResponseEntity<Project>(deletedProject, HttpStatus.OK);
+            PurgeJob purgeJob = projectService.delete(username, projectId);
+            return new ResponseEntity<PurgeJob>(purgeJob, PurgeJobs.locationOf(builder, purgeJob), HttpStatus.OK);
         } else {
-            return new ResponseEntity<Project>(HttpStatus.PRECONDITION_FAILED);
+            return new ResponseEntity<PurgeJob>(HttpStatus.PRECONDITION_FAILED);
         }
     }
 }
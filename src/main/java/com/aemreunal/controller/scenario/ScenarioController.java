@@ -16,10 +16,14 @@ package com.aemreunal.controller.scenario;
  ***************************
  */
 
+import net.minidev.json.JSONObject;
+
 import java.util.List;
-import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.hateoas.mvc.ControllerLinkBuilder;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.hateoas.Link;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -27,15 +31,22 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.util.UriComponentsBuilder;
 import com.aemreunal.config.GlobalSettings;
-import com.aemreunal.controller.project.ProjectController;
-import com.aemreunal.controller.user.UserController;
 import com.aemreunal.domain.Beacon;
 import com.aemreunal.domain.BeaconGroup;
 import com.aemreunal.domain.Scenario;
+import com.aemreunal.exception.MalformedRequestException;
+import com.aemreunal.exception.push.PushNotEnabledException;
+import com.aemreunal.exception.push.PushQueueFullException;
 import com.aemreunal.exception.scenario.*;
+import com.aemreunal.helper.EntityVersion;
+import com.aemreunal.helper.JsonBuilder;
+import com.aemreunal.helper.LinkTemplates;
+import com.aemreunal.helper.Paging;
+import com.aemreunal.service.MembershipService;
+import com.aemreunal.service.ProjectService;
+import com.aemreunal.service.PushService;
 import com.aemreunal.service.ScenarioService;
-
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
+import com.aemreunal.service.VisitService;
 
 @Controller
 @RequestMapping(GlobalSettings.SCENARIO_PATH_MAPPING)
@@ -43,27 +54,50 @@ public class ScenarioController {
     @Autowired
     private ScenarioService scenarioService;
 
+    @Autowired
+    private ProjectService projectService;
+
+    @Autowired
+    private MembershipService membershipService;
+
+    @Autowired
+    private PushService pushService;
+
+    @Autowired
+    private VisitService visitService;
+
     // TODO add search by attributes
     @RequestMapping(method = RequestMethod.GET, produces = "application/json;charset=UTF-8")
     public ResponseEntity<List<Scenario>> getAllScenariosOfUser(@PathVariable String username,
-                                                                @PathVariable Long projectId) {
-        List<Scenario> scenarios = scenarioService.getScenariosOfProject(username, projectId);
-        return new ResponseEntity<List<Scenario>>(scenarios, HttpStatus.OK);
+                                                                @PathVariable Long projectId,
+                                                                Pageable pageable,
+                                                                HttpServletRequest request) {
+        EntityVersion version = projectService.getContentVersion(username, projectId);
+        if (version.isNotModified(request)) {
+            return version.toNotModifiedResponse();
+        }
+        Page<Scenario> scenarios = scenarioService.getScenariosOfProject(username, projectId, pageable);
+        return Paging.toResponse(scenarios, version.toHeaders(), request);
     }
 
     @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.SCENARIO_ID_MAPPING, produces = "application/json;charset=UTF-8")
     public ResponseEntity<Scenario> getScenario(@PathVariable String username,
                                                 @PathVariable Long projectId,
-                                                @PathVariable Long scenarioId) {
+                                                @PathVariable Long scenarioId,
+                                                HttpServletRequest request) {
+        EntityVersion version = scenarioService.getScenarioVersion(username, projectId, scenarioId);
+        if (version.isNotModified(request)) {
+            return version.toNotModifiedResponse();
+        }
         Scenario scenario = scenarioService.getScenario(username, projectId, scenarioId);
         addLinks(username, projectId, scenarioId, scenario);
-        return new ResponseEntity<Scenario>(scenario, HttpStatus.OK);
+        return new ResponseEntity<Scenario>(scenario, version.toHeaders(), HttpStatus.OK);
     }
 
     private void addLinks(String username, Long projectId, Long scenarioId, Scenario scenario) {
-        scenario.add(ControllerLinkBuilder.linkTo(methodOn(ScenarioController.class).getScenario(username, projectId, scenarioId)).withSelfRel());
-        scenario.add(ControllerLinkBuilder.linkTo(methodOn(UserController.class).getUserByUsername(username)).withRel("owner"));
-        scenario.add(ControllerLinkBuilder.linkTo(methodOn(ProjectController.class).getProjectById(username, projectId)).withRel("project"));
+        scenario.add(LinkTemplates.SCENARIO.link(Link.REL_SELF, username, projectId, scenarioId));
+        scenario.add(LinkTemplates.USER.link("owner", username));
+        scenario.add(LinkTemplates.PROJECT.link("project", username, projectId));
     }
 
     @RequestMapping(method = RequestMethod.POST, produces = "application/json;charset=UTF-8")
@@ -96,7 +130,7 @@ public class ScenarioController {
                                                       @PathVariable Long scenarioId,
                                                       @RequestParam(value = "beaconId", required = true) Long beaconId)
     throws BeaconHasScenarioException, BeaconWithGroupScenarioException {
-        Beacon beacon = scenarioService.addBeaconToScenario(username, projectId, scenarioId, beaconId);
+        Beacon beacon = membershipService.addBeaconToScenario(username, projectId, scenarioId, beaconId);
         return new ResponseEntity<Beacon>(beacon, HttpStatus.OK);
     }
 
@@ -106,7 +140,7 @@ public class ScenarioController {
                                                            @PathVariable Long scenarioId,
                                                            @RequestParam(value = "beaconId", required = true) Long beaconId)
     throws BeaconDoesntHaveScenarioException, BeaconHasScenarioException, BeaconWithGroupScenarioException {
-        Beacon beacon = scenarioService.removeBeaconFromScenario(username, projectId, scenarioId, beaconId);
+        Beacon beacon = membershipService.removeBeaconFromScenario(username, projectId, scenarioId, beaconId);
         return new ResponseEntity<Beacon>(beacon, HttpStatus.OK);
 
     }
@@ -117,7 +151,7 @@ public class ScenarioController {
                                                                 @PathVariable Long scenarioId,
                                                                 @RequestParam(value = "beaconGroupId", required = true) Long beaconGroupId)
     throws BeaconGroupHasScenarioException {
-        BeaconGroup beaconGroup = scenarioService.addBeaconGroupToScenario(username, projectId, scenarioId, beaconGroupId);
+        BeaconGroup beaconGroup = membershipService.addBeaconGroupToScenario(username, projectId, scenarioId, beaconGroupId);
         return new ResponseEntity<BeaconGroup>(beaconGroup, HttpStatus.OK);
     }
 
@@ -127,25 +161,90 @@ public class ScenarioController {
                                                                      @PathVariable Long scenarioId,
                                                                      @RequestParam(value = "beaconGroupId", required = true) Long beaconGroupId)
     throws BeaconGroupHasScenarioException, BeaconGroupDoesntHaveScenarioException {
-        BeaconGroup beaconGroup = scenarioService.removeBeaconGroupFromScenario(username, projectId, scenarioId, beaconGroupId);
+        BeaconGroup beaconGroup = membershipService.removeBeaconGroupFromScenario(username, projectId, scenarioId, beaconGroupId);
         return new ResponseEntity<BeaconGroup>(beaconGroup, HttpStatus.OK);
     }
 
     @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.SCENARIO_MEMBER_BEACONS_MAPPING, produces = "application/json;charset=UTF-8")
-    public ResponseEntity<Set<Beacon>> getMemberBeacons(@PathVariable String username,
-                                                        @PathVariable Long projectId,
-                                                        @PathVariable Long scenarioId) {
-        Set<Beacon> beacons = scenarioService.getBeaconsInScenario(username, projectId, scenarioId);
-        return new ResponseEntity<Set<Beacon>>(beacons, HttpStatus.OK);
+    public ResponseEntity<List<Beacon>> getMemberBeacons(@PathVariable String username,
+                                                         @PathVariable Long projectId,
+                                                         @PathVariable Long scenarioId,
+                                                         Pageable pageable,
+                                                         HttpServletRequest request) {
+        EntityVersion version = scenarioService.getScenarioVersion(username, projectId, scenarioId);
+        if (version.isNotModified(request)) {
+            return version.toNotModifiedResponse();
+        }
+        Page<Beacon> beacons = scenarioService.getBeaconsInScenario(username, projectId, scenarioId, pageable);
+        return Paging.toResponse(beacons, version.toHeaders(), request);
     }
 
     @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.SCENARIO_MEMBER_BEACONGROUPS_MAPPING, produces = "application/json;charset=UTF-8")
-    public ResponseEntity<Set<BeaconGroup>> getMemberBeaconGroups(@PathVariable String username,
-                                                                  @PathVariable Long projectId,
-                                                                  @PathVariable Long scenarioId) {
-        Set<BeaconGroup> beaconGroups = scenarioService.getBeaconGroupsInScenario(username, projectId, scenarioId);
-        return new ResponseEntity<Set<BeaconGroup>>(beaconGroups, HttpStatus.OK);
+    public ResponseEntity<List<BeaconGroup>> getMemberBeaconGroups(@PathVariable String username,
+                                                                   @PathVariable Long projectId,
+                                                                   @PathVariable Long scenarioId,
+                                                                   Pageable pageable,
+                                                                   HttpServletRequest request) {
+        EntityVersion version = scenarioService.getScenarioVersion(username, projectId, scenarioId);
+        if (version.isNotModified(request)) {
+            return version.toNotModifiedResponse();
+        }
+        Page<BeaconGroup> beaconGroups = scenarioService.getBeaconGroupsInScenario(username, projectId, scenarioId, pageable);
+        return Paging.toResponse(beaconGroups, version.toHeaders(), request);
+    }
 
+    /**
+     * Push the scenario to every iOS device registered to the project. The push is only
+     * queued here; it is delivered in the background, so the response does not depend
+     * on the number of registered devices.
+     *
+     * @param projectId
+     *     The ID of the project
+     * @param scenarioId
+     *     The ID of the scenario to push
+     *
+     * @return 202 (Accepted) once the push is queued, 503 (Service Unavailable) if the
+     * push queue is full or push notifications are not enabled
+     */
+    @RequestMapping(method = RequestMethod.POST, value = GlobalSettings.SCENARIO_PUSH_MAPPING, produces = "application/json;charset=UTF-8")
+    public ResponseEntity<JSONObject> pushScenario(@PathVariable String username,
+                                                   @PathVariable Long projectId,
+                                                   @PathVariable Long scenarioId)
+    throws PushQueueFullException, PushNotEnabledException {
+        Scenario scenario = scenarioService.getScenario(username, projectId, scenarioId);
+        pushService.pushScenario(scenario);
+        JSONObject responseBody = new JsonBuilder().add("scenarioId", scenarioId)
+                                                   .add("status", "queued")
+                                                   .build();
+        return new ResponseEntity<JSONObject>(responseBody, HttpStatus.ACCEPTED);
+    }
+
+    /**
+     * Get the dwell time distribution of the visits to the beacons of the specified
+     * scenario, built from the beacon queries of the devices. A visit counts towards the
+     * scenario its beacon resolved to when the visit started. See VisitService.
+     *
+     * @param projectId
+     *     The ID of the project
+     * @param scenarioId
+     *     The ID of the scenario
+     * @param days
+     *     (Optional) Only the visits that started in this many last days are included
+     *
+     * @return The number of visits, their average and longest dwell times, and the
+     * number of visits in each dwell time bucket
+     */
+    @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.SCENARIO_DWELL_MAPPING, produces = "application/json;charset=UTF-8")
+    public ResponseEntity<JSONObject> getScenarioDwell(@PathVariable String username,
+                                                       @PathVariable Long projectId,
+                                                       @PathVariable Long scenarioId,
+                                                       @RequestParam(value = "days", required = false, defaultValue = "" + GlobalSettings.VISIT_DWELL_DEFAULT_DAYS) int days) {
+        if (days <= 0) {
+            throw new MalformedRequestException("days");
+        }
+        // Throws if the scenario is not in the project of the user
+        scenarioService.getScenario(username, projectId, scenarioId);
+        return new ResponseEntity<JSONObject>(visitService.getScenarioDwell(projectId, scenarioId, days), HttpStatus.OK);
     }
 
     @RequestMapping(method = RequestMethod.DELETE, value = GlobalSettings.SCENARIO_ID_MAPPING, produces = "application/json;charset=UTF-8")
@@ -28,6 +28,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import com.aemreunal.exception.push.PushNotEnabledException;
+import com.aemreunal.exception.push.PushQueueFullException;
 import com.aemreunal.exception.scenario.*;
 import com.aemreunal.helper.JsonBuilder;
 
@@ -84,6 +86,14 @@ public class ScenarioControllerAdvice {
         return new ResponseEntity<JSONObject>(responseBody, HttpStatus.BAD_REQUEST);
     }
 
+    @ExceptionHandler(value = { PushQueueFullException.class, PushNotEnabledException.class })
+    public ResponseEntity<JSONObject> pushUnavailableExceptionHandler(IllegalStateException ex) {
+        JSONObject responseBody = new JsonBuilder().add("reason", "push")
+                                                   .add("error", ex.getLocalizedMessage())
+                                                   .build();
+        return new ResponseEntity<JSONObject>(responseBody, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     @ExceptionHandler(ConstraintViolationException.class)
     public ResponseEntity<JSONObject> constraintViolationExceptionHandler(ConstraintViolationException ex) {
         JSONObject responseBody = new JsonBuilder().add("reason", "scenario")
@@ -0,0 +1,257 @@
+package com.aemreunal.controller.status;
+
+import net.minidev.json.JSONObject;
+
+import java.util.Map;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.config.ReplicaRoutingDataSource;
+import com.aemreunal.domain.PurgeJob;
+import com.aemreunal.helper.JsonBuilder;
+import com.aemreunal.service.AdmissionControlService;
+import com.aemreunal.service.BeaconQueryService;
+import com.aemreunal.service.ChangeLogService;
+import com.aemreunal.service.HeatmapService;
+import com.aemreunal.service.MembershipService;
+import com.aemreunal.service.PasswordHashingService;
+import com.aemreunal.service.PurgeService;
+import com.aemreunal.service.PushService;
+import com.aemreunal.service.QueryCacheService;
+import com.aemreunal.service.SightingService;
+import com.aemreunal.service.SightingStoreService;
+import com.aemreunal.service.TriggerRollupService;
+import com.aemreunal.service.VisitService;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+/**
+ * Reports the counters of the server, for monitoring.
+ */
+@Controller
+@RequestMapping(GlobalSettings.STATUS_PATH_MAPPING)
+public class StatusController {
+    @Autowired
+    private PushService pushService;
+
+    @Autowired
+    private MembershipService membershipService;
+
+    @Autowired
+    private PurgeService purgeService;
+
+    @Autowired
+    private PasswordHashingService passwordHashingService;
+
+    @Autowired
+    private ReplicaRoutingDataSource routingDataSource;
+
+    @Autowired
+    private ChangeLogService changeLogService;
+
+    @Autowired
+    private QueryCacheService queryCacheService;
+
+    @Autowired
+    private AdmissionControlService admissionControlService;
+
+    @Autowired
+    private BeaconQueryService beaconQueryService;
+
+    @Autowired
+    private SightingService sightingService;
+
+    @Autowired
+    private VisitService visitService;
+
+    @Autowired
+    private TriggerRollupService triggerRollupService;
+
+    @Autowired
+    private HeatmapService heatmapService;
+
+    @Autowired
+    private SightingStoreService sightingStoreService;
+
+    @RequestMapping(method = RequestMethod.GET, produces = "application/json;charset=UTF-8")
+    public ResponseEntity<JSONObject> getStatus() {
+        JSONObject push = new JsonBuilder().add("fanOutQueueDepth", pushService.getFanOutQueueDepth())
+                                           .add("batchQueueDepth", pushService.getBatchQueueDepth())
+                                           .add("queuedPushes", pushService.getQueuedPushes())
+                                           .add("rejectedPushes", pushService.getRejectedPushes())
+                                           .add("sentNotifications", pushService.getSentNotifications())
+                                           .add("retriedBatches", pushService.getRetriedBatches())
+                                           .add("failedNotifications", pushService.getFailedNotifications())
+                                           .add("prunedDevices", pushService.getPrunedDevices())
+                                           .build();
+        JSONObject memberships = new JsonBuilder().add("conflicts", membershipService.getConflicts())
+                                                  .add("retries", membershipService.getRetries())
+                                                  .add("rejectedUpdates", membershipService.getRejectedUpdates())
+                                                  .build();
+        JSONObject purges = new JsonBuilder().add("unfinishedJobs", purgeService.getUnfinishedJobs())
+                                             .add("completedJobs", purgeService.getCompletedJobs())
+                                             .add("failedJobs", purgeService.getFailedJobs())
+                                             .add("purgedRows", purgeService.getPurgedRows())
+                                             .build();
+        JSONObject hashing = new JsonBuilder().add("logFactor", passwordHashingService.getLogFactor())
+                                              .add("queueDepth", passwordHashingService.getQueueDepth())
+                                              .add("hashes", passwordHashingService.getHashes())
+                                              .add("averageHashMillis", passwordHashingService.getAverageHashMillis())
+                                              .add("rejectedHashes", passwordHashingService.getRejectedHashes())
+                                              .build();
+        JsonBuilder pools = new JsonBuilder();
+        for (Map.Entry<String, DataSource> pool : routingDataSource.getPools().entrySet()) {
+            pools.add(pool.getKey(), new JsonBuilder().add("active", pool.getValue().getActive())
+                                                      .add("idle", pool.getValue().getIdle())
+                                                      .add("size", pool.getValue().getSize())
+                                                      .add("maxActive", pool.getValue().getMaxActive())
+                                                      .add("waiting", pool.getValue().getWaitCount())
+                                                      .build());
+        }
+        JSONObject database = new JsonBuilder().add("pools", pools.build())
+                                               .add("primaryConnections", routingDataSource.getPrimaryConnections())
+                                               .add("replicaConnections", routingDataSource.getReplicaConnections())
+                                               .add("readYourWritesRoutes", routingDataSource.getReadYourWritesRoutes())
+                                               .build();
+        JSONObject changeLog = new JsonBuilder().add("nodeId", changeLogService.getNodeId())
+                                                .add("lastSequence", changeLogService.getLastSequence())
+                                                .add("millisSinceLastPoll", changeLogService.getMillisSinceLastPoll())
+                                                .add("recordedEntries", changeLogService.getRecordedEntries())
+                                                .add("appliedEntries", changeLogService.getAppliedEntries())
+                                                .add("openGaps", changeLogService.getOpenGaps())
+                                                .add("expiredGaps", changeLogService.getExpiredGaps())
+                                                .build();
+        JSONObject cache = new JsonBuilder().add("ready", queryCacheService.isReady())
+                                            .add("warmUpMillis", queryCacheService.getWarmUpMillis())
+                                            .add("beacons", queryCacheService.getCachedBeacons())
+                                            .add("scenarios", queryCacheService.getCachedScenarios())
+                                            .add("projects", queryCacheService.getCachedProjects())
+                                            .add("hits", queryCacheService.getHits())
+                                            .add("fallbacks", queryCacheService.getFallbacks())
+                                            .add("skippedHashes", queryCacheService.getSkippedHashes())
+                                            .add("reloadedRows", queryCacheService.getReloadedRows())
+                                            .add("queries", beaconQueryService.getQueries())
+                                            .add("coalescedQueries", beaconQueryService.getCoalescedQueries())
+                                            .add("coalescingRatio", beaconQueryService.getCoalescingRatio())
+                                            .build();
+        JsonBuilder projectRejects = new JsonBuilder();
+        for (Map.Entry<Long, Long> rejects : admissionControlService.getProjectRejects().entrySet()) {
+            projectRejects.add(String.valueOf(rejects.getKey()), rejects.getValue());
+        }
+        JSONObject admission = new JsonBuilder().add("inFlight", admissionControlService.getInFlight())
+                                                .add("trackedBuckets", admissionControlService.getTrackedBuckets())
+                                                .add("admittedRequests", admissionControlService.getAdmittedRequests())
+                                                .add("rejectedByRate", admissionControlService.getRejectedByRate())
+                                                .add("rejectedByConcurrency", admissionControlService.getRejectedByConcurrency())
+                                                .add("unverifiedRejects", admissionControlService.getUnverifiedRejects())
+                                                .add("projectRejects", projectRejects.build())
+                                                .build();
+        JSONObject sightings = new JsonBuilder().add("sightings", sightingService.getSightings())
+                                                .add("unattributedSightings", sightingService.getUnattributedSightings())
+                                                .add("unknownDevices", sightingService.getUnknownDevices())
+                                                .build();
+        JSONObject visits = new JsonBuilder().add("trackedDevices", visitService.getTrackedDevices())
+                                             .add("queuedVisits", visitService.getQueuedVisits())
+                                             .add("sightings", visitService.getSightings())
+                                             .add("droppedSightings", visitService.getDroppedSightings())
+                                             .add("writtenVisits", visitService.getWrittenVisits())
+                                             .add("droppedVisits", visitService.getDroppedVisits())
+                                             .add("failedBatches", visitService.getFailedBatches())
+                                             .build();
+        JSONObject rollups = new JsonBuilder().add("triggers", triggerRollupService.getTriggers())
+                                              .add("pendingCounters", triggerRollupService.getPendingCounters())
+                                              .add("flushedTriggers", triggerRollupService.getFlushedTriggers())
+                                              .add("droppedTriggers", triggerRollupService.getDroppedTriggers())
+                                              .add("upsertedRows", triggerRollupService.getUpsertedRows())
+                                              .add("failedFlushes", triggerRollupService.getFailedFlushes())
+                                              .add("millisSinceLastFlush", triggerRollupService.getMillisSinceLastFlush())
+                                              .build();
+        JSONObject heatmap = new JsonBuilder().add("openPresences", heatmapService.getOpenPresences())
+                                              .add("presencesCounted", heatmapService.getPresencesCounted())
+                                              .add("droppedPresences", heatmapService.getDroppedPresences())
+                                              .add("pendingHours", heatmapService.getPendingHours())
+                                              .add("writtenRows", heatmapService.getWrittenRows())
+                                              .add("loadedRows", heatmapService.getLoadedRows())
+                                              .add("failedTicks", heatmapService.getFailedTicks())
+                                              .add("projects", heatmapService.getProjects())
+                                              .add("cacheHits", heatmapService.getCacheHits())
+                                              .add("cacheMisses", heatmapService.getCacheMisses())
+                                              .build();
+        JSONObject sightingStore = new JsonBuilder().add("projects", sightingStoreService.getProjects())
+                                                    .add("appendedRows", sightingStoreService.getAppendedRows())
+                                                    .add("memoryBytes", sightingStoreService.getMemoryBytes())
+                                                    .add("diskBytes", sightingStoreService.getDiskBytes())
+                                                    .add("sealedChunks", sightingStoreService.getSealedChunks())
+                                                    .add("spilledChunks", sightingStoreService.getSpilledChunks())
+                                                    .add("deletedChunks", sightingStoreService.getDeletedChunks())
+                                                    .add("failedSpills", sightingStoreService.getFailedSpills())
+                                                    .add("queries", sightingStoreService.getQueries())
+                                                    .add("scannedChunks", sightingStoreService.getScannedChunks())
+                                                    .add("skippedChunks", sightingStoreService.getSkippedChunks())
+                                                    .add("unreadableChunks", sightingStoreService.getUnreadableChunks())
+                                                    .build();
+        JSONObject responseBody = new JsonBuilder().add("push", push)
+                                                   .add("memberships", memberships)
+                                                   .add("purges", purges)
+                                                   .add("hashing", hashing)
+                                                   .add("database", database)
+                                                   .add("changeLog", changeLog)
+                                                   .add("cache", cache)
+                                                   .add("admission", admission)
+                                                   .add("sightings", sightings)
+                                                   .add("visits", visits)
+                                                   .add("rollups", rollups)
+                                                   .add("heatmap", heatmap)
+                                                   .add("sightingStore", sightingStore)
+                                                   .build();
+        return new ResponseEntity<JSONObject>(responseBody, HttpStatus.OK);
+    }
+
+    /**
+     * Reports whether the server is ready to take traffic, for the health checks of the
+     * load balancer. The server is ready once its query cache is warmed up.
+     *
+     * @return 200 if the server is ready, 503 otherwise
+     */
+    @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.STATUS_READY_MAPPING, produces = "application/json;charset=UTF-8")
+    public ResponseEntity<JSONObject> getReadiness() {
+        if (queryCacheService.isReady()) {
+            return new ResponseEntity<JSONObject>(new JsonBuilder().add("status", "ready").build(), HttpStatus.OK);
+        }
+        return new ResponseEntity<JSONObject>(new JsonBuilder().add("status", "warming up").build(), HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Reports the progress of the purge of a deleted project or user.
+     *
+     * @param jobId
+     *     The ID of the purge job, as given in the Location header of the deletion
+     *     response
+     *
+     * @return The purge job
+     */
+    @RequestMapping(method = RequestMethod.GET, value = GlobalSettings.STATUS_PURGE_MAPPING, produces = "application/json;charset=UTF-8")
+    public ResponseEntity<PurgeJob> getPurgeJob(@PathVariable Long jobId) {
+        return new ResponseEntity<PurgeJob>(purgeService.findJob(jobId), HttpStatus.OK);
+    }
+}
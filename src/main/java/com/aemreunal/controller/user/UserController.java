@@ -2,6 +2,7 @@ package com.aemreunal.controller.user;
 
 import net.minidev.json.JSONObject;
 
+import javax.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -10,9 +11,17 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.util.UriComponentsBuilder;
 import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.PurgeJob;
 import com.aemreunal.domain.User;
 import com.aemreunal.exception.MalformedRequestException;
+import com.aemreunal.exception.user.InvalidCredentialsException;
 import com.aemreunal.exception.user.UsernameClashException;
+import com.aemreunal.helper.JsonBuilder;
+import com.aemreunal.helper.PurgeJobs;
+import com.aemreunal.interceptor.AccessTokenInterceptor;
+import com.aemreunal.request.LoginRequest;
+import com.aemreunal.request.UserRegistration;
+import com.aemreunal.service.AccessTokenService;
 import com.aemreunal.service.UserService;
 
 /*
@@ -37,6 +46,9 @@ public class UserController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private AccessTokenService accessTokenService;
+
     /**
      * Get the user with the specified username
      *
@@ -60,8 +72,8 @@ public class UserController {
      * User creation request JSON:<br/> {<br/> "username":"testuser12",<br/>
      * "password":"test_password" }
      *
-     * @param userJson
-     *     The user as a JSON object
+     * @param registration
+     *     The registration request, see {@link UserRegistration}
      * @param builder
      *     The URI builder for post-creation redirect
      *
@@ -70,24 +82,16 @@ public class UserController {
      * @throws UsernameClashException
      */
     @RequestMapping(method = RequestMethod.POST, value = GlobalSettings.USER_CREATE_MAPPING, produces = "application/json; charset=UTF-8")
-    public ResponseEntity<User> createUser(@RequestBody JSONObject userJson,
+    public ResponseEntity<User> createUser(@RequestBody UserRegistration registration,
                                            UriComponentsBuilder builder)
         throws UsernameClashException, MalformedRequestException {
-        verifyUserCreateJson(userJson);
-        User savedUser = userService.save(new User(userJson));
+        User savedUser = userService.save(new User(registration));
         if (GlobalSettings.DEBUGGING) {
             System.out.println("Saved user with username = \'" + savedUser.getUsername() + "\' ID = \'" + savedUser.getUserId() + "\'");
         }
         return buildCreateResponse(builder, savedUser);
     }
 
-    // TODO verify JSON inputs
-    private void verifyUserCreateJson(JSONObject userJson) throws MalformedRequestException {
-        if (!userJson.containsKey("username") || !userJson.containsKey("password")) {
-            throw new MalformedRequestException();
-        }
-    }
-
     private ResponseEntity<User> buildCreateResponse(UriComponentsBuilder builder, User savedUser) {
         HttpHeaders headers = new HttpHeaders();
         headers.setLocation(builder.path(GlobalSettings.USER_SPECIFIC_MAPPING)
@@ -97,6 +101,57 @@ public class UserController {
         return new ResponseEntity<User>(savedUser, headers, HttpStatus.CREATED);
     }
 
+    /**
+     * Log in as the specified user, verifying the password once to issue an access token.
+     * The token is then sent in the "Authorization: Bearer &lt;token&gt;" header of the
+     * requests to the resources of the user, instead of the password.
+     * <p/>
+     * Login request JSON:<br/> {<br/> "password":"test_password" }
+     *
+     * @param username
+     *     The username of the user
+     * @param login
+     *     The login request, see {@link LoginRequest}
+     *
+     * @return The access token and the number of seconds it is valid for
+     *
+     * @throws InvalidCredentialsException
+     *     If the password is incorrect
+     */
+    @RequestMapping(method = RequestMethod.POST, value = GlobalSettings.USER_LOGIN_MAPPING, produces = "application/json; charset=UTF-8")
+    public ResponseEntity<JSONObject> login(@PathVariable String username,
+                                            @RequestBody LoginRequest login)
+        throws InvalidCredentialsException {
+        User user = userService.authenticateAndFindUser(username, login.getPassword());
+        if (user == null) {
+            throw new InvalidCredentialsException();
+        }
+        JSONObject responseBody = new JsonBuilder().add("token", accessTokenService.issue(user.getUsername()))
+                                                   .add("tokenType", "Bearer")
+                                                   .add("expiresIn", GlobalSettings.ACCESS_TOKEN_LIFETIME_SECONDS)
+                                                   .build();
+        return new ResponseEntity<JSONObject>(responseBody, HttpStatus.OK);
+    }
+
+    /**
+     * Log out, revoking the access token in the Authorization header of the request. The
+     * token has already been verified to belong to the specified user.
+     *
+     * @param username
+     *     The username of the user
+     *
+     * @return 200 if the token is revoked, 400 if the request has no token
+     */
+    @RequestMapping(method = RequestMethod.POST, value = GlobalSettings.USER_LOGOUT_MAPPING)
+    public ResponseEntity<Void> logout(@PathVariable String username, HttpServletRequest request) {
+        String token = AccessTokenInterceptor.getToken(request);
+        if (token == null) {
+            return new ResponseEntity<Void>(HttpStatus.BAD_REQUEST);
+        }
+        accessTokenService.revoke(token);
+        return new ResponseEntity<Void>(HttpStatus.OK);
+    }
+
     /**
      * Delete the specified user, along with all the projects belonging to user.
      * <p/>
@@ -117,14 +172,15 @@ public class UserController {
         @RequestParam(value = "password", required = true) String password
      */
     @RequestMapping(method = RequestMethod.DELETE, value = GlobalSettings.USER_USERNAME_MAPPING)
-    public ResponseEntity<User> deleteUser(
+    public ResponseEntity<PurgeJob> deleteUser(
         @PathVariable String username,
-        @RequestParam(value = "confirm", required = true) String confirmation) {
+        @RequestParam(value = "confirm", required = true) String confirmation,
+        UriComponentsBuilder builder) {
         if (confirmation.toLowerCase().equals("yes")) {
-            User user = userService.delete(username);
-            return new ResponseEntity<User>(user, HttpStatus.OK);
+            PurgeJob purgeJob = userService.delete(username);
+            return new ResponseEntity<PurgeJob>(purgeJob, PurgeJobs.locationOf(builder, purgeJob), HttpStatus.OK);
         } else {
-            return new ResponseEntity<User>(HttpStatus.PRECONDITION_FAILED);
+            return new ResponseEntity<PurgeJob>(HttpStatus.PRECONDITION_FAILED);
         }
     }
 }
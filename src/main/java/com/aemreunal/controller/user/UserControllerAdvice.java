@@ -2,10 +2,13 @@ package com.aemreunal.controller.user;
 
 import net.minidev.json.JSONObject;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import com.aemreunal.exception.user.InvalidAccessTokenException;
+import com.aemreunal.exception.user.InvalidCredentialsException;
 import com.aemreunal.exception.user.InvalidUsernameException;
 import com.aemreunal.exception.user.UserNotFoundException;
 import com.aemreunal.exception.user.UsernameClashException;
@@ -52,4 +55,22 @@ public class UserControllerAdvice {
                                                    .build();
         return new ResponseEntity<JSONObject>(responseBody, HttpStatus.NOT_FOUND);
     }
+
+    @ExceptionHandler(InvalidCredentialsException.class)
+    public ResponseEntity<JSONObject> invalidCredentialsExceptionHandler(InvalidCredentialsException ex) {
+        JSONObject responseBody = new JsonBuilder().add("reason", "credentials")
+                                                   .add("error", ex.getLocalizedMessage())
+                                                   .build();
+        return new ResponseEntity<JSONObject>(responseBody, HttpStatus.UNAUTHORIZED);
+    }
+
+    @ExceptionHandler(InvalidAccessTokenException.class)
+    public ResponseEntity<JSONObject> invalidAccessTokenExceptionHandler(InvalidAccessTokenException ex) {
+        JSONObject responseBody = new JsonBuilder().add("reason", "token")
+                                                   .add("error", ex.getLocalizedMessage())
+                                                   .build();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("WWW-Authenticate", "Bearer");
+        return new ResponseEntity<JSONObject>(responseBody, headers, HttpStatus.UNAUTHORIZED);
+    }
 }
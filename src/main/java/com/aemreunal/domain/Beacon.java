@@ -28,7 +28,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 @Entity
 @Table(name = "beacons")
 @ResponseBody
-@JsonIgnoreProperties(value = { "project" })
+@JsonIgnoreProperties(value = { "project", "version", "lastModified" })
 public class Beacon extends ResourceSupport implements Serializable {
     // UUID hex string (including dashes) is 36 characters long
     public static final int UUID_MAX_LENGTH        = 36;
@@ -249,12 +249,63 @@ public class Beacon extends ResourceSupport implements Serializable {
      *------------------------------------------------------------
      */
 
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Beacon 'version' attribute
+     *
+     * Incremented by Hibernate on every update, which also makes
+     * concurrent updates of the same beacon fail instead of
+     * overwriting each other.
+     */
+    @Version
+    @Column(name = "version", nullable = false)
+    @Access(AccessType.PROPERTY)
+    private Long version = null;
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+    /*
+     * END: Beacon 'version' attribute
+     *------------------------------------------------------------
+     */
+
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Beacon 'lastModified' attribute
+     */
+    @Column(name = "last_modified", nullable = true)
+    @Access(AccessType.PROPERTY)
+    private Date lastModified = null;
+
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+    /*
+     * END: Beacon 'lastModified' attribute
+     *------------------------------------------------------------
+     */
+
     @PrePersist
     private void setInitialProperties() {
         // Set beacon creation date
         if (creationDate == null) {
             setCreationDate(new Date());
         }
+        lastModified = creationDate;
+    }
+
+    @PreUpdate
+    private void setModificationDate() {
+        lastModified = new Date();
     }
 
     @Override
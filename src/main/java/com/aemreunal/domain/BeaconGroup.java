@@ -28,9 +28,11 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
  */
 
 @Entity
-@Table(name = "beacon_groups")
+// The name index serves the case-insensitive name searches, see NameMatch
+@Table(name = "beacon_groups",
+       indexes = { @Index(name = "idx_beacon_groups_name", columnList = "name") })
 @ResponseBody
-@JsonIgnoreProperties(value = { "beacons", "project" })
+@JsonIgnoreProperties(value = { "beacons", "project", "version", "lastModified" })
 public class BeaconGroup extends ResourceSupport implements Serializable {
     public static final int NAME_MAX_LENGTH        = 50;
     public static final int DESCRIPTION_MAX_LENGTH = 200;
@@ -225,12 +227,63 @@ public class BeaconGroup extends ResourceSupport implements Serializable {
      *------------------------------------------------------------
      */
 
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Beacon group 'version' attribute
+     *
+     * Incremented by Hibernate on every update, which also makes
+     * concurrent updates of the same beacon group fail instead of
+     * overwriting each other.
+     */
+    @Version
+    @Column(name = "version", nullable = false)
+    @Access(AccessType.PROPERTY)
+    private Long version = null;
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+    /*
+     * END: Beacon group 'version' attribute
+     *------------------------------------------------------------
+     */
+
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Beacon group 'lastModified' attribute
+     */
+    @Column(name = "last_modified", nullable = true)
+    @Access(AccessType.PROPERTY)
+    private Date lastModified = null;
+
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+    /*
+     * END: Beacon group 'lastModified' attribute
+     *------------------------------------------------------------
+     */
+
     @PrePersist
     private void setInitialProperties() {
         // Set beacon creation date
         if (creationDate == null) {
             setCreationDate(new Date());
         }
+        lastModified = creationDate;
+    }
+
+    @PreUpdate
+    private void setModificationDate() {
+        lastModified = new Date();
     }
 
     @Override
@@ -0,0 +1,148 @@
+package com.aemreunal.domain;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.*;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+/**
+ * A change to a project, beacon, beacon group or scenario, written in the same
+ * transaction as the change itself. Every server instance tails the change log by
+ * sequence number through the {@link com.aemreunal.service.ChangeLogService
+ * ChangeLogService} and updates its in-process caches with the changes made on the
+ * other instances.
+ * <p/>
+ * The changed entity is stored as plain IDs instead of a relationship, so recording a
+ * change is a single insert and the entry outlives the entity.
+ */
+@Entity
+@Table(name = "change_log")
+public class ChangeLogEntry implements Serializable {
+    public static final String KIND_PROJECT          = "project";
+    public static final String KIND_BEACON           = "beacon";
+    public static final String KIND_BEACON_GROUP     = "beacon_group";
+    public static final String KIND_SCENARIO         = "scenario";
+    // Every beacon, beacon group and scenario of a project, e.g. after an import
+    public static final String KIND_PROJECT_CONTENTS = "contents";
+
+    public static final int NODE_ID_LENGTH = 36;
+
+    @Id
+    @Column(name = "sequence")
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long sequence;
+
+    // The server instance that made the change
+    @Column(name = "node_id", nullable = false, length = NODE_ID_LENGTH)
+    private String nodeId;
+
+    // One of the KIND_ constants
+    @Column(name = "kind", nullable = false, length = 12)
+    private String kind;
+
+    @Column(name = "project_id", nullable = false)
+    private Long projectId;
+
+    // The ID of the beacon, beacon group or scenario. For KIND_PROJECT and
+    // KIND_PROJECT_CONTENTS, the project ID.
+    @Column(name = "entity_id", nullable = false)
+    private Long entityId;
+
+    // The identity of the beacon, only for KIND_BEACON, so caches can be patched
+    // without reading the beacon
+    @Column(name = "uuid", nullable = true, length = Beacon.UUID_MAX_LENGTH)
+    private String uuid;
+
+    @Column(name = "major", nullable = true, length = Beacon.MAJOR_MAX_LENGTH)
+    private String major;
+
+    @Column(name = "minor", nullable = true, length = Beacon.MINOR_MAX_LENGTH)
+    private String minor;
+
+    // Whether the entity has been deleted
+    @Column(name = "removed", nullable = false)
+    private boolean removed = false;
+
+    @Column(name = "creation_date", nullable = false)
+    private Date creationDate = null;
+
+    public ChangeLogEntry() {
+        // Empty constructor for Spring & Hibernate
+    }
+
+    public ChangeLogEntry(String nodeId, String kind, Long projectId, Long entityId, boolean removed) {
+        this.nodeId = nodeId;
+        this.kind = kind;
+        this.projectId = projectId;
+        this.entityId = entityId;
+        this.removed = removed;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public Long getProjectId() {
+        return projectId;
+    }
+
+    public Long getEntityId() {
+        return entityId;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getMajor() {
+        return major;
+    }
+
+    public String getMinor() {
+        return minor;
+    }
+
+    public void setBeaconIdentity(String uuid, String major, String minor) {
+        this.uuid = uuid;
+        this.major = major;
+        this.minor = minor;
+    }
+
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    @PrePersist
+    private void setInitialProperties() {
+        if (creationDate == null) {
+            creationDate = new Date();
+        }
+    }
+}
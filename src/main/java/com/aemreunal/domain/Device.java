@@ -0,0 +1,152 @@
+package com.aemreunal.domain;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.*;
+import javax.validation.constraints.Size;
+import org.springframework.web.bind.annotation.ResponseBody;
+import com.aemreunal.config.CoreConfig;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+/**
+ * An iOS device that has registered itself to receive push notifications for the
+ * scenarios of a {@link com.aemreunal.domain.Project project}.
+ */
+@Entity
+@Table(name = "devices")
+@ResponseBody
+@JsonIgnoreProperties(value = { "project" })
+public class Device implements Serializable {
+    // An APNS device token is 32 bytes, which is 64 characters as a hex string
+    public static final int TOKEN_LENGTH = 64;
+
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Device 'ID' attribute
+     */
+    @Id
+    @Column(name = "device_id")
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Access(AccessType.PROPERTY)
+    private Long deviceId;
+
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(Long deviceId) {
+        this.deviceId = deviceId;
+    }
+    /*
+     * END: Device 'ID' attribute
+     *------------------------------------------------------------
+     */
+
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Device 'token' attribute
+     */
+    @Column(name = "token", nullable = false, length = TOKEN_LENGTH)
+    @Size(min = TOKEN_LENGTH, max = TOKEN_LENGTH)
+    @Access(AccessType.PROPERTY)
+    private String token = "";
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token.toUpperCase();
+    }
+    /*
+     * END: Device 'token' attribute
+     *------------------------------------------------------------
+     */
+
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Device 'project' attribute
+     */
+    @ManyToOne(targetEntity = Project.class,
+               fetch = FetchType.LAZY,
+               optional = false)
+    @JoinColumn(name = "project_id", nullable = false)
+    @Access(AccessType.PROPERTY)
+    private Project project;
+
+    public Project getProject() {
+        CoreConfig.initLazily(project);
+        return project;
+    }
+
+    public void setProject(Project project) {
+        this.project = project;
+    }
+    /*
+     * END: Device 'project' attribute
+     *------------------------------------------------------------
+     */
+
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Device 'registrationDate' attribute
+     */
+    @Column(name = "registration_date", nullable = false)
+    @Access(AccessType.PROPERTY)
+    private Date registrationDate = null;
+
+    public Date getRegistrationDate() {
+        return registrationDate;
+    }
+
+    public void setRegistrationDate(Date registrationDate) {
+        this.registrationDate = registrationDate;
+    }
+    /*
+     * END: Device 'registrationDate' attribute
+     *------------------------------------------------------------
+     */
+
+    @PrePersist
+    private void setInitialProperties() {
+        // Set device registration date
+        if (registrationDate == null) {
+            setRegistrationDate(new Date());
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        } else if (!(obj instanceof Device)) {
+            return false;
+        } else {
+            // A device that hasn't been saved yet only equals itself
+            Long deviceId = this.getDeviceId();
+            return deviceId != null && deviceId.equals(((Device) obj).getDeviceId());
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        Long deviceId = this.getDeviceId();
+        return deviceId == null ? 0 : deviceId.hashCode();
+    }
+}
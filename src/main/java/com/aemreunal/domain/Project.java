@@ -40,9 +40,11 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
  */
 
 @Entity
-@Table(name = "projects")
+// The name index serves the case-insensitive name searches, see NameMatch
+@Table(name = "projects",
+       indexes = { @Index(name = "idx_projects_name", columnList = "name") })
 @ResponseBody
-@JsonIgnoreProperties(value = { "beacons", "beaconGroups", "scenarios", "projectSecret", "owner" })
+@JsonIgnoreProperties(value = { "beacons", "beaconGroups", "scenarios", "projectSecret", "owner", "contentVersion", "contentModified", "version", "lastModified", "deleted" })
 public class Project extends ResourceSupport implements Serializable {
     public static final int NAME_MAX_LENGTH        = 50;
     public static final int DESCRIPTION_MAX_LENGTH = 200;
@@ -273,6 +275,123 @@ public class Project extends ResourceSupport implements Serializable {
      *------------------------------------------------------------
      */
 
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Project 'contentVersion' attribute
+     *
+     * Increases monotonically with every change to the beacons, beacon
+     * groups and scenarios of the project. It is only ever changed by a
+     * single UPDATE statement (see ProjectRepo.incrementContentVersion),
+     * never by writing the entity, so a stale value in a loaded project
+     * can never overwrite a newer one.
+     */
+    @Column(name = "content_version", nullable = false, updatable = false)
+    private Long contentVersion = 0L;
+
+    public Long getContentVersion() {
+        return contentVersion;
+    }
+
+    public void setContentVersion(Long contentVersion) {
+        this.contentVersion = contentVersion;
+    }
+    /*
+     * END: Project 'contentVersion' attribute
+     *------------------------------------------------------------
+     */
+
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Project 'contentModified' attribute
+     *
+     * The time of the last change to the beacons, beacon groups and
+     * scenarios of the project. Updated along with 'contentVersion'.
+     */
+    @Column(name = "content_modified", nullable = true, updatable = false)
+    private Date contentModified = null;
+
+    public Date getContentModified() {
+        return contentModified;
+    }
+
+    public void setContentModified(Date contentModified) {
+        this.contentModified = contentModified;
+    }
+    /*
+     * END: Project 'contentModified' attribute
+     *------------------------------------------------------------
+     */
+
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Project 'version' attribute
+     *
+     * Incremented by Hibernate on every update, which also makes
+     * concurrent updates of the same project fail instead of
+     * overwriting each other.
+     */
+    @Version
+    @Column(name = "version", nullable = false)
+    @Access(AccessType.PROPERTY)
+    private Long version = null;
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+    /*
+     * END: Project 'version' attribute
+     *------------------------------------------------------------
+     */
+
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Project 'lastModified' attribute
+     */
+    @Column(name = "last_modified", nullable = true)
+    @Access(AccessType.PROPERTY)
+    private Date lastModified = null;
+
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+    /*
+     * END: Project 'lastModified' attribute
+     *------------------------------------------------------------
+     */
+
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Project 'deleted' attribute
+     *
+     * Set when the project is deleted. The project is hidden from then
+     * on, and its beacons, beacon groups, scenarios and devices are
+     * purged in the background by the PurgeService, which finally
+     * deletes the project row itself.
+     */
+    @Column(name = "deleted", nullable = false)
+    @Access(AccessType.PROPERTY)
+    private boolean deleted = false;
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(boolean deleted) {
+        this.deleted = deleted;
+    }
+    /*
+     * END: Project 'deleted' attribute
+     *------------------------------------------------------------
+     */
+
     @PrePersist
     private void setInitialProperties() {
         /*
@@ -285,6 +404,13 @@ public class Project extends ResourceSupport implements Serializable {
         if (creationDate == null) {
             setCreationDate(new Date());
         }
+        lastModified = creationDate;
+        contentModified = creationDate;
+    }
+
+    @PreUpdate
+    private void setModificationDate() {
+        lastModified = new Date();
     }
 
     @Override
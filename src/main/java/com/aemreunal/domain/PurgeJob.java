@@ -0,0 +1,216 @@
+package com.aemreunal.domain;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.*;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+/**
+ * The background deletion of a deleted project or user. The deleted entity is only
+ * marked as deleted by the request that deletes it, and its contents are then purged
+ * in chunks by the {@link com.aemreunal.service.PurgeService PurgeService}, which
+ * records its progress here.
+ * <p/>
+ * The target is stored as a plain ID instead of a relationship, since the job outlives
+ * it.
+ */
+@Entity
+@Table(name = "purge_jobs",
+       indexes = { @Index(name = "idx_purge_jobs_status", columnList = "status") })
+@JsonIgnoreProperties(value = { "userJob" })
+public class PurgeJob implements Serializable {
+    public static final String KIND_PROJECT = "project";
+    public static final String KIND_USER    = "user";
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_DONE    = "DONE";
+    public static final String STATUS_FAILED  = "FAILED";
+
+    public static final int ERROR_MAX_LENGTH = 500;
+
+    @Id
+    @Column(name = "job_id")
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long jobId;
+
+    // Either KIND_PROJECT or KIND_USER
+    @Column(name = "kind", nullable = false, length = 8)
+    private String kind;
+
+    // The ID of the project or the user
+    @Column(name = "target_id", nullable = false)
+    private Long targetId;
+
+    @Column(name = "status", nullable = false, length = 8)
+    private String status = STATUS_PENDING;
+
+    // The number of failed attempts, the job is given up after PURGE_MAX_ATTEMPTS
+    @Column(name = "attempts", nullable = false)
+    private int attempts = 0;
+
+    @Column(name = "last_error", nullable = true, length = ERROR_MAX_LENGTH)
+    private String lastError = null;
+
+    // The number of rows purged so far, per table
+    @Column(name = "projects_purged", nullable = false)
+    private long projectsPurged = 0;
+
+    @Column(name = "beacons_purged", nullable = false)
+    private long beaconsPurged = 0;
+
+    @Column(name = "beacon_groups_purged", nullable = false)
+    private long beaconGroupsPurged = 0;
+
+    @Column(name = "scenarios_purged", nullable = false)
+    private long scenariosPurged = 0;
+
+    @Column(name = "devices_purged", nullable = false)
+    private long devicesPurged = 0;
+
+    @Column(name = "resolution_changes_purged", nullable = false)
+    private long resolutionChangesPurged = 0;
+
+    @Column(name = "creation_date", nullable = false)
+    private Date creationDate = null;
+
+    @Column(name = "completion_date", nullable = true)
+    private Date completionDate = null;
+
+    public PurgeJob() {
+        // Empty constructor for Spring & Hibernate
+    }
+
+    public PurgeJob(String kind, Long targetId) {
+        this.kind = kind;
+        this.targetId = targetId;
+    }
+
+    public Long getJobId() {
+        return jobId;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public Long getTargetId() {
+        return targetId;
+    }
+
+    public boolean isUserJob() {
+        return KIND_USER.equals(kind);
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Records a failed attempt of the job.
+     *
+     * @return The number of failed attempts so far
+     */
+    public int recordFailure(String error) {
+        if (error != null && error.length() > ERROR_MAX_LENGTH) {
+            error = error.substring(0, ERROR_MAX_LENGTH);
+        }
+        lastError = error;
+        return ++attempts;
+    }
+
+    public long getProjectsPurged() {
+        return projectsPurged;
+    }
+
+    public long getBeaconsPurged() {
+        return beaconsPurged;
+    }
+
+    public long getBeaconGroupsPurged() {
+        return beaconGroupsPurged;
+    }
+
+    public long getScenariosPurged() {
+        return scenariosPurged;
+    }
+
+    public long getDevicesPurged() {
+        return devicesPurged;
+    }
+
+    public long getResolutionChangesPurged() {
+        return resolutionChangesPurged;
+    }
+
+    public void addProjectsPurged(long count) {
+        projectsPurged += count;
+    }
+
+    public void addBeaconsPurged(long count) {
+        beaconsPurged += count;
+    }
+
+    public void addBeaconGroupsPurged(long count) {
+        beaconGroupsPurged += count;
+    }
+
+    public void addScenariosPurged(long count) {
+        scenariosPurged += count;
+    }
+
+    public void addDevicesPurged(long count) {
+        devicesPurged += count;
+    }
+
+    public void addResolutionChangesPurged(long count) {
+        resolutionChangesPurged += count;
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    public Date getCompletionDate() {
+        return completionDate;
+    }
+
+    public void setCompletionDate(Date completionDate) {
+        this.completionDate = completionDate;
+    }
+
+    @PrePersist
+    private void setInitialProperties() {
+        if (creationDate == null) {
+            creationDate = new Date();
+        }
+    }
+}
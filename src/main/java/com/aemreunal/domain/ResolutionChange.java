@@ -0,0 +1,152 @@
+package com.aemreunal.domain;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.*;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+/**
+ * A change in the resolution map of a project, i.e. in which scenario a beacon
+ * resolves to or in the payload of a scenario. Consuming apps that keep a copy of the
+ * resolution map fetch the changes since the content version they have.
+ * <p/>
+ * The project is stored as a plain ID instead of a relationship, so recording a change
+ * is a single insert.
+ */
+@Entity
+@Table(name = "resolution_changes",
+       indexes = { @Index(name = "idx_resolution_changes_project_version", columnList = "project_id, content_version") })
+public class ResolutionChange implements Serializable {
+    public static final String KIND_BEACON   = "beacon";
+    public static final String KIND_SCENARIO = "scenario";
+
+    @Id
+    @Column(name = "change_id")
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long changeId;
+
+    @Column(name = "project_id", nullable = false)
+    private Long projectId;
+
+    @Column(name = "content_version", nullable = false)
+    private Long contentVersion;
+
+    // Either KIND_BEACON or KIND_SCENARIO
+    @Column(name = "kind", nullable = false, length = 8)
+    private String kind;
+
+    // For KIND_BEACON, the scenario the beacon now resolves to (null if none). For
+    // KIND_SCENARIO, the scenario that changed.
+    @Column(name = "scenario_id", nullable = true)
+    private Long scenarioId;
+
+    // The identity of the beacon, only for KIND_BEACON
+    @Column(name = "uuid", nullable = true, length = Beacon.UUID_MAX_LENGTH)
+    private String uuid;
+
+    @Column(name = "major", nullable = true, length = Beacon.MAJOR_MAX_LENGTH)
+    private String major;
+
+    @Column(name = "minor", nullable = true, length = Beacon.MINOR_MAX_LENGTH)
+    private String minor;
+
+    // Whether the beacon or the scenario has been deleted
+    @Column(name = "removed", nullable = false)
+    private boolean removed = false;
+
+    @Column(name = "creation_date", nullable = false)
+    private Date creationDate = null;
+
+    public ResolutionChange() {
+        // Empty constructor for Spring & Hibernate
+    }
+
+    public static ResolutionChange ofBeacon(Long projectId, Long contentVersion, Beacon beacon, Long scenarioId, boolean removed) {
+        ResolutionChange change = new ResolutionChange();
+        change.projectId = projectId;
+        change.contentVersion = contentVersion;
+        change.kind = KIND_BEACON;
+        change.uuid = beacon.getUuid();
+        change.major = beacon.getMajor();
+        change.minor = beacon.getMinor();
+        change.scenarioId = scenarioId;
+        change.removed = removed;
+        return change;
+    }
+
+    public static ResolutionChange ofScenario(Long projectId, Long contentVersion, Long scenarioId, boolean removed) {
+        ResolutionChange change = new ResolutionChange();
+        change.projectId = projectId;
+        change.contentVersion = contentVersion;
+        change.kind = KIND_SCENARIO;
+        change.scenarioId = scenarioId;
+        change.removed = removed;
+        return change;
+    }
+
+    public Long getChangeId() {
+        return changeId;
+    }
+
+    public Long getProjectId() {
+        return projectId;
+    }
+
+    public Long getContentVersion() {
+        return contentVersion;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public boolean isBeaconChange() {
+        return KIND_BEACON.equals(kind);
+    }
+
+    public Long getScenarioId() {
+        return scenarioId;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getMajor() {
+        return major;
+    }
+
+    public String getMinor() {
+        return minor;
+    }
+
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    @PrePersist
+    private void setInitialProperties() {
+        if (creationDate == null) {
+            creationDate = new Date();
+        }
+    }
+}
@@ -33,7 +33,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 @Entity
 @Table(name = "scenarios")
 @ResponseBody
-@JsonIgnoreProperties(value = { "beacons", "project", "beaconGroups" })
+@JsonIgnoreProperties(value = { "beacons", "project", "beaconGroups", "version", "lastModified" })
 public class Scenario extends ResourceSupport implements Serializable {
     public static final int NAME_MAX_LENGTH          = 100;
     public static final int DESCRIPTION_MAX_LENGTH   = 1000;
@@ -303,25 +303,84 @@ public class Scenario extends ResourceSupport implements Serializable {
      */
 
     public JSONObject generateQueryResponse() {
+        return generateQueryResponse(getMessageShort(), getMessageLong(), getUrl());
+    }
+
+    /**
+     * Generates the response to a beacon query from the given payload, for callers that
+     * only have the columns of the scenario instead of the scenario itself.
+     */
+    public static JSONObject generateQueryResponse(String messageShort, String messageLong, String url) {
         JsonBuilder builder = new JsonBuilder();
-        if (hasShortMessage()) {
-            builder = builder.add("short", getMessageShort());
+        if (!messageShort.equals("")) {
+            builder = builder.add("short", messageShort);
         }
-        if (hasLongMessage()) {
-            builder = builder.add("long", getMessageLong());
+        if (!messageLong.equals("")) {
+            builder = builder.add("long", messageLong);
         }
-        if (hasUrl()) {
-            builder = builder.add("url", getUrl());
+        if (!url.equals("")) {
+            builder = builder.add("url", url);
         }
         return builder.build();
     }
 
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Scenario 'version' attribute
+     *
+     * Incremented by Hibernate on every update, which also makes
+     * concurrent updates of the same scenario fail instead of
+     * overwriting each other.
+     */
+    @Version
+    @Column(name = "version", nullable = false)
+    @Access(AccessType.PROPERTY)
+    private Long version = null;
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+    /*
+     * END: Scenario 'version' attribute
+     *------------------------------------------------------------
+     */
+
+    /*
+     *------------------------------------------------------------
+     * BEGIN: Scenario 'lastModified' attribute
+     */
+    @Column(name = "last_modified", nullable = true)
+    @Access(AccessType.PROPERTY)
+    private Date lastModified = null;
+
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+    /*
+     * END: Scenario 'lastModified' attribute
+     *------------------------------------------------------------
+     */
+
     @PrePersist
     private void setInitialProperties() {
         // Set scenario creation date
         if (creationDate == null) {
             setCreationDate(new Date());
         }
+        lastModified = creationDate;
+    }
+
+    @PreUpdate
+    private void setModificationDate() {
+        lastModified = new Date();
     }
 
     @Override
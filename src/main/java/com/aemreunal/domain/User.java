@@ -1,7 +1,5 @@
 package com.aemreunal.domain;
 
-import net.minidev.json.JSONObject;
-
 import java.io.Serializable;
 import java.util.LinkedHashSet;
 import java.util.Set;
@@ -10,6 +8,7 @@ import javax.validation.constraints.Size;
 import org.springframework.hateoas.ResourceSupport;
 import org.springframework.web.bind.annotation.ResponseBody;
 import com.aemreunal.config.CoreConfig;
+import com.aemreunal.request.UserRegistration;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 /*
@@ -31,7 +30,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 @Entity
 @Table(name = "users")
 @ResponseBody
-@JsonIgnoreProperties(value = { "password", "projects" })
+@JsonIgnoreProperties(value = { "password", "projects", "deleted" })
 public class User extends ResourceSupport implements Serializable {
     public static final int USERNAME_MIN_LENGTH = 4;
     public static final int USERNAME_MAX_LENGTH = 50;
@@ -45,9 +44,9 @@ public class User extends ResourceSupport implements Serializable {
         // Empty constructor for Spring & Hibernate
     }
 
-    public User(JSONObject userJson) {
-        setUsername(userJson.get("username").toString().toLowerCase());
-        setPassword(userJson.get("password").toString());
+    public User(UserRegistration registration) {
+        setUsername(registration.getUsername());
+        setPassword(registration.getPassword());
     }
 
     /*
@@ -96,7 +95,7 @@ public class User extends ResourceSupport implements Serializable {
      *------------------------------------------------------------
      * BEGIN: User 'password' attribute
      * This is the BCrypt hashed password of the user
-     * org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder
+     * com.aemreunal.service.PasswordHashingService
      */
     @Column(name = "password", nullable = false)
     @Size(min = BCRYPT_HASH_LENGTH, max = BCRYPT_HASH_LENGTH)
@@ -141,6 +140,30 @@ public class User extends ResourceSupport implements Serializable {
      *------------------------------------------------------------
      */
 
+    /*
+     *------------------------------------------------------------
+     * BEGIN: User 'deleted' attribute
+     *
+     * Set when the user is deleted, along with the 'deleted' flags of
+     * the projects of the user. The username stays taken until the
+     * PurgeService has purged the projects and deleted the user row.
+     */
+    @Column(name = "deleted", nullable = false)
+    @Access(AccessType.PROPERTY)
+    private boolean deleted = false;
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(boolean deleted) {
+        this.deleted = deleted;
+    }
+    /*
+     * END: User 'deleted' attribute
+     *------------------------------------------------------------
+     */
+
     @Override
     public boolean equals(Object obj) {
         if(!(obj instanceof User)) {
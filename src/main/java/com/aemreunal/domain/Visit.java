@@ -0,0 +1,135 @@
+package com.aemreunal.domain;
+
+import java.io.Serializable;
+import javax.persistence.*;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+/**
+ * A visit of a device to a beacon: the device entered the range of the beacon with its
+ * first sighting, dwelled there while it kept sighting it and exited after its last
+ * sighting, when no sighting followed within the gap timeout. Visits are built from the
+ * beacon queries by the {@link com.aemreunal.service.VisitService}, and are only
+ * written once they have ended.
+ * <p/>
+ * The project, beacon, scenario and device are stored as plain IDs instead of
+ * relationships, so the visits are written in batches of multi-row inserts. The
+ * scenario is the one the beacon resolved to when the visit started. The dwell time is
+ * also stored as the index of its bucket in {@link #DWELL_BUCKET_SECONDS}, so the
+ * dwell distributions are computed with a single GROUP BY.
+ */
+@Entity
+@Table(name = "visits",
+       indexes = { @Index(name = "idx_visits_beacon_enter", columnList = "beacon_id, enter_date"),
+                   @Index(name = "idx_visits_scenario_enter", columnList = "scenario_id, enter_date"),
+                   @Index(name = "idx_visits_project", columnList = "project_id") })
+public class Visit implements Serializable {
+    /**
+     * The upper bounds of the dwell time buckets, in seconds. Dwell times of at least
+     * the last bound are in one more, unbounded, bucket.
+     */
+    public static final int[] DWELL_BUCKET_SECONDS = { 10, 30, 60, 2 * 60, 5 * 60, 10 * 60, 30 * 60, 60 * 60 };
+
+    @Id
+    @Column(name = "visit_id")
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long visitId;
+
+    @Column(name = "project_id", nullable = false)
+    private Long projectId;
+
+    @Column(name = "beacon_id", nullable = false)
+    private Long beaconId;
+
+    @Column(name = "scenario_id", nullable = true)
+    private Long scenarioId;
+
+    @Column(name = "device_id", nullable = false)
+    private Long deviceId;
+
+    // Milliseconds since the epoch, as are the exit date and the dwell time
+    @Column(name = "enter_date", nullable = false)
+    private long enterDate;
+
+    @Column(name = "exit_date", nullable = false)
+    private long exitDate;
+
+    @Column(name = "dwell_millis", nullable = false)
+    private long dwellMillis;
+
+    @Column(name = "dwell_bucket", nullable = false)
+    private int dwellBucket;
+
+    @Column(name = "sightings", nullable = false)
+    private int sightings;
+
+    public Visit() {
+        // Empty constructor for Spring & Hibernate
+    }
+
+    /**
+     * @return The index of the bucket in {@link #DWELL_BUCKET_SECONDS} of the given
+     * dwell time
+     */
+    public static int dwellBucketOf(long dwellMillis) {
+        int bucket = 0;
+        while (bucket < DWELL_BUCKET_SECONDS.length && dwellMillis >= DWELL_BUCKET_SECONDS[bucket] * 1000L) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    public Long getVisitId() {
+        return visitId;
+    }
+
+    public Long getProjectId() {
+        return projectId;
+    }
+
+    public Long getBeaconId() {
+        return beaconId;
+    }
+
+    public Long getScenarioId() {
+        return scenarioId;
+    }
+
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    public long getEnterDate() {
+        return enterDate;
+    }
+
+    public long getExitDate() {
+        return exitDate;
+    }
+
+    public long getDwellMillis() {
+        return dwellMillis;
+    }
+
+    public int getDwellBucket() {
+        return dwellBucket;
+    }
+
+    public int getSightings() {
+        return sightings;
+    }
+}
@@ -0,0 +1,23 @@
+package com.aemreunal.exception;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+public class ConcurrentUpdateException extends IllegalStateException {
+
+    public ConcurrentUpdateException() {
+        super("The resource was modified by another request at the same time. No modifications have been made, please try again.");
+    }
+}
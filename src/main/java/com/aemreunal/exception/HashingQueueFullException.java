@@ -0,0 +1,23 @@
+package com.aemreunal.exception;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+public class HashingQueueFullException extends IllegalStateException {
+    public HashingQueueFullException() {
+        super("The server is busy verifying other passwords. Please try again later.");
+    }
+}
@@ -20,5 +20,8 @@ public class MalformedRequestException extends NullPointerException {
     public MalformedRequestException() {
         super("Your request is malformed. Please try again.");
     }
-}
 
+    public MalformedRequestException(String field) {
+        super("The \'" + field + "\' field of your request is missing or malformed. Please try again.");
+    }
+}
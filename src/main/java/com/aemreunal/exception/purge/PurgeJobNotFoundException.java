@@ -0,0 +1,23 @@
+package com.aemreunal.exception.purge;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+public class PurgeJobNotFoundException extends NullPointerException {
+    public PurgeJobNotFoundException() {
+        super("The requested purge job can not be found.");
+    }
+}
@@ -0,0 +1,23 @@
+package com.aemreunal.exception.push;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+public class InvalidDeviceTokenException extends IllegalArgumentException {
+    public InvalidDeviceTokenException(String token) {
+        super("The device token '" + token + "' is not a valid APNS device token!");
+    }
+}
@@ -0,0 +1,23 @@
+package com.aemreunal.exception.push;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+public class PushNotEnabledException extends IllegalStateException {
+    public PushNotEnabledException() {
+        super("Push notifications are not enabled on this server.");
+    }
+}
@@ -0,0 +1,23 @@
+package com.aemreunal.exception.push;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+public class PushQueueFullException extends IllegalStateException {
+    public PushQueueFullException(Long scenarioId) {
+        super("The push queue is full, the scenario with ID " + scenarioId + " can not be pushed right now. Please try again later.");
+    }
+}
@@ -0,0 +1,27 @@
+package com.aemreunal.exception.user;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+public class InvalidAccessTokenException extends IllegalArgumentException {
+    public InvalidAccessTokenException() {
+        super("The access token is invalid or has expired. Please log in again.");
+    }
+
+    public InvalidAccessTokenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,23 @@
+package com.aemreunal.exception.user;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+public class InvalidCredentialsException extends IllegalArgumentException {
+    public InvalidCredentialsException() {
+        super("The password is incorrect!");
+    }
+}
@@ -0,0 +1,266 @@
+package com.aemreunal.filter;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.springframework.web.filter.OncePerRequestFilter;
+import com.aemreunal.config.GlobalSettings;
+
+/**
+ * Compresses the responses of clients that accept gzip, if the response is at least
+ * {@link GlobalSettings#GZIP_MIN_RESPONSE_SIZE} bytes long.
+ * <p/>
+ * The response is buffered until it reaches that size. Smaller responses are sent as
+ * they are, as compressing them would save less than the overhead it adds. Larger
+ * responses are compressed as they are written, so they are never held in memory as a
+ * whole. Responses that already have a 'Content-Encoding' are not touched.
+ */
+public class GzipResponseFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        if (!acceptsGzip(request.getHeader("Accept-Encoding"))) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        response.addHeader("Vary", "Accept-Encoding");
+        GzipResponseWrapper wrappedResponse = new GzipResponseWrapper(response);
+        filterChain.doFilter(request, wrappedResponse);
+        wrappedResponse.finish();
+    }
+
+    private boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] codingAndQuality = coding.trim().split(";");
+            if (codingAndQuality[0].trim().equalsIgnoreCase("gzip")) {
+                // "gzip;q=0" means gzip is not acceptable
+                return codingAndQuality.length == 1 || !codingAndQuality[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static class GzipResponseWrapper extends HttpServletResponseWrapper {
+        private final ThresholdOutputStream outputStream;
+        private PrintWriter writer;
+
+        private GzipResponseWrapper(HttpServletResponse response) {
+            super(response);
+            this.outputStream = new ThresholdOutputStream(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(outputStream, getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            checkContentEncoding(name);
+            super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            checkContentEncoding(name);
+            super.addHeader(name, value);
+        }
+
+        private void checkContentEncoding(String name) {
+            if (name.equalsIgnoreCase("Content-Encoding")) {
+                outputStream.passThrough();
+            }
+        }
+
+        @Override
+        public void setContentLength(int length) {
+            // The length is only known after it is decided whether to compress
+        }
+
+        @Override
+        public void setContentLengthLong(long length) {
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            outputStream.flush();
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            outputStream.reset();
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            outputStream.reset();
+        }
+
+        private void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            outputStream.finish();
+        }
+    }
+
+    private static class ThresholdOutputStream extends ServletOutputStream {
+        private final HttpServletResponse response;
+        private final byte[]              buffer = new byte[GlobalSettings.GZIP_MIN_RESPONSE_SIZE];
+        private int                       bufferedBytes = 0;
+        private boolean                   finished = false;
+
+        // Null while buffering
+        private ServletOutputStream responseStream;
+        private GZIPOutputStream    gzipStream;
+
+        private ThresholdOutputStream(HttpServletResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (responseStream == null) {
+                if (bufferedBytes + length <= buffer.length) {
+                    System.arraycopy(bytes, offset, buffer, bufferedBytes, length);
+                    bufferedBytes += length;
+                    return;
+                }
+                startCompressing();
+            }
+            if (gzipStream != null) {
+                gzipStream.write(bytes, offset, length);
+            } else {
+                responseStream.write(bytes, offset, length);
+            }
+        }
+
+        private void startCompressing() throws IOException {
+            if (!response.isCommitted()) {
+                response.setHeader("Content-Encoding", "gzip");
+            }
+            responseStream = response.getOutputStream();
+            gzipStream = new GZIPOutputStream(responseStream, buffer.length);
+            gzipStream.write(buffer, 0, bufferedBytes);
+        }
+
+        /**
+         * Writes the response as it is, used when the response has been encoded by the
+         * handler itself.
+         */
+        private void passThrough() {
+            if (responseStream != null) {
+                return;
+            }
+            try {
+                responseStream = response.getOutputStream();
+                responseStream.write(buffer, 0, bufferedBytes);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // A flush while buffering is ignored, the response is written once it is
+            // known whether it will be compressed
+            if (gzipStream != null) {
+                gzipStream.flush();
+            } else if (responseStream != null) {
+                responseStream.flush();
+            }
+        }
+
+        private void reset() {
+            if (responseStream == null) {
+                bufferedBytes = 0;
+            }
+        }
+
+        private void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (responseStream == null) {
+                // Below the threshold, send as it is
+                if (bufferedBytes > 0) {
+                    response.setContentLength(bufferedBytes);
+                    response.getOutputStream().write(buffer, 0, bufferedBytes);
+                }
+            } else if (gzipStream != null) {
+                gzipStream.finish();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            response.getOutputStream().close();
+        }
+
+        // The bytes end up in the stream of the response, so it decides both
+        @Override
+        public boolean isReady() {
+            try {
+                return response.getOutputStream().isReady();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            try {
+                response.getOutputStream().setWriteListener(writeListener);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to get the output stream of the response", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.Date;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * The version of a resource, used to answer conditional GET requests without loading
+ * the resource. It is created by repository queries that only read version columns,
+ * for example:
+ * <pre>
+ * SELECT NEW com.aemreunal.helper.EntityVersion(b.version, b.lastModified, p.contentVersion, p.contentModified)
+ * FROM Beacon b JOIN b.project p WHERE ...
+ * </pre>
+ * The ETags are weak, since the same version may be serialized differently (for
+ * example with different links).
+ */
+public class EntityVersion {
+    private final String eTag;
+    private final Date   lastModified;
+
+    public EntityVersion(String tag, Date lastModified) {
+        this.eTag = "W/\"" + tag + "\"";
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * The version of a single entity, or of a collection.
+     */
+    public EntityVersion(Long version, Date lastModified) {
+        this(String.valueOf(version), lastModified);
+    }
+
+    /**
+     * The version of an entity in a project. As the JSON of an entity includes the
+     * entities it is related to (like the scenario of a beacon), it changes when the
+     * content of the project changes as well.
+     */
+    public EntityVersion(Long version, Date lastModified, Long contentVersion, Date contentModified) {
+        this(version + "." + contentVersion, latestOf(lastModified, contentModified));
+    }
+
+    private static Date latestOf(Date first, Date second) {
+        if (first == null) {
+            return second;
+        } else if (second == null || first.after(second)) {
+            return first;
+        }
+        return second;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Checks the 'If-None-Match' header of the request or, if it has none, its
+     * 'If-Modified-Since' header.
+     *
+     * @return Whether the client already has this version of the resource
+     */
+    public boolean isNotModified(HttpServletRequest request) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matchesAny(ifNoneMatch);
+        }
+        if (lastModified == null) {
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            // Malformed date, ignore the header
+            return false;
+        }
+        // HTTP dates have a precision of seconds
+        return ifModifiedSince != -1 && lastModified.getTime() / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private boolean matchesAny(String ifNoneMatch) {
+        String opaqueTag = stripWeakness(eTag);
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || stripWeakness(tag).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeakness(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    /**
+     * @return The 'ETag', 'Last-Modified' and 'Cache-Control' headers of this version.
+     * Clients are told to revalidate every time, so changes are seen immediately.
+     */
+    public HttpHeaders toHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("ETag", eTag);
+        if (lastModified != null) {
+            headers.setLastModified(lastModified.getTime());
+        }
+        headers.setCacheControl("private, no-cache");
+        return headers;
+    }
+
+    public <T> ResponseEntity<T> toNotModifiedResponse() {
+        return new ResponseEntity<T>(toHeaders(), HttpStatus.NOT_MODIFIED);
+    }
+}
@@ -0,0 +1,147 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.hateoas.Link;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+/**
+ * A URI template of a controller method, like "/human/{username}/projects/{projectId}",
+ * split into its literal parts once, so that creating a link only appends the parts and
+ * the path variables to the base URI of the request.
+ * <p/>
+ * This replaces {@code linkTo(methodOn(...))}, which creates a proxy of the controller,
+ * inspects the annotations of the method and builds the base URI again for every
+ * link. The base URI is built once per request here, the same way {@link
+ * org.springframework.hateoas.mvc.ControllerLinkBuilder ControllerLinkBuilder} does
+ * it, including the 'X-Forwarded-*' headers of proxies.
+ * <p/>
+ * The templates of the controllers are in {@link LinkTemplates}.
+ */
+public class LinkTemplate {
+    private static final String BASE_URI_ATTRIBUTE = LinkTemplate.class.getName() + ".BASE_URI";
+
+    // The literal parts around the variables, one more than the number of variables
+    private final String[] literals;
+
+    public LinkTemplate(String template) {
+        List<String> parts = new ArrayList<String>();
+        int partStart = 0;
+        int variableStart;
+        while ((variableStart = template.indexOf('{', partStart)) != -1) {
+            parts.add(template.substring(partStart, variableStart));
+            partStart = template.indexOf('}', variableStart) + 1;
+        }
+        parts.add(template.substring(partStart));
+        literals = parts.toArray(new String[parts.size()]);
+    }
+
+    /**
+     * @param rel
+     *     The relation of the link
+     * @param values
+     *     The values of the path variables, in the order they appear in the template
+     *
+     * @return The link to the expanded template
+     */
+    public Link link(String rel, Object... values) {
+        return new Link(expand(values), rel);
+    }
+
+    public String expand(Object... values) {
+        if (values.length != literals.length - 1) {
+            throw new IllegalArgumentException("Expected " + (literals.length - 1) + " path variables, got " + values.length);
+        }
+        String baseUri = getBaseUri();
+        StringBuilder uri = new StringBuilder(baseUri.length() + 64);
+        uri.append(baseUri).append(literals[0]);
+        for (int i = 0; i < values.length; i++) {
+            appendPathSegment(uri, String.valueOf(values[i]));
+            uri.append(literals[i + 1]);
+        }
+        return uri.toString();
+    }
+
+    private static void appendPathSegment(StringBuilder uri, String value) {
+        // IDs and most usernames need no encoding, so it is only done when necessary
+        if (isUnreserved(value)) {
+            uri.append(value);
+            return;
+        }
+        try {
+            uri.append(UriUtils.encodePathSegment(value, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isUnreserved(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean unreserved = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                                 c == '-' || c == '.' || c == '_' || c == '~';
+            if (!unreserved) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getBaseUri() {
+        RequestAttributes attributes = RequestContextHolder.currentRequestAttributes();
+        String baseUri = (String) attributes.getAttribute(BASE_URI_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (baseUri == null) {
+            baseUri = buildBaseUri(((ServletRequestAttributes) attributes).getRequest());
+            attributes.setAttribute(BASE_URI_ATTRIBUTE, baseUri, RequestAttributes.SCOPE_REQUEST);
+        }
+        return baseUri;
+    }
+
+    private static String buildBaseUri(HttpServletRequest request) {
+        ServletUriComponentsBuilder builder = ServletUriComponentsBuilder.fromServletMapping(request);
+        String forwardedSsl = request.getHeader("X-Forwarded-Ssl");
+        if (StringUtils.hasText(forwardedSsl) && forwardedSsl.equalsIgnoreCase("on")) {
+            builder.scheme("https");
+        }
+        String forwardedHost = request.getHeader("X-Forwarded-Host");
+        if (StringUtils.hasText(forwardedHost)) {
+            String host = StringUtils.commaDelimitedListToStringArray(forwardedHost)[0].trim();
+            if (host.contains(":")) {
+                String[] hostAndPort = StringUtils.split(host, ":");
+                builder.host(hostAndPort[0]);
+                builder.port(Integer.parseInt(hostAndPort[1]));
+            } else {
+                builder.host(host);
+                builder.port(-1);
+            }
+        }
+        String forwardedPort = request.getHeader("X-Forwarded-Port");
+        if (StringUtils.hasText(forwardedPort)) {
+            builder.port(Integer.parseInt(forwardedPort));
+        }
+        return builder.build().toUriString();
+    }
+}
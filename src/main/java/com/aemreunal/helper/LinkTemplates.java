@@ -0,0 +1,39 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import com.aemreunal.config.GlobalSettings;
+
+/**
+ * The link templates of the controller methods that entities link to.
+ */
+public class LinkTemplates {
+    // UserController.getUserByUsername()
+    public static final LinkTemplate USER         = new LinkTemplate(GlobalSettings.USER_SPECIFIC_MAPPING);
+    // ProjectController.getProjectById()
+    public static final LinkTemplate PROJECT      = new LinkTemplate(GlobalSettings.PROJECT_SPECIFIC_MAPPING);
+    // BeaconController.getBeaconsOfProject()
+    public static final LinkTemplate BEACONS      = new LinkTemplate(GlobalSettings.BEACON_PATH_MAPPING);
+    // BeaconController.getBeacon()
+    public static final LinkTemplate BEACON       = new LinkTemplate(GlobalSettings.BEACON_SPECIFIC_MAPPING);
+    // BeaconGroupController.viewBeaconGroupsOfProject()
+    public static final LinkTemplate BEACONGROUPS = new LinkTemplate(GlobalSettings.BEACONGROUP_PATH_MAPPING);
+    // BeaconGroupController.viewBeaconGroup()
+    public static final LinkTemplate BEACONGROUP  = new LinkTemplate(GlobalSettings.BEACONGROUP_SPECIFIC_MAPPING);
+    // ScenarioController.getScenario()
+    public static final LinkTemplate SCENARIO     = new LinkTemplate(GlobalSettings.SCENARIO_SPECIFIC_MAPPING);
+}
@@ -0,0 +1,69 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import com.aemreunal.exception.MalformedRequestException;
+
+/**
+ * How a searched name is matched against the names of projects and beacon groups.
+ * <p/>
+ * Names are compared with the case-insensitive collation of the database, instead of
+ * upper-casing the column, so that a {@link #PREFIX prefix} search is a range scan of
+ * the name index. A {@link #CONTAINS contains} search can not use it as a range, but it
+ * only reads the index instead of the table.
+ */
+public enum NameMatch {
+    PREFIX,
+    CONTAINS;
+
+    public static final char ESCAPE_CHAR = '\\';
+
+    /**
+     * @param parameter
+     *     The "match" request parameter, "prefix" or "contains"
+     *
+     * @throws MalformedRequestException
+     *     If the parameter is neither
+     */
+    public static NameMatch fromParameter(String parameter) throws MalformedRequestException {
+        if (parameter.equalsIgnoreCase("prefix")) {
+            return PREFIX;
+        } else if (parameter.equalsIgnoreCase("contains")) {
+            return CONTAINS;
+        }
+        throw new MalformedRequestException("match");
+    }
+
+    /**
+     * @return The LIKE pattern for the given name, with its wildcard characters escaped
+     * with {@link #ESCAPE_CHAR}
+     */
+    public String toPattern(String name) {
+        StringBuilder pattern = new StringBuilder(name.length() + 4);
+        if (this == CONTAINS) {
+            pattern.append('%');
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            if (ch == '%' || ch == '_' || ch == ESCAPE_CHAR) {
+                pattern.append(ESCAPE_CHAR);
+            }
+            pattern.append(ch);
+        }
+        return pattern.append('%').toString();
+    }
+}
@@ -0,0 +1,105 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+public class Paging {
+    public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+    public static final String LINK_HEADER        = "Link";
+
+    /**
+     * Appends the ID to the sort order of the given page request, so that the pages of a
+     * collection are stable. Collections are sorted by ID unless another order is
+     * requested.
+     *
+     * @see #withStableOrder(Pageable, Sort, String)
+     */
+    public static Pageable withStableOrder(Pageable pageable, String idProperty) {
+        return withStableOrder(pageable, null, idProperty);
+    }
+
+    /**
+     * Appends the ID to the sort order of the given page request, so that elements with
+     * equal sort keys (like the same name) don't move between pages.
+     *
+     * @param pageable
+     *     The requested page
+     * @param defaultSort
+     *     The sort order to use if the request has none, or null to sort by ID
+     * @param idProperty
+     *     The name of the ID property of the entity
+     *
+     * @return The page request with a stable order
+     */
+    public static Pageable withStableOrder(Pageable pageable, Sort defaultSort, String idProperty) {
+        Sort sort = pageable.getSort() == null ? defaultSort : pageable.getSort();
+        Sort byId = new Sort(idProperty);
+        return new PageRequest(pageable.getPageNumber(), pageable.getPageSize(), sort == null ? byId : sort.and(byId));
+    }
+
+    /**
+     * Creates the response for a page of a collection. The body is the content of the
+     * page, and the total number of elements in the collection is sent in the
+     * {@value #TOTAL_COUNT_HEADER} header. The adjacent pages are linked in the "Link"
+     * header, with the "next" and "prev" relations, so clients can walk the collection
+     * without building URLs themselves.
+     *
+     * @param page
+     *     The page
+     * @param headers
+     *     The other headers of the response, like its {@link EntityVersion version}
+     * @param request
+     *     The request of the page, whose URL the links are built from
+     *
+     * @return The response
+     */
+    public static <T> ResponseEntity<List<T>> toResponse(Page<T> page, HttpHeaders headers, HttpServletRequest request) {
+        headers.set(TOTAL_COUNT_HEADER, String.valueOf(page.getTotalElements()));
+        StringBuilder links = new StringBuilder();
+        if (page.hasNext()) {
+            appendLink(links, request, page.getNumber() + 1, "next");
+        }
+        if (page.hasPrevious()) {
+            appendLink(links, request, page.getNumber() - 1, "prev");
+        }
+        if (links.length() > 0) {
+            headers.set(LINK_HEADER, links.toString());
+        }
+        return new ResponseEntity<List<T>>(page.getContent(), headers, HttpStatus.OK);
+    }
+
+    private static void appendLink(StringBuilder links, HttpServletRequest request, int pageNumber, String rel) {
+        if (links.length() > 0) {
+            links.append(", ");
+        }
+        String uri = ServletUriComponentsBuilder.fromRequest(request)
+                                                .replaceQueryParam("page", pageNumber)
+                                                .build()
+                                                .toUriString();
+        links.append('<').append(uri).append(">; rel=\"").append(rel).append('"');
+    }
+}
@@ -0,0 +1,43 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.util.UriComponentsBuilder;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.PurgeJob;
+
+public class PurgeJobs {
+    /**
+     * Creates the headers of a deletion response, pointing the Location header to the
+     * status of the purge job of the deleted entity.
+     *
+     * @param builder
+     *     The URI builder of the deletion request
+     * @param purgeJob
+     *     The purge job of the deleted entity
+     *
+     * @return The headers of the response
+     */
+    public static HttpHeaders locationOf(UriComponentsBuilder builder, PurgeJob purgeJob) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setLocation(builder.path(GlobalSettings.STATUS_PATH_MAPPING + GlobalSettings.STATUS_PURGE_MAPPING)
+                                   .buildAndExpand(purgeJob.getJobId().toString())
+                                   .toUri());
+        return headers;
+    }
+}
@@ -0,0 +1,55 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 digests of project secrets, to identify a secret in memory (in caches and
+ * rate limits) without keeping the secret itself or verifying it with BCrypt.
+ */
+public class SecretDigests {
+    private static final Charset UTF_8      = Charset.forName("UTF-8");
+    private static final char[]  HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // MessageDigest instances are not thread-safe
+    private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Unable to create the secret digest!", e);
+            }
+        }
+    };
+
+    public static byte[] digest(String secret) {
+        return DIGESTS.get().digest(secret.getBytes(UTF_8));
+    }
+
+    public static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
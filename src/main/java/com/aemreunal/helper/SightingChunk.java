@@ -0,0 +1,395 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An immutable chunk of beacon sightings, stored column by column in compressed
+ * primitive arrays:
+ * <ul>
+ * <li>The beacon IDs are dictionary encoded. The distinct beacon IDs of the chunk are
+ * kept sorted, and each row holds the index of its beacon ID as a varint, so a filter on
+ * beacons can skip the whole chunk by its dictionary alone.</li>
+ * <li>The device IDs and the times are delta encoded, as zigzag varints.</li>
+ * </ul>
+ * A chunk is built with a {@link Builder}. Its columns can be spilled to a file, after
+ * which they are read from the file at every scan. The dictionary and the time range of
+ * the chunk always stay in memory.
+ */
+public class SightingChunk {
+    /**
+     * The device ID of a sighting without a device.
+     */
+    public static final long NO_DEVICE = 0L;
+
+    private final int    rows;
+    private final long   minTime;
+    private final long   maxTime;
+    private final long[] beaconIds;
+
+    // The file is set before the columns are dropped, so a scan finds one or the other
+    private volatile Columns columns;
+    private volatile File    file;
+
+    private SightingChunk(int rows, long minTime, long maxTime, long[] beaconIds, Columns columns) {
+        this.rows = rows;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.beaconIds = beaconIds;
+        this.columns = columns;
+    }
+
+    /**
+     * A consumer of the rows of a scan.
+     */
+    public interface Visitor {
+        void visit(long timeMillis, long beaconId, long deviceId);
+    }
+
+    /**
+     * @return Whether any of the sightings may be in the given time range
+     */
+    public boolean overlaps(long fromMillis, long toMillis) {
+        return minTime < toMillis && maxTime >= fromMillis;
+    }
+
+    /**
+     * @param sortedBeaconIds
+     *     The beacon IDs in ascending order, or null for any beacon
+     *
+     * @return Whether any of the sightings is of one of the given beacons
+     */
+    public boolean containsAnyOf(long[] sortedBeaconIds) {
+        if (sortedBeaconIds == null) {
+            return true;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < beaconIds.length && j < sortedBeaconIds.length) {
+            if (beaconIds[i] == sortedBeaconIds[j]) {
+                return true;
+            }
+            if (beaconIds[i] < sortedBeaconIds[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Passes the sightings in the given time range, and of the given beacons, to the
+     * visitor, in the order they were added.
+     *
+     * @param sortedBeaconIds
+     *     The beacon IDs in ascending order, or null for any beacon
+     *
+     * @return The number of sightings passed to the visitor
+     *
+     * @throws IOException
+     *     If the chunk has been spilled, and its file can't be read
+     */
+    public int scan(long fromMillis, long toMillis, long[] sortedBeaconIds, Visitor visitor) throws IOException {
+        Columns data = columns;
+        if (data == null) {
+            data = Columns.readFrom(file);
+        }
+        boolean[] matches = null;
+        if (sortedBeaconIds != null) {
+            matches = new boolean[beaconIds.length];
+            for (int code = 0; code < beaconIds.length; code++) {
+                matches[code] = Arrays.binarySearch(sortedBeaconIds, beaconIds[code]) >= 0;
+            }
+        }
+        VarintReader beaconCodes = new VarintReader(data.beaconCodes);
+        VarintReader deviceDeltas = new VarintReader(data.deviceDeltas);
+        VarintReader timeDeltas = new VarintReader(data.timeDeltas);
+        long deviceId = 0;
+        long time = 0;
+        int matched = 0;
+        for (int row = 0; row < rows; row++) {
+            int code = (int) beaconCodes.next();
+            // Every column is decoded, as the deltas carry on from row to row
+            deviceId += unzigzag(deviceDeltas.next());
+            time += unzigzag(timeDeltas.next());
+            if ((matches == null || matches[code]) && time >= fromMillis && time < toMillis) {
+                visitor.visit(time, beaconIds[code], deviceId);
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Writes the columns to the given file, and drops them from memory.
+     *
+     * @throws IOException
+     *     If the file can't be written, in which case the columns are kept
+     */
+    public synchronized void spillTo(File spillFile) throws IOException {
+        Columns data = columns;
+        if (data == null) {
+            return;
+        }
+        data.writeTo(spillFile);
+        file = spillFile;
+        columns = null;
+    }
+
+    /**
+     * Deletes the file of a spilled chunk. The chunk can't be scanned afterwards.
+     */
+    public synchronized void delete() {
+        if (file != null && !file.delete() && file.exists()) {
+            System.err.println("Unable to delete " + file);
+        }
+    }
+
+    public boolean isSpilled() {
+        return columns == null;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public long getMinTime() {
+        return minTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    /**
+     * @return The size of the columns, in memory or in the file
+     */
+    public int getColumnBytes() {
+        Columns data = columns;
+        return data == null ? (int) file.length() : data.size();
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Collects sightings in growable primitive arrays, to be built into a chunk. Must be
+     * accessed by one thread at a time.
+     */
+    public static class Builder {
+        private long[] times;
+        private long[] beacons;
+        private long[] devices;
+        private int    size = 0;
+
+        public Builder(int initialCapacity) {
+            times = new long[initialCapacity];
+            beacons = new long[initialCapacity];
+            devices = new long[initialCapacity];
+        }
+
+        public void add(long timeMillis, long beaconId, long deviceId) {
+            if (size == times.length) {
+                int capacity = Math.max(16, size * 2);
+                times = Arrays.copyOf(times, capacity);
+                beacons = Arrays.copyOf(beacons, capacity);
+                devices = Arrays.copyOf(devices, capacity);
+            }
+            times[size] = timeMillis;
+            beacons[size] = beaconId;
+            devices[size] = deviceId;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Copies the sightings added so far, which is much cheaper than building a chunk
+         * of them. The builder can still be added to afterwards, which doesn't change the
+         * copy.
+         */
+        public Builder snapshot() {
+            Builder copy = new Builder(0);
+            copy.times = Arrays.copyOf(times, size);
+            copy.beacons = Arrays.copyOf(beacons, size);
+            copy.devices = Arrays.copyOf(devices, size);
+            copy.size = size;
+            return copy;
+        }
+
+        /**
+         * Passes the sightings in the given time range, and of the given beacons, to the
+         * visitor, in the order they were added, from the arrays as they are. Must not be
+         * called while the builder is added to.
+         *
+         * @param sortedBeaconIds
+         *     The beacon IDs in ascending order, or null for any beacon
+         *
+         * @return The number of sightings passed to the visitor
+         */
+        public int scan(long fromMillis, long toMillis, long[] sortedBeaconIds, Visitor visitor) {
+            int matched = 0;
+            for (int row = 0; row < size; row++) {
+                if (times[row] >= fromMillis && times[row] < toMillis &&
+                    (sortedBeaconIds == null || Arrays.binarySearch(sortedBeaconIds, beacons[row]) >= 0)) {
+                    visitor.visit(times[row], beacons[row], devices[row]);
+                    matched++;
+                }
+            }
+            return matched;
+        }
+
+        /**
+         * Builds a chunk of the sightings added so far. The builder can still be added
+         * to afterwards, which doesn't change the chunk.
+         */
+        public SightingChunk build() {
+            long[] dictionary = Arrays.copyOf(beacons, size);
+            Arrays.sort(dictionary);
+            int distinct = 0;
+            for (int i = 0; i < dictionary.length; i++) {
+                if (i == 0 || dictionary[i] != dictionary[i - 1]) {
+                    dictionary[distinct++] = dictionary[i];
+                }
+            }
+            dictionary = Arrays.copyOf(dictionary, distinct);
+
+            VarintWriter beaconCodes = new VarintWriter(size);
+            VarintWriter deviceDeltas = new VarintWriter(size * 2);
+            VarintWriter timeDeltas = new VarintWriter(size * 2);
+            long minTime = Long.MAX_VALUE;
+            long maxTime = Long.MIN_VALUE;
+            long previousDevice = 0;
+            long previousTime = 0;
+            for (int row = 0; row < size; row++) {
+                beaconCodes.write(Arrays.binarySearch(dictionary, beacons[row]));
+                deviceDeltas.write(zigzag(devices[row] - previousDevice));
+                timeDeltas.write(zigzag(times[row] - previousTime));
+                previousDevice = devices[row];
+                previousTime = times[row];
+                minTime = Math.min(minTime, times[row]);
+                maxTime = Math.max(maxTime, times[row]);
+            }
+            Columns columns = new Columns(beaconCodes.toByteArray(), deviceDeltas.toByteArray(), timeDeltas.toByteArray());
+            return new SightingChunk(size, minTime, maxTime, dictionary, columns);
+        }
+    }
+
+    private static class Columns {
+        private final byte[] beaconCodes;
+        private final byte[] deviceDeltas;
+        private final byte[] timeDeltas;
+
+        private Columns(byte[] beaconCodes, byte[] deviceDeltas, byte[] timeDeltas) {
+            this.beaconCodes = beaconCodes;
+            this.deviceDeltas = deviceDeltas;
+            this.timeDeltas = timeDeltas;
+        }
+
+        private int size() {
+            return beaconCodes.length + deviceDeltas.length + timeDeltas.length;
+        }
+
+        private void writeTo(File file) throws IOException {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                for (byte[] column : new byte[][] { beaconCodes, deviceDeltas, timeDeltas }) {
+                    output.writeInt(column.length);
+                    output.write(column);
+                }
+            } finally {
+                output.close();
+            }
+        }
+
+        private static Columns readFrom(File file) throws IOException {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                byte[][] columns = new byte[3][];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = new byte[input.readInt()];
+                    input.readFully(columns[i]);
+                }
+                return new Columns(columns[0], columns[1], columns[2]);
+            } finally {
+                input.close();
+            }
+        }
+    }
+
+    private static class VarintWriter {
+        private byte[] bytes;
+        private int    length = 0;
+
+        private VarintWriter(int initialCapacity) {
+            bytes = new byte[Math.max(16, initialCapacity)];
+        }
+
+        private void write(long value) {
+            if (bytes.length - length < 10) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    private static class VarintReader {
+        private final byte[] bytes;
+        private       int    position = 0;
+
+        private VarintReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private long next() {
+            long value = 0;
+            int shift = 0;
+            byte current;
+            do {
+                current = bytes[position++];
+                value |= (long) (current & 0x7F) << shift;
+                shift += 7;
+            } while (current < 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes at most one call per key at once. A call made with a key while another call
+ * with the same key is in progress doesn't execute, but waits for the one in progress
+ * and returns its result, or throws its exception.
+ * <p/>
+ * The result of a call is not kept after it completes, so this is not a cache. It only
+ * stops identical concurrent calls from doing the same work.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+
+    private final AtomicLong calls     = new AtomicLong(0);
+    private final AtomicLong coalesced = new AtomicLong(0);
+
+    /**
+     * Executes the given call, unless a call with the same key is already in progress,
+     * in which case its result is returned instead.
+     *
+     * @throws RuntimeException
+     *     The exception thrown by the call, as is if it is unchecked, wrapped in an
+     *     IllegalStateException otherwise
+     */
+    public V execute(K key, Callable<V> call) {
+        calls.incrementAndGet();
+        FutureTask<V> task = new FutureTask<V>(call);
+        FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return resultOf(existing);
+        }
+        try {
+            task.run();
+        } finally {
+            inFlight.remove(key, task);
+        }
+        return resultOf(task);
+    }
+
+    private V resultOf(FutureTask<V> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    // The call is executed by another thread, so wait for it regardless
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return The number of calls, including the coalesced ones
+     */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * @return The number of calls that returned the result of another call in progress
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+}
@@ -0,0 +1,59 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.Collection;
+import javax.persistence.EntityManager;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+public class StreamingQuery {
+    /**
+     * Opens a forward-only, read-only cursor over the given HQL query, to read large
+     * results row by row in constant memory. The query should select plain column
+     * values rather than entities, so nothing accumulates in the session. The MySQL
+     * driver only streams the rows (instead of reading the whole result set into
+     * memory) when the fetch size is {@link Integer#MIN_VALUE}.
+     * <p/>
+     * The returned cursor must be closed by the caller.
+     *
+     * @param entityManager
+     *     The entity manager of the current transaction
+     * @param hql
+     *     The query, with named parameters
+     * @param parameters
+     *     The parameters of the query, as name, value, name, value...
+     *
+     * @return The cursor
+     */
+    public static ScrollableResults scroll(EntityManager entityManager, String hql, Object... parameters) {
+        Query query = entityManager.unwrap(Session.class)
+                                   .createQuery(hql)
+                                   .setReadOnly(true)
+                                   .setFetchSize(Integer.MIN_VALUE);
+        for (int i = 0; i < parameters.length; i += 2) {
+            if (parameters[i + 1] instanceof Collection) {
+                query.setParameterList((String) parameters[i], (Collection) parameters[i + 1]);
+            } else {
+                query.setParameter((String) parameters[i], parameters[i + 1]);
+            }
+        }
+        return query.scroll(ScrollMode.FORWARD_ONLY);
+    }
+}
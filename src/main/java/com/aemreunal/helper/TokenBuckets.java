@@ -0,0 +1,156 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket for each key, all with the same rate and burst size, to rate limit
+ * the requests of each key.
+ * <p/>
+ * The buckets are split into stripes by the hash of their key, each with a lock of its
+ * own, so requests of different keys rarely wait for each other. Each stripe keeps at
+ * most a fixed number of buckets, evicting the least recently used one, so that keys
+ * made up by a client can't exhaust the memory. An evicted key starts again with a
+ * full bucket.
+ */
+public class TokenBuckets {
+    private final double nanosPerToken;
+    private final double burst;
+    private final Stripe[] stripes;
+
+    /**
+     * @param tokensPerSecond
+     *     The rate at which each bucket is refilled
+     * @param burst
+     *     The capacity of each bucket, i.e. how many requests of a key are let through
+     *     at once after it has been idle
+     * @param stripeCount
+     *     The number of stripes
+     * @param maxKeys
+     *     The maximum number of buckets, in total
+     */
+    public TokenBuckets(double tokensPerSecond, int burst, int stripeCount, int maxKeys) {
+        this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / tokensPerSecond;
+        this.burst = burst;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(Math.max(1, maxKeys / stripeCount));
+        }
+    }
+
+    /**
+     * Takes a token from the bucket of the given key, if it has one.
+     *
+     * @param key
+     *     The key to take the token of
+     * @param nowNanos
+     *     The current time, from {@link System#nanoTime()}
+     *
+     * @return 0 if a token was taken, otherwise how many nanoseconds it takes for the
+     * bucket to have a token
+     */
+    public long tryAcquire(String key, long nowNanos) {
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            Bucket bucket = stripe.buckets.get(key);
+            if (bucket == null) {
+                bucket = new Bucket(burst, nowNanos);
+                stripe.buckets.put(key, bucket);
+            } else {
+                bucket.refill(nowNanos);
+            }
+            if (bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - bucket.tokens) * nanosPerToken);
+        }
+    }
+
+    /**
+     * Removes the buckets that are full, as they are no different from a new bucket.
+     */
+    public void pruneFull(long nowNanos) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Iterator<Bucket> iterator = stripe.buckets.values().iterator(); iterator.hasNext(); ) {
+                    Bucket bucket = iterator.next();
+                    bucket.refill(nowNanos);
+                    if (bucket.tokens >= burst) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of buckets currently kept
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.buckets.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripeOf(String key) {
+        // Spreads the hash, like HashMap does, before taking the remainder
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return stripes[(hash & 0x7FFFFFFF) % stripes.length];
+    }
+
+    private class Bucket {
+        private double tokens;
+        private long   lastRefillNanos;
+
+        private Bucket(double tokens, long nowNanos) {
+            this.tokens = tokens;
+            this.lastRefillNanos = nowNanos;
+        }
+
+        private void refill(long nowNanos) {
+            long elapsed = nowNanos - lastRefillNanos;
+            if (elapsed > 0) {
+                tokens = Math.min(burst, tokens + elapsed / nanosPerToken);
+                lastRefillNanos = nowNanos;
+            }
+        }
+    }
+
+    private static class Stripe {
+        private final Map<String, Bucket> buckets;
+
+        private Stripe(final int maxBuckets) {
+            // In access order, so the least recently used bucket is evicted
+            this.buckets = new LinkedHashMap<String, Bucket>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+                    return size() > maxBuckets;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.*;
+
+/**
+ * An in-memory trigram index over the UUIDs of the beacons of a project, for searching
+ * beacons by a part of their UUID without scanning the beacons table.
+ * <p/>
+ * Every 3-character substring (trigram) of an upper-case UUID is made of the 17
+ * characters 0-9, A-F and '-', so the posting lists are kept in an array indexed by the
+ * trigram itself. Each posting list holds the ordinals of the beacons containing that
+ * trigram, in increasing order. A search intersects the posting lists of the trigrams of
+ * the searched string, starting with the shortest, and verifies the few remaining
+ * candidates. Searches shorter than a trigram scan the UUIDs.
+ * <p/>
+ * Removed beacons leave their ordinals in the posting lists until enough of them pile
+ * up, at which point the posting lists are rebuilt.
+ * <p/>
+ * This class is not thread-safe, callers must synchronize on the index.
+ */
+public class UuidIndex {
+    private static final int GRAM_LENGTH   = 3;
+    private static final int ALPHABET_SIZE = 17;
+    private static final int GRAM_COUNT    = ALPHABET_SIZE * ALPHABET_SIZE * ALPHABET_SIZE;
+    // Posting lists are only rebuilt when at least this many entries are removed
+    private static final int MIN_REMOVED_TO_COMPACT = 1024;
+
+    // Beacon ID -> ordinal
+    private final Map<Long, Integer> ordinals = new HashMap<Long, Integer>();
+
+    // Indexed by ordinal, the UUID is null if the beacon is removed
+    private long[]   beaconIds = new long[16];
+    private String[] uuids     = new String[16];
+    private String[] majors    = new String[16];
+    private String[] minors    = new String[16];
+    private int      size      = 0;
+    private int      removed   = 0;
+
+    private int[][] postings     = new int[GRAM_COUNT][];
+    private int[]   postingSizes = new int[GRAM_COUNT];
+
+    private boolean loaded = false;
+
+    /**
+     * @return Whether the index has been filled with the existing beacons
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public void setLoaded(boolean loaded) {
+        this.loaded = loaded;
+    }
+
+    /**
+     * @return The number of beacons in the index
+     */
+    public int size() {
+        return ordinals.size();
+    }
+
+    /**
+     * Adds the beacon with the given ID to the index, or updates it if it is already
+     * indexed.
+     */
+    public void put(long beaconId, String uuid, String major, String minor) {
+        Integer existing = ordinals.get(beaconId);
+        if (existing != null) {
+            if (uuids[existing].equals(uuid)) {
+                majors[existing] = major;
+                minors[existing] = minor;
+                return;
+            }
+            remove(beaconId);
+        }
+        ensureCapacity(size + 1);
+        int ordinal = size++;
+        beaconIds[ordinal] = beaconId;
+        uuids[ordinal] = uuid;
+        majors[ordinal] = major;
+        minors[ordinal] = minor;
+        ordinals.put(beaconId, ordinal);
+        addPostings(ordinal, uuid);
+    }
+
+    public void remove(long beaconId) {
+        Integer ordinal = ordinals.remove(beaconId);
+        if (ordinal == null) {
+            return;
+        }
+        uuids[ordinal] = null;
+        majors[ordinal] = null;
+        minors[ordinal] = null;
+        removed++;
+        if (removed >= MIN_REMOVED_TO_COMPACT && removed > size / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Finds the beacons whose UUID contains the given string and that have the given
+     * major and minor.
+     *
+     * @param uuidPart
+     *     The string to search for in the (upper-case) UUIDs
+     * @param major
+     *     The major to match, or an empty string to match any
+     * @param minor
+     *     The minor to match, or an empty string to match any
+     *
+     * @return The IDs of the matching beacons, in the order they were indexed
+     */
+    public List<Long> search(String uuidPart, String major, String minor) {
+        List<Long> matches = new ArrayList<Long>();
+        int[] candidates = findCandidates(uuidPart);
+        int candidateCount = candidates == null ? size : candidates.length;
+        for (int i = 0; i < candidateCount; i++) {
+            int ordinal = candidates == null ? i : candidates[i];
+            String uuid = uuids[ordinal];
+            if (uuid != null &&
+                uuid.contains(uuidPart) &&
+                (major.isEmpty() || major.equals(majors[ordinal])) &&
+                (minor.isEmpty() || minor.equals(minors[ordinal]))) {
+                matches.add(beaconIds[ordinal]);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @return The ordinals that may contain the given string, or null if every ordinal
+     * has to be checked
+     */
+    private int[] findCandidates(String uuidPart) {
+        if (uuidPart.length() < GRAM_LENGTH) {
+            return null;
+        }
+        int gramCount = uuidPart.length() - GRAM_LENGTH + 1;
+        int[] grams = new int[gramCount];
+        for (int i = 0; i < gramCount; i++) {
+            grams[i] = gramAt(uuidPart, i);
+            if (grams[i] == -1) {
+                // Not a UUID character, so it is not indexed
+                return null;
+            }
+        }
+        // Intersect the shortest posting lists first
+        Integer[] byLength = new Integer[gramCount];
+        for (int i = 0; i < gramCount; i++) {
+            byLength[i] = grams[i];
+        }
+        Arrays.sort(byLength, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Integer.compare(postingSizes[first], postingSizes[second]);
+            }
+        });
+        int[] candidates = Arrays.copyOf(postingOf(byLength[0]), postingSizes[byLength[0]]);
+        for (int i = 1; i < gramCount && candidates.length > 0; i++) {
+            candidates = intersect(candidates, postingOf(byLength[i]), postingSizes[byLength[i]]);
+        }
+        return candidates;
+    }
+
+    private int[] postingOf(int gram) {
+        return postings[gram] == null ? new int[0] : postings[gram];
+    }
+
+    private static int[] intersect(int[] candidates, int[] posting, int postingSize) {
+        int[] result = new int[candidates.length];
+        int count = 0;
+        int j = 0;
+        for (int i = 0; i < candidates.length && j < postingSize; i++) {
+            while (j < postingSize && posting[j] < candidates[i]) {
+                j++;
+            }
+            if (j < postingSize && posting[j] == candidates[i]) {
+                result[count++] = candidates[i];
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private void addPostings(int ordinal, String uuid) {
+        for (int i = 0; i + GRAM_LENGTH <= uuid.length(); i++) {
+            int gram = gramAt(uuid, i);
+            if (gram == -1) {
+                continue;
+            }
+            int[] posting = postings[gram];
+            int postingSize = postingSizes[gram];
+            if (postingSize > 0 && posting[postingSize - 1] == ordinal) {
+                // The trigram occurs more than once in this UUID
+                continue;
+            }
+            if (posting == null) {
+                posting = postings[gram] = new int[4];
+            } else if (postingSize == posting.length) {
+                posting = postings[gram] = Arrays.copyOf(posting, postingSize * 2);
+            }
+            posting[postingSize] = ordinal;
+            postingSizes[gram] = postingSize + 1;
+        }
+    }
+
+    /**
+     * Drops the removed beacons, renumbering the rest and rebuilding the posting lists.
+     */
+    private void compact() {
+        long[] oldBeaconIds = beaconIds;
+        String[] oldUuids = uuids;
+        String[] oldMajors = majors;
+        String[] oldMinors = minors;
+        int oldSize = size;
+        int capacity = Math.max(16, ordinals.size());
+        beaconIds = new long[capacity];
+        uuids = new String[capacity];
+        majors = new String[capacity];
+        minors = new String[capacity];
+        postings = new int[GRAM_COUNT][];
+        postingSizes = new int[GRAM_COUNT];
+        ordinals.clear();
+        size = 0;
+        removed = 0;
+        for (int i = 0; i < oldSize; i++) {
+            if (oldUuids[i] != null) {
+                put(oldBeaconIds[i], oldUuids[i], oldMajors[i], oldMinors[i]);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > beaconIds.length) {
+            int newCapacity = Math.max(capacity, beaconIds.length * 2);
+            beaconIds = Arrays.copyOf(beaconIds, newCapacity);
+            uuids = Arrays.copyOf(uuids, newCapacity);
+            majors = Arrays.copyOf(majors, newCapacity);
+            minors = Arrays.copyOf(minors, newCapacity);
+        }
+    }
+
+    /**
+     * @return The trigram starting at the given index, as a number, or -1 if it contains
+     * a character that can not appear in an upper-case UUID
+     */
+    private static int gramAt(String string, int start) {
+        int gram = 0;
+        for (int i = start; i < start + GRAM_LENGTH; i++) {
+            int code = charCode(string.charAt(i));
+            if (code == -1) {
+                return -1;
+            }
+            gram = gram * ALPHABET_SIZE + code;
+        }
+        return gram;
+    }
+
+    private static int charCode(char ch) {
+        if (ch >= '0' && ch <= '9') {
+            return ch - '0';
+        } else if (ch >= 'A' && ch <= 'F') {
+            return ch - 'A' + 10;
+        } else if (ch == '-') {
+            return 16;
+        }
+        return -1;
+    }
+}
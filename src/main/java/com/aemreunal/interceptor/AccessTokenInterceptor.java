@@ -0,0 +1,77 @@
+package com.aemreunal.interceptor;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.exception.user.InvalidAccessTokenException;
+import com.aemreunal.service.AccessTokenService;
+
+/**
+ * Verifies the access token of the requests to the resources of a user, see {@link
+ * AccessTokenService}. The token must have been issued to the user in the request
+ * path.
+ * <p/>
+ * Requests without a token are let through unless {@link
+ * GlobalSettings#REQUIRE_ACCESS_TOKENS} is set, until every client logs in.
+ */
+@Component
+public class AccessTokenInterceptor extends HandlerInterceptorAdapter {
+    public static final String AUTHORIZATION_HEADER = "Authorization";
+    public static final String BEARER_PREFIX        = "Bearer ";
+
+    @Autowired
+    private AccessTokenService accessTokenService;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+        throws InvalidAccessTokenException {
+        String token = getToken(request);
+        if (token == null) {
+            if (GlobalSettings.REQUIRE_ACCESS_TOKENS) {
+                throw new InvalidAccessTokenException("An access token is required. Please log in.");
+            }
+            return true;
+        }
+        String username = accessTokenService.verify(token);
+        @SuppressWarnings("unchecked")
+        Map<String, String> pathVariables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        // Usernames are lower-cased when registered
+        if (pathVariables == null || !username.equals(String.valueOf(pathVariables.get("username")).toLowerCase())) {
+            throw new InvalidAccessTokenException("The access token does not belong to this user!");
+        }
+        return true;
+    }
+
+    /**
+     * Returns the access token in the Authorization header of the request, or null if
+     * there is none.
+     */
+    public static String getToken(HttpServletRequest request) {
+        String header = request.getHeader(AUTHORIZATION_HEADER);
+        if (header == null || !header.startsWith(BEARER_PREFIX)) {
+            return null;
+        }
+        return header.substring(BEARER_PREFIX.length()).trim();
+    }
+}
@@ -0,0 +1,49 @@
+package com.aemreunal.interceptor;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+import com.aemreunal.config.ReplicaRoutingDataSource;
+
+/**
+ * Marks the requests to the resources of a user as made on behalf of that user, so
+ * that the {@link ReplicaRoutingDataSource} can route the reads of the user to the
+ * primary database right after the user writes something.
+ */
+@Component
+public class ReplicaClientInterceptor extends HandlerInterceptorAdapter {
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        @SuppressWarnings("unchecked")
+        Map<String, String> pathVariables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (pathVariables != null && pathVariables.get("username") != null) {
+            // Usernames are lower-cased when registered
+            ReplicaRoutingDataSource.setCurrentClient(pathVariables.get("username").toLowerCase());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        ReplicaRoutingDataSource.setCurrentClient(null);
+    }
+}
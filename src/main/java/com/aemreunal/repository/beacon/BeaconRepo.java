@@ -1,9 +1,17 @@
 package com.aemreunal.repository.beacon;
 
+import java.util.List;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import com.aemreunal.domain.Beacon;
+import com.aemreunal.domain.BeaconGroup;
 import com.aemreunal.domain.Project;
+import com.aemreunal.domain.Scenario;
+import com.aemreunal.helper.EntityVersion;
 
 /*
  **************************
@@ -24,4 +32,18 @@ import com.aemreunal.domain.Project;
 // extends CrudRepository<Object type, Object ID type>
 public interface BeaconRepo extends CrudRepository<Beacon, Long>, JpaSpecificationExecutor {
     Beacon findByBeaconIdAndProject(Long beaconId, Project project);
+
+    Page<Beacon> findByProject(Project project, Pageable pageable);
+
+    Page<Beacon> findByGroup(BeaconGroup group, Pageable pageable);
+
+    @Query("SELECT b.beaconId FROM Beacon b WHERE b.group = :group")
+    List<Long> findIdsByGroup(@Param("group") BeaconGroup group);
+
+    Page<Beacon> findByScenario(Scenario scenario, Pageable pageable);
+
+    @Query("SELECT NEW com.aemreunal.helper.EntityVersion(b.version, b.lastModified, p.contentVersion, p.contentModified) " +
+           "FROM Beacon b JOIN b.project p " +
+           "WHERE b.beaconId = :beaconId AND p.projectId = :projectId AND p.owner.username = :username AND p.deleted = false")
+    EntityVersion findVersion(@Param("username") String username, @Param("projectId") Long projectId, @Param("beaconId") Long beaconId);
 }
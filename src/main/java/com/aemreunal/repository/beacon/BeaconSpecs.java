@@ -17,6 +17,7 @@ package com.aemreunal.repository.beacon;
  */
 
 import java.util.ArrayList;
+import java.util.Collection;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Predicate;
@@ -92,4 +93,33 @@ public class BeaconSpecs {
             }
         };
     }
+
+    /**
+     * Creates the search specification of the beacons with the given IDs
+     *
+     * @param projectId
+     *     The project ID to search in
+     * @param beaconIds
+     *     The IDs of the beacons to find, which may be empty
+     *
+     * @return The specification of the beacons
+     */
+    public static Specification<Beacon> beaconsWithIds(final Long projectId, final Collection<Long> beaconIds) {
+        return new Specification<Beacon>() {
+            public Predicate toPredicate(Root<Beacon> root, CriteriaQuery<?> query, CriteriaBuilder builder) {
+                if (beaconIds.isEmpty()) {
+                    // An empty IN list is not valid SQL
+                    return builder.disjunction();
+                }
+                ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+                // Project specification
+                predicates.add(builder.equal(root.get("project").get("projectId"), projectId));
+
+                // Beacon specification
+                predicates.add(root.get("beaconId").in(beaconIds));
+
+                return builder.and(predicates.toArray(new Predicate[predicates.size()]));
+            }
+        };
+    }
 }
@@ -1,9 +1,15 @@
 package com.aemreunal.repository.beaconGroup;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import com.aemreunal.domain.BeaconGroup;
 import com.aemreunal.domain.Project;
+import com.aemreunal.domain.Scenario;
+import com.aemreunal.helper.EntityVersion;
 
 /*
  **************************
@@ -24,4 +30,13 @@ import com.aemreunal.domain.Project;
 // extends CrudRepository<Object type, Object ID type>
 public interface BeaconGroupRepo extends CrudRepository<BeaconGroup, Long>, JpaSpecificationExecutor {
     BeaconGroup findByBeaconGroupIdAndProject(Long beaconGroupId, Project project);
+
+    Page<BeaconGroup> findByProject(Project project, Pageable pageable);
+
+    Page<BeaconGroup> findByScenario(Scenario scenario, Pageable pageable);
+
+    @Query("SELECT NEW com.aemreunal.helper.EntityVersion(g.version, g.lastModified, p.contentVersion, p.contentModified) " +
+           "FROM BeaconGroup g JOIN g.project p " +
+           "WHERE g.beaconGroupId = :beaconGroupId AND p.projectId = :projectId AND p.owner.username = :username AND p.deleted = false")
+    EntityVersion findVersion(@Param("username") String username, @Param("projectId") Long projectId, @Param("beaconGroupId") Long beaconGroupId);
 }
@@ -8,6 +8,7 @@ import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import org.springframework.data.jpa.domain.Specification;
 import com.aemreunal.domain.BeaconGroup;
+import com.aemreunal.helper.NameMatch;
 
 /*
  ***************************
@@ -25,7 +26,19 @@ import com.aemreunal.domain.BeaconGroup;
  ***************************
  */
 public class BeaconGroupSpecs {
-    public static Specification<BeaconGroup> beaconGroupWithSpecification(final Long projectId, final String name) {
+    /**
+     * Creates the Beacon group search specification from the given attributes
+     *
+     * @param projectId
+     *     The project ID to search in
+     * @param name
+     *     The name attribute to search for
+     * @param match
+     *     Whether the name should start with or contain the given name
+     *
+     * @return The specification of the beacon group
+     */
+    public static Specification<BeaconGroup> beaconGroupWithSpecification(final Long projectId, final String name, final NameMatch match) {
         return new Specification<BeaconGroup>() {
             public Predicate toPredicate(Root<BeaconGroup> root, CriteriaQuery<?> query, CriteriaBuilder builder) {
                 ArrayList<Predicate> predicates = new ArrayList<Predicate>();
@@ -33,7 +46,7 @@ public class BeaconGroupSpecs {
                 predicates.add(builder.equal(root.get("project").get("projectId"), projectId));
 
                 if (!name.equals("")) {
-                    predicates.add(builder.like(root.get("name").as(String.class), "%" + name + "%"));
+                    predicates.add(builder.like(root.get("name").as(String.class), match.toPattern(name), NameMatch.ESCAPE_CHAR));
                 }
 
                 return builder.and(predicates.toArray(new Predicate[predicates.size()]));
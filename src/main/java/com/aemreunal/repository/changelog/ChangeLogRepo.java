@@ -0,0 +1,44 @@
+package com.aemreunal.repository.changelog;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import com.aemreunal.domain.ChangeLogEntry;
+
+public interface ChangeLogRepo extends CrudRepository<ChangeLogEntry, Long> {
+    @Query("SELECT e FROM ChangeLogEntry e WHERE e.sequence > :afterSequence ORDER BY e.sequence")
+    List<ChangeLogEntry> findEntriesAfter(@Param("afterSequence") Long afterSequence, Pageable pageable);
+
+    @Query("SELECT e FROM ChangeLogEntry e WHERE e.sequence IN :sequences ORDER BY e.sequence")
+    List<ChangeLogEntry> findEntriesIn(@Param("sequences") Collection<Long> sequences);
+
+    @Query("SELECT MAX(e.sequence) FROM ChangeLogEntry e")
+    Long findLastSequence();
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ChangeLogEntry e WHERE e.creationDate < :before")
+    int deleteOlderThan(@Param("before") Date before);
+}
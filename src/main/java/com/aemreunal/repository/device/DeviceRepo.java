@@ -0,0 +1,56 @@
+package com.aemreunal.repository.device;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.Date;
+import java.util.List;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import com.aemreunal.domain.Device;
+import com.aemreunal.domain.Project;
+
+public interface DeviceRepo extends CrudRepository<Device, Long> {
+    Device findByProjectAndToken(Project project, String token);
+
+    @Query("SELECT d.project.projectId FROM Device d WHERE d.deviceId = :deviceId")
+    Long findProjectIdOfDevice(@Param("deviceId") Long deviceId);
+
+    /**
+     * Returns the ID and token pairs of the devices of a project, starting after the
+     * given device ID. Paging by the last seen ID (instead of by page offset) keeps each
+     * batch an index range scan, no matter how deep into the device list the fan-out
+     * is.
+     */
+    @Query("SELECT d.deviceId, d.token FROM Device d WHERE d.project.projectId = :projectId AND d.deviceId > :afterDeviceId ORDER BY d.deviceId")
+    List<Object[]> findTokensOfProjectAfter(@Param("projectId") Long projectId,
+                                            @Param("afterDeviceId") Long afterDeviceId,
+                                            Pageable batch);
+
+    /**
+     * Removes the devices with the given token that were registered before the APNS
+     * feedback service reported the token as inactive. Devices that re-registered
+     * after that moment are kept.
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Device d WHERE d.token = :token AND d.registrationDate < :inactiveSince")
+    int deleteInactive(@Param("token") String token, @Param("inactiveSince") Date inactiveSince);
+}
@@ -1,10 +1,16 @@
 package com.aemreunal.repository.project;
 
 import java.util.List;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import com.aemreunal.domain.Project;
 import com.aemreunal.domain.User;
+import com.aemreunal.helper.EntityVersion;
 
 /*
  **************************
@@ -23,6 +29,43 @@ import com.aemreunal.domain.User;
  */
 
 public interface ProjectRepo extends CrudRepository<Project, Long>, JpaSpecificationExecutor {
-    public List<Project> findByOwner(User owner);
-    public Project findByOwnerAndProjectId(User owner, Long projectId);
+    public Page<Project> findByOwnerAndDeletedFalse(User owner, Pageable pageable);
+    public Project findByOwnerAndProjectIdAndDeletedFalse(User owner, Long projectId);
+
+    @Query("SELECT p.projectId FROM Project p WHERE p.owner = :owner AND p.deleted = false")
+    public List<Long> findIdsOfOwner(@Param("owner") User owner);
+
+    /**
+     * Marks the projects with the given IDs as deleted, for the {@link
+     * com.aemreunal.service.PurgeService PurgeService} to purge.
+     */
+    @Modifying
+    @Query("UPDATE Project p SET p.deleted = true WHERE p.projectId IN (:projectIds)")
+    public int markAsDeleted(@Param("projectIds") List<Long> projectIds);
+
+    /**
+     * Increments the content version of the project. The row stays locked until the
+     * calling transaction ends, so concurrent changes to a project get consecutive
+     * versions in the order they are committed.
+     */
+    @Modifying
+    @Query("UPDATE Project p SET p.contentVersion = p.contentVersion + 1, p.contentModified = CURRENT_TIMESTAMP WHERE p.projectId = :projectId")
+    public int incrementContentVersion(@Param("projectId") Long projectId);
+
+    @Query("SELECT p.contentVersion FROM Project p WHERE p.projectId = :projectId")
+    public Long findContentVersion(@Param("projectId") Long projectId);
+
+    @Query("SELECT NEW com.aemreunal.helper.EntityVersion(p.version, p.lastModified) " +
+           "FROM Project p WHERE p.projectId = :projectId AND p.owner.username = :username AND p.deleted = false")
+    public EntityVersion findVersion(@Param("username") String username, @Param("projectId") Long projectId);
+
+    /**
+     * Finds the version of the beacons, beacon groups and scenarios of the project.
+     */
+    @Query("SELECT NEW com.aemreunal.helper.EntityVersion(p.contentVersion, p.contentModified) " +
+           "FROM Project p WHERE p.projectId = :projectId AND p.owner.username = :username AND p.deleted = false")
+    public EntityVersion findContentVersionOf(@Param("username") String username, @Param("projectId") Long projectId);
+
+    @Query("SELECT COUNT(p), MAX(p.lastModified) FROM Project p WHERE p.owner.username = :username AND p.deleted = false")
+    public List<Object[]> findCountAndLastModifiedOfOwner(@Param("username") String username);
 }
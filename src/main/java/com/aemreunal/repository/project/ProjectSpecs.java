@@ -24,6 +24,7 @@ import javax.persistence.criteria.Root;
 import org.springframework.data.jpa.domain.Specification;
 import com.aemreunal.domain.Project;
 import com.aemreunal.domain.User;
+import com.aemreunal.helper.NameMatch;
 
 public class ProjectSpecs {
 
@@ -34,18 +35,21 @@ public class ProjectSpecs {
      *     The owner of the projects to search in
      * @param projectName
      *     The Project Name attribute to search for
+     * @param match
+     *     Whether the name should start with or contain the given name
      *
      * @return The specification of the project
      */
-    public static Specification<Project> projectWithSpecification(final User owner, final String projectName) {
+    public static Specification<Project> projectWithSpecification(final User owner, final String projectName, final NameMatch match) {
         return new Specification<Project>() {
             public Predicate toPredicate(Root<Project> root, CriteriaQuery<?> query, CriteriaBuilder builder) {
                 ArrayList<Predicate> predicates = new ArrayList<Predicate>();
 
                 predicates.add(builder.equal(root.get("owner").as(User.class), owner));
+                predicates.add(builder.isFalse(root.get("deleted").as(Boolean.class)));
 
                 if (!projectName.equals("")) {
-                    predicates.add(builder.like(builder.upper(root.get("name").as(String.class)), "%" + projectName.toUpperCase() + "%"));
+                    predicates.add(builder.like(root.get("name").as(String.class), match.toPattern(projectName), NameMatch.ESCAPE_CHAR));
                 }
 
                 return builder.and(predicates.toArray(new Predicate[predicates.size()]));
@@ -0,0 +1,30 @@
+package com.aemreunal.repository.purge;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.List;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import com.aemreunal.domain.PurgeJob;
+
+public interface PurgeJobRepo extends CrudRepository<PurgeJob, Long> {
+    @Query("SELECT j.jobId FROM PurgeJob j WHERE j.status IN ('" + PurgeJob.STATUS_PENDING + "', '" + PurgeJob.STATUS_RUNNING + "') ORDER BY j.jobId")
+    List<Long> findUnfinishedJobIds();
+
+    @Query("SELECT COUNT(j) FROM PurgeJob j WHERE j.status IN ('" + PurgeJob.STATUS_PENDING + "', '" + PurgeJob.STATUS_RUNNING + "')")
+    long countUnfinished();
+}
@@ -0,0 +1,39 @@
+package com.aemreunal.repository.resolution;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.Date;
+import java.util.List;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import com.aemreunal.domain.ResolutionChange;
+
+public interface ResolutionChangeRepo extends CrudRepository<ResolutionChange, Long> {
+    @Query("SELECT c FROM ResolutionChange c WHERE c.projectId = :projectId AND c.contentVersion > :sinceVersion ORDER BY c.changeId")
+    List<ResolutionChange> findChangesSince(@Param("projectId") Long projectId, @Param("sinceVersion") Long sinceVersion);
+
+    @Query("SELECT MIN(c.contentVersion) FROM ResolutionChange c WHERE c.projectId = :projectId")
+    Long findOldestRetainedVersion(@Param("projectId") Long projectId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ResolutionChange c WHERE c.creationDate < :before")
+    int deleteOlderThan(@Param("before") Date before);
+}
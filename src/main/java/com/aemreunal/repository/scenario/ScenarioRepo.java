@@ -16,11 +16,23 @@ package com.aemreunal.repository.scenario;
  ***************************
  */
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import com.aemreunal.domain.Project;
 import com.aemreunal.domain.Scenario;
+import com.aemreunal.helper.EntityVersion;
 
 public interface ScenarioRepo extends CrudRepository<Scenario, Long>, JpaSpecificationExecutor {
     public Scenario findByScenarioIdAndProject(Long scenarioId, Project project);
+
+    public Page<Scenario> findByProject(Project project, Pageable pageable);
+
+    @Query("SELECT NEW com.aemreunal.helper.EntityVersion(s.version, s.lastModified, p.contentVersion, p.contentModified) " +
+           "FROM Scenario s JOIN s.project p " +
+           "WHERE s.scenarioId = :scenarioId AND p.projectId = :projectId AND p.owner.username = :username AND p.deleted = false")
+    public EntityVersion findVersion(@Param("username") String username, @Param("projectId") Long projectId, @Param("scenarioId") Long scenarioId);
 }
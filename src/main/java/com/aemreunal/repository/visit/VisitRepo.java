@@ -0,0 +1,34 @@
+package com.aemreunal.repository.visit;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.List;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import com.aemreunal.domain.Visit;
+
+public interface VisitRepo extends CrudRepository<Visit, Long> {
+    // Each row is { dwell bucket, number of visits, total dwell millis, longest dwell millis }
+    @Query("SELECT v.dwellBucket, COUNT(v), SUM(v.dwellMillis), MAX(v.dwellMillis) FROM Visit v " +
+           "WHERE v.projectId = :projectId AND v.beaconId = :beaconId AND v.enterDate >= :since GROUP BY v.dwellBucket")
+    List<Object[]> findBeaconDwellBuckets(@Param("projectId") Long projectId, @Param("beaconId") Long beaconId, @Param("since") long since);
+
+    @Query("SELECT v.dwellBucket, COUNT(v), SUM(v.dwellMillis), MAX(v.dwellMillis) FROM Visit v " +
+           "WHERE v.projectId = :projectId AND v.scenarioId = :scenarioId AND v.enterDate >= :since GROUP BY v.dwellBucket")
+    List<Object[]> findScenarioDwellBuckets(@Param("projectId") Long projectId, @Param("scenarioId") Long scenarioId, @Param("since") long since);
+}
@@ -0,0 +1,113 @@
+package com.aemreunal.request;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.IOException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.aemreunal.domain.Beacon;
+
+/**
+ * A scenario query of a consuming app, sent when it encounters a beacon.
+ * <p/>
+ * Beacon query JSON example:<br/> {<br/> "uuid": &lt;beacon UUID&gt;,<br/> "major":
+ * &lt;beacon Major&gt;,<br/> "minor": &lt;beacon Minor&gt;,<br/> "secret": &lt;project
+ * Secret&gt;,<br/> "deviceId": &lt;device ID&gt; }
+ * <p/>
+ * All fields are upper-cased while being read. The device ID is optional; it is the ID
+ * returned by the device registration, and lets the query be recorded as a sighting of
+ * the beacon by the device.
+ */
+@JsonDeserialize(using = BeaconQuery.Deserializer.class)
+public class BeaconQuery {
+    // The project secret is an upper-case UUID string
+    private static final int SECRET_LENGTH = 36;
+
+    private final String uuid;
+    private final String major;
+    private final String minor;
+    private final String secret;
+    private final Long   deviceId;
+
+    public BeaconQuery(String uuid, String major, String minor, String secret, Long deviceId) {
+        this.uuid = uuid;
+        this.major = major;
+        this.minor = minor;
+        this.secret = secret;
+        this.deviceId = deviceId;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getMajor() {
+        return major;
+    }
+
+    public String getMinor() {
+        return minor;
+    }
+
+    public String getSecret() {
+        return secret;
+    }
+
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    public static class Deserializer extends JsonDeserializer<BeaconQuery> {
+        @Override
+        public BeaconQuery deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            String uuid = null;
+            String major = null;
+            String minor = null;
+            String secret = null;
+            Long deviceId = null;
+            RequestFields.enterObject(parser);
+            for (String field = RequestFields.nextField(parser); field != null; field = RequestFields.nextField(parser)) {
+                switch (field) {
+                    case "uuid":
+                        uuid = RequestFields.readHex(parser, field, 1, Beacon.UUID_MAX_LENGTH, true);
+                        break;
+                    case "major":
+                        major = RequestFields.readHex(parser, field, Beacon.MAJOR_MIN_LENGTH, Beacon.MAJOR_MAX_LENGTH, false);
+                        break;
+                    case "minor":
+                        minor = RequestFields.readHex(parser, field, Beacon.MINOR_MIN_LENGTH, Beacon.MINOR_MAX_LENGTH, false);
+                        break;
+                    case "secret":
+                        secret = RequestFields.readHex(parser, field, 1, SECRET_LENGTH, true);
+                        break;
+                    case "deviceId":
+                        deviceId = RequestFields.readLong(parser, field);
+                        break;
+                    default:
+                        RequestFields.skipValue(parser);
+                }
+            }
+            return new BeaconQuery(RequestFields.require(uuid, "uuid"),
+                                   RequestFields.require(major, "major"),
+                                   RequestFields.require(minor, "minor"),
+                                   RequestFields.require(secret, "secret"),
+                                   deviceId);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.aemreunal.request;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.IOException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+/**
+ * A request for the resolution bundle of a project.
+ * <p/>
+ * Resolution bundle request JSON example:<br/> {<br/> "projectId": &lt;project
+ * ID&gt;,<br/> "secret": &lt;project Secret&gt;,<br/> "since": &lt;content version the
+ * app has&gt; (optional, omit for a full bundle) }
+ */
+@JsonDeserialize(using = BundleRequest.Deserializer.class)
+public class BundleRequest {
+    private static final int SECRET_LENGTH = 36;
+
+    private final Long   projectId;
+    private final String secret;
+    private final Long   sinceVersion;
+
+    public BundleRequest(Long projectId, String secret, Long sinceVersion) {
+        this.projectId = projectId;
+        this.secret = secret;
+        this.sinceVersion = sinceVersion;
+    }
+
+    public Long getProjectId() {
+        return projectId;
+    }
+
+    public String getSecret() {
+        return secret;
+    }
+
+    /**
+     * @return The content version the app has, or null if it wants a full bundle
+     */
+    public Long getSinceVersion() {
+        return sinceVersion;
+    }
+
+    public static class Deserializer extends JsonDeserializer<BundleRequest> {
+        @Override
+        public BundleRequest deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            Long projectId = null;
+            String secret = null;
+            Long sinceVersion = null;
+            RequestFields.enterObject(parser);
+            for (String field = RequestFields.nextField(parser); field != null; field = RequestFields.nextField(parser)) {
+                switch (field) {
+                    case "projectId":
+                        projectId = RequestFields.readLong(parser, field);
+                        break;
+                    case "secret":
+                        secret = RequestFields.readHex(parser, field, 1, SECRET_LENGTH, true);
+                        break;
+                    case "since":
+                        sinceVersion = RequestFields.readLong(parser, field);
+                        break;
+                    default:
+                        RequestFields.skipValue(parser);
+                }
+            }
+            return new BundleRequest(RequestFields.require(projectId, "projectId"),
+                                     RequestFields.require(secret, "secret"),
+                                     sinceVersion);
+        }
+    }
+}
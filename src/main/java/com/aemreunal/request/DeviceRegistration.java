@@ -0,0 +1,88 @@
+package com.aemreunal.request;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.IOException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+/**
+ * The registration of an iOS device to a project, for push notifications.
+ * <p/>
+ * Device registration JSON example:<br/> {<br/> "projectId": &lt;project ID&gt;,<br/>
+ * "secret": &lt;project Secret&gt;,<br/> "token": &lt;APNS device token, as a hex
+ * string&gt; }
+ * <p/>
+ * The token is normalized by the DeviceService, as APNS tools print it in various
+ * forms.
+ */
+@JsonDeserialize(using = DeviceRegistration.Deserializer.class)
+public class DeviceRegistration {
+    private static final int SECRET_LENGTH = 36;
+
+    private final Long   projectId;
+    private final String secret;
+    private final String token;
+
+    public DeviceRegistration(Long projectId, String secret, String token) {
+        this.projectId = projectId;
+        this.secret = secret;
+        this.token = token;
+    }
+
+    public Long getProjectId() {
+        return projectId;
+    }
+
+    public String getSecret() {
+        return secret;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public static class Deserializer extends JsonDeserializer<DeviceRegistration> {
+        @Override
+        public DeviceRegistration deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            Long projectId = null;
+            String secret = null;
+            String token = null;
+            RequestFields.enterObject(parser);
+            for (String field = RequestFields.nextField(parser); field != null; field = RequestFields.nextField(parser)) {
+                switch (field) {
+                    case "projectId":
+                        projectId = RequestFields.readLong(parser, field);
+                        break;
+                    case "secret":
+                        secret = RequestFields.readHex(parser, field, 1, SECRET_LENGTH, true);
+                        break;
+                    case "token":
+                        token = RequestFields.readString(parser, field);
+                        break;
+                    default:
+                        RequestFields.skipValue(parser);
+                }
+            }
+            return new DeviceRegistration(RequestFields.require(projectId, "projectId"),
+                                          RequestFields.require(secret, "secret"),
+                                          RequestFields.require(token, "token"));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.aemreunal.request;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.IOException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+/**
+ * A login request, the username is in the request path.
+ * <p/>
+ * Login request JSON:<br/> {<br/> "password":"test_password" }
+ */
+@JsonDeserialize(using = LoginRequest.Deserializer.class)
+public class LoginRequest {
+    private final String password;
+
+    public LoginRequest(String password) {
+        this.password = password;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public static class Deserializer extends JsonDeserializer<LoginRequest> {
+        @Override
+        public LoginRequest deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            String password = null;
+            RequestFields.enterObject(parser);
+            for (String field = RequestFields.nextField(parser); field != null; field = RequestFields.nextField(parser)) {
+                switch (field) {
+                    case "password":
+                        password = RequestFields.readString(parser, field);
+                        break;
+                    default:
+                        RequestFields.skipValue(parser);
+                }
+            }
+            return new LoginRequest(RequestFields.require(password, "password"));
+        }
+    }
+}
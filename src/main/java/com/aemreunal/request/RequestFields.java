@@ -0,0 +1,171 @@
+package com.aemreunal.request;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.IOException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.aemreunal.exception.MalformedRequestException;
+
+/**
+ * Helpers for the streaming deserializers of the request types. The values are read and
+ * validated directly from the parser's text buffer, and canonicalized (upper- or
+ * lower-cased) while being copied out of it, so each field allocates a single string.
+ */
+public class RequestFields {
+    private RequestFields() {
+        // Only static helpers
+    }
+
+    /**
+     * Moves the parser into the request object.
+     *
+     * @throws MalformedRequestException
+     *     If the request is not a JSON object
+     */
+    public static void enterObject(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == null) {
+            token = parser.nextToken();
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new MalformedRequestException();
+        }
+    }
+
+    /**
+     * Moves the parser to the value of the next field of the request object.
+     *
+     * @return The name of the field, or null at the end of the object
+     */
+    public static String nextField(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.FIELD_NAME) {
+            return null;
+        }
+        String name = parser.getCurrentName();
+        parser.nextToken();
+        return name;
+    }
+
+    /**
+     * Skips the value of a field the request type does not know about.
+     */
+    public static void skipValue(JsonParser parser) throws IOException {
+        parser.skipChildren();
+    }
+
+    public static String readString(JsonParser parser, String field) throws IOException {
+        requireScalar(parser, field);
+        return parser.getText();
+    }
+
+    public static String readLowerCase(JsonParser parser, String field) throws IOException {
+        requireScalar(parser, field);
+        char[] text = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        int firstUpper = offset;
+        int end = offset + length;
+        while (firstUpper < end && !Character.isUpperCase(text[firstUpper])) {
+            firstUpper++;
+        }
+        if (firstUpper == end) {
+            return new String(text, offset, length);
+        }
+        char[] lowerCase = new char[length];
+        for (int i = 0; i < length; i++) {
+            lowerCase[i] = Character.toLowerCase(text[offset + i]);
+        }
+        return new String(lowerCase);
+    }
+
+    /**
+     * Reads a hex string (like a beacon UUID, major or minor) and upper-cases it.
+     *
+     * @param allowDashes
+     *     Whether the value may contain dashes, as in UUIDs
+     *
+     * @throws MalformedRequestException
+     *     If the value is not a hex string of the given length
+     */
+    public static String readHex(JsonParser parser, String field, int minLength, int maxLength, boolean allowDashes) throws IOException {
+        requireScalar(parser, field);
+        char[] text = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        if (length < minLength || length > maxLength) {
+            throw new MalformedRequestException(field);
+        }
+        boolean hasLowerCase = false;
+        for (int i = offset; i < offset + length; i++) {
+            char ch = text[i];
+            if (ch >= 'a' && ch <= 'f') {
+                hasLowerCase = true;
+            } else if (!((ch >= '0' && ch <= '9') || (ch >= 'A' && ch <= 'F') || (allowDashes && ch == '-'))) {
+                throw new MalformedRequestException(field);
+            }
+        }
+        if (!hasLowerCase) {
+            return new String(text, offset, length);
+        }
+        char[] upperCase = new char[length];
+        for (int i = 0; i < length; i++) {
+            char ch = text[offset + i];
+            upperCase[i] = (ch >= 'a' && ch <= 'f') ? (char) (ch - ('a' - 'A')) : ch;
+        }
+        return new String(upperCase);
+    }
+
+    /**
+     * Reads an ID or version, which may be sent either as a number or as a string.
+     *
+     * @return The value, or null if the field is null
+     */
+    public static Long readLong(JsonParser parser, String field) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        } else if (token == JsonToken.VALUE_STRING) {
+            try {
+                return Long.valueOf(parser.getText());
+            } catch (NumberFormatException e) {
+                throw new MalformedRequestException(field);
+            }
+        }
+        throw new MalformedRequestException(field);
+    }
+
+    /**
+     * @throws MalformedRequestException
+     *     If a required field is missing
+     */
+    public static <T> T require(T value, String field) {
+        if (value == null) {
+            throw new MalformedRequestException(field);
+        }
+        return value;
+    }
+
+    private static void requireScalar(JsonParser parser, String field) {
+        JsonToken token = parser.getCurrentToken();
+        if (token != JsonToken.VALUE_STRING && token != JsonToken.VALUE_NUMBER_INT) {
+            throw new MalformedRequestException(field);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.aemreunal.request;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.IOException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+/**
+ * A user registration request.
+ * <p/>
+ * User creation request JSON:<br/> {<br/> "username":"testuser12",<br/>
+ * "password":"test_password" }
+ * <p/>
+ * The username is lower-cased while being read. Its other rules are checked by the
+ * UserService.
+ */
+@JsonDeserialize(using = UserRegistration.Deserializer.class)
+public class UserRegistration {
+    private final String username;
+    private final String password;
+
+    public UserRegistration(String username, String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public static class Deserializer extends JsonDeserializer<UserRegistration> {
+        @Override
+        public UserRegistration deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            String username = null;
+            String password = null;
+            RequestFields.enterObject(parser);
+            for (String field = RequestFields.nextField(parser); field != null; field = RequestFields.nextField(parser)) {
+                switch (field) {
+                    case "username":
+                        username = RequestFields.readLowerCase(parser, field);
+                        break;
+                    case "password":
+                        password = RequestFields.readString(parser, field);
+                        break;
+                    default:
+                        RequestFields.skipValue(parser);
+                }
+            }
+            return new UserRegistration(RequestFields.require(username, "username"),
+                                        RequestFields.require(password, "password"));
+        }
+    }
+}
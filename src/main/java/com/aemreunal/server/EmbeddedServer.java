@@ -0,0 +1,159 @@
+package com.aemreunal.server;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import javax.servlet.ServletContainerInitializer;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.config.WebAppInitializer;
+
+/**
+ * Runs the application in an embedded Tomcat, without a WAR or an external Tomcat.
+ * <p/>
+ * The application is started with the {@link WebAppInitializer} directly, so Tomcat
+ * does not scan the classpath for web.xml files and annotations. The connector is the
+ * non-blocking NIO connector, on which idle keep-alive connections don't hold a worker
+ * thread. Its settings default to the ones in {@link GlobalSettings}, and can be
+ * overridden with system properties or a properties file, see {@link
+ * GlobalSettings#SERVER_CONFIG_PROPERTY}.
+ * <p/>
+ * Run with:<br/> java -Dibeacon.serverConfig=server.properties -cp ...
+ * com.aemreunal.server.EmbeddedServer
+ */
+public class EmbeddedServer {
+    private static final String NIO_PROTOCOL = "org.apache.coyote.http11.Http11NioProtocol";
+
+    private final Properties settings;
+    private final Tomcat     tomcat = new Tomcat();
+
+    public EmbeddedServer(Properties settings) {
+        this.settings = settings;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long start = System.currentTimeMillis();
+        final EmbeddedServer server = new EmbeddedServer(loadSettings());
+        server.start();
+        System.out.println("Server started in " + (System.currentTimeMillis() - start) + " ms");
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        }, "server-shutdown"));
+        server.tomcat.getServer().await();
+    }
+
+    /**
+     * Reads the settings from the properties file given in the {@link
+     * GlobalSettings#SERVER_CONFIG_PROPERTY} system property, if any, overridden by the
+     * system properties.
+     */
+    private static Properties loadSettings() throws IOException {
+        Properties settings = new Properties();
+        String configFile = System.getProperty(GlobalSettings.SERVER_CONFIG_PROPERTY);
+        if (configFile != null) {
+            InputStream input = new FileInputStream(configFile);
+            try {
+                settings.load(input);
+            } finally {
+                input.close();
+            }
+        }
+        for (Map.Entry<Object, Object> property : System.getProperties().entrySet()) {
+            if (property.getKey().toString().startsWith(GlobalSettings.SERVER_SETTING_PREFIX)) {
+                settings.put(property.getKey(), property.getValue());
+            }
+        }
+        return settings;
+    }
+
+    public void start() throws LifecycleException, IOException {
+        int port = intSetting("port", GlobalSettings.SERVER_PORT);
+        File baseDir = createTempDir("ibeacon-tomcat." + port);
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+
+        Connector connector = createConnector(port);
+        tomcat.getService().addConnector(connector);
+        tomcat.setConnector(connector);
+
+        Context context = tomcat.addContext(setting("contextPath", GlobalSettings.SERVER_CONTEXT_PATH), createTempDir("ibeacon-docbase").getAbsolutePath());
+        context.addServletContainerInitializer(new ServletContainerInitializer() {
+            @Override
+            public void onStartup(Set<Class<?>> classes, ServletContext servletContext) throws ServletException {
+                new WebAppInitializer().onStartup(servletContext);
+            }
+        }, null);
+        tomcat.start();
+    }
+
+    public void stop() {
+        try {
+            tomcat.stop();
+            tomcat.destroy();
+        } catch (LifecycleException e) {
+            System.err.println("Unable to stop the server: " + e.getMessage());
+        }
+    }
+
+    private Connector createConnector(int port) {
+        Connector connector = new Connector(NIO_PROTOCOL);
+        connector.setPort(port);
+        connector.setURIEncoding("UTF-8");
+        connector.setProperty("acceptorThreadCount", setting("acceptorThreads", GlobalSettings.SERVER_ACCEPTOR_THREADS));
+        connector.setProperty("maxThreads", setting("maxThreads", GlobalSettings.SERVER_MAX_THREADS));
+        connector.setProperty("minSpareThreads", setting("minSpareThreads", GlobalSettings.SERVER_MIN_SPARE_THREADS));
+        connector.setProperty("maxConnections", setting("maxConnections", GlobalSettings.SERVER_MAX_CONNECTIONS));
+        connector.setProperty("acceptCount", setting("acceptCount", GlobalSettings.SERVER_ACCEPT_COUNT));
+        connector.setProperty("connectionTimeout", setting("connectionTimeoutMillis", GlobalSettings.SERVER_CONNECTION_TIMEOUT_MILLIS));
+        connector.setProperty("keepAliveTimeout", setting("keepAliveTimeoutMillis", GlobalSettings.SERVER_KEEP_ALIVE_TIMEOUT_MILLIS));
+        connector.setProperty("maxKeepAliveRequests", setting("maxKeepAliveRequests", GlobalSettings.SERVER_MAX_KEEP_ALIVE_REQUESTS));
+        // Responses already compressed by the GzipResponseFilter are left as they are
+        connector.setProperty("compression", setting("compression", GlobalSettings.SERVER_COMPRESSION));
+        connector.setProperty("compressionMinSize", setting("compressionMinSize", GlobalSettings.SERVER_COMPRESSION_MIN_SIZE));
+        connector.setProperty("compressableMimeType", setting("compressibleMimeTypes", GlobalSettings.SERVER_COMPRESSIBLE_MIME_TYPES));
+        return connector;
+    }
+
+    private String setting(String name, Object defaultValue) {
+        return settings.getProperty(GlobalSettings.SERVER_SETTING_PREFIX + name, String.valueOf(defaultValue)).trim();
+    }
+
+    private int intSetting(String name, int defaultValue) {
+        return Integer.parseInt(setting(name, defaultValue));
+    }
+
+    private static File createTempDir(String name) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), name);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+        return dir;
+    }
+}
@@ -0,0 +1,234 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.exception.user.InvalidAccessTokenException;
+
+/**
+ * Issues and verifies the access tokens of the management API.
+ * <p/>
+ * The password of a user is verified with BCrypt only when logging in, which returns
+ * an access token. The token is signed with HMAC-SHA256 and carries the username and
+ * its expiry, so verifying it needs neither BCrypt nor the database. A token is in the
+ * form of:<br/> username.issuedAt.expiresAt.tokenId.signature<br/> As a username may
+ * contain dots itself, the fields after it are found from the end of the token.
+ * <p/>
+ * Logged out tokens are kept in an in-memory revocation set until they expire, and so
+ * are the times after which the tokens of a user are no longer valid, for deleted
+ * users. Both are only known by the server instance they happened on. The signing key
+ * is read from the {@value com.aemreunal.config.GlobalSettings#ACCESS_TOKEN_KEY_PROPERTY}
+ * system property, which must be the same on every instance. If it's not set, a
+ * random key is generated, so the tokens are only valid on this instance, until it is
+ * restarted.
+ */
+@Service
+public class AccessTokenService {
+    private static final Charset UTF_8           = Charset.forName("UTF-8");
+    private static final String  HMAC_ALGORITHM  = "HmacSHA256";
+    private static final char[]  HEX_DIGITS      = "0123456789abcdef".toCharArray();
+    private static final String  SEPARATOR       = ".";
+    private static final int     KEY_LENGTH      = 32;
+    private static final int     TOKEN_ID_LENGTH = 16;
+
+    private final SecureRandom  random = new SecureRandom();
+    private final SecretKeySpec key;
+
+    // Mac instances are not thread-safe, and creating one for each request is costly
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Unable to create the access token signer!", e);
+            }
+        }
+    };
+
+    // Token ID -> expiry of the token, for the logged out tokens
+    private final ConcurrentMap<String, Long> revokedTokens = new ConcurrentHashMap<String, Long>();
+    // Username -> time before which the tokens of the user are revoked
+    private final ConcurrentMap<String, Long> revokedUsers  = new ConcurrentHashMap<String, Long>();
+
+    public AccessTokenService() {
+        String configuredKey = System.getProperty(GlobalSettings.ACCESS_TOKEN_KEY_PROPERTY);
+        byte[] keyBytes;
+        if (configuredKey != null && !configuredKey.isEmpty()) {
+            keyBytes = configuredKey.getBytes(UTF_8);
+        } else {
+            keyBytes = new byte[KEY_LENGTH];
+            random.nextBytes(keyBytes);
+        }
+        key = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+    }
+
+    /**
+     * Issues an access token for the user with the given username. The password of the
+     * user must already be verified.
+     *
+     * @param username
+     *     The username of the user
+     *
+     * @return The signed access token
+     */
+    public String issue(String username) {
+        return issue(username, System.currentTimeMillis());
+    }
+
+    String issue(String username, long issuedAt) {
+        long expiresAt = issuedAt + TimeUnit.SECONDS.toMillis(GlobalSettings.ACCESS_TOKEN_LIFETIME_SECONDS);
+        byte[] tokenId = new byte[TOKEN_ID_LENGTH];
+        random.nextBytes(tokenId);
+        String payload = username + SEPARATOR + issuedAt + SEPARATOR + expiresAt + SEPARATOR + toHex(tokenId);
+        return payload + SEPARATOR + toHex(sign(payload));
+    }
+
+    /**
+     * Verifies the given access token.
+     *
+     * @param token
+     *     The access token
+     *
+     * @return The username of the user the token was issued to
+     *
+     * @throws InvalidAccessTokenException
+     *     If the token is malformed, has a wrong signature, has expired or has been
+     *     revoked
+     */
+    public String verify(String token) throws InvalidAccessTokenException {
+        return verify(token, System.currentTimeMillis());
+    }
+
+    String verify(String token, long nowMillis) throws InvalidAccessTokenException {
+        return parse(token, nowMillis).username;
+    }
+
+    /**
+     * Revokes the given access token, when its user logs out.
+     *
+     * @throws InvalidAccessTokenException
+     *     If the token is not valid already
+     */
+    public void revoke(String token) throws InvalidAccessTokenException {
+        ParsedToken parsedToken = parse(token, System.currentTimeMillis());
+        revokedTokens.put(parsedToken.tokenId, parsedToken.expiresAt);
+    }
+
+    /**
+     * Revokes every access token that has been issued to the user with the given
+     * username so far, when the user is deleted.
+     */
+    public void revokeAllOf(String username) {
+        revokedUsers.put(username, System.currentTimeMillis());
+    }
+
+    /**
+     * Removes the revocations of the tokens that have expired anyway.
+     */
+    @Scheduled(fixedDelay = GlobalSettings.ACCESS_TOKEN_PRUNE_INTERVAL_MILLIS)
+    public void pruneRevocations() {
+        long now = System.currentTimeMillis();
+        long oldestValidIssue = now - TimeUnit.SECONDS.toMillis(GlobalSettings.ACCESS_TOKEN_LIFETIME_SECONDS);
+        for (Iterator<Map.Entry<String, Long>> iterator = revokedTokens.entrySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().getValue() < now) {
+                iterator.remove();
+            }
+        }
+        for (Iterator<Map.Entry<String, Long>> iterator = revokedUsers.entrySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().getValue() < oldestValidIssue) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private ParsedToken parse(String token, long nowMillis) throws InvalidAccessTokenException {
+        int signatureStart = token.lastIndexOf(SEPARATOR);
+        if (signatureStart == -1) {
+            throw new InvalidAccessTokenException();
+        }
+        String payload = token.substring(0, signatureStart);
+        byte[] expectedSignature = toHex(sign(payload)).getBytes(UTF_8);
+        byte[] signature = token.substring(signatureStart + 1).getBytes(UTF_8);
+        // Constant-time comparison, so the signature can't be guessed byte by byte
+        if (!MessageDigest.isEqual(expectedSignature, signature)) {
+            throw new InvalidAccessTokenException();
+        }
+        // The payload is signed by this server, so it is well-formed. The username may
+        // contain separators, so the other fields are read from the end.
+        int tokenIdStart = payload.lastIndexOf(SEPARATOR);
+        int expiresAtStart = payload.lastIndexOf(SEPARATOR, tokenIdStart - 1);
+        int issuedAtStart = payload.lastIndexOf(SEPARATOR, expiresAtStart - 1);
+        ParsedToken parsedToken = new ParsedToken(payload.substring(0, issuedAtStart),
+                                                  Long.parseLong(payload.substring(issuedAtStart + 1, expiresAtStart)),
+                                                  Long.parseLong(payload.substring(expiresAtStart + 1, tokenIdStart)),
+                                                  payload.substring(tokenIdStart + 1));
+        if (parsedToken.expiresAt <= nowMillis) {
+            throw new InvalidAccessTokenException();
+        }
+        if (revokedTokens.containsKey(parsedToken.tokenId)) {
+            throw new InvalidAccessTokenException();
+        }
+        Long revokedBefore = revokedUsers.get(parsedToken.username);
+        if (revokedBefore != null && parsedToken.issuedAt <= revokedBefore) {
+            throw new InvalidAccessTokenException();
+        }
+        return parsedToken;
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(UTF_8));
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    private static class ParsedToken {
+        private final String username;
+        private final long   issuedAt;
+        private final long   expiresAt;
+        private final String tokenId;
+
+        private ParsedToken(String username, long issuedAt, long expiresAt, String tokenId) {
+            this.username = username;
+            this.issuedAt = issuedAt;
+            this.expiresAt = expiresAt;
+            this.tokenId = tokenId;
+        }
+    }
+}
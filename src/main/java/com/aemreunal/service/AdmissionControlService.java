@@ -0,0 +1,168 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.exception.RateLimitExceededException;
+import com.aemreunal.helper.SecretDigests;
+import com.aemreunal.helper.TokenBuckets;
+
+/**
+ * Decides whether a request of the robot API is processed or rejected right away, so
+ * that a single misbehaving app can't saturate the API for every project.
+ * <p/>
+ * A request is first checked against the rate limit of its project, and then against
+ * the number of robot requests being processed at once. Both checks are in memory, so
+ * a rejected request costs neither a database query nor a BCrypt verification. The
+ * requests carry a project secret, but not always the project ID, so the project of a
+ * request is found from the digest of its secret, once the secret has been verified by
+ * the {@link QueryCacheService}. Until then, the requests are limited by the address of
+ * their client instead: a bucket for each unverified secret would let a client get
+ * past the limit by sending a new random secret with every request.
+ * <p/>
+ * The limits are kept by each server instance on its own.
+ */
+@Service
+public class AdmissionControlService {
+    @Autowired
+    private QueryCacheService queryCacheService;
+
+    private final TokenBuckets buckets  = new TokenBuckets(GlobalSettings.ROBOT_RATE_LIMIT_PER_SECOND,
+                                                           GlobalSettings.ROBOT_RATE_LIMIT_BURST,
+                                                           GlobalSettings.ROBOT_RATE_LIMIT_STRIPES,
+                                                           GlobalSettings.ROBOT_RATE_LIMIT_MAX_KEYS);
+    private final Semaphore    inFlight = new Semaphore(GlobalSettings.ROBOT_MAX_CONCURRENT_REQUESTS);
+
+    // Project ID -> number of its rejected requests
+    private final ConcurrentMap<Long, AtomicLong> projectRejects = new ConcurrentHashMap<Long, AtomicLong>();
+
+    private final AtomicLong admittedRequests      = new AtomicLong(0);
+    private final AtomicLong rejectedByRate        = new AtomicLong(0);
+    private final AtomicLong rejectedByConcurrency = new AtomicLong(0);
+    private final AtomicLong unverifiedRejects     = new AtomicLong(0);
+
+    /**
+     * Admits a robot request with the given project secret, which must be followed by
+     * a call to {@link #release()} once the request has been processed.
+     *
+     * @param projectSecret
+     *     The secret sent with the request
+     * @param clientAddress
+     *     The address of the client, which the request is limited by if the secret
+     *     hasn't been verified
+     *
+     * @throws RateLimitExceededException
+     *     If the project of the secret is over its rate limit, or too many robot
+     *     requests are being processed already
+     */
+    public void admit(String projectSecret, String clientAddress) throws RateLimitExceededException {
+        Long projectId = null;
+        if (projectSecret != null) {
+            projectId = queryCacheService.findProjectOfSecret(SecretDigests.toHex(SecretDigests.digest(projectSecret)));
+        }
+        String key = projectId == null ? "client:" + clientAddress : "project:" + projectId;
+
+        long waitNanos = buckets.tryAcquire(key, System.nanoTime());
+        if (waitNanos > 0) {
+            rejectedByRate.incrementAndGet();
+            countReject(projectId);
+            throw new RateLimitExceededException(Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1)));
+        }
+        if (!inFlight.tryAcquire()) {
+            rejectedByConcurrency.incrementAndGet();
+            countReject(projectId);
+            throw new RateLimitExceededException(1);
+        }
+        admittedRequests.incrementAndGet();
+    }
+
+    /**
+     * Releases the concurrency slot of an admitted request.
+     */
+    public void release() {
+        inFlight.release();
+    }
+
+    private void countReject(Long projectId) {
+        if (projectId == null) {
+            unverifiedRejects.incrementAndGet();
+            return;
+        }
+        AtomicLong rejects = projectRejects.get(projectId);
+        if (rejects == null) {
+            AtomicLong newRejects = new AtomicLong(0);
+            rejects = projectRejects.putIfAbsent(projectId, newRejects);
+            if (rejects == null) {
+                rejects = newRejects;
+            }
+        }
+        rejects.incrementAndGet();
+    }
+
+    /**
+     * Drops the buckets that have been refilled, as they are no different from new ones.
+     */
+    @Scheduled(fixedDelay = GlobalSettings.ROBOT_RATE_LIMIT_PRUNE_INTERVAL_MILLIS)
+    public void pruneBuckets() {
+        buckets.pruneFull(System.nanoTime());
+    }
+
+    public long getAdmittedRequests() {
+        return admittedRequests.get();
+    }
+
+    public long getRejectedByRate() {
+        return rejectedByRate.get();
+    }
+
+    public long getRejectedByConcurrency() {
+        return rejectedByConcurrency.get();
+    }
+
+    public long getUnverifiedRejects() {
+        return unverifiedRejects.get();
+    }
+
+    public int getInFlight() {
+        return GlobalSettings.ROBOT_MAX_CONCURRENT_REQUESTS - inFlight.availablePermits();
+    }
+
+    public int getTrackedBuckets() {
+        return buckets.size();
+    }
+
+    /**
+     * @return The number of rejected requests of each project that had any
+     */
+    public Map<Long, Long> getProjectRejects() {
+        Map<Long, Long> rejects = new HashMap<Long, Long>();
+        for (Map.Entry<Long, AtomicLong> entry : projectRejects.entrySet()) {
+            rejects.put(entry.getKey(), entry.getValue().get());
+        }
+        return rejects;
+    }
+}
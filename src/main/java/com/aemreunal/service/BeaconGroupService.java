@@ -1,8 +1,10 @@
 package com.aemreunal.service;
 
-import java.util.ArrayList;
 import java.util.List;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import com.aemreunal.config.GlobalSettings;
@@ -13,6 +15,10 @@ import com.aemreunal.domain.Scenario;
 import com.aemreunal.exception.beaconGroup.BeaconDoesntHaveGroupException;
 import com.aemreunal.exception.beaconGroup.BeaconGroupNotFoundException;
 import com.aemreunal.exception.beaconGroup.BeaconHasGroupException;
+import com.aemreunal.helper.EntityVersion;
+import com.aemreunal.helper.NameMatch;
+import com.aemreunal.helper.Paging;
+import com.aemreunal.repository.beacon.BeaconRepo;
 import com.aemreunal.repository.beaconGroup.BeaconGroupRepo;
 import com.aemreunal.repository.beaconGroup.BeaconGroupSpecs;
 
@@ -39,6 +45,9 @@ public class BeaconGroupService {
     @Autowired
     private BeaconGroupRepo beaconGroupRepo;
 
+    @Autowired
+    private BeaconRepo beaconRepo;
+
     @Autowired
     private BeaconService beaconService;
 
@@ -48,6 +57,12 @@ public class BeaconGroupService {
     @Autowired
     private ScenarioService scenarioService;
 
+    @Autowired
+    private ResolutionService resolutionService;
+
+    @Autowired
+    private ChangeLogService changeLogService;
+
     /**
      * Saves/updates the given beacon group
      *
@@ -64,18 +79,20 @@ public class BeaconGroupService {
         if (beaconGroup.getProject() == null) {
             beaconGroup.setProject(project);
         }
-        return beaconGroupRepo.save(beaconGroup);
+        BeaconGroup savedBeaconGroup = beaconGroupRepo.save(beaconGroup);
+        // The scenario of the group may have changed, which changes what its members resolve to
+        resolutionService.beaconGroupChanged(savedBeaconGroup);
+        changeLogService.beaconGroupChanged(savedBeaconGroup);
+        return savedBeaconGroup;
     }
 
-    public List<BeaconGroup> getAllBeaconGroupsOf(String username, Long projectId) {
+    @Transactional(readOnly = true)
+    public Page<BeaconGroup> getAllBeaconGroupsOf(String username, Long projectId, Pageable pageable) {
         Project project = projectService.findProjectById(username, projectId);
-        List<BeaconGroup> beaconGroups = new ArrayList<BeaconGroup>();
-        for (BeaconGroup beaconGroup : project.getBeaconGroups()) {
-            beaconGroups.add(beaconGroup);
-        }
-        return beaconGroups;
+        return beaconGroupRepo.findByProject(project, Paging.withStableOrder(pageable, "beaconGroupId"));
     }
 
+    @Transactional(readOnly = true)
     public BeaconGroup getBeaconGroup(String username, Long projectId, Long beaconGroupId) {
         if (GlobalSettings.DEBUGGING) {
             System.out.println("Finding beacon group with ID = \'" + beaconGroupId + "\'");
@@ -88,6 +105,20 @@ public class BeaconGroupService {
         return beaconGroup;
     }
 
+    /**
+     * Finds the version of the beacon group with the given ID, without loading it.
+     */
+    @Transactional(readOnly = true)
+    public EntityVersion getBeaconGroupVersion(String username, Long projectId, Long beaconGroupId) {
+        EntityVersion version = beaconGroupRepo.findVersion(username, projectId, beaconGroupId);
+        if (version == null) {
+            // Verify the project exists
+            projectService.findProjectById(username, projectId);
+            throw new BeaconGroupNotFoundException(beaconGroupId);
+        }
+        return version;
+    }
+
     /**
      * Finds the beacon groups conforming to given specifications
      *
@@ -95,28 +126,35 @@ public class BeaconGroupService {
      *     The project ID constraint
      * @param beaconGroupName
      *     The name field constraint
+     * @param match
+     *     Whether the beacon group names should start with or contain the given name
+     * @param pageable
+     *     The requested page, sorted by name unless another order is requested
      *
-     * @return The list of beacon groups conforming to given constraints
+     * @return The requested page of the beacon groups conforming to given constraints,
+     * which is empty if there are none
      */
-    public List<BeaconGroup> findBeaconGroupsBySpecs(String username, Long projectId, String beaconGroupName) {
+    @SuppressWarnings("unchecked")
+    @Transactional(readOnly = true)
+    public Page<BeaconGroup> findBeaconGroupsBySpecs(String username, Long projectId, String beaconGroupName, NameMatch match, Pageable pageable) {
         if (GlobalSettings.DEBUGGING) {
             System.out.println("Finding beacon groups with projectID = \'" + projectId + "\' and name =\'" + beaconGroupName + "\'");
         }
         Project project = projectService.findProjectById(username, projectId);
-        List<BeaconGroup> beaconGroups = beaconGroupRepo.findAll(BeaconGroupSpecs.beaconGroupWithSpecification(project.getProjectId(), beaconGroupName));
-        if (beaconGroups.size() == 0) {
-            throw new BeaconGroupNotFoundException();
-        }
-        return beaconGroups;
+        return beaconGroupRepo.findAll(BeaconGroupSpecs.beaconGroupWithSpecification(project.getProjectId(), beaconGroupName, match),
+                                       Paging.withStableOrder(pageable, new Sort("name"), "beaconGroupId"));
     }
 
-    public List<Beacon> getMembersOfBeaconGroup(String username, Long projectId, Long beaconGroupId) {
+    @Transactional(readOnly = true)
+    public Page<Beacon> getMembersOfBeaconGroup(String username, Long projectId, Long beaconGroupId, Pageable pageable) {
         BeaconGroup beaconGroup = this.getBeaconGroup(username, projectId, beaconGroupId);
-        List<Beacon> beaconList = new ArrayList<Beacon>();
-        for (Beacon beacon : beaconGroup.getBeacons()) {
-            beaconList.add(beacon);
-        }
-        return beaconList;
+        return beaconRepo.findByGroup(beaconGroup, Paging.withStableOrder(pageable, "beaconId"));
+    }
+
+    @Transactional(readOnly = true)
+    public List<Long> getMemberIdsOfBeaconGroup(String username, Long projectId, Long beaconGroupId) {
+        BeaconGroup beaconGroup = this.getBeaconGroup(username, projectId, beaconGroupId);
+        return beaconRepo.findIdsByGroup(beaconGroup);
     }
 
     public BeaconGroup addBeaconToGroup(String username, Long projectId, Long beaconGroupId, Long beaconId) {
@@ -167,6 +205,8 @@ public class BeaconGroupService {
         BeaconGroup beaconGroup = this.getBeaconGroup(username, projectId, beaconGroupId);
         updateBeaconsInGroup(beaconGroup, username, projectId);
         beaconGroupRepo.delete(beaconGroup);
+        resolutionService.beaconGroupRemoved(beaconGroup);
+        changeLogService.beaconGroupRemoved(beaconGroup);
         return beaconGroup;
     }
 
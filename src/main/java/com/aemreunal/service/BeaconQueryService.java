@@ -0,0 +1,93 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import net.minidev.json.JSONObject;
+
+import java.util.concurrent.Callable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import com.aemreunal.exception.beacon.BeaconNotFoundException;
+import com.aemreunal.exception.scenario.NoScenarioForQueryException;
+import com.aemreunal.helper.SecretDigests;
+import com.aemreunal.helper.SingleFlight;
+
+/**
+ * Answers the scenario queries of the robot API, from the {@link QueryCacheService} if
+ * possible, from the database otherwise.
+ * <p/>
+ * Identical queries that arrive at once, like those of the phones in a classroom when a
+ * lecture ends, are coalesced: only one of them looks up the beacon and verifies the
+ * secret, and the others wait for it and receive its response. Queries are identical
+ * if they have the same beacon identity and the same secret, compared by its digest.
+ */
+@Service
+public class BeaconQueryService {
+    private static final String KEY_SEPARATOR = "|";
+
+    @Autowired
+    private QueryCacheService queryCacheService;
+
+    @Autowired
+    private ScenarioService scenarioService;
+
+    private final SingleFlight<String, JSONObject> queries = new SingleFlight<String, JSONObject>();
+
+    /**
+     * Finds the query response of the scenario of the beacon with the given identity,
+     * in the project with the given secret.
+     *
+     * @throws BeaconNotFoundException
+     *     If there is no such beacon in a project with the given secret
+     * @throws NoScenarioForQueryException
+     *     If the beacon does not have a scenario
+     */
+    public JSONObject queryForScenario(final String uuid, final String major, final String minor, final String projectSecret)
+    throws BeaconNotFoundException, NoScenarioForQueryException {
+        String secretDigest = SecretDigests.toHex(SecretDigests.digest(projectSecret == null ? "" : projectSecret));
+        String key = uuid + KEY_SEPARATOR + major + KEY_SEPARATOR + minor + KEY_SEPARATOR + secretDigest;
+        JSONObject response = queries.execute(key, new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() {
+                JSONObject response = queryCacheService.queryForScenario(uuid, major, minor, projectSecret);
+                if (response == null) {
+                    // The cache is not warmed up yet, or can't answer this query
+                    response = scenarioService.queryForScenario(uuid, major, minor, projectSecret).generateQueryResponse();
+                }
+                return response;
+            }
+        });
+        // A copy for each query, as the response may be shared with coalesced queries
+        return new JSONObject(response);
+    }
+
+    public long getQueries() {
+        return queries.getCalls();
+    }
+
+    public long getCoalescedQueries() {
+        return queries.getCoalesced();
+    }
+
+    /**
+     * @return The ratio of the queries that received the response of another query
+     */
+    public double getCoalescingRatio() {
+        long calls = queries.getCalls();
+        return calls == 0 ? 0 : (double) queries.getCoalesced() / calls;
+    }
+}
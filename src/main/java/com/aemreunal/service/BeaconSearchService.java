@@ -0,0 +1,216 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.hibernate.ScrollableResults;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.Beacon;
+import com.aemreunal.domain.ChangeLogEntry;
+import com.aemreunal.helper.StreamingQuery;
+import com.aemreunal.helper.UuidIndex;
+
+/**
+ * Keeps a {@link UuidIndex UUID index} for each project that has been searched, to find
+ * beacons by a part of their UUID without a LIKE scan of the beacons table.
+ * <p/>
+ * The index of a project is loaded on its first search, in a transaction of its own so
+ * it sees every change committed before it. Afterwards, beacon changes are applied to
+ * it once their transaction commits, so rolled back changes never reach it. The
+ * changes made on the other server instances are applied from the {@link
+ * ChangeLogService change log}.
+ */
+@Service
+public class BeaconSearchService implements ChangeLogListener {
+    private final ConcurrentMap<Long, UuidIndex> indexes = new ConcurrentHashMap<Long, UuidIndex>();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * Finds the beacons of a project whose UUID contains the given string and that have
+     * the given major and minor.
+     *
+     * @param projectId
+     *     The ID of the project, which must already be verified to exist
+     * @param uuidPart
+     *     The string to search for in the UUIDs
+     * @param major
+     *     The major to match, or an empty string to match any
+     * @param minor
+     *     The minor to match, or an empty string to match any
+     *
+     * @return The IDs of the matching beacons
+     */
+    public List<Long> findBeaconIds(Long projectId, String uuidPart, String major, String minor) {
+        UuidIndex index = getIndex(projectId);
+        synchronized (index) {
+            return index.search(uuidPart.toUpperCase(), major.toUpperCase(), minor.toUpperCase());
+        }
+    }
+
+    private UuidIndex getIndex(final Long projectId) {
+        UuidIndex index = indexes.get(projectId);
+        if (index == null) {
+            UuidIndex newIndex = new UuidIndex();
+            index = indexes.putIfAbsent(projectId, newIndex);
+            if (index == null) {
+                index = newIndex;
+            }
+        }
+        synchronized (index) {
+            if (!index.isLoaded()) {
+                loadIndex(projectId, index);
+            }
+        }
+        return index;
+    }
+
+    private void loadIndex(final Long projectId, final UuidIndex index) {
+        if (GlobalSettings.DEBUGGING) {
+            System.out.println("Loading the UUID index of project with ID = \'" + projectId + "\'");
+        }
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        // Not read-only, so it's loaded from the primary database. A replica could miss
+        // a beacon whose change has already been applied to the index
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transaction.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                ScrollableResults rows = StreamingQuery.scroll(entityManager,
+                                                               "SELECT b.beaconId, b.uuid, b.major, b.minor FROM Beacon b " +
+                                                               "WHERE b.project.projectId = :projectId ORDER BY b.beaconId",
+                                                               "projectId", projectId);
+                try {
+                    while (rows.next()) {
+                        index.put(rows.getLong(0), rows.getString(1), rows.getString(2), rows.getString(3));
+                    }
+                } finally {
+                    rows.close();
+                }
+            }
+        });
+        index.setLoaded(true);
+    }
+
+    public void beaconSaved(Beacon beacon) {
+        final Long projectId = beacon.getProject().getProjectId();
+        final long beaconId = beacon.getBeaconId();
+        final String uuid = beacon.getUuid();
+        final String major = beacon.getMajor();
+        final String minor = beacon.getMinor();
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                putBeacon(projectId, beaconId, uuid, major, minor);
+            }
+        });
+    }
+
+    public void beaconRemoved(Beacon beacon) {
+        final Long projectId = beacon.getProject().getProjectId();
+        final long beaconId = beacon.getBeaconId();
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                removeBeacon(projectId, beaconId);
+            }
+        });
+    }
+
+    public void projectRemoved(final Long projectId) {
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                indexes.remove(projectId);
+            }
+        });
+    }
+
+    @Override
+    public void changeLogged(ChangeLogEntry entry, boolean local) {
+        if (ChangeLogEntry.KIND_PROJECT_CONTENTS.equals(entry.getKind())) {
+            // Not applied beacon by beacon even locally, the index is loaded again on
+            // the next search
+            indexes.remove(entry.getProjectId());
+            return;
+        }
+        if (local) {
+            // Already applied, with beaconSaved() and the like
+            return;
+        }
+        if (ChangeLogEntry.KIND_BEACON.equals(entry.getKind())) {
+            if (entry.isRemoved()) {
+                removeBeacon(entry.getProjectId(), entry.getEntityId());
+            } else {
+                putBeacon(entry.getProjectId(), entry.getEntityId(), entry.getUuid(), entry.getMajor(), entry.getMinor());
+            }
+        } else if (ChangeLogEntry.KIND_PROJECT.equals(entry.getKind()) && entry.isRemoved()) {
+            indexes.remove(entry.getProjectId());
+        }
+    }
+
+    private void putBeacon(Long projectId, long beaconId, String uuid, String major, String minor) {
+        UuidIndex index = indexes.get(projectId);
+        if (index != null) {
+            synchronized (index) {
+                // An index that is not loaded yet will read the beacon itself
+                if (index.isLoaded()) {
+                    index.put(beaconId, uuid, major, minor);
+                }
+            }
+        }
+    }
+
+    private void removeBeacon(Long projectId, long beaconId) {
+        UuidIndex index = indexes.get(projectId);
+        if (index != null) {
+            synchronized (index) {
+                index.remove(beaconId);
+            }
+        }
+    }
+
+    private void afterCommit(final Runnable update) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    update.run();
+                }
+            });
+        } else {
+            update.run();
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package com.aemreunal.service;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 import javax.validation.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import com.aemreunal.config.GlobalSettings;
@@ -13,6 +13,8 @@ import com.aemreunal.domain.Project;
 import com.aemreunal.exception.beacon.BeaconAlreadyExistsException;
 import com.aemreunal.exception.beacon.BeaconNotFoundException;
 import com.aemreunal.exception.project.ProjectNotFoundException;
+import com.aemreunal.helper.EntityVersion;
+import com.aemreunal.helper.Paging;
 import com.aemreunal.repository.beacon.BeaconRepo;
 import com.aemreunal.repository.beacon.BeaconSpecs;
 
@@ -42,7 +44,16 @@ public class BeaconService {
     private BeaconRepo beaconRepo;
 
     @Autowired
-    private BCryptPasswordEncoder passwordEncoder;
+    private ResolutionService resolutionService;
+
+    @Autowired
+    private ChangeLogService changeLogService;
+
+    @Autowired
+    private QueryCacheService queryCacheService;
+
+    @Autowired
+    private BeaconSearchService beaconSearchService;
 
     /**
      * Saves/updates the given beacon
@@ -67,12 +78,16 @@ public class BeaconService {
             }
             beacon.setProject(project);
         }
-        return beaconRepo.save(beacon);
+        Beacon savedBeacon = beaconRepo.save(beacon);
+        resolutionService.beaconChanged(savedBeacon);
+        beaconSearchService.beaconSaved(savedBeacon);
+        changeLogService.beaconChanged(savedBeacon);
+        return savedBeacon;
     }
 
     private boolean beaconExists(String username, Long projectId, Beacon beacon) {
-        List<Beacon> beacons = searchBeaconsBySpecs(username, projectId, beacon.getUuid(), beacon.getMajor(), beacon.getMinor());
-        return beacons.size() != 0;
+        Project project = projectService.findProjectById(username, projectId);
+        return beaconRepo.count(BeaconSpecs.beaconWithSpecification(project.getProjectId(), beacon.getUuid(), beacon.getMajor(), beacon.getMinor())) != 0;
     }
 
     /**
@@ -86,30 +101,36 @@ public class BeaconService {
      *     The Major field constraint
      * @param minor
      *     The Minor field constraint
+     * @param pageable
+     *     The requested page
      *
-     * @return The list of beacons conforming to given constraints
+     * @return The requested page of the beacons conforming to given constraints, which
+     * is empty if there are none
      */
-    public List<Beacon> findBeaconsBySpecs(String username,
+    @SuppressWarnings("unchecked")
+    @Transactional(readOnly = true)
+    public Page<Beacon> findBeaconsBySpecs(String username,
                                            Long projectId,
                                            String uuid,
                                            String major,
-                                           String minor)
-        throws BeaconNotFoundException {
-        List<Beacon> beacons = searchBeaconsBySpecs(username, projectId, uuid, major, minor);
-        if (beacons.size() == 0) {
-            throw new BeaconNotFoundException();
-        }
-        return beacons;
-    }
-
-    private List<Beacon> searchBeaconsBySpecs(String username, Long projectId, String uuid, String major, String minor) {
+                                           String minor,
+                                           Pageable pageable) {
         if (GlobalSettings.DEBUGGING) {
             System.out.println("Finding beacons with UUID = \'" + uuid + "\' major = \'" + major + "\' minor = \'" + minor + "\'");
         }
         Project project = projectService.findProjectById(username, projectId);
-        return beaconRepo.findAll(BeaconSpecs.beaconWithSpecification(project.getProjectId(), uuid, major, minor));
+        if (!uuid.equals("") && uuid.length() < Beacon.UUID_MAX_LENGTH) {
+            // Partial UUIDs are looked up in the UUID index instead of with a LIKE scan,
+            // and the page is then read by the IDs, in the requested order
+            List<Long> beaconIds = beaconSearchService.findBeaconIds(project.getProjectId(), uuid, major, minor);
+            return beaconRepo.findAll(BeaconSpecs.beaconsWithIds(project.getProjectId(), beaconIds),
+                                      Paging.withStableOrder(pageable, "beaconId"));
+        }
+        return beaconRepo.findAll(BeaconSpecs.beaconWithSpecification(project.getProjectId(), uuid, major, minor),
+                                  Paging.withStableOrder(pageable, "beaconId"));
     }
 
+    @Transactional(readOnly = true)
     public Beacon queryForBeacon(String uuid,
                                  String major,
                                  String minor,
@@ -118,7 +139,8 @@ public class BeaconService {
         List beaconObjects = beaconRepo.findAll(BeaconSpecs.beaconWithSpecification(null, uuid, major, minor));
         for (Object beaconObject : beaconObjects) {
             Beacon beacon = (Beacon) beaconObject;
-            if(passwordEncoder.matches(projectSecret, beacon.getProject().getProjectSecret())) {
+            Project project = beacon.getProject();
+            if (!project.isDeleted() && queryCacheService.matchesSecret(project.getProjectId(), projectSecret, project.getProjectSecret())) {
                 return beacon;
             }
         }
@@ -143,6 +165,7 @@ public class BeaconService {
      * @throws com.aemreunal.exception.project.ProjectNotFoundException
      *     If the specified project does not exist.
      */
+    @Transactional(readOnly = true)
     public Beacon getBeacon(String username, Long projectId, Long beaconId) throws BeaconNotFoundException, ProjectNotFoundException {
         if (GlobalSettings.DEBUGGING) {
             System.out.println("Finding beacon with ID = \'" + beaconId + "\' in project = \'" + projectId + "\'");
@@ -155,6 +178,25 @@ public class BeaconService {
         return beacon;
     }
 
+    /**
+     * Finds the version of the beacon with the given ID, without loading it.
+     *
+     * @throws com.aemreunal.exception.beacon.BeaconNotFoundException
+     *     If the specified beacon does not exist.
+     * @throws com.aemreunal.exception.project.ProjectNotFoundException
+     *     If the specified project does not exist.
+     */
+    @Transactional(readOnly = true)
+    public EntityVersion getBeaconVersion(String username, Long projectId, Long beaconId) throws BeaconNotFoundException, ProjectNotFoundException {
+        EntityVersion version = beaconRepo.findVersion(username, projectId, beaconId);
+        if (version == null) {
+            // Verify the project exists
+            projectService.findProjectById(username, projectId);
+            throw new BeaconNotFoundException(beaconId);
+        }
+        return version;
+    }
+
     /**
      * Returns the list of {@link com.aemreunal.domain.Beacon beacons} that belong to a
      * {@link com.aemreunal.domain.Project project}.
@@ -164,16 +206,16 @@ public class BeaconService {
      * @param projectId
      *     The ID of the project
      *
-     * @return The list of beacons that belong to a project. Returns an empty list if the
-     * project has no beacons
+     * @param pageable
+     *     The requested page
+     *
+     * @return The requested page of the beacons that belong to a project. Returns an
+     * empty page if the project has no beacons
      */
-    public List<Beacon> getBeaconsOfProject(String username, Long projectId) {
+    @Transactional(readOnly = true)
+    public Page<Beacon> getBeaconsOfProject(String username, Long projectId, Pageable pageable) {
         Project project = projectService.findProjectById(username, projectId);
-        List<Beacon> beacons = new ArrayList<Beacon>();
-        for (Beacon beacon : project.getBeacons()) {
-            beacons.add(beacon);
-        }
-        return beacons;
+        return beaconRepo.findByProject(project, Paging.withStableOrder(pageable, "beaconId"));
     }
 
     public Beacon delete(String username, Long projectId, Long beaconId) {
@@ -183,6 +225,9 @@ public class BeaconService {
 
         Beacon beacon = this.getBeacon(username, projectId, beaconId);
         beaconRepo.delete(beaconId);
+        resolutionService.beaconRemoved(beacon);
+        beaconSearchService.beaconRemoved(beacon);
+        changeLogService.beaconRemoved(beacon);
         return beacon;
     }
 }
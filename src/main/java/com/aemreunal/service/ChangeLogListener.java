@@ -0,0 +1,37 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import com.aemreunal.domain.ChangeLogEntry;
+
+/**
+ * An in-process cache that is kept up to date with the changes made on every server
+ * instance. Every bean implementing this is notified by the {@link ChangeLogService}.
+ */
+public interface ChangeLogListener {
+    /**
+     * Called for each committed change, outside of its transaction. Changes made on this
+     * instance are passed right after their transaction commits, and the changes made
+     * on the other instances when the change log is polled, in sequence order.
+     *
+     * @param entry
+     *     The change
+     * @param local
+     *     Whether the change was made on this instance
+     */
+    void changeLogged(ChangeLogEntry entry, boolean local);
+}
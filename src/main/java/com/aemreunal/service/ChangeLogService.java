@@ -0,0 +1,272 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.*;
+import com.aemreunal.repository.changelog.ChangeLogRepo;
+
+/**
+ * Keeps the in-process caches of the server instances behind the load balancer
+ * consistent with each other, without a message broker.
+ * <p/>
+ * Every change to a project, beacon, beacon group or scenario is recorded as a {@link
+ * ChangeLogEntry change log entry} in the transaction that makes it, so an entry exists
+ * if and only if the change has been committed. Each instance polls the change log
+ * every {@value com.aemreunal.config.GlobalSettings#CHANGE_LOG_POLL_INTERVAL_MILLIS}
+ * ms for the entries after the last sequence number it has seen, and passes the ones
+ * made on the other instances to the {@link ChangeLogListener listeners}. Caches are
+ * therefore stale for about one poll interval. The entries made on this instance are
+ * passed to the listeners as soon as their transaction commits.
+ * <p/>
+ * Sequence numbers are assigned when an entry is inserted but become visible when its
+ * transaction commits, so a skipped sequence number may still appear later. Those are
+ * polled again for {@value com.aemreunal.config.GlobalSettings#CHANGE_LOG_GAP_TIMEOUT_MILLIS}
+ * ms, after which they are assumed to belong to rolled back transactions.
+ */
+@Service
+public class ChangeLogService {
+    // Identifies this instance in the entries it records, a new one on every start
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final AtomicLong recordedEntries = new AtomicLong();
+    private final AtomicLong appliedEntries  = new AtomicLong();
+    private final AtomicLong expiredGaps     = new AtomicLong();
+
+    // Only written by the poller, which is synchronized
+    private volatile long lastSequence = -1;
+    private volatile long lastPollTime = 0;
+    private volatile int  openGaps     = 0;
+
+    // Skipped sequence number -> when it was first skipped, only accessed by the poller
+    private final Map<Long, Long> gaps = new TreeMap<Long, Long>();
+
+    @Autowired
+    private ChangeLogRepo changeLogRepo;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired(required = false)
+    private List<ChangeLogListener> listeners = Collections.emptyList();
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void projectChanged(Project project) {
+        record(new ChangeLogEntry(nodeId, ChangeLogEntry.KIND_PROJECT, project.getProjectId(), project.getProjectId(), false));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void projectRemoved(Long projectId) {
+        record(new ChangeLogEntry(nodeId, ChangeLogEntry.KIND_PROJECT, projectId, projectId, true));
+    }
+
+    /**
+     * Records that the whole project has changed at once, which is cheaper than an
+     * entry for each of its beacons, beacon groups and scenarios, e.g. after an import.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void projectContentsChanged(Long projectId) {
+        record(new ChangeLogEntry(nodeId, ChangeLogEntry.KIND_PROJECT_CONTENTS, projectId, projectId, false));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void beaconChanged(Beacon beacon) {
+        recordBeacon(beacon, false);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void beaconRemoved(Beacon beacon) {
+        recordBeacon(beacon, true);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void beaconGroupChanged(BeaconGroup beaconGroup) {
+        record(new ChangeLogEntry(nodeId, ChangeLogEntry.KIND_BEACON_GROUP, beaconGroup.getProject().getProjectId(), beaconGroup.getBeaconGroupId(), false));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void beaconGroupRemoved(BeaconGroup beaconGroup) {
+        record(new ChangeLogEntry(nodeId, ChangeLogEntry.KIND_BEACON_GROUP, beaconGroup.getProject().getProjectId(), beaconGroup.getBeaconGroupId(), true));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void scenarioChanged(Scenario scenario) {
+        record(new ChangeLogEntry(nodeId, ChangeLogEntry.KIND_SCENARIO, scenario.getProject().getProjectId(), scenario.getScenarioId(), false));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void scenarioRemoved(Scenario scenario) {
+        record(new ChangeLogEntry(nodeId, ChangeLogEntry.KIND_SCENARIO, scenario.getProject().getProjectId(), scenario.getScenarioId(), true));
+    }
+
+    private void recordBeacon(Beacon beacon, boolean removed) {
+        ChangeLogEntry entry = new ChangeLogEntry(nodeId, ChangeLogEntry.KIND_BEACON, beacon.getProject().getProjectId(), beacon.getBeaconId(), removed);
+        entry.setBeaconIdentity(beacon.getUuid(), beacon.getMajor(), beacon.getMinor());
+        record(entry);
+    }
+
+    private void record(final ChangeLogEntry entry) {
+        changeLogRepo.save(entry);
+        recordedEntries.incrementAndGet();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                notifyListeners(entry, true);
+            }
+        });
+    }
+
+    /**
+     * Applies the changes made on the other instances since the last poll to the local
+     * caches.
+     */
+    @Scheduled(fixedDelay = GlobalSettings.CHANGE_LOG_POLL_INTERVAL_MILLIS)
+    public synchronized void poll() {
+        if (lastSequence == -1) {
+            // The caches are empty on start, so only the later entries matter
+            Long last = readFromPrimary(new TransactionCallback<Long>() {
+                @Override
+                public Long doInTransaction(TransactionStatus status) {
+                    return changeLogRepo.findLastSequence();
+                }
+            });
+            lastSequence = (last == null) ? 0 : last;
+            lastPollTime = System.currentTimeMillis();
+            return;
+        }
+        List<ChangeLogEntry> entries;
+        do {
+            entries = readFromPrimary(new TransactionCallback<List<ChangeLogEntry>>() {
+                @Override
+                public List<ChangeLogEntry> doInTransaction(TransactionStatus status) {
+                    List<ChangeLogEntry> found = new ArrayList<ChangeLogEntry>();
+                    if (!gaps.isEmpty()) {
+                        found.addAll(changeLogRepo.findEntriesIn(gaps.keySet()));
+                    }
+                    found.addAll(changeLogRepo.findEntriesAfter(lastSequence, new PageRequest(0, GlobalSettings.CHANGE_LOG_BATCH_SIZE)));
+                    return found;
+                }
+            });
+            long now = System.currentTimeMillis();
+            for (ChangeLogEntry entry : entries) {
+                long sequence = entry.getSequence();
+                if (gaps.remove(sequence) == null) {
+                    for (long skipped = lastSequence + 1; skipped < sequence && gaps.size() < GlobalSettings.CHANGE_LOG_MAX_GAPS; skipped++) {
+                        gaps.put(skipped, now);
+                    }
+                    lastSequence = sequence;
+                }
+                apply(entry);
+            }
+        } while (entries.size() >= GlobalSettings.CHANGE_LOG_BATCH_SIZE);
+        expireGaps();
+        openGaps = gaps.size();
+        lastPollTime = System.currentTimeMillis();
+    }
+
+    private void apply(ChangeLogEntry entry) {
+        // The entries of this instance were passed on when they were committed
+        if (!nodeId.equals(entry.getNodeId())) {
+            notifyListeners(entry, false);
+            appliedEntries.incrementAndGet();
+        }
+    }
+
+    private void notifyListeners(ChangeLogEntry entry, boolean local) {
+        for (ChangeLogListener listener : listeners) {
+            try {
+                listener.changeLogged(entry, local);
+            } catch (RuntimeException e) {
+                // One failing cache must not hold back the others
+                System.err.println("Unable to apply change log entry " + entry.getSequence() + " to " + listener.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void expireGaps() {
+        long expiry = System.currentTimeMillis() - GlobalSettings.CHANGE_LOG_GAP_TIMEOUT_MILLIS;
+        for (Iterator<Long> iterator = gaps.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next() < expiry) {
+                iterator.remove();
+                expiredGaps.incrementAndGet();
+            }
+        }
+    }
+
+    private <T> T readFromPrimary(TransactionCallback<T> callback) {
+        // Not read-only, so it reads from the primary database. A replica that lags
+        // behind would make the caches more stale than the poll interval
+        return new TransactionTemplate(transactionManager).execute(callback);
+    }
+
+    @Scheduled(fixedDelay = GlobalSettings.CHANGE_LOG_PRUNE_INTERVAL_MILLIS)
+    public void pruneChangeLog() {
+        Date before = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(GlobalSettings.CHANGE_LOG_RETENTION_HOURS));
+        int pruned = changeLogRepo.deleteOlderThan(before);
+        if (GlobalSettings.DEBUGGING) {
+            System.out.println("Pruned " + pruned + " change log entries older than " + before);
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getRecordedEntries() {
+        return recordedEntries.get();
+    }
+
+    public long getAppliedEntries() {
+        return appliedEntries.get();
+    }
+
+    public long getExpiredGaps() {
+        return expiredGaps.get();
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public int getOpenGaps() {
+        return openGaps;
+    }
+
+    /**
+     * @return How long ago the last poll finished, i.e. the current upper bound of the
+     * staleness of the caches, minus the commit delays
+     */
+    public long getMillisSinceLastPoll() {
+        long lastPoll = lastPollTime;
+        return (lastPoll == 0) ? -1 : System.currentTimeMillis() - lastPoll;
+    }
+}
@@ -0,0 +1,142 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.Device;
+import com.aemreunal.domain.Project;
+import com.aemreunal.exception.push.InvalidDeviceTokenException;
+import com.aemreunal.repository.device.DeviceRepo;
+
+@Transactional
+@Service
+public class DeviceService {
+    // APNS tools print tokens as "<xxxxxxxx xxxxxxxx ...>", these characters are dropped
+    private static final String TOKEN_DECORATION_REGEX = "[<> ]";
+    private static final String TOKEN_REGEX            = "[0-9A-F]{" + Device.TOKEN_LENGTH + "}";
+
+    @Autowired
+    private ProjectService projectService;
+
+    @Autowired
+    private DeviceRepo deviceRepo;
+
+    // Device ID -> the project of the device, in stripes by device ID
+    private final DeviceStripe[] deviceStripes = new DeviceStripe[GlobalSettings.DEVICE_CACHE_STRIPES];
+
+    public DeviceService() {
+        for (int i = 0; i < deviceStripes.length; i++) {
+            deviceStripes[i] = new DeviceStripe(Math.max(1, GlobalSettings.DEVICE_CACHE_MAX_DEVICES / deviceStripes.length));
+        }
+    }
+
+    /**
+     * Registers the device with the given APNS token to the project with the given ID.
+     * If the device is already registered, its registration date is renewed, so that it
+     * is not pruned due to an older inactivity report of the APNS feedback service.
+     *
+     * @param projectId
+     *     The ID of the project
+     * @param projectSecret
+     *     The plain-text secret of the project
+     * @param token
+     *     The APNS device token, as a hex string
+     *
+     * @return The registered device
+     *
+     * @throws InvalidDeviceTokenException
+     *     If the token is not a valid APNS device token
+     */
+    public Device register(Long projectId, String projectSecret, String token) throws InvalidDeviceTokenException {
+        String normalizedToken = token.replaceAll(TOKEN_DECORATION_REGEX, "").toUpperCase();
+        if (!normalizedToken.matches(TOKEN_REGEX)) {
+            throw new InvalidDeviceTokenException(token);
+        }
+        Project project = projectService.findProjectByIdAndSecret(projectId, projectSecret);
+        Device device = deviceRepo.findByProjectAndToken(project, normalizedToken);
+        if (device == null) {
+            device = new Device();
+            device.setProject(project);
+            device.setToken(normalizedToken);
+        } else {
+            device.setRegistrationDate(new Date());
+        }
+        if (GlobalSettings.DEBUGGING) {
+            System.out.println("Registering device with token = \'" + normalizedToken + "\' to project with ID = \'" + projectId + "\'");
+        }
+        return deviceRepo.save(device);
+    }
+
+    /**
+     * Finds the project of the device with the given ID, as the apps send device IDs
+     * with their beacon queries unchecked. The projects of the devices are cached, as
+     * a device never moves to another project. Unknown device IDs are cached as well,
+     * but only for {@value com.aemreunal.config.GlobalSettings#DEVICE_CACHE_UNKNOWN_TTL_MILLIS}
+     * ms, as a device with that ID may be registered afterwards.
+     *
+     * @return The ID of the project of the device, or null if there is no such device
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Long findProjectOfDevice(Long deviceId) {
+        DeviceStripe stripe = deviceStripes[(int) ((deviceId ^ (deviceId >>> 32)) & 0x7FFFFFFF) % deviceStripes.length];
+        long now = System.currentTimeMillis();
+        synchronized (stripe) {
+            CachedDevice cached = stripe.devices.get(deviceId);
+            if (cached != null && (cached.projectId != null || cached.expiresAt > now)) {
+                return cached.projectId;
+            }
+        }
+        // Not under the lock, so a slow lookup holds back no other device
+        Long projectId = deviceRepo.findProjectIdOfDevice(deviceId);
+        synchronized (stripe) {
+            stripe.devices.put(deviceId, new CachedDevice(projectId, now + GlobalSettings.DEVICE_CACHE_UNKNOWN_TTL_MILLIS));
+        }
+        return projectId;
+    }
+
+    private static class CachedDevice {
+        private final Long projectId;
+        // Only for an unknown device
+        private final long expiresAt;
+
+        private CachedDevice(Long projectId, long expiresAt) {
+            this.projectId = projectId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class DeviceStripe {
+        private final Map<Long, CachedDevice> devices;
+
+        private DeviceStripe(final int maxDevices) {
+            // In access order, so the least recently used device is evicted
+            this.devices = new LinkedHashMap<Long, CachedDevice>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, CachedDevice> eldest) {
+                    return size() > maxDevices;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import net.minidev.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.ChangeLogEntry;
+import com.aemreunal.exception.MalformedRequestException;
+import com.aemreunal.helper.JsonBuilder;
+
+/**
+ * Serves the room heatmaps of the projects, i.e. the number of distinct devices that
+ * were in each room, per hour of each day.
+ * <p/>
+ * A beacon with major 0 is a location beacon, and its minor is the ID of the room it is
+ * in. The devices that sight the location beacons of a room are counted once per hour,
+ * in memory, until the hour closes. The counts of the closed hour are then added to the
+ * heatmap_counts table, so that every server instance adds its own devices to the same
+ * rows. Once every instance should have written the hour, the rows of the hour are read
+ * back into dense arrays of counts per project, indexed by day, room and hour of day,
+ * and kept for the retention. A heatmap is built from those arrays alone, and is cached
+ * until the next hour of its project is read back.
+ * <p/>
+ * A device that reaches several server instances in the same hour is counted once by
+ * each of them. The hours and days are in UTC, and the hours are stored as milliseconds
+ * since the epoch, so they don't depend on the time zone of the JVM or of the database.
+ */
+@Service
+public class HeatmapService implements SightingListener, ChangeLogListener {
+    private static final long HOUR_MILLIS    = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY_MILLIS     = TimeUnit.DAYS.toMillis(1);
+    private static final int  HOURS_PER_DAY  = 24;
+    private static final int  LOCATION_MAJOR = 0;
+    private static final int  ROOM_BITS      = 16;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Swapping the open hour takes the write lock, counting a sighting the read lock
+    private final ReadWriteLock hourLock  = new ReentrantReadWriteLock();
+    private long                openHour  = hourOf(System.currentTimeMillis());
+    // (Device ID << 16) | room, of the devices already counted in the open hour
+    private Set<Long>           presences = newPresences();
+    // (Project ID << 16) | room -> number of devices in the open hour
+    private ConcurrentMap<Long, AtomicInteger> roomCounts = new ConcurrentHashMap<Long, AtomicInteger>();
+
+    private final ConcurrentLinkedQueue<ClosedHour> closedHours = new ConcurrentLinkedQueue<ClosedHour>();
+    private final ConcurrentMap<Long, ProjectHeatmap> heatmaps  = new ConcurrentHashMap<Long, ProjectHeatmap>();
+
+    // The start of the last hour that has been read back, only used by the tick
+    private long loadedUpTo = hourOf(System.currentTimeMillis()) - TimeUnit.DAYS.toMillis(GlobalSettings.HEATMAP_RETENTION_DAYS);
+
+    private final AtomicLong presencesCounted = new AtomicLong(0);
+    private final AtomicLong droppedPresences = new AtomicLong(0);
+    private final AtomicLong writtenRows      = new AtomicLong(0);
+    private final AtomicLong loadedRows       = new AtomicLong(0);
+    private final AtomicLong failedTicks      = new AtomicLong(0);
+    private final AtomicLong cacheHits        = new AtomicLong(0);
+    private final AtomicLong cacheMisses      = new AtomicLong(0);
+
+    @Override
+    public void beaconSighted(Long deviceId, long projectId, long beaconId, String major, String minor, long scenarioId, long timeMillis) {
+        if (deviceId == null || Integer.parseInt(major, 16) != LOCATION_MAJOR) {
+            return;
+        }
+        int room = Integer.parseInt(minor, 16);
+        long hour = hourOf(timeMillis);
+        while (true) {
+            hourLock.readLock().lock();
+            try {
+                // A sighting that arrives just as its hour closes is counted in the next one
+                if (hour <= openHour) {
+                    count(deviceId, projectId, room);
+                    return;
+                }
+            } finally {
+                hourLock.readLock().unlock();
+            }
+            closeOpenHour(hour);
+        }
+    }
+
+    private void count(long deviceId, long projectId, int room) {
+        if (presences.size() >= GlobalSettings.HEATMAP_MAX_PRESENCES) {
+            droppedPresences.incrementAndGet();
+            return;
+        }
+        if (!presences.add((deviceId << ROOM_BITS) | room)) {
+            return;
+        }
+        Long key = (projectId << ROOM_BITS) | room;
+        AtomicInteger devices = roomCounts.get(key);
+        if (devices == null) {
+            AtomicInteger newDevices = new AtomicInteger(0);
+            devices = roomCounts.putIfAbsent(key, newDevices);
+            if (devices == null) {
+                devices = newDevices;
+            }
+        }
+        devices.incrementAndGet();
+        presencesCounted.incrementAndGet();
+    }
+
+    /**
+     * Closes the open hour, if it is before the given one, and queues its counts to be
+     * written.
+     */
+    private void closeOpenHour(long newHour) {
+        ClosedHour closed;
+        hourLock.writeLock().lock();
+        try {
+            if (newHour <= openHour) {
+                return;
+            }
+            closed = new ClosedHour(openHour, roomCounts);
+            openHour = newHour;
+            presences = newPresences();
+            roomCounts = new ConcurrentHashMap<Long, AtomicInteger>();
+        } finally {
+            hourLock.writeLock().unlock();
+        }
+        if (!closed.roomCounts.isEmpty()) {
+            closedHours.add(closed);
+        }
+    }
+
+    /**
+     * Closes the open hour once it has passed, writes the counts of the closed hours, and
+     * reads back the hours that every server instance should have written by now.
+     */
+    @Scheduled(fixedDelay = GlobalSettings.HEATMAP_TICK_INTERVAL_MILLIS)
+    public synchronized void tick() {
+        long now = System.currentTimeMillis();
+        closeOpenHour(hourOf(now));
+        try {
+            boolean wroteHours = writeClosedHours();
+            // The hours of this instance that couldn't be written yet must not be skipped
+            if (closedHours.isEmpty()) {
+                loadClosedHours(hourOf(now - GlobalSettings.HEATMAP_CLOSE_GRACE_MILLIS) - HOUR_MILLIS);
+            }
+            if (wroteHours) {
+                pruneCounts(now);
+            }
+        } catch (RuntimeException e) {
+            failedTicks.incrementAndGet();
+            if (GlobalSettings.DEBUGGING) {
+                System.out.println("Unable to update the heatmaps: " + e);
+            }
+        }
+    }
+
+    /**
+     * Writes the counts of the hours that have been closed when the server is stopped,
+     * including the open one, so they are not lost.
+     */
+    @PreDestroy
+    public synchronized void writeOnShutdown() {
+        closeOpenHour(Long.MAX_VALUE);
+        try {
+            writeClosedHours();
+        } catch (RuntimeException e) {
+            System.err.println("Unable to write the heatmap counts: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Whether any hour has been written
+     */
+    private boolean writeClosedHours() {
+        boolean wroteHours = false;
+        ClosedHour closed;
+        while ((closed = closedHours.peek()) != null) {
+            final ClosedHour hour = closed;
+            int rows = newTransaction(false).execute(new TransactionCallback<Integer>() {
+                @Override
+                public Integer doInTransaction(TransactionStatus status) {
+                    return upsert(hour);
+                }
+            });
+            // Only taken off the queue once committed, so a failed hour is written again
+            closedHours.poll();
+            writtenRows.addAndGet(rows);
+            wroteHours = true;
+        }
+        return wroteHours;
+    }
+
+    /**
+     * Adds the counts of the hour to its rows, in the order of the primary key, so that
+     * the upserts of several server instances don't deadlock.
+     *
+     * @return The number of rows upserted
+     */
+    private int upsert(ClosedHour hour) {
+        List<Long> keys = new ArrayList<Long>(hour.roomCounts.keySet());
+        Collections.sort(keys);
+        for (int from = 0; from < keys.size(); from += GlobalSettings.HEATMAP_UPSERT_BATCH_SIZE) {
+            List<Long> batch = keys.subList(from, Math.min(keys.size(), from + GlobalSettings.HEATMAP_UPSERT_BATCH_SIZE));
+            StringBuilder upsert = new StringBuilder("INSERT INTO heatmap_counts (project_id, hour_start, room, devices) VALUES ");
+            for (int row = 0; row < batch.size(); row++) {
+                upsert.append(row == 0 ? "" : ", ")
+                      .append("(:project").append(row).append(", :hour, :room").append(row)
+                      .append(", :devices").append(row).append(")");
+            }
+            upsert.append(" ON DUPLICATE KEY UPDATE devices = devices + VALUES(devices)");
+            Query query = entityManager.createNativeQuery(upsert.toString())
+                                       .setParameter("hour", hour.hourStart);
+            for (int row = 0; row < batch.size(); row++) {
+                long key = batch.get(row);
+                query.setParameter("project" + row, key >>> ROOM_BITS)
+                     .setParameter("room" + row, (int) (key & 0xFFFF))
+                     .setParameter("devices" + row, hour.roomCounts.get(key).get());
+            }
+            query.executeUpdate();
+        }
+        return keys.size();
+    }
+
+    /**
+     * Reads the hours after the last one that has been read, up to the given one, into
+     * the heatmaps, a day at a time.
+     */
+    private void loadClosedHours(long upTo) {
+        while (loadedUpTo < upTo) {
+            final long after = loadedUpTo;
+            final long until = Math.min(upTo, after + DAY_MILLIS);
+            List<?> rows = newTransaction(false).execute(new TransactionCallback<List<?>>() {
+                @Override
+                public List<?> doInTransaction(TransactionStatus status) {
+                    return entityManager.createNativeQuery("SELECT project_id, hour_start, room, devices FROM heatmap_counts " +
+                                                           "WHERE hour_start > :after AND hour_start <= :until")
+                                        .setParameter("after", after)
+                                        .setParameter("until", until)
+                                        .getResultList();
+                }
+            });
+            Map<Long, List<Object[]>> projectRows = new HashMap<Long, List<Object[]>>();
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                Long projectId = ((Number) columns[0]).longValue();
+                List<Object[]> ofProject = projectRows.get(projectId);
+                if (ofProject == null) {
+                    ofProject = new ArrayList<Object[]>();
+                    projectRows.put(projectId, ofProject);
+                }
+                ofProject.add(columns);
+            }
+            for (Map.Entry<Long, List<Object[]>> entry : projectRows.entrySet()) {
+                ProjectHeatmap heatmap = heatmapOf(entry.getKey());
+                synchronized (heatmap) {
+                    for (Object[] columns : entry.getValue()) {
+                        heatmap.set(((Number) columns[1]).longValue(), ((Number) columns[2]).intValue(), ((Number) columns[3]).intValue());
+                    }
+                    // The cached heatmaps of the project are out of date now
+                    heatmap.cachedResults.clear();
+                }
+            }
+            loadedRows.addAndGet(rows.size());
+            loadedUpTo = until;
+        }
+    }
+
+    private ProjectHeatmap heatmapOf(Long projectId) {
+        ProjectHeatmap heatmap = heatmaps.get(projectId);
+        if (heatmap == null) {
+            ProjectHeatmap newHeatmap = new ProjectHeatmap();
+            heatmap = heatmaps.putIfAbsent(projectId, newHeatmap);
+            if (heatmap == null) {
+                heatmap = newHeatmap;
+            }
+        }
+        return heatmap;
+    }
+
+    private void pruneCounts(long now) {
+        final long before = now - TimeUnit.DAYS.toMillis(GlobalSettings.HEATMAP_RETENTION_DAYS);
+        int deletedRows;
+        do {
+            deletedRows = newTransaction(false).execute(new TransactionCallback<Integer>() {
+                @Override
+                public Integer doInTransaction(TransactionStatus status) {
+                    return entityManager.createNativeQuery("DELETE FROM heatmap_counts WHERE hour_start < :before LIMIT " + GlobalSettings.PURGE_CHUNK_SIZE)
+                                        .setParameter("before", before)
+                                        .executeUpdate();
+                }
+            });
+        } while (deletedRows != 0);
+    }
+
+    /**
+     * Drops the heatmap of a removed project.
+     */
+    @Override
+    public void changeLogged(ChangeLogEntry entry, boolean local) {
+        if (ChangeLogEntry.KIND_PROJECT.equals(entry.getKind()) && entry.isRemoved()) {
+            heatmaps.remove(entry.getProjectId());
+        }
+    }
+
+    /**
+     * Builds the room heatmap of a project, over the last given number of days including
+     * today. The project must already be checked to belong to the user.
+     *
+     * @return The days, the start of the first day, the sorted room IDs, and the device
+     * counts indexed by day, room (in the order of the room IDs) and hour of day
+     *
+     * @throws MalformedRequestException
+     *     If the days are out of range
+     */
+    public JSONObject getHeatmap(Long projectId, int days) throws MalformedRequestException {
+        if (days <= 0 || days > GlobalSettings.HEATMAP_RETENTION_DAYS) {
+            throw new MalformedRequestException("days");
+        }
+        long today = System.currentTimeMillis() / DAY_MILLIS;
+        ProjectHeatmap heatmap = heatmaps.get(projectId);
+        if (heatmap == null) {
+            return buildResult(days, today, new int[0], new int[days][0][]);
+        }
+        synchronized (heatmap) {
+            if (heatmap.cachedDay != today) {
+                // The windows of the cached heatmaps have moved on
+                heatmap.cachedResults.clear();
+                heatmap.cachedDay = today;
+            }
+            JSONObject result = heatmap.cachedResults.get(days);
+            if (result != null) {
+                cacheHits.incrementAndGet();
+                return result;
+            }
+            cacheMisses.incrementAndGet();
+            result = heatmap.build(days, today);
+            heatmap.cachedResults.put(days, result);
+            return result;
+        }
+    }
+
+    private static JSONObject buildResult(int days, long today, int[] rooms, int[][][] counts) {
+        return new JsonBuilder().add("days", days)
+                                .add("from", (today - days + 1) * DAY_MILLIS)
+                                .add("rooms", rooms)
+                                .add("counts", counts)
+                                .build();
+    }
+
+    private static long hourOf(long timeMillis) {
+        return timeMillis - timeMillis % HOUR_MILLIS;
+    }
+
+    private static Set<Long> newPresences() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    }
+
+    private TransactionTemplate newTransaction(boolean readOnly) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        // Read-only transactions go to a read replica, if there is one
+        transaction.setReadOnly(readOnly);
+        return transaction;
+    }
+
+    public int getOpenPresences() {
+        return presences.size();
+    }
+
+    public long getPresencesCounted() {
+        return presencesCounted.get();
+    }
+
+    public long getDroppedPresences() {
+        return droppedPresences.get();
+    }
+
+    public int getPendingHours() {
+        return closedHours.size();
+    }
+
+    public long getWrittenRows() {
+        return writtenRows.get();
+    }
+
+    public long getLoadedRows() {
+        return loadedRows.get();
+    }
+
+    public long getFailedTicks() {
+        return failedTicks.get();
+    }
+
+    public int getProjects() {
+        return heatmaps.size();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    private static class ClosedHour {
+        private final long                     hourStart;
+        private final Map<Long, AtomicInteger> roomCounts;
+
+        private ClosedHour(long hourStart, Map<Long, AtomicInteger> roomCounts) {
+            this.hourStart = hourStart;
+            this.roomCounts = roomCounts;
+        }
+    }
+
+    /**
+     * The device counts of a project, in a ring of days. Each day is an array of
+     * rooms * 24 counts, with the rooms in the order they were first seen. Must be
+     * accessed while synchronized on it.
+     */
+    private static class ProjectHeatmap {
+        private final Map<Integer, Integer> roomIndexes = new HashMap<Integer, Integer>();
+        private       int[]                 rooms       = new int[16];
+        private       int                   roomCount   = 0;
+        private final long[]                dayNumbers  = new long[GlobalSettings.HEATMAP_RETENTION_DAYS];
+        private final int[][]               dayCounts   = new int[GlobalSettings.HEATMAP_RETENTION_DAYS][];
+
+        // Days -> heatmap, built on the cached day
+        private final Map<Integer, JSONObject> cachedResults = new HashMap<Integer, JSONObject>();
+        private       long                     cachedDay     = -1;
+
+        private ProjectHeatmap() {
+            Arrays.fill(dayNumbers, -1);
+        }
+
+        private void set(long hourStart, int room, int devices) {
+            long day = hourStart / DAY_MILLIS;
+            int slot = (int) (day % dayNumbers.length);
+            if (dayNumbers[slot] != day) {
+                if (dayNumbers[slot] > day) {
+                    // Older than the retention
+                    return;
+                }
+                dayNumbers[slot] = day;
+                dayCounts[slot] = new int[rooms.length * HOURS_PER_DAY];
+            }
+            int hourOfDay = (int) ((hourStart % DAY_MILLIS) / HOUR_MILLIS);
+            dayCounts[slot][indexOf(room) * HOURS_PER_DAY + hourOfDay] = devices;
+        }
+
+        private int indexOf(int room) {
+            Integer index = roomIndexes.get(room);
+            if (index != null) {
+                return index;
+            }
+            if (roomCount == rooms.length) {
+                rooms = Arrays.copyOf(rooms, rooms.length * 2);
+                for (int slot = 0; slot < dayCounts.length; slot++) {
+                    if (dayCounts[slot] != null) {
+                        dayCounts[slot] = Arrays.copyOf(dayCounts[slot], rooms.length * HOURS_PER_DAY);
+                    }
+                }
+            }
+            rooms[roomCount] = room;
+            roomIndexes.put(room, roomCount);
+            return roomCount++;
+        }
+
+        private JSONObject build(int days, long today) {
+            int[] sortedRooms = Arrays.copyOf(rooms, roomCount);
+            Arrays.sort(sortedRooms);
+            int[][][] counts = new int[days][sortedRooms.length][HOURS_PER_DAY];
+            for (int dayIndex = 0; dayIndex < days; dayIndex++) {
+                long day = today - days + 1 + dayIndex;
+                int slot = (int) (day % dayNumbers.length);
+                if (dayNumbers[slot] != day) {
+                    continue;
+                }
+                int[] dayOfCounts = dayCounts[slot];
+                for (int roomIndex = 0; roomIndex < sortedRooms.length; roomIndex++) {
+                    System.arraycopy(dayOfCounts, roomIndexes.get(sortedRooms[roomIndex]) * HOURS_PER_DAY, counts[dayIndex][roomIndex], 0, HOURS_PER_DAY);
+                }
+            }
+            return buildResult(days, today, sortedRooms, counts);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.Beacon;
+import com.aemreunal.domain.BeaconGroup;
+import com.aemreunal.exception.ConcurrentUpdateException;
+
+/**
+ * Changes the group and scenario memberships of beacons and beacon groups, retrying a
+ * change when it conflicts with a concurrent one.
+ * <p/>
+ * A membership change reads the current memberships, checks them and then writes the
+ * new ones. Beacons and beacon groups are versioned, so when two requests change the
+ * same one at the same time, the one that commits last fails with an optimistic
+ * locking failure instead of overwriting the other. The failed change is then run
+ * again in a new transaction, where it sees the committed memberships and either
+ * applies on top of them or is rejected by the usual checks. After {@link
+ * GlobalSettings#MEMBERSHIP_UPDATE_MAX_ATTEMPTS} attempts, a {@link
+ * ConcurrentUpdateException} is thrown.
+ * <p/>
+ * This class is intentionally not transactional, as each attempt has to be a
+ * transaction of its own.
+ */
+@Service
+public class MembershipService {
+    private final Random random = new Random();
+
+    @Autowired
+    private BeaconGroupService beaconGroupService;
+
+    @Autowired
+    private ScenarioService scenarioService;
+
+    private final AtomicLong conflicts       = new AtomicLong();
+    private final AtomicLong retries         = new AtomicLong();
+    private final AtomicLong rejectedUpdates = new AtomicLong();
+
+    public BeaconGroup addBeaconToGroup(final String username, final Long projectId, final Long beaconGroupId, final Long beaconId) {
+        return withRetry(new MembershipUpdate<BeaconGroup>() {
+            @Override
+            public BeaconGroup apply() {
+                return beaconGroupService.addBeaconToGroup(username, projectId, beaconGroupId, beaconId);
+            }
+        });
+    }
+
+    public BeaconGroup removeBeaconFromGroup(final String username, final Long projectId, final Long beaconGroupId, final Long beaconId) {
+        return withRetry(new MembershipUpdate<BeaconGroup>() {
+            @Override
+            public BeaconGroup apply() {
+                return beaconGroupService.removeBeaconFromGroup(username, projectId, beaconGroupId, beaconId);
+            }
+        });
+    }
+
+    public Beacon addBeaconToScenario(final String username, final Long projectId, final Long scenarioId, final Long beaconId) {
+        return withRetry(new MembershipUpdate<Beacon>() {
+            @Override
+            public Beacon apply() {
+                return scenarioService.addBeaconToScenario(username, projectId, scenarioId, beaconId);
+            }
+        });
+    }
+
+    public Beacon removeBeaconFromScenario(final String username, final Long projectId, final Long scenarioId, final Long beaconId) {
+        return withRetry(new MembershipUpdate<Beacon>() {
+            @Override
+            public Beacon apply() {
+                return scenarioService.removeBeaconFromScenario(username, projectId, scenarioId, beaconId);
+            }
+        });
+    }
+
+    public BeaconGroup addBeaconGroupToScenario(final String username, final Long projectId, final Long scenarioId, final Long beaconGroupId) {
+        return withRetry(new MembershipUpdate<BeaconGroup>() {
+            @Override
+            public BeaconGroup apply() {
+                return scenarioService.addBeaconGroupToScenario(username, projectId, scenarioId, beaconGroupId);
+            }
+        });
+    }
+
+    public BeaconGroup removeBeaconGroupFromScenario(final String username, final Long projectId, final Long scenarioId, final Long beaconGroupId) {
+        return withRetry(new MembershipUpdate<BeaconGroup>() {
+            @Override
+            public BeaconGroup apply() {
+                return scenarioService.removeBeaconGroupFromScenario(username, projectId, scenarioId, beaconGroupId);
+            }
+        });
+    }
+
+    private <T> T withRetry(MembershipUpdate<T> update) throws ConcurrentUpdateException {
+        long backoff = GlobalSettings.MEMBERSHIP_UPDATE_BACKOFF_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return update.apply();
+            } catch (OptimisticLockingFailureException e) {
+                conflicts.incrementAndGet();
+                if (attempt == GlobalSettings.MEMBERSHIP_UPDATE_MAX_ATTEMPTS) {
+                    rejectedUpdates.incrementAndGet();
+                    throw new ConcurrentUpdateException();
+                }
+                if (GlobalSettings.DEBUGGING) {
+                    System.out.println("Membership update conflicted with a concurrent update, retrying (attempt " + attempt + ")");
+                }
+                retries.incrementAndGet();
+                sleep(backoff);
+                backoff *= 2;
+            }
+        }
+    }
+
+    private void sleep(long backoff) {
+        // The jitter keeps the conflicting requests from retrying in lockstep
+        long jitter;
+        synchronized (random) {
+            jitter = (long) (random.nextDouble() * backoff);
+        }
+        try {
+            Thread.sleep(backoff + jitter);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConcurrentUpdateException();
+        }
+    }
+
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getRejectedUpdates() {
+        return rejectedUpdates.get();
+    }
+
+    private interface MembershipUpdate<T> {
+        T apply();
+    }
+}
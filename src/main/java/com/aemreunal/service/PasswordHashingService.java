@@ -0,0 +1,220 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.stereotype.Service;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.exception.HashingQueueFullException;
+
+/**
+ * Hashes and verifies the BCrypt hashes of user passwords and project secrets, on a
+ * bounded pool of its own. A burst of registrations or logins can then only keep
+ * {@value com.aemreunal.config.GlobalSettings#HASHING_QUEUE_CAPACITY} hashes waiting,
+ * and only as many cores busy as there are hashing threads. Requests that don't fit are
+ * rejected with a {@link HashingQueueFullException}, instead of piling up on the request
+ * threads.
+ * <p/>
+ * The BCrypt log factor is calibrated on startup, to the largest one that hashes in
+ * about {@value com.aemreunal.config.GlobalSettings#BCRYPT_TARGET_MILLIS} ms on this
+ * machine, but not below {@value com.aemreunal.config.GlobalSettings#BCRYPT_LOG_FACTOR}.
+ * Hashes made with another log factor still verify, and {@link #needsRehash(String)}
+ * tells whether they should be replaced. Only hashes with a lower log factor are
+ * replaced, so instances calibrated on different machines don't keep rehashing each
+ * other's hashes back and forth; the highest calibrated log factor wins.
+ */
+@Service
+public class PasswordHashingService {
+    // In '$2a$10$...', the log factor is at [4, 6)
+    private static final int LOG_FACTOR_START = 4;
+    private static final int LOG_FACTOR_END   = 6;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private ThreadPoolExecutor executor;
+    private volatile int       logFactor = GlobalSettings.BCRYPT_LOG_FACTOR;
+
+    private final AtomicLong hashes         = new AtomicLong();
+    private final AtomicLong hashNanos      = new AtomicLong();
+    private final AtomicLong rejectedHashes = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        executor = new ThreadPoolExecutor(GlobalSettings.HASHING_THREADS, GlobalSettings.HASHING_THREADS, 0L, TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<Runnable>(GlobalSettings.HASHING_QUEUE_CAPACITY),
+                                          new HashingThreadFactory(),
+                                          new ThreadPoolExecutor.AbortPolicy());
+        logFactor = calibrateLogFactor();
+        if (GlobalSettings.DEBUGGING) {
+            System.out.println("Hashing passwords with BCrypt log factor " + logFactor);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Finds the largest log factor whose hashes take at most the target time, by timing
+     * a hash with the minimum log factor. Each increment of the log factor doubles the
+     * time a hash takes.
+     */
+    private int calibrateLogFactor() {
+        long bestNanos = Long.MAX_VALUE;
+        // The first run also warms up the JIT compiler, so the fastest run is taken
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            BCrypt.hashpw("calibration", BCrypt.gensalt(GlobalSettings.BCRYPT_LOG_FACTOR, random));
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+        long targetNanos = TimeUnit.MILLISECONDS.toNanos(GlobalSettings.BCRYPT_TARGET_MILLIS);
+        int calibrated = GlobalSettings.BCRYPT_LOG_FACTOR;
+        for (long nanos = bestNanos * 2; nanos <= targetNanos && calibrated < GlobalSettings.BCRYPT_MAX_LOG_FACTOR; nanos *= 2) {
+            calibrated++;
+        }
+        return calibrated;
+    }
+
+    /**
+     * Hashes the given password or secret with the calibrated log factor.
+     *
+     * @throws HashingQueueFullException
+     *     If too many hashes are waiting already
+     */
+    public String encode(final String raw) throws HashingQueueFullException {
+        final int currentLogFactor = logFactor;
+        return run(new Callable<String>() {
+            @Override
+            public String call() {
+                return BCrypt.hashpw(raw, BCrypt.gensalt(currentLogFactor, random));
+            }
+        });
+    }
+
+    /**
+     * Verifies the given password or secret against the given BCrypt hash.
+     *
+     * @throws HashingQueueFullException
+     *     If too many hashes are waiting already
+     */
+    public boolean matches(final String raw, final String hash) throws HashingQueueFullException {
+        if (raw == null || hash == null) {
+            return false;
+        }
+        return run(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return BCrypt.checkpw(raw, hash);
+            }
+        });
+    }
+
+    /**
+     * Whether the given BCrypt hash was made with a lower log factor than the calibrated
+     * one, and should be replaced the next time the password is known.
+     */
+    public boolean needsRehash(String hash) {
+        try {
+            return Integer.parseInt(hash.substring(LOG_FACTOR_START, LOG_FACTOR_END)) < logFactor;
+        } catch (RuntimeException e) {
+            // Not a BCrypt hash
+            return true;
+        }
+    }
+
+    private <T> T run(final Callable<T> hashing) throws HashingQueueFullException {
+        Future<T> result;
+        try {
+            result = executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    long start = System.nanoTime();
+                    try {
+                        return hashing.call();
+                    } finally {
+                        hashNanos.addAndGet(System.nanoTime() - start);
+                        hashes.incrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedHashes.incrementAndGet();
+            throw new HashingQueueFullException();
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a hash!", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static class HashingThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "password-hashing-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public int getLogFactor() {
+        return logFactor;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long getHashes() {
+        return hashes.get();
+    }
+
+    public long getRejectedHashes() {
+        return rejectedHashes.get();
+    }
+
+    /**
+     * The average time a hash takes, in milliseconds.
+     */
+    public double getAverageHashMillis() {
+        long count = hashes.get();
+        return count == 0 ? 0 : hashNanos.get() / (count * 1000000.0);
+    }
+}
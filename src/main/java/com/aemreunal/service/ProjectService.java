@@ -1,17 +1,22 @@
 package com.aemreunal.service;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Date;
 import java.util.UUID;
 import javax.validation.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import com.aemreunal.config.GlobalSettings;
 import com.aemreunal.domain.Project;
+import com.aemreunal.domain.PurgeJob;
 import com.aemreunal.domain.User;
 import com.aemreunal.exception.project.ProjectNotFoundException;
+import com.aemreunal.helper.EntityVersion;
+import com.aemreunal.helper.NameMatch;
+import com.aemreunal.helper.Paging;
 import com.aemreunal.repository.project.ProjectRepo;
 import com.aemreunal.repository.project.ProjectSpecs;
 
@@ -41,7 +46,19 @@ public class ProjectService {
     private ProjectRepo projectRepo;
 
     @Autowired
-    private BCryptPasswordEncoder encoder;
+    private PasswordHashingService passwordHashingService;
+
+    @Autowired
+    private BeaconSearchService beaconSearchService;
+
+    @Autowired
+    private PurgeService purgeService;
+
+    @Autowired
+    private ChangeLogService changeLogService;
+
+    @Autowired
+    private QueryCacheService queryCacheService;
 
     /**
      * Saves/updates the given project. The given username parameter is used to set the
@@ -61,7 +78,9 @@ public class ProjectService {
         if (project.getOwner() == null) {
             project.setOwner(userService.findByUsername(username));
         }
-        return projectRepo.save(project);
+        Project savedProject = projectRepo.save(project);
+        changeLogService.projectChanged(savedProject);
+        return savedProject;
     }
 
     /**
@@ -74,7 +93,7 @@ public class ProjectService {
      */
     public String resetSecret(String username, Project project) throws ProjectNotFoundException {
         String secret = UUID.randomUUID().toString().toUpperCase();
-        project.setProjectSecret(encoder.encode(secret));
+        project.setProjectSecret(passwordHashingService.encode(secret));
         this.save(username, project);
         return secret;
     }
@@ -88,16 +107,16 @@ public class ProjectService {
      *     The username of the {@link com.aemreunal.domain.User User} to find the projects
      *     of
      *
-     * @return The list of projects that belong to the {@link com.aemreunal.domain.User
-     * User} with the specified username
+     * @param pageable
+     *     The requested page
+     *
+     * @return The requested page of the projects that belong to the {@link
+     * com.aemreunal.domain.User User} with the specified username
      */
-    public List<Project> findAllProjectsOf(String ownerUsername) {
+    @Transactional(readOnly = true)
+    public Page<Project> findAllProjectsOf(String ownerUsername, Pageable pageable) {
         User owner = userService.findByUsername(ownerUsername);
-        List<Project> projectList = new ArrayList<Project>();
-        for (Project project : owner.getProjects()) {
-            projectList.add(project);
-        }
-        return projectList;
+        return projectRepo.findByOwnerAndDeletedFalse(owner, Paging.withStableOrder(pageable, "projectId"));
     }
 
     /**
@@ -107,21 +126,24 @@ public class ProjectService {
      *     The username of the owner of the projects to search for
      * @param projectName
      *     The project Name field constraint
+     * @param match
+     *     Whether the project names should start with or contain the given name
+     * @param pageable
+     *     The requested page, sorted by name unless another order is requested
      *
-     * @return The list of projects conforming to given constraints
+     * @return The requested page of the projects conforming to given constraints, which
+     * is empty if there are none
      */
-    public List<Project> findProjectsBySpecs(String username, String projectName) {
+    @SuppressWarnings("unchecked")
+    @Transactional(readOnly = true)
+    public Page<Project> findProjectsBySpecs(String username, String projectName, NameMatch match, Pageable pageable) {
         if (GlobalSettings.DEBUGGING) {
             System.out.println("Finding projects with Project Name = \'" + projectName + "\'");
         }
 
         User owner = userService.findByUsername(username);
-        List<Project> projects = projectRepo.findAll(ProjectSpecs.projectWithSpecification(owner, projectName));
-        if (projects.size() == 0) {
-            throw new ProjectNotFoundException();
-        }
-
-        return projects;
+        return projectRepo.findAll(ProjectSpecs.projectWithSpecification(owner, projectName, match),
+                                   Paging.withStableOrder(pageable, new Sort("name"), "projectId"));
     }
 
     /**
@@ -136,13 +158,14 @@ public class ProjectService {
      *
      * @throws ProjectNotFoundException
      */
+    @Transactional(readOnly = true)
     public Project findProjectById(String username, Long projectId) throws ProjectNotFoundException {
         if (GlobalSettings.DEBUGGING) {
             System.out.println("Finding project with ID = \'" + projectId + "\'");
         }
         // Verify owner exists
         User owner = userService.findByUsername(username);
-        Project project = projectRepo.findByOwnerAndProjectId(owner, projectId);
+        Project project = projectRepo.findByOwnerAndProjectIdAndDeletedFalse(owner, projectId);
         if (project == null) {
             throw new ProjectNotFoundException();
         }
@@ -150,23 +173,104 @@ public class ProjectService {
     }
 
     /**
-     * Deletes the {@link com.aemreunal.domain.Project project} with the given ID and
-     * deletes the {@link com.aemreunal.domain.Beacon beacons} and {@link
-     * com.aemreunal.domain.BeaconGroup beacon groups} in the project.
+     * Finds the project with the given ID, verifying the given plain-text project
+     * secret against the stored BCrypt hash of the secret. Used by consuming apps, which
+     * identify a project with its ID and secret instead of the username of its owner.
+     *
+     * @param projectId
+     *     The ID of the project to search for
+     * @param projectSecret
+     *     The plain-text secret of the project
+     *
+     * @return The project with the given ID
+     *
+     * @throws ProjectNotFoundException
+     *     If the project does not exist or the secret does not match
+     */
+    @Transactional(readOnly = true)
+    public Project findProjectByIdAndSecret(Long projectId, String projectSecret) throws ProjectNotFoundException {
+        if (GlobalSettings.DEBUGGING) {
+            System.out.println("Finding project with ID = \'" + projectId + "\' by secret");
+        }
+        Project project = projectRepo.findOne(projectId);
+        if (project == null || project.isDeleted() || !queryCacheService.matchesSecret(projectId, projectSecret, project.getProjectSecret())) {
+            throw new ProjectNotFoundException();
+        }
+        return project;
+    }
+
+    /**
+     * Finds the version of the project with the given ID, without loading it.
+     *
+     * @throws ProjectNotFoundException
+     *     If the project does not exist
+     */
+    @Transactional(readOnly = true)
+    public EntityVersion getProjectVersion(String username, Long projectId) throws ProjectNotFoundException {
+        EntityVersion version = projectRepo.findVersion(username, projectId);
+        if (version == null) {
+            // Verify owner exists
+            userService.findByUsername(username);
+            throw new ProjectNotFoundException();
+        }
+        return version;
+    }
+
+    /**
+     * Finds the version of the list of projects of the user with the given username,
+     * without loading them. It changes when a project is created, updated or deleted.
+     */
+    @Transactional(readOnly = true)
+    public EntityVersion getProjectsVersion(String username) {
+        // Verify owner exists
+        userService.findByUsername(username);
+        Object[] countAndLastModified = projectRepo.findCountAndLastModifiedOfOwner(username).get(0);
+        Date lastModified = (Date) countAndLastModified[1];
+        String tag = countAndLastModified[0] + "." + (lastModified == null ? 0 : lastModified.getTime());
+        return new EntityVersion(tag, lastModified);
+    }
+
+    /**
+     * Finds the version of the beacons, beacon groups and scenarios of the project with
+     * the given ID, without loading them. It changes with every change to any of them.
+     *
+     * @throws ProjectNotFoundException
+     *     If the project does not exist
+     */
+    @Transactional(readOnly = true)
+    public EntityVersion getContentVersion(String username, Long projectId) throws ProjectNotFoundException {
+        EntityVersion version = projectRepo.findContentVersionOf(username, projectId);
+        if (version == null) {
+            // Verify owner exists
+            userService.findByUsername(username);
+            throw new ProjectNotFoundException();
+        }
+        return version;
+    }
+
+    /**
+     * Deletes the {@link com.aemreunal.domain.Project project} with the given ID. The
+     * project is only marked as deleted, after which it can no longer be found, and its
+     * {@link com.aemreunal.domain.Beacon beacons}, {@link com.aemreunal.domain.BeaconGroup
+     * beacon groups}, scenarios and devices are purged in the background by the {@link
+     * PurgeService}.
      *
      * @param username
      *     The username of the owner of the project
      * @param projectId
      *     The ID of the project to delete
      *
-     * @return The deleted project
+     * @return The purge job of the project
      */
-    public Project delete(String username, Long projectId) {
+    public PurgeJob delete(String username, Long projectId) {
         if (GlobalSettings.DEBUGGING) {
             System.out.println("Deleting project with ID = \'" + projectId + "\'");
         }
         Project project = this.findProjectById(username, projectId);
-        projectRepo.delete(project);
-        return project;
+        project.setDeleted(true);
+        projectRepo.save(project);
+        beaconSearchService.projectRemoved(projectId);
+        changeLogService.projectRemoved(projectId);
+        return purgeService.schedule(PurgeJob.KIND_PROJECT, projectId);
     }
 }
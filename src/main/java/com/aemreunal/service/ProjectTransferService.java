@@ -0,0 +1,378 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.hibernate.ScrollableResults;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.*;
+import com.aemreunal.exception.MalformedRequestException;
+import com.aemreunal.exception.beacon.BeaconAlreadyExistsException;
+import com.aemreunal.helper.StreamingQuery;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Exports a {@link com.aemreunal.domain.Project project} with all its scenarios, beacon
+ * groups and beacons as line-delimited JSON, and imports such an export as a new
+ * project.
+ * <p/>
+ * The export reads each table with a {@link StreamingQuery forward-only cursor} of
+ * plain column values, so no entities are kept in the session and the memory used
+ * does not depend on the size of the project. The lines are written in dependency
+ * order (project, scenarios, groups, beacons), which lets the import resolve every
+ * membership by the time it reads it. The import flushes and clears the session every {@link
+ * GlobalSettings#TRANSFER_BATCH_SIZE} entities; only the old-to-new ID maps of the
+ * scenarios and groups, and the identities of the beacons, are kept in memory. As in
+ * {@link BeaconService}, a beacon identity (UUID, major and minor) may only appear once
+ * in a project, so an export that repeats one is rejected. Instead of a change log entry for every
+ * entity, a single {@link ChangeLogEntry#KIND_PROJECT_CONTENTS} entry makes the caches
+ * load the imported project as a whole.
+ * <p/>
+ * Line format examples:
+ * <pre>
+ * {"type":"project","formatVersion":1,"name":"...","description":"...","creationDate":1404567890000}
+ * {"type":"scenario","id":3,"name":"...","description":"...","messageShort":"...","messageLong":"...","url":"...","creationDate":...}
+ * {"type":"group","id":7,"name":"...","description":"...","scenario":3,"creationDate":...}
+ * {"type":"beacon","uuid":"...","major":"1","minor":"2","description":"...","group":7,"scenario":null,"creationDate":...}
+ * </pre>
+ */
+@Transactional
+@Service
+public class ProjectTransferService {
+    public static final int FORMAT_VERSION = 1;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private ProjectService projectService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PasswordHashingService passwordHashingService;
+
+    @Autowired
+    private ChangeLogService changeLogService;
+
+    /**
+     * Writes the export of the given project to the given stream.
+     *
+     * @param username
+     *     The username of the owner of the project
+     * @param projectId
+     *     The ID of the project to export
+     * @param out
+     *     The stream to write the export to. It is not closed.
+     */
+    @Transactional(readOnly = true)
+    public void exportProject(String username, Long projectId, OutputStream out) throws IOException {
+        Project project = projectService.findProjectById(username, projectId);
+        if (GlobalSettings.DEBUGGING) {
+            System.out.println("Exporting project with ID = \'" + projectId + "\'");
+        }
+        JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.setRootValueSeparator(new SerializedString("\n"));
+        writeProject(generator, project);
+        writeScenarios(generator, projectId);
+        writeBeaconGroups(generator, projectId);
+        writeBeacons(generator, projectId);
+        generator.writeRaw('\n');
+        generator.flush();
+    }
+
+    private void writeProject(JsonGenerator generator, Project project) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", "project");
+        generator.writeNumberField("formatVersion", FORMAT_VERSION);
+        generator.writeStringField("name", project.getName());
+        generator.writeStringField("description", project.getDescription());
+        generator.writeNumberField("creationDate", project.getCreationDate().getTime());
+        generator.writeEndObject();
+    }
+
+    private void writeScenarios(JsonGenerator generator, Long projectId) throws IOException {
+        ScrollableResults rows = scroll("SELECT s.scenarioId, s.name, s.description, s.messageShort, s.messageLong, s.url, s.creationDate " +
+                                        "FROM Scenario s WHERE s.project.projectId = :projectId ORDER BY s.scenarioId", projectId);
+        try {
+            while (rows.next()) {
+                generator.writeStartObject();
+                generator.writeStringField("type", "scenario");
+                generator.writeNumberField("id", rows.getLong(0));
+                generator.writeStringField("name", rows.getString(1));
+                generator.writeStringField("description", rows.getString(2));
+                generator.writeStringField("messageShort", rows.getString(3));
+                generator.writeStringField("messageLong", rows.getString(4));
+                generator.writeStringField("url", rows.getString(5));
+                generator.writeNumberField("creationDate", rows.getDate(6).getTime());
+                generator.writeEndObject();
+            }
+        } finally {
+            rows.close();
+        }
+    }
+
+    private void writeBeaconGroups(JsonGenerator generator, Long projectId) throws IOException {
+        ScrollableResults rows = scroll("SELECT g.beaconGroupId, g.name, g.description, s.scenarioId, g.creationDate " +
+                                        "FROM BeaconGroup g LEFT JOIN g.scenario s WHERE g.project.projectId = :projectId ORDER BY g.beaconGroupId", projectId);
+        try {
+            while (rows.next()) {
+                generator.writeStartObject();
+                generator.writeStringField("type", "group");
+                generator.writeNumberField("id", rows.getLong(0));
+                generator.writeStringField("name", rows.getString(1));
+                generator.writeStringField("description", rows.getString(2));
+                writeReference(generator, "scenario", rows.getLong(3));
+                generator.writeNumberField("creationDate", rows.getDate(4).getTime());
+                generator.writeEndObject();
+            }
+        } finally {
+            rows.close();
+        }
+    }
+
+    private void writeBeacons(JsonGenerator generator, Long projectId) throws IOException {
+        ScrollableResults rows = scroll("SELECT b.uuid, b.major, b.minor, b.description, g.beaconGroupId, s.scenarioId, b.creationDate " +
+                                        "FROM Beacon b LEFT JOIN b.group g LEFT JOIN b.scenario s WHERE b.project.projectId = :projectId ORDER BY b.beaconId", projectId);
+        try {
+            while (rows.next()) {
+                generator.writeStartObject();
+                generator.writeStringField("type", "beacon");
+                generator.writeStringField("uuid", rows.getString(0));
+                generator.writeStringField("major", rows.getString(1));
+                generator.writeStringField("minor", rows.getString(2));
+                generator.writeStringField("description", rows.getString(3));
+                writeReference(generator, "group", rows.getLong(4));
+                writeReference(generator, "scenario", rows.getLong(5));
+                generator.writeNumberField("creationDate", rows.getDate(6).getTime());
+                generator.writeEndObject();
+            }
+        } finally {
+            rows.close();
+        }
+    }
+
+    private void writeReference(JsonGenerator generator, String fieldName, Long id) throws IOException {
+        if (id == null) {
+            generator.writeNullField(fieldName);
+        } else {
+            generator.writeNumberField(fieldName, id);
+        }
+    }
+
+    private ScrollableResults scroll(String hql, Long projectId) {
+        return StreamingQuery.scroll(entityManager, hql, "projectId", projectId);
+    }
+
+    /**
+     * Reads an export from the given stream and creates a new project from it, owned by
+     * the given user. The project gets a new secret, as a secret must identify a single
+     * project; the secret of an older export that carries one is ignored.
+     *
+     * @param username
+     *     The username of the owner of the new project
+     * @param in
+     *     The stream to read the export from
+     *
+     * @return A summary of the import, with the plain-text secret of the new project
+     *
+     * @throws MalformedRequestException
+     *     If the export is not valid
+     * @throws BeaconAlreadyExistsException
+     *     If the export has two beacons with the same UUID, major and minor
+     */
+    public ImportSummary importProject(String username, InputStream in) throws MalformedRequestException, BeaconAlreadyExistsException {
+        User owner = userService.findByUsername(username);
+        ImportSummary summary = new ImportSummary();
+        Map<Long, Long> scenarioIds = new HashMap<Long, Long>();
+        Map<Long, Long> beaconGroupIds = new HashMap<Long, Long>();
+        // The project is new, so its only beacons are the ones imported before
+        Set<String> beaconIdentities = new HashSet<String>();
+        try {
+            JsonParser parser = mapper.getFactory().createParser(in);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                JsonNode line = mapper.readTree(parser);
+                String type = line.path("type").asText();
+                if (summary.projectId == null) {
+                    if (!type.equals("project") || line.path("formatVersion").asInt() != FORMAT_VERSION) {
+                        throw new MalformedRequestException();
+                    }
+                    summary.projectId = importProjectLine(line, owner, summary);
+                } else if (type.equals("scenario")) {
+                    scenarioIds.put(line.path("id").asLong(), importScenarioLine(line, summary.projectId));
+                    summary.scenarios++;
+                } else if (type.equals("group")) {
+                    beaconGroupIds.put(line.path("id").asLong(), importBeaconGroupLine(line, summary.projectId, scenarioIds));
+                    summary.beaconGroups++;
+                } else if (type.equals("beacon")) {
+                    importBeaconLine(line, summary.projectId, scenarioIds, beaconGroupIds, beaconIdentities);
+                    summary.beacons++;
+                } else {
+                    throw new MalformedRequestException();
+                }
+                if ((summary.scenarios + summary.beaconGroups + summary.beacons) % GlobalSettings.TRANSFER_BATCH_SIZE == 0) {
+                    entityManager.flush();
+                    entityManager.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new MalformedRequestException();
+        }
+        if (summary.projectId == null) {
+            throw new MalformedRequestException();
+        }
+        // The entities are persisted directly, so the caches of every instance are
+        // told to load the whole project once the import commits
+        changeLogService.projectContentsChanged(summary.projectId);
+        if (GlobalSettings.DEBUGGING) {
+            System.out.println("Imported project with ID = \'" + summary.projectId + "\', " + summary.scenarios + " scenarios, " +
+                                   summary.beaconGroups + " beacon groups and " + summary.beacons + " beacons");
+        }
+        return summary;
+    }
+
+    private Long importProjectLine(JsonNode line, User owner, ImportSummary summary) {
+        Project project = new Project();
+        project.setName(line.path("name").asText());
+        project.setDescription(line.path("description").asText());
+        summary.secret = UUID.randomUUID().toString().toUpperCase();
+        project.setProjectSecret(passwordHashingService.encode(summary.secret));
+        project.setCreationDate(readDate(line));
+        project.setOwner(owner);
+        entityManager.persist(project);
+        return project.getProjectId();
+    }
+
+    private Long importScenarioLine(JsonNode line, Long projectId) {
+        Scenario scenario = new Scenario();
+        scenario.setName(line.path("name").asText());
+        scenario.setDescription(line.path("description").asText());
+        scenario.setMessageShort(line.path("messageShort").asText());
+        scenario.setMessageLong(line.path("messageLong").asText());
+        scenario.setUrl(line.path("url").asText());
+        scenario.setCreationDate(readDate(line));
+        scenario.setProject(entityManager.getReference(Project.class, projectId));
+        entityManager.persist(scenario);
+        return scenario.getScenarioId();
+    }
+
+    private Long importBeaconGroupLine(JsonNode line, Long projectId, Map<Long, Long> scenarioIds) {
+        BeaconGroup beaconGroup = new BeaconGroup();
+        beaconGroup.setName(line.path("name").asText());
+        beaconGroup.setDescription(line.path("description").asText());
+        beaconGroup.setCreationDate(readDate(line));
+        beaconGroup.setProject(entityManager.getReference(Project.class, projectId));
+        Long scenarioId = readReference(line, "scenario", scenarioIds);
+        if (scenarioId != null) {
+            beaconGroup.setScenario(entityManager.getReference(Scenario.class, scenarioId));
+        }
+        entityManager.persist(beaconGroup);
+        return beaconGroup.getBeaconGroupId();
+    }
+
+    private void importBeaconLine(JsonNode line, Long projectId, Map<Long, Long> scenarioIds, Map<Long, Long> beaconGroupIds, Set<String> beaconIdentities) {
+        Beacon beacon = new Beacon();
+        beacon.setUuid(line.path("uuid").asText());
+        beacon.setMajor(line.path("major").asText());
+        beacon.setMinor(line.path("minor").asText());
+        // Matched case-insensitively, like BeaconSpecs does
+        if (!beaconIdentities.add(beacon.getUuid().toUpperCase() + "/" + beacon.getMajor().toUpperCase() + "/" + beacon.getMinor().toUpperCase())) {
+            throw new BeaconAlreadyExistsException(beacon);
+        }
+        beacon.setDescription(line.path("description").asText());
+        beacon.setCreationDate(readDate(line));
+        beacon.setProject(entityManager.getReference(Project.class, projectId));
+        Long beaconGroupId = readReference(line, "group", beaconGroupIds);
+        if (beaconGroupId != null) {
+            beacon.setGroup(entityManager.getReference(BeaconGroup.class, beaconGroupId));
+        }
+        Long scenarioId = readReference(line, "scenario", scenarioIds);
+        if (scenarioId != null) {
+            beacon.setScenario(entityManager.getReference(Scenario.class, scenarioId));
+        }
+        entityManager.persist(beacon);
+    }
+
+    private Date readDate(JsonNode line) {
+        return line.hasNonNull("creationDate") ? new Date(line.get("creationDate").asLong()) : null;
+    }
+
+    /**
+     * Maps the exported ID in the given field to the ID of the imported entity. Every
+     * reference must point to an entity on a previous line.
+     */
+    private Long readReference(JsonNode line, String fieldName, Map<Long, Long> importedIds) {
+        if (!line.hasNonNull(fieldName)) {
+            return null;
+        }
+        Long importedId = importedIds.get(line.get(fieldName).asLong());
+        if (importedId == null) {
+            throw new MalformedRequestException();
+        }
+        return importedId;
+    }
+
+    public static class ImportSummary {
+        private Long   projectId;
+        private String secret;
+        private int    scenarios;
+        private int    beaconGroups;
+        private int    beacons;
+
+        public Long getProjectId() {
+            return projectId;
+        }
+
+        public String getSecret() {
+            return secret;
+        }
+
+        public int getScenarios() {
+            return scenarios;
+        }
+
+        public int getBeaconGroups() {
+            return beaconGroups;
+        }
+
+        public int getBeacons() {
+            return beacons;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.PurgeJob;
+import com.aemreunal.exception.purge.PurgeJobNotFoundException;
+import com.aemreunal.repository.purge.PurgeJobRepo;
+
+/**
+ * Purges deleted projects and users in the background.
+ * <p/>
+ * Deleting a project or a user only marks it as deleted and schedules a {@link
+ * PurgeJob purge job}, so the request doesn't have to load and cascade through every
+ * beacon, beacon group, scenario and device of the project. The jobs are then run here
+ * with set-based native DELETE statements, in chunks of {@value
+ * com.aemreunal.config.GlobalSettings#PURGE_CHUNK_SIZE} rows that are each deleted in
+ * a transaction of their own, so no transaction holds locks on a large part of a
+ * table. A job that fails is retried on the next run, continuing from where it
+ * stopped.
+ */
+@Service
+public class PurgeService {
+    private final AtomicLong completedJobs = new AtomicLong();
+    private final AtomicLong failedJobs    = new AtomicLong();
+    private final AtomicLong purgedRows    = new AtomicLong();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private PurgeJobRepo purgeJobRepo;
+
+    /**
+     * The counters of a purge job, by the table whose rows they count.
+     */
+    private enum Counter {
+        PROJECTS {
+            void add(PurgeJob job, long count) {
+                job.addProjectsPurged(count);
+            }
+        },
+        BEACONS {
+            void add(PurgeJob job, long count) {
+                job.addBeaconsPurged(count);
+            }
+        },
+        BEACON_GROUPS {
+            void add(PurgeJob job, long count) {
+                job.addBeaconGroupsPurged(count);
+            }
+        },
+        SCENARIOS {
+            void add(PurgeJob job, long count) {
+                job.addScenariosPurged(count);
+            }
+        },
+        DEVICES {
+            void add(PurgeJob job, long count) {
+                job.addDevicesPurged(count);
+            }
+        },
+        RESOLUTION_CHANGES {
+            void add(PurgeJob job, long count) {
+                job.addResolutionChangesPurged(count);
+            }
+        };
+
+        abstract void add(PurgeJob job, long count);
+    }
+
+    /**
+     * Schedules the purge of a project or a user that has just been marked as deleted.
+     * Must be called in the transaction that marks it, so the job is only scheduled if
+     * that transaction commits.
+     *
+     * @param kind
+     *     Either {@link PurgeJob#KIND_PROJECT} or {@link PurgeJob#KIND_USER}
+     * @param targetId
+     *     The ID of the project or the user
+     *
+     * @return The scheduled job
+     */
+    public PurgeJob schedule(String kind, Long targetId) {
+        if (GlobalSettings.DEBUGGING) {
+            System.out.println("Scheduling the purge of " + kind + " with ID = \'" + targetId + "\'");
+        }
+        return purgeJobRepo.save(new PurgeJob(kind, targetId));
+    }
+
+    /**
+     * Finds the purge job with the given ID.
+     *
+     * @throws PurgeJobNotFoundException
+     *     If the job does not exist
+     */
+    public PurgeJob findJob(Long jobId) throws PurgeJobNotFoundException {
+        PurgeJob job = purgeJobRepo.findOne(jobId);
+        if (job == null) {
+            throw new PurgeJobNotFoundException();
+        }
+        return job;
+    }
+
+    /**
+     * Runs the unfinished purge jobs, oldest first.
+     */
+    @Scheduled(fixedDelay = GlobalSettings.PURGE_INTERVAL_MILLIS)
+    public void runUnfinishedJobs() {
+        for (Long jobId : purgeJobRepo.findUnfinishedJobIds()) {
+            runJob(jobId);
+        }
+    }
+
+    private void runJob(final Long jobId) {
+        PurgeJob job = updateJob(jobId, PurgeJob.STATUS_RUNNING, null);
+        if (GlobalSettings.DEBUGGING) {
+            System.out.println("Purging " + job.getKind() + " with ID = \'" + job.getTargetId() + "\'");
+        }
+        try {
+            if (job.isUserJob()) {
+                purgeUser(jobId, job.getTargetId());
+            } else {
+                purgeProject(jobId, job.getTargetId());
+            }
+            updateJob(jobId, PurgeJob.STATUS_DONE, null);
+            completedJobs.incrementAndGet();
+        } catch (RuntimeException e) {
+            PurgeJob failedJob = updateJob(jobId, null, e.toString());
+            if (PurgeJob.STATUS_FAILED.equals(failedJob.getStatus())) {
+                failedJobs.incrementAndGet();
+            }
+            if (GlobalSettings.DEBUGGING) {
+                System.out.println("Purge job with ID = \'" + jobId + "\' failed: " + e);
+            }
+        }
+    }
+
+    private void purgeUser(Long jobId, Long userId) {
+        List<Long> projectIds;
+        while (!(projectIds = selectIds("SELECT project_id FROM users_to_projects WHERE user_id = :parentId", userId)).isEmpty()) {
+            for (Long projectId : projectIds) {
+                purgeProject(jobId, projectId);
+            }
+        }
+        purgeChunk(jobId, null, userId, null,
+                   "DELETE FROM users WHERE user_id = :parentId AND deleted = true");
+    }
+
+    /**
+     * Purges the contents of the project with the given ID, and then the project
+     * itself. Each chunk first removes the join table rows of the selected entities, so
+     * no foreign key is violated, and then the entities.
+     */
+    private void purgeProject(Long jobId, Long projectId) {
+        if (!isMarkedAsDeleted(projectId)) {
+            throw new IllegalStateException("Project with ID = '" + projectId + "' is not marked as deleted!");
+        }
+        purgeInChunks(jobId, Counter.BEACONS, projectId,
+                      "SELECT beacon_id FROM projects_to_beacons WHERE project_id = :parentId",
+                      "DELETE FROM beacon_groups_to_beacons WHERE beacon_id IN (:ids)",
+                      "DELETE FROM scenarios_to_beacons WHERE beacon_id IN (:ids)",
+                      "DELETE FROM projects_to_beacons WHERE beacon_id IN (:ids)",
+                      "DELETE FROM beacons WHERE beacon_id IN (:ids)");
+        purgeInChunks(jobId, Counter.BEACON_GROUPS, projectId,
+                      "SELECT beacon_group_id FROM projects_to_beacon_groups WHERE project_id = :parentId",
+                      "DELETE FROM scenarios_to_beacon_groups WHERE beacon_group_id IN (:ids)",
+                      "DELETE FROM projects_to_beacon_groups WHERE beacon_group_id IN (:ids)",
+                      "DELETE FROM beacon_groups WHERE beacon_group_id IN (:ids)");
+        purgeInChunks(jobId, Counter.SCENARIOS, projectId,
+                      "SELECT scenario_id FROM projects_to_scenarios WHERE project_id = :parentId",
+                      "DELETE FROM projects_to_scenarios WHERE scenario_id IN (:ids)",
+                      "DELETE FROM scenarios WHERE scenario_id IN (:ids)");
+        deleteInChunks(jobId, Counter.DEVICES, projectId,
+                      "DELETE FROM devices WHERE project_id = :parentId LIMIT " + GlobalSettings.PURGE_CHUNK_SIZE);
+        deleteInChunks(jobId, Counter.RESOLUTION_CHANGES, projectId,
+                      "DELETE FROM resolution_changes WHERE project_id = :parentId LIMIT " + GlobalSettings.PURGE_CHUNK_SIZE);
+        deleteInChunks(jobId, null, projectId,
+                      "DELETE FROM visits WHERE project_id = :parentId LIMIT " + GlobalSettings.PURGE_CHUNK_SIZE);
+        for (String rollup : new String[] { "trigger_counts_minute", "trigger_counts_hour", "trigger_counts_day" }) {
+            deleteInChunks(jobId, null, projectId,
+                          "DELETE FROM " + rollup + " WHERE project_id = :parentId LIMIT " + GlobalSettings.PURGE_CHUNK_SIZE);
+        }
+        deleteInChunks(jobId, null, projectId,
+                      "DELETE FROM heatmap_counts WHERE project_id = :parentId LIMIT " + GlobalSettings.PURGE_CHUNK_SIZE);
+        purgeChunk(jobId, Counter.PROJECTS, projectId, null,
+                   "DELETE FROM users_to_projects WHERE project_id = :parentId",
+                   "DELETE FROM projects WHERE project_id = :parentId AND deleted = true");
+    }
+
+    /**
+     * Deletes the rows of a table that has a parent ID column, until none are left.
+     */
+    private void deleteInChunks(Long jobId, Counter counter, Long parentId, String delete) {
+        while (purgeChunk(jobId, counter, parentId, null, delete) != 0) {
+            // Continue until the last chunk deletes nothing
+        }
+    }
+
+    /**
+     * Deletes the entities whose IDs are found by the given query, until none are left.
+     */
+    private void purgeInChunks(Long jobId, Counter counter, Long parentId, String selectIds, String... deletes) {
+        List<Long> ids;
+        while (!(ids = selectIds(selectIds, parentId)).isEmpty()) {
+            purgeChunk(jobId, counter, parentId, ids, deletes);
+        }
+    }
+
+    /**
+     * Whether the project with the given ID is marked as deleted, or has already been
+     * purged by an earlier attempt of the job.
+     */
+    private boolean isMarkedAsDeleted(final Long projectId) {
+        return newTransaction().execute(new TransactionCallback<Boolean>() {
+            @Override
+            public Boolean doInTransaction(TransactionStatus status) {
+                List<Boolean> deleted = entityManager.createQuery("SELECT p.deleted FROM Project p WHERE p.projectId = :projectId", Boolean.class)
+                                                     .setParameter("projectId", projectId)
+                                                     .getResultList();
+                return deleted.isEmpty() || deleted.get(0);
+            }
+        });
+    }
+
+    private List<Long> selectIds(final String selectIds, final Long parentId) {
+        return newTransaction().execute(new TransactionCallback<List<Long>>() {
+            @Override
+            public List<Long> doInTransaction(TransactionStatus status) {
+                List<?> rows = entityManager.createNativeQuery(selectIds)
+                                            .setParameter("parentId", parentId)
+                                            .setMaxResults(GlobalSettings.PURGE_CHUNK_SIZE)
+                                            .getResultList();
+                List<Long> ids = new ArrayList<Long>(rows.size());
+                for (Object row : rows) {
+                    ids.add(((Number) row).longValue());
+                }
+                return ids;
+            }
+        });
+    }
+
+    /**
+     * Executes the given DELETE statements in a transaction of their own, adding the
+     * number of rows deleted by the last of them to the given counter of the job.
+     *
+     * @return The number of rows deleted by the last statement
+     */
+    private int purgeChunk(final Long jobId, final Counter counter, final Long parentId, final List<Long> ids, final String... deletes) {
+        final int[] totalRows = { 0 };
+        int deletedRows = newTransaction().execute(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+                int deletedRows = 0;
+                for (String delete : deletes) {
+                    Query query = entityManager.createNativeQuery(delete);
+                    if (ids == null) {
+                        query.setParameter("parentId", parentId);
+                    } else {
+                        query.setParameter("ids", ids);
+                    }
+                    deletedRows = query.executeUpdate();
+                    totalRows[0] += deletedRows;
+                }
+                if (counter != null && deletedRows != 0) {
+                    counter.add(entityManager.find(PurgeJob.class, jobId), deletedRows);
+                }
+                return deletedRows;
+            }
+        });
+        // Only counted once the chunk is committed
+        purgedRows.addAndGet(totalRows[0]);
+        return deletedRows;
+    }
+
+    /**
+     * Sets the status of the job, or records a failure if an error is given.
+     */
+    private PurgeJob updateJob(final Long jobId, final String status, final String error) {
+        return newTransaction().execute(new TransactionCallback<PurgeJob>() {
+            @Override
+            public PurgeJob doInTransaction(TransactionStatus transactionStatus) {
+                PurgeJob job = entityManager.find(PurgeJob.class, jobId);
+                if (error != null) {
+                    if (job.recordFailure(error) >= GlobalSettings.PURGE_MAX_ATTEMPTS) {
+                        job.setStatus(PurgeJob.STATUS_FAILED);
+                        job.setCompletionDate(new Date());
+                    }
+                } else {
+                    job.setStatus(status);
+                    if (PurgeJob.STATUS_DONE.equals(status)) {
+                        job.setCompletionDate(new Date());
+                    }
+                }
+                return job;
+            }
+        });
+    }
+
+    private TransactionTemplate newTransaction() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return transaction;
+    }
+
+    public long getUnfinishedJobs() {
+        return purgeJobRepo.countUnfinished();
+    }
+
+    public long getCompletedJobs() {
+        return completedJobs.get();
+    }
+
+    public long getFailedJobs() {
+        return failedJobs.get();
+    }
+
+    public long getPurgedRows() {
+        return purgedRows.get();
+    }
+}
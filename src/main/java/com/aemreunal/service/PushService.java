@@ -0,0 +1,320 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.Scenario;
+import com.aemreunal.exception.push.PushNotEnabledException;
+import com.aemreunal.exception.push.PushQueueFullException;
+import com.aemreunal.repository.device.DeviceRepo;
+import com.notnoop.apns.APNS;
+import com.notnoop.apns.ApnsService;
+import com.notnoop.apns.ApnsServiceBuilder;
+import com.notnoop.apns.PayloadBuilder;
+import com.notnoop.apns.ReconnectPolicy;
+import com.notnoop.exceptions.ApnsException;
+
+/**
+ * Delivers scenarios to the registered iOS devices of a project via APNS.
+ * <p/>
+ * A push is handled in three stages, so that the HTTP request that triggers it only
+ * has to enqueue it:
+ * <li>The push is queued to a single fan-out thread. If that queue is full, the push
+ * is rejected with a {@link PushQueueFullException}.</li>
+ * <li>The fan-out thread reads the device tokens of the project in batches and puts
+ * them into a bounded batch queue, blocking while the senders catch up.</li>
+ * <li>Each sender thread owns one persistent gateway connection and sends batches,
+ * retrying with an exponential backoff when the connection fails.</li>
+ * <p/>
+ * Tokens reported by the APNS feedback service are pruned periodically.
+ * <p/>
+ * Push notifications are enabled by giving the APNS certificate of the iOS app in the
+ * {@value com.aemreunal.config.GlobalSettings#APNS_CERTIFICATE_PROPERTY} system
+ * property, see README.md.
+ */
+@Service
+public class PushService {
+    @Autowired
+    private DeviceRepo deviceRepo;
+
+    private final BlockingQueue<PushBatch> batchQueue = new ArrayBlockingQueue<PushBatch>(GlobalSettings.PUSH_BATCH_QUEUE_CAPACITY);
+
+    private final List<ApnsService> gatewayConnections = new ArrayList<ApnsService>();
+
+    private ThreadPoolExecutor fanOutExecutor;
+    private ExecutorService    senderExecutor;
+    private volatile boolean   running;
+
+    private final AtomicLong queuedPushes         = new AtomicLong();
+    private final AtomicLong rejectedPushes       = new AtomicLong();
+    private final AtomicLong sentNotifications    = new AtomicLong();
+    private final AtomicLong retriedBatches       = new AtomicLong();
+    private final AtomicLong failedNotifications  = new AtomicLong();
+    private final AtomicLong prunedDevices        = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        String certificate = System.getProperty(GlobalSettings.APNS_CERTIFICATE_PROPERTY, "");
+        if (certificate.isEmpty()) {
+            return;
+        }
+        running = true;
+        fanOutExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                                                new ArrayBlockingQueue<Runnable>(GlobalSettings.PUSH_JOB_QUEUE_CAPACITY),
+                                                new ThreadPoolExecutor.AbortPolicy());
+        senderExecutor = Executors.newFixedThreadPool(GlobalSettings.PUSH_SENDER_THREADS);
+        for (int i = 0; i < GlobalSettings.PUSH_SENDER_THREADS; i++) {
+            ApnsService connection = buildGatewayConnection(certificate);
+            gatewayConnections.add(connection);
+            senderExecutor.execute(new BatchSender(connection));
+        }
+    }
+
+    private ApnsService buildGatewayConnection(String certificate) {
+        ApnsServiceBuilder builder = APNS.newService()
+                                         .withCert(certificate, System.getProperty(GlobalSettings.APNS_CERTIFICATE_PASSWORD_PROPERTY, ""))
+                                         // Keep the connection open until it fails
+                                         .withReconnectPolicy(ReconnectPolicy.Provided.NEVER);
+        String gatewayHost = System.getProperty(GlobalSettings.APNS_GATEWAY_HOST_PROPERTY, "");
+        if (!gatewayHost.isEmpty()) {
+            // Custom destinations, i.e. a local mock gateway for testing
+            builder.withGatewayDestination(gatewayHost, Integer.getInteger(GlobalSettings.APNS_GATEWAY_PORT_PROPERTY, GlobalSettings.APNS_GATEWAY_PORT))
+                   .withFeedbackDestination(System.getProperty(GlobalSettings.APNS_FEEDBACK_HOST_PROPERTY, gatewayHost),
+                                            Integer.getInteger(GlobalSettings.APNS_FEEDBACK_PORT_PROPERTY, GlobalSettings.APNS_FEEDBACK_PORT));
+        } else if (!Boolean.getBoolean(GlobalSettings.APNS_PRODUCTION_PROPERTY)) {
+            builder.withSandboxDestination();
+        } else {
+            builder.withProductionDestination();
+        }
+        ApnsService connection = builder.build();
+        connection.start();
+        return connection;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        fanOutExecutor.shutdownNow();
+        senderExecutor.shutdownNow();
+        for (ApnsService connection : gatewayConnections) {
+            connection.stop();
+        }
+    }
+
+    /**
+     * Queues the given scenario to be pushed to every registered device of its project.
+     * Returns as soon as the push is queued.
+     *
+     * @param scenario
+     *     The scenario to push
+     *
+     * @throws PushQueueFullException
+     *     If too many pushes are already waiting to be fanned out
+     */
+    public void pushScenario(Scenario scenario) throws PushQueueFullException, PushNotEnabledException {
+        if (!running) {
+            throw new PushNotEnabledException();
+        }
+        // The scenario is read on the request thread, the fan-out only sees plain values
+        Long projectId = scenario.getProject().getProjectId();
+        String payload = buildPayload(scenario);
+        try {
+            fanOutExecutor.execute(new FanOutJob(projectId, payload));
+            queuedPushes.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            rejectedPushes.incrementAndGet();
+            throw new PushQueueFullException(scenario.getScenarioId());
+        }
+        if (GlobalSettings.DEBUGGING) {
+            System.out.println("Queued push of scenario with ID = \'" + scenario.getScenarioId() + "\' to project with ID = \'" + projectId + "\'");
+        }
+    }
+
+    private String buildPayload(Scenario scenario) {
+        PayloadBuilder payloadBuilder = APNS.newPayload().alertBody(scenario.getMessageShort());
+        if (scenario.hasUrl()) {
+            payloadBuilder.customField("url", scenario.getUrl());
+        }
+        return payloadBuilder.shrinkBody().build();
+    }
+
+    /**
+     * Removes the devices whose tokens were reported as inactive by the APNS feedback
+     * service.
+     */
+    @Scheduled(fixedDelay = GlobalSettings.PUSH_FEEDBACK_INTERVAL_MILLIS)
+    public void pruneInactiveDevices() {
+        if (!running) {
+            return;
+        }
+        Map<String, Date> inactiveDevices;
+        try {
+            inactiveDevices = gatewayConnections.get(0).getInactiveDevices();
+        } catch (ApnsException e) {
+            System.err.println("Unable to query the APNS feedback service: " + e.getMessage());
+            return;
+        }
+        for (Map.Entry<String, Date> inactiveDevice : inactiveDevices.entrySet()) {
+            prunedDevices.addAndGet(deviceRepo.deleteInactive(inactiveDevice.getKey().toUpperCase(), inactiveDevice.getValue()));
+        }
+        if (GlobalSettings.DEBUGGING) {
+            System.out.println("APNS feedback service reported " + inactiveDevices.size() + " inactive device tokens");
+        }
+    }
+
+    public int getFanOutQueueDepth() {
+        return running ? fanOutExecutor.getQueue().size() : 0;
+    }
+
+    public int getBatchQueueDepth() {
+        return batchQueue.size();
+    }
+
+    public long getQueuedPushes() {
+        return queuedPushes.get();
+    }
+
+    public long getRejectedPushes() {
+        return rejectedPushes.get();
+    }
+
+    public long getSentNotifications() {
+        return sentNotifications.get();
+    }
+
+    public long getRetriedBatches() {
+        return retriedBatches.get();
+    }
+
+    public long getFailedNotifications() {
+        return failedNotifications.get();
+    }
+
+    public long getPrunedDevices() {
+        return prunedDevices.get();
+    }
+
+    /**
+     * Reads the device tokens of a project batch by batch and hands them to the
+     * senders.
+     */
+    private class FanOutJob implements Runnable {
+        private final Long   projectId;
+        private final String payload;
+
+        private FanOutJob(Long projectId, String payload) {
+            this.projectId = projectId;
+            this.payload = payload;
+        }
+
+        @Override
+        public void run() {
+            Long lastDeviceId = 0L;
+            PageRequest batchRequest = new PageRequest(0, GlobalSettings.PUSH_BATCH_SIZE);
+            try {
+                while (running) {
+                    List<Object[]> rows = deviceRepo.findTokensOfProjectAfter(projectId, lastDeviceId, batchRequest);
+                    if (rows.isEmpty()) {
+                        return;
+                    }
+                    List<String> tokens = new ArrayList<String>(rows.size());
+                    for (Object[] row : rows) {
+                        lastDeviceId = (Long) row[0];
+                        tokens.add((String) row[1]);
+                    }
+                    // Blocks while the senders are behind, which bounds the memory used
+                    batchQueue.put(new PushBatch(tokens, payload));
+                    if (rows.size() < GlobalSettings.PUSH_BATCH_SIZE) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Sends batches over a single persistent gateway connection.
+     */
+    private class BatchSender implements Runnable {
+        private final ApnsService connection;
+
+        private BatchSender(ApnsService connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    PushBatch batch = batchQueue.poll(1, TimeUnit.SECONDS);
+                    if (batch != null) {
+                        send(batch);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void send(PushBatch batch) throws InterruptedException {
+            long backoff = GlobalSettings.PUSH_INITIAL_BACKOFF_MILLIS;
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    connection.push(batch.tokens, batch.payload);
+                    sentNotifications.addAndGet(batch.tokens.size());
+                    return;
+                } catch (ApnsException e) {
+                    if (attempt == GlobalSettings.PUSH_MAX_RETRIES) {
+                        failedNotifications.addAndGet(batch.tokens.size());
+                        System.err.println("Giving up on a push batch of " + batch.tokens.size() + " devices: " + e.getMessage());
+                        return;
+                    }
+                    retriedBatches.incrementAndGet();
+                    Thread.sleep(backoff);
+                    backoff *= 2;
+                }
+            }
+        }
+    }
+
+    private static class PushBatch {
+        private final List<String> tokens;
+        private final String       payload;
+
+        private PushBatch(List<String> tokens, String payload) {
+            this.tokens = tokens;
+            this.payload = payload;
+        }
+    }
+}
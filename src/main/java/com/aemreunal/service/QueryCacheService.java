@@ -0,0 +1,644 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import net.minidev.json.JSONObject;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.hibernate.ScrollableResults;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.Beacon;
+import com.aemreunal.domain.ChangeLogEntry;
+import com.aemreunal.domain.Scenario;
+import com.aemreunal.exception.beacon.BeaconNotFoundException;
+import com.aemreunal.exception.scenario.NoScenarioForQueryException;
+import com.aemreunal.helper.SecretDigests;
+import com.aemreunal.helper.StreamingQuery;
+
+/**
+ * Answers the beacon queries of the consuming apps from memory.
+ * <p/>
+ * Keeps every beacon by its identity, the scenario of every beacon group, the query
+ * response of every scenario and the secret hash of every project. The cache is warmed
+ * up on startup, by streaming the tables with forward-only cursors, in ID range
+ * partitions of {@value com.aemreunal.config.GlobalSettings#WARMUP_PARTITION_SIZE} rows
+ * that are loaded in parallel on a fork-join pool. Until then, the queries are
+ * answered from the database and the server does not report itself as ready.
+ * <p/>
+ * Afterwards, every change in the {@link ChangeLogService change log} reloads the
+ * changed row, or every row of the project after an import. A change during the
+ * warm-up is reloaded once more at its end, since a partition may have read the row
+ * before it changed.
+ * <p/>
+ * Verifying a project secret with BCrypt costs tens of milliseconds, so the last secret
+ * that matched the hash of a project is remembered (as a SHA-256 digest) and later
+ * queries with the same secret are not verified again. Wrong secrets are always
+ * verified with BCrypt.
+ */
+@Service
+public class QueryCacheService implements ChangeLogListener, ApplicationListener<ContextRefreshedEvent> {
+    // Group -> NO_SCENARIO for a group without a scenario, IDs start from 1
+    private static final Long    NO_SCENARIO = 0L;
+
+    // Beacon identity -> beacons with that identity, in different projects
+    private final ConcurrentMap<String, CachedBeacon[]> beaconsByIdentity = new ConcurrentHashMap<String, CachedBeacon[]>();
+    private final ConcurrentMap<Long, CachedBeacon>     beaconsById       = new ConcurrentHashMap<Long, CachedBeacon>();
+    private final ConcurrentMap<Long, Long>             groupScenarios    = new ConcurrentHashMap<Long, Long>();
+    private final ConcurrentMap<Long, JSONObject>       scenarioResponses = new ConcurrentHashMap<Long, JSONObject>();
+    private final ConcurrentMap<Long, CachedProject>    projects          = new ConcurrentHashMap<Long, CachedProject>();
+    // Hex digest of a verified secret -> ID of its project
+    private final ConcurrentMap<String, Long>           projectsBySecret  = new ConcurrentHashMap<String, Long>();
+    // Guards the two beacon maps, which are updated together
+    private final Object                                beaconLock        = new Object();
+
+    private final AtomicBoolean            warmUpStarted        = new AtomicBoolean(false);
+    private volatile boolean               warmingUp            = false;
+    private volatile boolean               ready                = false;
+    private volatile long                  warmUpMillis         = -1;
+    // The changes made while warming up, to reload once more at the end
+    private final Queue<ChangeLogEntry>    changedDuringWarmUp  = new ConcurrentLinkedQueue<ChangeLogEntry>();
+
+    private final AtomicLong hits             = new AtomicLong();
+    private final AtomicLong fallbacks        = new AtomicLong();
+    private final AtomicLong skippedHashes    = new AtomicLong();
+    private final AtomicLong reloadedRows     = new AtomicLong();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private PasswordHashingService passwordHashingService;
+
+    /**
+     * The cached tables, with the queries to load them. The row queries select plain
+     * columns of the rows with IDs between :first and :last, the project queries those
+     * of the rows of the project with the ID :projectId.
+     */
+    private enum Table {
+        BEACONS("SELECT MIN(b.beaconId), MAX(b.beaconId) FROM Beacon b",
+                "SELECT b.beaconId, p.projectId, b.uuid, b.major, b.minor, g.beaconGroupId, s.scenarioId " +
+                "FROM Beacon b JOIN b.project p LEFT JOIN b.group g LEFT JOIN b.scenario s " +
+                "WHERE p.deleted = false", "b.beaconId") {
+            void put(QueryCacheService cache, ScrollableResults row) {
+                Long groupId = (Long) row.get(5);
+                Long scenarioId = (Long) row.get(6);
+                cache.putBeacon(new CachedBeacon(row.getLong(0), row.getLong(1), identityOf(row.getString(2), row.getString(3), row.getString(4)), groupId, scenarioId));
+            }
+
+            void remove(QueryCacheService cache, Long id) {
+                cache.removeBeacon(id);
+            }
+        },
+        GROUPS("SELECT MIN(g.beaconGroupId), MAX(g.beaconGroupId) FROM BeaconGroup g",
+               "SELECT g.beaconGroupId, s.scenarioId FROM BeaconGroup g JOIN g.project p LEFT JOIN g.scenario s " +
+               "WHERE p.deleted = false", "g.beaconGroupId") {
+            void put(QueryCacheService cache, ScrollableResults row) {
+                Long scenarioId = (Long) row.get(1);
+                cache.groupScenarios.put(row.getLong(0), scenarioId == null ? NO_SCENARIO : scenarioId);
+            }
+
+            void remove(QueryCacheService cache, Long id) {
+                cache.groupScenarios.remove(id);
+            }
+        },
+        SCENARIOS("SELECT MIN(s.scenarioId), MAX(s.scenarioId) FROM Scenario s",
+                  "SELECT s.scenarioId, s.messageShort, s.messageLong, s.url FROM Scenario s JOIN s.project p " +
+                  "WHERE p.deleted = false", "s.scenarioId") {
+            void put(QueryCacheService cache, ScrollableResults row) {
+                cache.scenarioResponses.put(row.getLong(0), Scenario.generateQueryResponse(row.getString(1), row.getString(2), row.getString(3)));
+            }
+
+            void remove(QueryCacheService cache, Long id) {
+                cache.scenarioResponses.remove(id);
+            }
+        },
+        PROJECTS("SELECT MIN(p.projectId), MAX(p.projectId) FROM Project p",
+                 "SELECT p.projectId, p.projectSecret FROM Project p " +
+                 "WHERE p.deleted = false", "p.projectId") {
+            void put(QueryCacheService cache, ScrollableResults row) {
+                Long projectId = row.getLong(0);
+                String secretHash = row.getString(1);
+                CachedProject current = cache.projects.get(projectId);
+                // Keep the verified secret, unless the secret has been reset
+                if (current == null || !current.secretHash.equals(secretHash)) {
+                    cache.projects.put(projectId, new CachedProject(projectId, secretHash));
+                    cache.forgetVerifiedSecret(current);
+                }
+            }
+
+            void remove(QueryCacheService cache, Long id) {
+                cache.forgetVerifiedSecret(cache.projects.remove(id));
+                cache.removeBeaconsOfProject(id);
+            }
+        };
+
+        private final String rangeQuery;
+        private final String rowQuery;
+        private final String projectQuery;
+
+        Table(String rangeQuery, String selectQuery, String idField) {
+            this.rangeQuery = rangeQuery;
+            this.rowQuery = selectQuery + " AND " + idField + " BETWEEN :first AND :last";
+            this.projectQuery = selectQuery + " AND p.projectId = :projectId";
+        }
+
+        abstract void put(QueryCacheService cache, ScrollableResults row);
+
+        abstract void remove(QueryCacheService cache, Long id);
+
+        static Table of(String changeLogKind) {
+            switch (changeLogKind) {
+                case ChangeLogEntry.KIND_BEACON:
+                    return BEACONS;
+                case ChangeLogEntry.KIND_BEACON_GROUP:
+                    return GROUPS;
+                case ChangeLogEntry.KIND_SCENARIO:
+                    return SCENARIOS;
+                default:
+                    return PROJECTS;
+            }
+        }
+    }
+
+    /**
+     * Finds the query response of the scenario of the beacon with the given identity,
+     * in the project with the given secret.
+     *
+     * @return The query response, or null if it can't be answered from the cache, in
+     * which case the database must be queried
+     *
+     * @throws BeaconNotFoundException
+     *     If there is no such beacon in a project with the given secret
+     * @throws NoScenarioForQueryException
+     *     If the beacon does not have a scenario
+     */
+    public JSONObject queryForScenario(String uuid, String major, String minor, String projectSecret)
+    throws BeaconNotFoundException, NoScenarioForQueryException {
+        if (!ready || uuid.length() != Beacon.UUID_MAX_LENGTH) {
+            // A partial UUID is matched with LIKE, which only the database does
+            fallbacks.incrementAndGet();
+            return null;
+        }
+        CachedBeacon[] candidates = beaconsByIdentity.get(identityOf(uuid, major, minor));
+        if (candidates != null) {
+            for (CachedBeacon beacon : candidates) {
+                CachedProject project = projects.get(beacon.projectId);
+                if (project != null && matches(project, projectSecret)) {
+                    return responseFor(beacon, uuid, major, minor);
+                }
+            }
+        }
+        hits.incrementAndGet();
+        throw new BeaconNotFoundException();
+    }
+
+    private JSONObject responseFor(CachedBeacon beacon, String uuid, String major, String minor) throws NoScenarioForQueryException {
+        Long scenarioId = beacon.scenarioId;
+        if (beacon.groupId != null) {
+            scenarioId = groupScenarios.get(beacon.groupId);
+            if (scenarioId == null) {
+                // The group has been created on another instance and not polled yet
+                fallbacks.incrementAndGet();
+                return null;
+            }
+        }
+        if (scenarioId == null || NO_SCENARIO.equals(scenarioId)) {
+            hits.incrementAndGet();
+            throw new NoScenarioForQueryException(uuid, major, minor);
+        }
+        JSONObject response = scenarioResponses.get(scenarioId);
+        if (response == null) {
+            fallbacks.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        // A copy, so the cached response can't be modified
+        return new JSONObject(response);
+    }
+
+    /**
+     * Checks the given plain-text secret against the secret hash of a project, with
+     * BCrypt only if the secret hasn't matched the same hash before.
+     *
+     * @param projectId
+     *     The ID of the project
+     * @param projectSecret
+     *     The plain-text secret
+     * @param secretHash
+     *     The secret hash of the project, as read from the database
+     */
+    public boolean matchesSecret(Long projectId, String projectSecret, String secretHash) {
+        CachedProject project = projects.get(projectId);
+        if (project != null && project.secretHash.equals(secretHash)) {
+            return matches(project, projectSecret);
+        }
+        return passwordHashingService.matches(projectSecret, secretHash);
+    }
+
+    private boolean matches(CachedProject project, String projectSecret) {
+        byte[] digest = SecretDigests.digest(projectSecret);
+        byte[] verifiedDigest = project.verifiedDigest;
+        if (verifiedDigest != null && MessageDigest.isEqual(verifiedDigest, digest)) {
+            skippedHashes.incrementAndGet();
+            return true;
+        }
+        if (passwordHashingService.matches(projectSecret, project.secretHash)) {
+            forgetVerifiedSecret(project);
+            project.verifiedDigest = digest;
+            projectsBySecret.put(SecretDigests.toHex(digest), project.projectId);
+            return true;
+        }
+        return false;
+    }
+
+    private void forgetVerifiedSecret(CachedProject project) {
+        if (project != null && project.verifiedDigest != null) {
+            projectsBySecret.remove(SecretDigests.toHex(project.verifiedDigest));
+        }
+    }
+
+    /**
+     * Finds the project of a secret that has already been verified, without verifying
+     * it again.
+     *
+     * @param secretDigest
+     *     The hex digest of the secret, see {@link SecretDigests}
+     *
+     * @return The ID of the project, or null if the secret has not been verified
+     */
+    public Long findProjectOfSecret(String secretDigest) {
+        return projectsBySecret.get(secretDigest);
+    }
+
+    /**
+     * Finds the cached beacon with the given identity in the project with the given ID.
+     *
+     * @return The ID of the beacon, or null if there is no such beacon in the cache
+     */
+    public Long findBeaconId(String uuid, String major, String minor, Long projectId) {
+        CachedBeacon[] candidates = beaconsByIdentity.get(identityOf(uuid, major, minor));
+        if (candidates != null) {
+            for (CachedBeacon beacon : candidates) {
+                if (beacon.projectId == projectId) {
+                    return beacon.beaconId;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the scenario that the cached beacon with the given ID resolves to, directly
+     * or through its group.
+     *
+     * @return The ID of the scenario, or null if the beacon has no scenario or is not
+     * in the cache
+     */
+    public Long findScenarioOfBeacon(Long beaconId) {
+        CachedBeacon beacon = beaconsById.get(beaconId);
+        if (beacon == null) {
+            return null;
+        }
+        Long scenarioId = beacon.groupId == null ? beacon.scenarioId : groupScenarios.get(beacon.groupId);
+        return NO_SCENARIO.equals(scenarioId) ? null : scenarioId;
+    }
+
+    @Override
+    public void changeLogged(ChangeLogEntry entry, boolean local) {
+        if (!warmUpStarted.get()) {
+            // Everything is loaded by the warm-up
+            return;
+        }
+        if (warmingUp) {
+            changedDuringWarmUp.add(entry);
+        }
+        reload(entry);
+    }
+
+    private void reload(ChangeLogEntry entry) {
+        if (ChangeLogEntry.KIND_PROJECT_CONTENTS.equals(entry.getKind())) {
+            reloadProject(entry.getProjectId());
+            return;
+        }
+        Table table = Table.of(entry.getKind());
+        if (loadRange(table, entry.getEntityId(), entry.getEntityId()) == 0) {
+            table.remove(this, entry.getEntityId());
+        }
+        reloadedRows.incrementAndGet();
+    }
+
+    /**
+     * Loads every row of the given project, e.g. after it has been imported. Rows are
+     * only added or replaced, as the project contents are not removed this way.
+     */
+    private void reloadProject(Long projectId) {
+        for (Table table : Table.values()) {
+            reloadedRows.addAndGet(load(table, table.projectQuery, "projectId", projectId));
+        }
+    }
+
+    /**
+     * Starts the warm-up once the application context is ready, in the background.
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        // Published by both the root and the web application contexts
+        if (warmUpStarted.compareAndSet(false, true)) {
+            Thread warmUpThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    warmUp();
+                }
+            }, "cache-warm-up");
+            warmUpThread.setDaemon(true);
+            warmUpThread.start();
+        }
+    }
+
+    private void warmUp() {
+        warmingUp = true;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                long heapBefore = usedHeap();
+                long start = System.currentTimeMillis();
+                loadAll();
+                // Reload the rows that changed meanwhile, as a partition may have read
+                // them before they changed
+                warmingUp = false;
+                for (ChangeLogEntry entry = changedDuringWarmUp.poll(); entry != null; entry = changedDuringWarmUp.poll()) {
+                    reload(entry);
+                }
+                warmUpMillis = System.currentTimeMillis() - start;
+                ready = true;
+                System.out.println("Cache warm-up took " + warmUpMillis + " ms: " +
+                                   beaconsById.size() + " beacons, " +
+                                   groupScenarios.size() + " beacon groups, " +
+                                   scenarioResponses.size() + " scenarios, " +
+                                   projects.size() + " projects, about " +
+                                   (usedHeap() - heapBefore) / (1024 * 1024) + " MB of heap");
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("Cache warm-up attempt " + attempt + " failed: " + e.getMessage());
+                warmingUp = true;
+                try {
+                    Thread.sleep(GlobalSettings.WARMUP_RETRY_INTERVAL_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void loadAll() {
+        final List<RecursiveAction> partitions = new ArrayList<RecursiveAction>();
+        for (final Table table : Table.values()) {
+            Object[] range = readFromPrimary(new TransactionCallback<Object[]>() {
+                @Override
+                public Object[] doInTransaction(TransactionStatus status) {
+                    return (Object[]) entityManager.createQuery(table.rangeQuery).getSingleResult();
+                }
+            });
+            if (range[0] == null) {
+                // The table is empty
+                continue;
+            }
+            long minId = (Long) range[0];
+            long maxId = (Long) range[1];
+            for (long first = minId; first <= maxId; first += GlobalSettings.WARMUP_PARTITION_SIZE) {
+                final long partitionFirst = first;
+                final long partitionLast = Math.min(first + GlobalSettings.WARMUP_PARTITION_SIZE - 1, maxId);
+                partitions.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        loadRange(table, partitionFirst, partitionLast);
+                    }
+                });
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(GlobalSettings.WARMUP_PARALLELISM);
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(partitions);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Loads the rows of the given table with IDs in the given range, each in a
+     * transaction of its own.
+     *
+     * @return The number of rows loaded
+     */
+    private int loadRange(Table table, Long first, Long last) {
+        return load(table, table.rowQuery, "first", first, "last", last);
+    }
+
+    /**
+     * Loads the rows of the given table that the given query selects, in a transaction
+     * of its own.
+     *
+     * @return The number of rows loaded
+     */
+    private int load(final Table table, final String hql, final Object... parameters) {
+        return readFromPrimary(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+                ScrollableResults rows = StreamingQuery.scroll(entityManager, hql, parameters);
+                int count = 0;
+                try {
+                    while (rows.next()) {
+                        table.put(QueryCacheService.this, rows);
+                        count++;
+                    }
+                } finally {
+                    rows.close();
+                }
+                return count;
+            }
+        });
+    }
+
+    private <T> T readFromPrimary(TransactionCallback<T> callback) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        // Not read-only, so it reads from the primary database, as a replica could miss
+        // a change that has already been applied. A new transaction, since changes are
+        // reloaded right after the transaction that made them commits
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return transaction.execute(callback);
+    }
+
+    private void putBeacon(CachedBeacon beacon) {
+        synchronized (beaconLock) {
+            CachedBeacon previous = beaconsById.put(beacon.beaconId, beacon);
+            if (previous != null) {
+                removeFromIdentity(previous);
+            }
+            CachedBeacon[] current = beaconsByIdentity.get(beacon.identity);
+            CachedBeacon[] updated;
+            if (current == null) {
+                updated = new CachedBeacon[] { beacon };
+            } else {
+                updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = beacon;
+            }
+            beaconsByIdentity.put(beacon.identity, updated);
+        }
+    }
+
+    private void removeBeacon(Long beaconId) {
+        synchronized (beaconLock) {
+            CachedBeacon previous = beaconsById.remove(beaconId);
+            if (previous != null) {
+                removeFromIdentity(previous);
+            }
+        }
+    }
+
+    private void removeBeaconsOfProject(Long projectId) {
+        synchronized (beaconLock) {
+            for (CachedBeacon beacon : new ArrayList<CachedBeacon>(beaconsById.values())) {
+                if (beacon.projectId == projectId) {
+                    removeBeacon(beacon.beaconId);
+                }
+            }
+        }
+    }
+
+    // Must hold beaconLock
+    private void removeFromIdentity(CachedBeacon beacon) {
+        CachedBeacon[] current = beaconsByIdentity.get(beacon.identity);
+        if (current == null) {
+            return;
+        }
+        List<CachedBeacon> remaining = new ArrayList<CachedBeacon>(current.length);
+        for (CachedBeacon other : current) {
+            if (other.beaconId != beacon.beaconId) {
+                remaining.add(other);
+            }
+        }
+        if (remaining.isEmpty()) {
+            beaconsByIdentity.remove(beacon.identity);
+        } else {
+            beaconsByIdentity.put(beacon.identity, remaining.toArray(new CachedBeacon[remaining.size()]));
+        }
+    }
+
+    private static String identityOf(String uuid, String major, String minor) {
+        return uuid.toUpperCase() + "/" + major.toUpperCase() + "/" + minor.toUpperCase();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return Whether the warm-up has completed, i.e. the server is ready to take robot
+     * traffic
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public long getWarmUpMillis() {
+        return warmUpMillis;
+    }
+
+    public int getCachedBeacons() {
+        return beaconsById.size();
+    }
+
+    public int getCachedScenarios() {
+        return scenarioResponses.size();
+    }
+
+    public int getCachedProjects() {
+        return projects.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    public long getSkippedHashes() {
+        return skippedHashes.get();
+    }
+
+    public long getReloadedRows() {
+        return reloadedRows.get();
+    }
+
+    private static class CachedBeacon {
+        private final long   beaconId;
+        private final long   projectId;
+        private final String identity;
+        // At most one of the two is set
+        private final Long   groupId;
+        private final Long   scenarioId;
+
+        private CachedBeacon(long beaconId, long projectId, String identity, Long groupId, Long scenarioId) {
+            this.beaconId = beaconId;
+            this.projectId = projectId;
+            this.identity = identity;
+            this.groupId = groupId;
+            this.scenarioId = scenarioId;
+        }
+    }
+
+    private static class CachedProject {
+        private final    long   projectId;
+        private final    String secretHash;
+        // The SHA-256 digest of the last secret that matched the hash
+        private volatile byte[] verifiedDigest;
+
+        private CachedProject(long projectId, String secretHash) {
+            this.projectId = projectId;
+            this.secretHash = secretHash;
+        }
+    }
+}
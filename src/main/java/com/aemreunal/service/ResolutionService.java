@@ -0,0 +1,315 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.hibernate.ScrollableResults;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.Beacon;
+import com.aemreunal.domain.BeaconGroup;
+import com.aemreunal.domain.ResolutionChange;
+import com.aemreunal.domain.Scenario;
+import com.aemreunal.helper.StreamingQuery;
+import com.aemreunal.repository.project.ProjectRepo;
+import com.aemreunal.repository.resolution.ResolutionChangeRepo;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Keeps track of the resolution map of each project, i.e. which scenario each beacon
+ * resolves to, so that apps can resolve beacons locally instead of querying for every
+ * sighting.
+ * <p/>
+ * Every change that can alter the map (a beacon, a beacon group membership or
+ * scenario, or a scenario payload) increments the content version of the project and
+ * is recorded as {@link ResolutionChange resolution changes} with that version. An app
+ * downloads a full bundle once and then asks for the changes since the version it has.
+ * Changes are retained for {@link GlobalSettings#RESOLUTION_CHANGE_RETENTION_DAYS}
+ * days; an app that is further behind receives a full bundle again.
+ * <p/>
+ * Bundle examples:
+ * <pre>
+ * {"projectId":1,"version":42,"full":true,
+ *  "scenarios":{"3":{"short":"...","long":"...","url":"..."}},
+ *  "beacons":[{"uuid":"...","major":"1","minor":"2","scenario":3}]}
+ *
+ * {"projectId":1,"version":44,"full":false,"since":42,
+ *  "scenarios":{"3":{"short":"..."},"5":null},
+ *  "beacons":[{"uuid":"...","major":"1","minor":"2","scenario":null,"removed":true}]}
+ * </pre>
+ * In a delta, a scenario mapped to null has been deleted and a beacon without
+ * "removed" replaces the entry with the same identity.
+ */
+@Transactional
+@Service
+public class ResolutionService {
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private ProjectRepo projectRepo;
+
+    @Autowired
+    private ResolutionChangeRepo resolutionChangeRepo;
+
+    public void beaconChanged(Beacon beacon) {
+        recordBeacon(beacon, false);
+    }
+
+    public void beaconRemoved(Beacon beacon) {
+        recordBeacon(beacon, true);
+    }
+
+    private void recordBeacon(Beacon beacon, boolean removed) {
+        Long projectId = beacon.getProject().getProjectId();
+        Long version = nextContentVersion(projectId);
+        resolutionChangeRepo.save(ResolutionChange.ofBeacon(projectId, version, beacon, getEffectiveScenarioId(beacon), removed));
+    }
+
+    /**
+     * Records the scenario of every member of the given beacon group, as it is called
+     * when the scenario of the group changes.
+     */
+    public void beaconGroupChanged(BeaconGroup beaconGroup) {
+        Long projectId = beaconGroup.getProject().getProjectId();
+        Long version = nextContentVersion(projectId);
+        List<ResolutionChange> changes = new ArrayList<ResolutionChange>();
+        for (Beacon beacon : beaconGroup.getBeacons()) {
+            changes.add(ResolutionChange.ofBeacon(projectId, version, beacon, getEffectiveScenarioId(beacon), false));
+        }
+        resolutionChangeRepo.save(changes);
+    }
+
+    /**
+     * Only increments the content version of the project, the members of the group are
+     * recorded as they are removed from it.
+     */
+    public void beaconGroupRemoved(BeaconGroup beaconGroup) {
+        nextContentVersion(beaconGroup.getProject().getProjectId());
+    }
+
+    public void scenarioChanged(Scenario scenario) {
+        recordScenario(scenario, false);
+    }
+
+    public void scenarioRemoved(Scenario scenario) {
+        recordScenario(scenario, true);
+    }
+
+    private void recordScenario(Scenario scenario, boolean removed) {
+        Long projectId = scenario.getProject().getProjectId();
+        Long version = nextContentVersion(projectId);
+        resolutionChangeRepo.save(ResolutionChange.ofScenario(projectId, version, scenario.getScenarioId(), removed));
+    }
+
+    private Long nextContentVersion(Long projectId) {
+        // The update locks the project row until the transaction ends, so versions are
+        // handed out in commit order
+        projectRepo.incrementContentVersion(projectId);
+        return projectRepo.findContentVersion(projectId);
+    }
+
+    private Long getEffectiveScenarioId(Beacon beacon) {
+        Scenario scenario;
+        if (beacon.getGroup() != null) {
+            scenario = beacon.getGroup().getScenario();
+        } else {
+            scenario = beacon.getScenario();
+        }
+        return scenario == null ? null : scenario.getScenarioId();
+    }
+
+    /**
+     * Writes the resolution bundle of the given project to the given stream. The
+     * project must have been authenticated by the caller.
+     *
+     * @param projectId
+     *     The ID of the project
+     * @param sinceVersion
+     *     The content version the app already has, or null for a full bundle
+     * @param out
+     *     The stream to write the bundle to. It is not closed.
+     */
+    @Transactional(readOnly = true)
+    public void writeBundle(Long projectId, Long sinceVersion, OutputStream out) throws IOException {
+        Long version = projectRepo.findContentVersion(projectId);
+        boolean full = !canWriteDelta(projectId, sinceVersion, version);
+        if (GlobalSettings.DEBUGGING) {
+            System.out.println("Writing " + (full ? "full" : "delta") + " resolution bundle of project with ID = \'" + projectId + "\' since version = \'" + sinceVersion + "\'");
+        }
+        JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+        generator.writeStartObject();
+        generator.writeNumberField("projectId", projectId);
+        generator.writeNumberField("version", version);
+        generator.writeBooleanField("full", full);
+        if (full) {
+            writeSnapshot(generator, projectId);
+        } else {
+            generator.writeNumberField("since", sinceVersion);
+            writeDelta(generator, projectId, sinceVersion);
+        }
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    private boolean canWriteDelta(Long projectId, Long sinceVersion, Long version) {
+        if (sinceVersion == null || sinceVersion > version) {
+            return false;
+        } else if (sinceVersion.equals(version)) {
+            // Up to date, the delta is empty
+            return true;
+        }
+        // Every version after 'sinceVersion' must still be retained
+        Long oldestRetainedVersion = resolutionChangeRepo.findOldestRetainedVersion(projectId);
+        return oldestRetainedVersion != null && sinceVersion >= oldestRetainedVersion - 1;
+    }
+
+    private void writeSnapshot(JsonGenerator generator, Long projectId) throws IOException {
+        generator.writeObjectFieldStart("scenarios");
+        ScrollableResults rows = StreamingQuery.scroll(entityManager,
+                                                       "SELECT s.scenarioId, s.messageShort, s.messageLong, s.url " +
+                                                       "FROM Scenario s WHERE s.project.projectId = :projectId",
+                                                       "projectId", projectId);
+        try {
+            while (rows.next()) {
+                writeScenarioPayload(generator, rows.getLong(0), rows.getString(1), rows.getString(2), rows.getString(3));
+            }
+        } finally {
+            rows.close();
+        }
+        generator.writeEndObject();
+
+        generator.writeArrayFieldStart("beacons");
+        rows = StreamingQuery.scroll(entityManager,
+                                     "SELECT b.uuid, b.major, b.minor, g.beaconGroupId, gs.scenarioId, s.scenarioId " +
+                                     "FROM Beacon b LEFT JOIN b.group g LEFT JOIN g.scenario gs LEFT JOIN b.scenario s " +
+                                     "WHERE b.project.projectId = :projectId",
+                                     "projectId", projectId);
+        try {
+            while (rows.next()) {
+                Long scenarioId = rows.get(3) != null ? rows.getLong(4) : rows.getLong(5);
+                writeBeaconEntry(generator, rows.getString(0), rows.getString(1), rows.getString(2), scenarioId, false);
+            }
+        } finally {
+            rows.close();
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeDelta(JsonGenerator generator, Long projectId, Long sinceVersion) throws IOException {
+        // Only the latest change of each beacon matters
+        Map<String, ResolutionChange> beaconChanges = new LinkedHashMap<String, ResolutionChange>();
+        Set<Long> changedScenarioIds = new LinkedHashSet<Long>();
+        for (ResolutionChange change : resolutionChangeRepo.findChangesSince(projectId, sinceVersion)) {
+            if (change.isBeaconChange()) {
+                String identity = change.getUuid() + "/" + change.getMajor() + "/" + change.getMinor();
+                beaconChanges.remove(identity);
+                beaconChanges.put(identity, change);
+                if (change.getScenarioId() != null) {
+                    // The app may not have the payload of a scenario that is new to it
+                    changedScenarioIds.add(change.getScenarioId());
+                }
+            } else {
+                changedScenarioIds.add(change.getScenarioId());
+            }
+        }
+
+        generator.writeObjectFieldStart("scenarios");
+        Set<Long> existingScenarioIds = new HashSet<Long>();
+        if (!changedScenarioIds.isEmpty()) {
+            ScrollableResults rows = StreamingQuery.scroll(entityManager,
+                                                           "SELECT s.scenarioId, s.messageShort, s.messageLong, s.url " +
+                                                           "FROM Scenario s WHERE s.project.projectId = :projectId AND s.scenarioId IN (:scenarioIds)",
+                                                           "projectId", projectId, "scenarioIds", changedScenarioIds);
+            try {
+                while (rows.next()) {
+                    existingScenarioIds.add(rows.getLong(0));
+                    writeScenarioPayload(generator, rows.getLong(0), rows.getString(1), rows.getString(2), rows.getString(3));
+                }
+            } finally {
+                rows.close();
+            }
+        }
+        for (Long scenarioId : changedScenarioIds) {
+            if (!existingScenarioIds.contains(scenarioId)) {
+                generator.writeNullField(String.valueOf(scenarioId));
+            }
+        }
+        generator.writeEndObject();
+
+        generator.writeArrayFieldStart("beacons");
+        for (ResolutionChange change : beaconChanges.values()) {
+            writeBeaconEntry(generator, change.getUuid(), change.getMajor(), change.getMinor(), change.getScenarioId(), change.isRemoved());
+        }
+        generator.writeEndArray();
+    }
+
+    // Same fields as Scenario.generateQueryResponse()
+    private void writeScenarioPayload(JsonGenerator generator, Long scenarioId, String messageShort, String messageLong, String url) throws IOException {
+        generator.writeObjectFieldStart(String.valueOf(scenarioId));
+        if (!messageShort.equals("")) {
+            generator.writeStringField("short", messageShort);
+        }
+        if (!messageLong.equals("")) {
+            generator.writeStringField("long", messageLong);
+        }
+        if (!url.equals("")) {
+            generator.writeStringField("url", url);
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeBeaconEntry(JsonGenerator generator, String uuid, String major, String minor, Long scenarioId, boolean removed) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("uuid", uuid);
+        generator.writeStringField("major", major);
+        generator.writeStringField("minor", minor);
+        if (scenarioId == null) {
+            generator.writeNullField("scenario");
+        } else {
+            generator.writeNumberField("scenario", scenarioId);
+        }
+        if (removed) {
+            generator.writeBooleanField("removed", true);
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Removes the resolution changes that are older than the retention period.
+     */
+    @Scheduled(fixedDelay = GlobalSettings.RESOLUTION_CHANGE_PRUNE_INTERVAL_MILLIS)
+    public void pruneResolutionChanges() {
+        Date before = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(GlobalSettings.RESOLUTION_CHANGE_RETENTION_DAYS));
+        int pruned = resolutionChangeRepo.deleteOlderThan(before);
+        if (GlobalSettings.DEBUGGING) {
+            System.out.println("Pruned " + pruned + " resolution changes older than " + before);
+        }
+    }
+}
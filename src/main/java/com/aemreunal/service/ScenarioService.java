@@ -16,12 +16,10 @@ package com.aemreunal.service;
  ***************************
  */
 
-import java.util.ArrayList;
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Set;
 import javax.validation.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import com.aemreunal.config.GlobalSettings;
@@ -30,6 +28,10 @@ import com.aemreunal.domain.BeaconGroup;
 import com.aemreunal.domain.Project;
 import com.aemreunal.domain.Scenario;
 import com.aemreunal.exception.scenario.*;
+import com.aemreunal.helper.EntityVersion;
+import com.aemreunal.helper.Paging;
+import com.aemreunal.repository.beacon.BeaconRepo;
+import com.aemreunal.repository.beaconGroup.BeaconGroupRepo;
 import com.aemreunal.repository.scenario.ScenarioRepo;
 
 @Transactional
@@ -47,6 +49,18 @@ public class ScenarioService {
     @Autowired
     private ScenarioRepo scenarioRepo;
 
+    @Autowired
+    private BeaconRepo beaconRepo;
+
+    @Autowired
+    private BeaconGroupRepo beaconGroupRepo;
+
+    @Autowired
+    private ResolutionService resolutionService;
+
+    @Autowired
+    private ChangeLogService changeLogService;
+
     public Scenario save(String username, Long projectId, Scenario scenario) throws ConstraintViolationException {
         if (GlobalSettings.DEBUGGING) {
             System.out.println("Saving scenario with ID = \'" + scenario.getScenarioId() + "\'");
@@ -58,18 +72,19 @@ public class ScenarioService {
             // This means it hasn't been saved yet
             scenario.setProject(project);
         }
-        return scenarioRepo.save(scenario);
+        Scenario savedScenario = scenarioRepo.save(scenario);
+        resolutionService.scenarioChanged(savedScenario);
+        changeLogService.scenarioChanged(savedScenario);
+        return savedScenario;
     }
 
-    public List<Scenario> getScenariosOfProject(String username, Long projectId) {
+    @Transactional(readOnly = true)
+    public Page<Scenario> getScenariosOfProject(String username, Long projectId, Pageable pageable) {
         Project project = projectService.findProjectById(username, projectId);
-        List<Scenario> scenarios = new ArrayList<Scenario>();
-        for (Scenario scenario : project.getScenarios()) {
-            scenarios.add(scenario);
-        }
-        return scenarios;
+        return scenarioRepo.findByProject(project, Paging.withStableOrder(pageable, "scenarioId"));
     }
 
+    @Transactional(readOnly = true)
     public Scenario getScenario(String username, Long projectId, Long scenarioId) throws ScenarioNotFoundException {
         if (GlobalSettings.DEBUGGING) {
             System.out.println("Finding scenario with ID = \'" + scenarioId + "\' in project = \'" + projectId + "\'");
@@ -82,6 +97,21 @@ public class ScenarioService {
         return scenario;
     }
 
+    /**
+     * Finds the version of the scenario with the given ID, without loading it.
+     */
+    @Transactional(readOnly = true)
+    public EntityVersion getScenarioVersion(String username, Long projectId, Long scenarioId) throws ScenarioNotFoundException {
+        EntityVersion version = scenarioRepo.findVersion(username, projectId, scenarioId);
+        if (version == null) {
+            // Verify the project exists
+            projectService.findProjectById(username, projectId);
+            throw new ScenarioNotFoundException(scenarioId);
+        }
+        return version;
+    }
+
+    @Transactional(readOnly = true)
     public Scenario queryForScenario(String uuid,
                                      String major,
                                      String minor,
@@ -100,22 +130,16 @@ public class ScenarioService {
         return scenario;
     }
 
-    public Set<Beacon> getBeaconsInScenario(String username, Long projectId, Long scenarioId) {
+    @Transactional(readOnly = true)
+    public Page<Beacon> getBeaconsInScenario(String username, Long projectId, Long scenarioId, Pageable pageable) {
         Scenario scenario = this.getScenario(username, projectId, scenarioId);
-        Set<Beacon> beacons = new LinkedHashSet<>();
-        for (Beacon beacon : scenario.getBeacons()) {
-            beacons.add(beacon);
-        }
-        return beacons;
+        return beaconRepo.findByScenario(scenario, Paging.withStableOrder(pageable, "beaconId"));
     }
 
-    public Set<BeaconGroup> getBeaconGroupsInScenario(String username, Long projectId, Long scenarioId) {
+    @Transactional(readOnly = true)
+    public Page<BeaconGroup> getBeaconGroupsInScenario(String username, Long projectId, Long scenarioId, Pageable pageable) {
         Scenario scenario = this.getScenario(username, projectId, scenarioId);
-        Set<BeaconGroup> beaconGroups = new LinkedHashSet<>();
-        for (BeaconGroup beaconGroup : scenario.getBeaconGroups()) {
-            beaconGroups.add(beaconGroup);
-        }
-        return beaconGroups;
+        return beaconGroupRepo.findByScenario(scenario, Paging.withStableOrder(pageable, "beaconGroupId"));
     }
 
     public Scenario delete(String username, Long projectId, Long scenarioId) {
@@ -124,6 +148,8 @@ public class ScenarioService {
         }
         Scenario scenario = this.getScenario(username, projectId, scenarioId);
         scenarioRepo.delete(scenario);
+        resolutionService.scenarioRemoved(scenario);
+        changeLogService.scenarioRemoved(scenario);
         return scenario;
     }
 
@@ -0,0 +1,47 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+
+/**
+ * A consumer of the beacon sightings of the robot API. Every bean implementing this is
+ * notified by the {@link SightingService}.
+ */
+public interface SightingListener {
+    /**
+     * Called for each sighting that has been attributed to a beacon, on the thread of
+     * the query, so it must not block.
+     *
+     * @param deviceId
+     *     The ID of the device that sighted the beacon, or null if the query didn't
+     *     carry one
+     * @param projectId
+     *     The ID of the project of the beacon
+     * @param beaconId
+     *     The ID of the beacon
+     * @param major
+     *     The major of the beacon, as it was queried
+     * @param minor
+     *     The minor of the beacon, as it was queried
+     * @param scenarioId
+     *     The ID of the scenario the beacon resolves to, or {@link
+     *     SightingService#NO_SCENARIO} if it has none
+     * @param timeMillis
+     *     When the sighting was received
+     */
+    void beaconSighted(Long deviceId, long projectId, long beaconId, String major, String minor, long scenarioId, long timeMillis);
+}
@@ -0,0 +1,101 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import com.aemreunal.helper.SecretDigests;
+
+/**
+ * Attributes the beacon queries of the robot API to beacons, and passes them on as
+ * sightings to the {@link SightingListener listeners}.
+ * <p/>
+ * A query is only attributed if its secret has already been verified by the {@link
+ * QueryCacheService}, and the beacon with its identity is cached in the project of the
+ * secret, so attributing it costs no database query and no BCrypt verification. The
+ * device ID of a query is only kept if the device is registered to the same project,
+ * otherwise the sighting is recorded without a device.
+ */
+@Service
+public class SightingService {
+    /**
+     * The scenario ID of a sighting of a beacon without a scenario.
+     */
+    public static final long NO_SCENARIO = 0L;
+
+    @Autowired
+    private QueryCacheService queryCacheService;
+
+    @Autowired
+    private DeviceService deviceService;
+
+    @Autowired(required = false)
+    private List<SightingListener> listeners = Collections.emptyList();
+
+    private final AtomicLong sightings             = new AtomicLong(0);
+    private final AtomicLong unattributedSightings = new AtomicLong(0);
+    private final AtomicLong unknownDevices        = new AtomicLong(0);
+
+    /**
+     * Records the sighting of the beacon with the given identity, if the query of the
+     * sighting can be attributed to a beacon.
+     *
+     * @param deviceId
+     *     The ID of the device that sent the query as the app claims it, or null if it
+     *     didn't carry one
+     */
+    public void recordSighting(Long deviceId, String uuid, String major, String minor, String projectSecret) {
+        Long projectId = queryCacheService.findProjectOfSecret(SecretDigests.toHex(SecretDigests.digest(projectSecret)));
+        Long beaconId = projectId == null ? null : queryCacheService.findBeaconId(uuid, major, minor, projectId);
+        if (beaconId == null) {
+            unattributedSightings.incrementAndGet();
+            return;
+        }
+        if (deviceId != null && !projectId.equals(deviceService.findProjectOfDevice(deviceId))) {
+            // Unregistered, or registered to another project
+            unknownDevices.incrementAndGet();
+            deviceId = null;
+        }
+        Long scenarioId = queryCacheService.findScenarioOfBeacon(beaconId);
+        long now = System.currentTimeMillis();
+        sightings.incrementAndGet();
+        for (SightingListener listener : listeners) {
+            try {
+                listener.beaconSighted(deviceId, projectId, beaconId, major, minor, scenarioId == null ? NO_SCENARIO : scenarioId, now);
+            } catch (RuntimeException e) {
+                // One failing listener must not fail the query or hold back the others
+                System.err.println("Unable to pass a sighting to " + listener.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public long getSightings() {
+        return sightings.get();
+    }
+
+    public long getUnattributedSightings() {
+        return unattributedSightings.get();
+    }
+
+    public long getUnknownDevices() {
+        return unknownDevices.get();
+    }
+}
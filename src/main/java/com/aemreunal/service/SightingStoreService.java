@@ -0,0 +1,651 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import net.minidev.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.ChangeLogEntry;
+import com.aemreunal.exception.MalformedRequestException;
+import com.aemreunal.helper.JsonBuilder;
+import com.aemreunal.helper.SightingChunk;
+
+/**
+ * Keeps the recent sightings of each project in an append-only columnar store, to
+ * answer ad-hoc questions such as "which beacons of this group were sighted by more
+ * than 50 devices yesterday" without touching the database.
+ * <p/>
+ * The sightings of a project are appended to an open chunk, which is sealed into a
+ * compressed {@link SightingChunk} once it is full, or once the hour of its sightings
+ * is over. A full chunk is swapped for a new one under the lock of the project, and
+ * sealed on the scan pool, so neither the sightings nor the queries of the project wait
+ * for the encoding. Until then, and for the open chunk, the queries scan a copy of the
+ * plain arrays. A query skips the chunks outside of its time range or without any of its
+ * beacons, and scans the rest in parallel on a fork-join pool, each chunk into a
+ * partial aggregate that is merged with the others.
+ * <p/>
+ * The chunks older than the memory retention, and the oldest chunks while the chunks in
+ * memory are over the memory limit, are spilled to files and read back at every scan.
+ * The chunks older than the disk retention are deleted. The spill files are only an
+ * overflow of the memory, so they are deleted when the server starts. Each server
+ * instance only holds the sightings it received itself.
+ */
+@Service
+public class SightingStoreService implements SightingListener, ChangeLogListener {
+    private static final long   HOUR_MILLIS       = TimeUnit.HOURS.toMillis(1);
+    private static final int    BUILDER_CAPACITY  = 1024;
+    private static final String SPILL_FILE_SUFFIX = ".chunk";
+
+    private final ConcurrentMap<Long, ProjectSightings> projects = new ConcurrentHashMap<Long, ProjectSightings>();
+
+    private final ForkJoinPool scanPool = new ForkJoinPool(GlobalSettings.SIGHTING_STORE_SCAN_PARALLELISM);
+    private File spillDir;
+
+    private final AtomicLong spillFileSequence = new AtomicLong(0);
+    private final AtomicLong memoryBytes       = new AtomicLong(0);
+    private final AtomicLong diskBytes         = new AtomicLong(0);
+    private final AtomicLong appendedRows      = new AtomicLong(0);
+    private final AtomicLong sealedChunks      = new AtomicLong(0);
+    private final AtomicLong spilledChunks     = new AtomicLong(0);
+    private final AtomicLong deletedChunks     = new AtomicLong(0);
+    private final AtomicLong failedSpills      = new AtomicLong(0);
+    private final AtomicLong queries           = new AtomicLong(0);
+    private final AtomicLong scannedChunks     = new AtomicLong(0);
+    private final AtomicLong skippedChunks     = new AtomicLong(0);
+    private final AtomicLong unreadableChunks  = new AtomicLong(0);
+
+    /**
+     * Creates the spill directory, and deletes the spill files of the previous run.
+     */
+    @PostConstruct
+    public void createSpillDir() {
+        String dir = System.getProperty(GlobalSettings.SIGHTING_STORE_SPILL_DIR_PROPERTY);
+        spillDir = dir == null ? new File(System.getProperty("java.io.tmpdir"), "ibeacon-sightings") : new File(dir);
+        if (!spillDir.isDirectory() && !spillDir.mkdirs()) {
+            System.err.println("Unable to create the sightings spill directory " + spillDir);
+        }
+        File[] leftovers = spillDir.listFiles();
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                if (leftover.getName().endsWith(SPILL_FILE_SUFFIX) && !leftover.delete()) {
+                    System.err.println("Unable to delete " + leftover);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutDown() {
+        scanPool.shutdownNow();
+    }
+
+    @Override
+    public void beaconSighted(Long deviceId, long projectId, long beaconId, String major, String minor, long scenarioId, long timeMillis) {
+        long device = deviceId == null ? SightingChunk.NO_DEVICE : deviceId;
+        while (true) {
+            final ProjectSightings sightings = sightingsOf(projectId);
+            SightingChunk.Builder full = null;
+            synchronized (sightings) {
+                if (sightings.removed) {
+                    // Removed by the maintenance in the meantime, try again with a new one
+                    continue;
+                }
+                long hour = hourOf(timeMillis);
+                if (sightings.open.size() == GlobalSettings.SIGHTING_STORE_CHUNK_ROWS ||
+                    (sightings.open.size() != 0 && hour != sightings.openHour)) {
+                    full = takeOpen(sightings);
+                }
+                sightings.openHour = hour;
+                sightings.open.add(timeMillis, beaconId, device);
+            }
+            appendedRows.incrementAndGet();
+            if (full != null) {
+                sealInBackground(sightings, full);
+            }
+            return;
+        }
+    }
+
+    private ProjectSightings sightingsOf(long projectId) {
+        ProjectSightings sightings = projects.get(projectId);
+        if (sightings == null) {
+            ProjectSightings newSightings = new ProjectSightings();
+            sightings = projects.putIfAbsent(projectId, newSightings);
+            if (sightings == null) {
+                sightings = newSightings;
+            }
+        }
+        return sightings;
+    }
+
+    /**
+     * Takes the open chunk of the project out to be sealed, and starts a new one. Must
+     * be called while synchronized on the project. The queries still scan the taken
+     * chunk until it is sealed.
+     */
+    private SightingChunk.Builder takeOpen(ProjectSightings sightings) {
+        SightingChunk.Builder full = sightings.open;
+        sightings.sealing.add(full);
+        sightings.open = new SightingChunk.Builder(BUILDER_CAPACITY);
+        return full;
+    }
+
+    /**
+     * Seals a taken chunk on the scan pool, so the request that filled it doesn't wait
+     * for the encoding.
+     */
+    private void sealInBackground(final ProjectSightings sightings, final SightingChunk.Builder full) {
+        try {
+            scanPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    seal(sightings, full);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            seal(sightings, full);
+        }
+    }
+
+    /**
+     * Builds a taken chunk and adds it to the chunks of the project. The chunk is built
+     * without holding the lock of the project, so its sightings and queries don't wait
+     * for the encoding.
+     */
+    private void seal(ProjectSightings sightings, SightingChunk.Builder full) {
+        SightingChunk chunk = full.build();
+        synchronized (sightings) {
+            sightings.sealing.remove(full);
+            if (sightings.removed) {
+                // The project has been removed in the meantime
+                return;
+            }
+            sightings.chunks.add(chunk);
+            memoryBytes.addAndGet(chunk.getColumnBytes());
+        }
+        sealedChunks.incrementAndGet();
+    }
+
+    /**
+     * Seals the open chunks of the past hours, deletes the chunks older than the disk
+     * retention, and spills the chunks that are older than the memory retention or over
+     * the memory limit, oldest first.
+     */
+    @Scheduled(fixedDelay = GlobalSettings.SIGHTING_STORE_MAINTENANCE_MILLIS)
+    public synchronized void maintain() {
+        long now = System.currentTimeMillis();
+        long deleteBefore = now - TimeUnit.DAYS.toMillis(GlobalSettings.SIGHTING_STORE_DISK_RETENTION_DAYS);
+        long spillBefore = now - TimeUnit.HOURS.toMillis(GlobalSettings.SIGHTING_STORE_MEMORY_RETENTION_HOURS);
+        List<SightingChunk> inMemory = new ArrayList<SightingChunk>();
+        for (Map.Entry<Long, ProjectSightings> entry : projects.entrySet()) {
+            ProjectSightings sightings = entry.getValue();
+            List<SightingChunk> expired = new ArrayList<SightingChunk>();
+            SightingChunk.Builder past = null;
+            synchronized (sightings) {
+                if (sightings.open.size() != 0 && sightings.openHour < hourOf(now)) {
+                    past = takeOpen(sightings);
+                }
+            }
+            if (past != null) {
+                seal(sightings, past);
+            }
+            synchronized (sightings) {
+                for (Iterator<SightingChunk> chunks = sightings.chunks.iterator(); chunks.hasNext(); ) {
+                    SightingChunk chunk = chunks.next();
+                    if (chunk.getMaxTime() < deleteBefore) {
+                        chunks.remove();
+                        expired.add(chunk);
+                    } else if (!chunk.isSpilled()) {
+                        inMemory.add(chunk);
+                    }
+                }
+                if (sightings.chunks.isEmpty() && sightings.open.size() == 0 && sightings.sealing.isEmpty()) {
+                    sightings.removed = true;
+                    projects.remove(entry.getKey(), sightings);
+                }
+            }
+            delete(expired);
+        }
+        Collections.sort(inMemory, new Comparator<SightingChunk>() {
+            @Override
+            public int compare(SightingChunk first, SightingChunk second) {
+                return Long.compare(first.getMaxTime(), second.getMaxTime());
+            }
+        });
+        for (SightingChunk chunk : inMemory) {
+            if (chunk.getMaxTime() >= spillBefore && memoryBytes.get() <= GlobalSettings.SIGHTING_STORE_MAX_MEMORY_BYTES) {
+                break;
+            }
+            spill(chunk);
+        }
+    }
+
+    private void spill(SightingChunk chunk) {
+        int bytes = chunk.getColumnBytes();
+        File file = new File(spillDir, spillFileSequence.incrementAndGet() + SPILL_FILE_SUFFIX);
+        try {
+            chunk.spillTo(file);
+            memoryBytes.addAndGet(-bytes);
+            diskBytes.addAndGet(chunk.getColumnBytes());
+            spilledChunks.incrementAndGet();
+        } catch (IOException e) {
+            failedSpills.incrementAndGet();
+            System.err.println("Unable to spill a sightings chunk to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void delete(Collection<SightingChunk> chunks) {
+        for (SightingChunk chunk : chunks) {
+            if (chunk.isSpilled()) {
+                diskBytes.addAndGet(-chunk.getColumnBytes());
+                chunk.delete();
+            } else {
+                memoryBytes.addAndGet(-chunk.getColumnBytes());
+            }
+            deletedChunks.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops the sightings of a removed project.
+     */
+    @Override
+    public void changeLogged(ChangeLogEntry entry, boolean local) {
+        if (!ChangeLogEntry.KIND_PROJECT.equals(entry.getKind()) || !entry.isRemoved()) {
+            return;
+        }
+        ProjectSightings sightings = projects.remove(entry.getProjectId());
+        if (sightings == null) {
+            return;
+        }
+        List<SightingChunk> chunks;
+        synchronized (sightings) {
+            sightings.removed = true;
+            chunks = new ArrayList<SightingChunk>(sightings.chunks);
+            sightings.chunks.clear();
+        }
+        synchronized (this) {
+            // Not while the maintenance is spilling them
+            delete(chunks);
+        }
+    }
+
+    /**
+     * Aggregates the recent sightings of a project. The project, and the beacons to
+     * filter by, must already be checked to belong to the user.
+     *
+     * @param fromMillis
+     *     The start of the time range, inclusive
+     * @param toMillis
+     *     The end of the time range, exclusive
+     * @param beaconIds
+     *     The beacons to count the sightings of, or null for every beacon
+     * @param groupBy
+     *     "beacon" or "hour"
+     * @param metric
+     *     "sightings" to count the sightings, or "devices" to count the distinct devices
+     *     that sighted the beacons
+     * @param minValue
+     *     Only the groups with at least this value are returned
+     *
+     * @return The groups, ordered by their value, largest first, and what the scan took
+     *
+     * @throws MalformedRequestException
+     *     If the time range is empty, or the grouping or the metric is unknown
+     */
+    public JSONObject query(Long projectId, long fromMillis, long toMillis, Collection<Long> beaconIds, String groupBy, String metric, long minValue)
+    throws MalformedRequestException {
+        if (fromMillis >= toMillis) {
+            throw new MalformedRequestException("from");
+        }
+        GroupBy grouping = GroupBy.parse(groupBy);
+        boolean countDevices;
+        if ("devices".equalsIgnoreCase(metric)) {
+            countDevices = true;
+        } else if ("sightings".equalsIgnoreCase(metric)) {
+            countDevices = false;
+        } else {
+            throw new MalformedRequestException("metric");
+        }
+        long[] sortedBeaconIds = null;
+        if (beaconIds != null) {
+            sortedBeaconIds = new long[beaconIds.size()];
+            int i = 0;
+            for (Long beaconId : beaconIds) {
+                sortedBeaconIds[i++] = beaconId;
+            }
+            Arrays.sort(sortedBeaconIds);
+        }
+        queries.incrementAndGet();
+
+        List<SightingChunk> candidates = new ArrayList<SightingChunk>();
+        // The chunks that are being sealed, and a copy of the open one, scanned as they are
+        List<SightingChunk.Builder> unsealed = new ArrayList<SightingChunk.Builder>();
+        ProjectSightings sightings = projects.get(projectId);
+        if (sightings != null) {
+            synchronized (sightings) {
+                candidates.addAll(sightings.chunks);
+                unsealed.addAll(sightings.sealing);
+                if (sightings.open.size() != 0) {
+                    unsealed.add(sightings.open.snapshot());
+                }
+            }
+        }
+        List<SightingChunk> toScan = new ArrayList<SightingChunk>();
+        for (SightingChunk chunk : candidates) {
+            if (chunk.overlaps(fromMillis, toMillis) && chunk.containsAnyOf(sortedBeaconIds)) {
+                toScan.add(chunk);
+            }
+        }
+        int skipped = candidates.size() - toScan.size();
+        int scanned = toScan.size() + unsealed.size();
+        skippedChunks.addAndGet(skipped);
+        scannedChunks.addAndGet(scanned);
+
+        Scan scan = new Scan(fromMillis, toMillis, sortedBeaconIds, grouping, countDevices);
+        Partial result = toScan.isEmpty() ? new Partial() : scanPool.invoke(new ScanTask(scan, toScan, 0, toScan.size()));
+        if (!unsealed.isEmpty()) {
+            Partial open = new Partial();
+            open.scan = scan;
+            for (SightingChunk.Builder rows : unsealed) {
+                open.matchedRows += rows.scan(fromMillis, toMillis, sortedBeaconIds, open);
+            }
+            result = result.mergedWith(open);
+        }
+        unreadableChunks.addAndGet(result.unreadableChunks);
+        return new JsonBuilder().add("from", fromMillis)
+                                .add("to", toMillis)
+                                .add("groupBy", grouping.name().toLowerCase())
+                                .add("metric", countDevices ? "devices" : "sightings")
+                                .add("scannedChunks", scanned)
+                                .add("skippedChunks", skipped)
+                                .add("unreadableChunks", result.unreadableChunks)
+                                .add("matchedSightings", result.matchedRows)
+                                .add("results", toResults(result, grouping, countDevices, minValue))
+                                .build();
+    }
+
+    private static List<JSONObject> toResults(Partial result, GroupBy grouping, boolean countDevices, long minValue) {
+        final Map<Long, Long> values = new HashMap<Long, Long>();
+        if (countDevices) {
+            for (Map.Entry<Long, Set<Long>> group : result.devices.entrySet()) {
+                values.put(group.getKey(), (long) group.getValue().size());
+            }
+        } else {
+            for (Map.Entry<Long, long[]> group : result.sightings.entrySet()) {
+                values.put(group.getKey(), group.getValue()[0]);
+            }
+        }
+        List<Long> keys = new ArrayList<Long>();
+        for (Map.Entry<Long, Long> group : values.entrySet()) {
+            if (group.getValue() >= minValue) {
+                keys.add(group.getKey());
+            }
+        }
+        Collections.sort(keys, new Comparator<Long>() {
+            @Override
+            public int compare(Long first, Long second) {
+                int byValue = Long.compare(values.get(second), values.get(first));
+                return byValue != 0 ? byValue : Long.compare(first, second);
+            }
+        });
+        List<JSONObject> results = new ArrayList<JSONObject>();
+        for (Long key : keys.subList(0, Math.min(keys.size(), GlobalSettings.SIGHTING_STORE_MAX_RESULTS))) {
+            results.add(new JsonBuilder().add(grouping.keyName, key)
+                                         .add(countDevices ? "devices" : "sightings", values.get(key))
+                                         .build());
+        }
+        return results;
+    }
+
+    private static long hourOf(long timeMillis) {
+        return timeMillis - timeMillis % HOUR_MILLIS;
+    }
+
+    public int getProjects() {
+        return projects.size();
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes.get();
+    }
+
+    public long getDiskBytes() {
+        return diskBytes.get();
+    }
+
+    public long getAppendedRows() {
+        return appendedRows.get();
+    }
+
+    public long getSealedChunks() {
+        return sealedChunks.get();
+    }
+
+    public long getSpilledChunks() {
+        return spilledChunks.get();
+    }
+
+    public long getDeletedChunks() {
+        return deletedChunks.get();
+    }
+
+    public long getFailedSpills() {
+        return failedSpills.get();
+    }
+
+    public long getQueries() {
+        return queries.get();
+    }
+
+    public long getScannedChunks() {
+        return scannedChunks.get();
+    }
+
+    public long getSkippedChunks() {
+        return skippedChunks.get();
+    }
+
+    public long getUnreadableChunks() {
+        return unreadableChunks.get();
+    }
+
+    private enum GroupBy {
+        BEACON("beaconId"),
+        HOUR("hourStart");
+
+        private final String keyName;
+
+        GroupBy(String keyName) {
+            this.keyName = keyName;
+        }
+
+        private long keyOf(long timeMillis, long beaconId) {
+            return this == BEACON ? beaconId : hourOf(timeMillis);
+        }
+
+        private static GroupBy parse(String groupBy) throws MalformedRequestException {
+            for (GroupBy grouping : values()) {
+                if (grouping.name().equalsIgnoreCase(groupBy)) {
+                    return grouping;
+                }
+            }
+            throw new MalformedRequestException("groupBy");
+        }
+    }
+
+    /**
+     * The sightings of a project. Must be accessed while synchronized on it.
+     */
+    private static class ProjectSightings {
+        private       SightingChunk.Builder       open     = new SightingChunk.Builder(BUILDER_CAPACITY);
+        private       long                        openHour = 0;
+        private final List<SightingChunk>         chunks   = new ArrayList<SightingChunk>();
+        // Taken out of 'open', and not added to 'chunks' yet
+        private final List<SightingChunk.Builder> sealing  = new ArrayList<SightingChunk.Builder>();
+        private       boolean                     removed  = false;
+    }
+
+    /**
+     * The filter and the aggregation of a query.
+     */
+    private static class Scan {
+        private final long    fromMillis;
+        private final long    toMillis;
+        private final long[]  sortedBeaconIds;
+        private final GroupBy grouping;
+        private final boolean countDevices;
+
+        private Scan(long fromMillis, long toMillis, long[] sortedBeaconIds, GroupBy grouping, boolean countDevices) {
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            this.sortedBeaconIds = sortedBeaconIds;
+            this.grouping = grouping;
+            this.countDevices = countDevices;
+        }
+    }
+
+    /**
+     * The aggregate of some of the chunks of a query.
+     */
+    private static class Partial implements SightingChunk.Visitor {
+        private final Map<Long, long[]>    sightings = new HashMap<Long, long[]>();
+        private final Map<Long, Set<Long>> devices   = new HashMap<Long, Set<Long>>();
+        private       long                 matchedRows;
+        private       int                  unreadableChunks;
+        private       Scan                 scan;
+
+        @Override
+        public void visit(long timeMillis, long beaconId, long deviceId) {
+            Long key = scan.grouping.keyOf(timeMillis, beaconId);
+            if (scan.countDevices) {
+                if (deviceId == SightingChunk.NO_DEVICE) {
+                    return;
+                }
+                Set<Long> groupDevices = devices.get(key);
+                if (groupDevices == null) {
+                    groupDevices = new HashSet<Long>();
+                    devices.put(key, groupDevices);
+                }
+                groupDevices.add(deviceId);
+            } else {
+                long[] count = sightings.get(key);
+                if (count == null) {
+                    sightings.put(key, new long[] { 1 });
+                } else {
+                    count[0]++;
+                }
+            }
+        }
+
+        private Partial mergedWith(Partial other) {
+            for (Map.Entry<Long, long[]> group : other.sightings.entrySet()) {
+                long[] count = sightings.get(group.getKey());
+                if (count == null) {
+                    sightings.put(group.getKey(), group.getValue());
+                } else {
+                    count[0] += group.getValue()[0];
+                }
+            }
+            for (Map.Entry<Long, Set<Long>> group : other.devices.entrySet()) {
+                Set<Long> groupDevices = devices.get(group.getKey());
+                if (groupDevices == null) {
+                    devices.put(group.getKey(), group.getValue());
+                } else if (groupDevices.size() >= group.getValue().size()) {
+                    // The smaller set is added to the larger one
+                    groupDevices.addAll(group.getValue());
+                } else {
+                    group.getValue().addAll(groupDevices);
+                    devices.put(group.getKey(), group.getValue());
+                }
+            }
+            matchedRows += other.matchedRows;
+            unreadableChunks += other.unreadableChunks;
+            return this;
+        }
+    }
+
+    /**
+     * Scans a range of the chunks of a query, splitting it in halves down to single
+     * chunks, and merges their partial aggregates.
+     */
+    private static class ScanTask extends RecursiveTask<Partial> {
+        private final Scan                scan;
+        private final List<SightingChunk> chunks;
+        private final int                 from;
+        private final int                 to;
+
+        private ScanTask(Scan scan, List<SightingChunk> chunks, int from, int to) {
+            this.scan = scan;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from == 1) {
+                return scanChunk(chunks.get(from));
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask left = new ScanTask(scan, chunks, from, middle);
+            left.fork();
+            Partial right = new ScanTask(scan, chunks, middle, to).compute();
+            return left.join().mergedWith(right);
+        }
+
+        private Partial scanChunk(SightingChunk chunk) {
+            Partial partial = new Partial();
+            partial.scan = scan;
+            try {
+                partial.matchedRows = chunk.scan(scan.fromMillis, scan.toMillis, scan.sortedBeaconIds, partial);
+            } catch (IOException e) {
+                // The chunk has been deleted since the query started
+                partial.unreadableChunks = 1;
+                if (GlobalSettings.DEBUGGING) {
+                    System.out.println("Unable to scan a spilled sightings chunk: " + e);
+                }
+            }
+            return partial;
+        }
+    }
+}
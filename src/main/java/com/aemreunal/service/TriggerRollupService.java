@@ -0,0 +1,441 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import net.minidev.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.exception.MalformedRequestException;
+import com.aemreunal.helper.JsonBuilder;
+
+/**
+ * Maintains the minute, hour and day rollups of the scenario triggers, i.e. the
+ * sightings of beacons with a scenario, so the trigger counts of a project over a
+ * period are read from at most a row per bucket, scenario and beacon, however many
+ * sightings there were.
+ * <p/>
+ * The triggers are counted in memory per project, scenario, beacon and minute, in
+ * striped maps with a lock each. At each flush, the counters are taken out of the
+ * stripes, summed up to hours and days as well, and added to the three rollup tables
+ * with upserts, all in a single transaction. If the transaction fails, the counters are
+ * put back to be flushed again. As the upserts add to the counts, every server instance
+ * flushes its own counters into the same rows. The triggers of the last flush interval
+ * are not in the rollups yet.
+ * <p/>
+ * The buckets start at whole minutes, hours and days in UTC, and are stored as
+ * milliseconds since the epoch, so the rollups don't depend on the time zone of the
+ * JVM or of the database.
+ */
+@Service
+public class TriggerRollupService implements SightingListener {
+    /**
+     * The rollup tables, by the length of their buckets.
+     */
+    private enum Granularity {
+        MINUTE("trigger_counts_minute", TimeUnit.MINUTES.toMillis(1), GlobalSettings.ROLLUP_MINUTE_RETENTION_DAYS),
+        HOUR("trigger_counts_hour", TimeUnit.HOURS.toMillis(1), GlobalSettings.ROLLUP_HOUR_RETENTION_DAYS),
+        // Kept indefinitely
+        DAY("trigger_counts_day", TimeUnit.DAYS.toMillis(1), 0);
+
+        private final String table;
+        private final long   bucketMillis;
+        private final int    retentionDays;
+
+        Granularity(String table, long bucketMillis, int retentionDays) {
+            this.table = table;
+            this.bucketMillis = bucketMillis;
+            this.retentionDays = retentionDays;
+        }
+
+        private long bucketOf(long timeMillis) {
+            return timeMillis - timeMillis % bucketMillis;
+        }
+    }
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final Stripe[] stripes = new Stripe[GlobalSettings.ROLLUP_STRIPES];
+
+    private final AtomicLong pendingCounters = new AtomicLong(0);
+    private final AtomicLong triggers        = new AtomicLong(0);
+    private final AtomicLong droppedTriggers = new AtomicLong(0);
+    private final AtomicLong flushedTriggers = new AtomicLong(0);
+    private final AtomicLong upsertedRows    = new AtomicLong(0);
+    private final AtomicLong failedFlushes   = new AtomicLong(0);
+
+    private volatile long lastFlushMillis = 0;
+
+    public TriggerRollupService() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public void beaconSighted(Long deviceId, long projectId, long beaconId, String major, String minor, long scenarioId, long timeMillis) {
+        if (scenarioId == SightingService.NO_SCENARIO) {
+            return;
+        }
+        if (add(new TriggerKey(projectId, scenarioId, beaconId, Granularity.MINUTE.bucketOf(timeMillis)), 1)) {
+            triggers.incrementAndGet();
+        } else {
+            droppedTriggers.incrementAndGet();
+        }
+    }
+
+    /**
+     * Adds to the in-memory counter of the given key.
+     *
+     * @return Whether the count was added, i.e. the counter already existed or there
+     * was room for a new one
+     */
+    private boolean add(TriggerKey key, long count) {
+        Stripe stripe = stripes[(key.hashCode() & 0x7FFFFFFF) % stripes.length];
+        synchronized (stripe) {
+            long[] counter = stripe.counters.get(key);
+            if (counter == null) {
+                if (pendingCounters.get() >= GlobalSettings.ROLLUP_MAX_PENDING_COUNTERS) {
+                    return false;
+                }
+                pendingCounters.incrementAndGet();
+                stripe.counters.put(key, new long[] { count });
+            } else {
+                counter[0] += count;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Adds the in-memory counters to the rollup tables.
+     */
+    @Scheduled(fixedDelay = GlobalSettings.ROLLUP_FLUSH_INTERVAL_MILLIS)
+    public synchronized void flush() {
+        Map<TriggerKey, Long> minutes = new HashMap<TriggerKey, Long>();
+        for (Stripe stripe : stripes) {
+            Map<TriggerKey, long[]> counters;
+            synchronized (stripe) {
+                counters = stripe.counters;
+                stripe.counters = new HashMap<TriggerKey, long[]>();
+            }
+            pendingCounters.addAndGet(-counters.size());
+            for (Map.Entry<TriggerKey, long[]> counter : counters.entrySet()) {
+                minutes.put(counter.getKey(), counter.getValue()[0]);
+            }
+        }
+        lastFlushMillis = System.currentTimeMillis();
+        if (minutes.isEmpty()) {
+            return;
+        }
+        final Map<Granularity, Map<TriggerKey, Long>> rollups = new EnumMap<Granularity, Map<TriggerKey, Long>>(Granularity.class);
+        rollups.put(Granularity.MINUTE, minutes);
+        rollups.put(Granularity.HOUR, rollUp(minutes, Granularity.HOUR));
+        rollups.put(Granularity.DAY, rollUp(minutes, Granularity.DAY));
+        try {
+            int rows = newTransaction(false).execute(new TransactionCallback<Integer>() {
+                @Override
+                public Integer doInTransaction(TransactionStatus status) {
+                    int rows = 0;
+                    for (Map.Entry<Granularity, Map<TriggerKey, Long>> rollup : rollups.entrySet()) {
+                        rows += upsert(rollup.getKey(), rollup.getValue());
+                    }
+                    return rows;
+                }
+            });
+            long flushed = 0;
+            for (Long count : minutes.values()) {
+                flushed += count;
+            }
+            flushedTriggers.addAndGet(flushed);
+            upsertedRows.addAndGet(rows);
+        } catch (RuntimeException e) {
+            failedFlushes.incrementAndGet();
+            if (GlobalSettings.DEBUGGING) {
+                System.out.println("Unable to flush " + minutes.size() + " trigger counters: " + e);
+            }
+            // Nothing has been committed, so the counters are flushed again next time
+            for (Map.Entry<TriggerKey, Long> counter : minutes.entrySet()) {
+                if (!add(counter.getKey(), counter.getValue())) {
+                    droppedTriggers.addAndGet(counter.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes the counters when the server is stopped, so they are not lost.
+     */
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    private Map<TriggerKey, Long> rollUp(Map<TriggerKey, Long> minutes, Granularity granularity) {
+        Map<TriggerKey, Long> rollup = new HashMap<TriggerKey, Long>();
+        for (Map.Entry<TriggerKey, Long> counter : minutes.entrySet()) {
+            TriggerKey minute = counter.getKey();
+            TriggerKey key = new TriggerKey(minute.projectId, minute.scenarioId, minute.beaconId, granularity.bucketOf(minute.bucketStart));
+            Long count = rollup.get(key);
+            rollup.put(key, count == null ? counter.getValue() : count + counter.getValue());
+        }
+        return rollup;
+    }
+
+    /**
+     * Adds the given counts to the rows of the table, in the order of its primary key,
+     * so that the upserts of several server instances don't deadlock.
+     *
+     * @return The number of counters upserted
+     */
+    private int upsert(Granularity granularity, Map<TriggerKey, Long> counters) {
+        List<TriggerKey> keys = new ArrayList<TriggerKey>(counters.keySet());
+        Collections.sort(keys);
+        for (int from = 0; from < keys.size(); from += GlobalSettings.ROLLUP_UPSERT_BATCH_SIZE) {
+            List<TriggerKey> batch = keys.subList(from, Math.min(keys.size(), from + GlobalSettings.ROLLUP_UPSERT_BATCH_SIZE));
+            StringBuilder upsert = new StringBuilder("INSERT INTO ").append(granularity.table)
+                                                                   .append(" (project_id, scenario_id, beacon_id, bucket_start, trigger_count) VALUES ");
+            for (int row = 0; row < batch.size(); row++) {
+                upsert.append(row == 0 ? "" : ", ")
+                      .append("(:project").append(row).append(", :scenario").append(row)
+                      .append(", :beacon").append(row).append(", :bucket").append(row)
+                      .append(", :count").append(row).append(")");
+            }
+            upsert.append(" ON DUPLICATE KEY UPDATE trigger_count = trigger_count + VALUES(trigger_count)");
+            Query query = entityManager.createNativeQuery(upsert.toString());
+            for (int row = 0; row < batch.size(); row++) {
+                TriggerKey key = batch.get(row);
+                query.setParameter("project" + row, key.projectId)
+                     .setParameter("scenario" + row, key.scenarioId)
+                     .setParameter("beacon" + row, key.beaconId)
+                     .setParameter("bucket" + row, key.bucketStart)
+                     .setParameter("count" + row, counters.get(key));
+            }
+            query.executeUpdate();
+        }
+        return keys.size();
+    }
+
+    /**
+     * Deletes the minute and hour rollups that are older than their retention.
+     */
+    @Scheduled(fixedDelay = GlobalSettings.ROLLUP_PRUNE_INTERVAL_MILLIS)
+    public void pruneRollups() {
+        for (final Granularity granularity : Granularity.values()) {
+            if (granularity.retentionDays == 0) {
+                continue;
+            }
+            final long before = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(granularity.retentionDays);
+            int deletedRows;
+            do {
+                deletedRows = newTransaction(false).execute(new TransactionCallback<Integer>() {
+                    @Override
+                    public Integer doInTransaction(TransactionStatus status) {
+                        return entityManager.createNativeQuery("DELETE FROM " + granularity.table + " WHERE bucket_start < :before LIMIT " + GlobalSettings.PURGE_CHUNK_SIZE)
+                                            .setParameter("before", before)
+                                            .executeUpdate();
+                    }
+                });
+            } while (deletedRows != 0);
+        }
+    }
+
+    /**
+     * Reads the trigger counts of a project from the rollups, per bucket and scenario.
+     * The project must already be checked to belong to the user.
+     *
+     * @param granularity
+     *     "minute", "hour" or "day"
+     * @param days
+     *     The number of last days to cover, at most the retention of the granularity
+     * @param scenarioId
+     *     (Optional) Only counts the triggers of this scenario
+     * @param beaconId
+     *     (Optional) Only counts the triggers of this beacon
+     *
+     * @throws MalformedRequestException
+     *     If the granularity is unknown, or the days are out of range
+     */
+    public JSONObject getTriggerCounts(final Long projectId, String granularity, final int days, final Long scenarioId, final Long beaconId)
+    throws MalformedRequestException {
+        final Granularity rollup = parseGranularity(granularity);
+        if (days <= 0 || (rollup.retentionDays != 0 && days > rollup.retentionDays)) {
+            throw new MalformedRequestException("days");
+        }
+        List<?> rows = newTransaction(true).execute(new TransactionCallback<List<?>>() {
+            @Override
+            public List<?> doInTransaction(TransactionStatus status) {
+                StringBuilder select = new StringBuilder("SELECT bucket_start, scenario_id, SUM(trigger_count) FROM ").append(rollup.table)
+                                                                                                                  .append(" WHERE project_id = :projectId AND bucket_start >= :since");
+                if (scenarioId != null) {
+                    select.append(" AND scenario_id = :scenarioId");
+                }
+                if (beaconId != null) {
+                    select.append(" AND beacon_id = :beaconId");
+                }
+                select.append(" GROUP BY bucket_start, scenario_id ORDER BY bucket_start, scenario_id");
+                long since = rollup.bucketOf(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days));
+                Query query = entityManager.createNativeQuery(select.toString())
+                                           .setParameter("projectId", projectId)
+                                           .setParameter("since", since);
+                if (scenarioId != null) {
+                    query.setParameter("scenarioId", scenarioId);
+                }
+                if (beaconId != null) {
+                    query.setParameter("beaconId", beaconId);
+                }
+                return query.getResultList();
+            }
+        });
+        List<JSONObject> buckets = new ArrayList<JSONObject>(rows.size());
+        for (Object row : rows) {
+            Object[] columns = (Object[]) row;
+            buckets.add(new JsonBuilder().add("start", ((Number) columns[0]).longValue())
+                                         .add("scenarioId", ((Number) columns[1]).longValue())
+                                         .add("triggers", ((Number) columns[2]).longValue())
+                                         .build());
+        }
+        return new JsonBuilder().add("granularity", rollup.name().toLowerCase())
+                                .add("days", days)
+                                .add("buckets", buckets)
+                                .build();
+    }
+
+    private Granularity parseGranularity(String granularity) throws MalformedRequestException {
+        for (Granularity rollup : Granularity.values()) {
+            if (rollup.name().equalsIgnoreCase(granularity)) {
+                return rollup;
+            }
+        }
+        throw new MalformedRequestException("granularity");
+    }
+
+    private TransactionTemplate newTransaction(boolean readOnly) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        // Read-only transactions go to a read replica, if there is one
+        transaction.setReadOnly(readOnly);
+        return transaction;
+    }
+
+    public long getPendingCounters() {
+        return pendingCounters.get();
+    }
+
+    public long getTriggers() {
+        return triggers.get();
+    }
+
+    public long getDroppedTriggers() {
+        return droppedTriggers.get();
+    }
+
+    public long getFlushedTriggers() {
+        return flushedTriggers.get();
+    }
+
+    public long getUpsertedRows() {
+        return upsertedRows.get();
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    public long getMillisSinceLastFlush() {
+        return lastFlushMillis == 0 ? -1 : System.currentTimeMillis() - lastFlushMillis;
+    }
+
+    private static class Stripe {
+        private Map<TriggerKey, long[]> counters = new HashMap<TriggerKey, long[]>();
+    }
+
+    private static class TriggerKey implements Comparable<TriggerKey> {
+        private final long projectId;
+        private final long scenarioId;
+        private final long beaconId;
+        private final long bucketStart;
+
+        private TriggerKey(long projectId, long scenarioId, long beaconId, long bucketStart) {
+            this.projectId = projectId;
+            this.scenarioId = scenarioId;
+            this.beaconId = beaconId;
+            this.bucketStart = bucketStart;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof TriggerKey)) {
+                return false;
+            }
+            TriggerKey key = (TriggerKey) other;
+            return projectId == key.projectId && scenarioId == key.scenarioId && beaconId == key.beaconId && bucketStart == key.bucketStart;
+        }
+
+        @Override
+        public int hashCode() {
+            long hash = projectId;
+            hash = hash * 31 + scenarioId;
+            hash = hash * 31 + beaconId;
+            hash = hash * 31 + bucketStart;
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        /**
+         * In the order of the primary key of the rollup tables.
+         */
+        @Override
+        public int compareTo(TriggerKey key) {
+            if (projectId != key.projectId) {
+                return projectId < key.projectId ? -1 : 1;
+            }
+            if (scenarioId != key.scenarioId) {
+                return scenarioId < key.scenarioId ? -1 : 1;
+            }
+            if (bucketStart != key.bucketStart) {
+                return bucketStart < key.bucketStart ? -1 : 1;
+            }
+            if (beaconId != key.beaconId) {
+                return beaconId < key.beaconId ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+}
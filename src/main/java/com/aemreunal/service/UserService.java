@@ -1,14 +1,16 @@
 package com.aemreunal.service;
 
+import java.util.List;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.PurgeJob;
 import com.aemreunal.domain.User;
 import com.aemreunal.exception.user.InvalidUsernameException;
 import com.aemreunal.exception.user.UserNotFoundException;
 import com.aemreunal.exception.user.UsernameClashException;
+import com.aemreunal.repository.project.ProjectRepo;
 import com.aemreunal.repository.user.UserRepo;
 import com.aemreunal.repository.user.UserSpecs;
 
@@ -35,7 +37,22 @@ public class UserService {
     private UserRepo userRepo;
 
     @Autowired
-    private BCryptPasswordEncoder passwordEncoder;
+    private PasswordHashingService passwordHashingService;
+
+    @Autowired
+    private ProjectRepo projectRepo;
+
+    @Autowired
+    private BeaconSearchService beaconSearchService;
+
+    @Autowired
+    private PurgeService purgeService;
+
+    @Autowired
+    private AccessTokenService accessTokenService;
+
+    @Autowired
+    private ChangeLogService changeLogService;
 
     /**
      * Saves/updates the given user
@@ -49,7 +66,7 @@ public class UserService {
         // Encrypt the password if a new user is persisted.
         // TODO check possible password re-hashing bug when user is updated
         if (user.getUserId() == null) {
-            user.setPassword(passwordEncoder.encode(user.getPassword()));
+            user.setPassword(passwordHashingService.encode(user.getPassword()));
         }
 
         verifyUsernameCorrectness(user.getUsername());
@@ -126,13 +143,14 @@ public class UserService {
      *
      * @return The user with the given username
      */
+    @Transactional(readOnly = true)
     public User findByUsername(String username) {
         if (GlobalSettings.DEBUGGING) {
             System.out.println("Finding user with username = \'" + username + "\'");
         }
         verifyUsernameCorrectness(username);
         User user = userRepo.findByUsername(username);
-        if (user == null) {
+        if (user == null || user.isDeleted()) {
             throw new UserNotFoundException();
         }
         return user;
@@ -141,7 +159,8 @@ public class UserService {
     /**
      * Checks whether the specified user exists and if so, authenticates this user. If the
      * authentication fails either because the user is not found or the password is
-     * incorrect, 'null' will be returned.
+     * incorrect, 'null' will be returned. If the password was hashed with another BCrypt
+     * log factor than the current one, it is hashed again.
      *
      * @param username
      *     The username of the user to authenticate
@@ -156,7 +175,12 @@ public class UserService {
         if (user == null) {
             return null;
         }
-        if (passwordEncoder.matches(rawPassword, user.getPassword())) {
+        if (passwordHashingService.matches(rawPassword, user.getPassword())) {
+            if (passwordHashingService.needsRehash(user.getPassword())) {
+                // Saved directly, as the username of an existing user is already taken
+                user.setPassword(passwordHashingService.encode(rawPassword));
+                userRepo.save(user);
+            }
             return user;
         } else {
             return null;
@@ -165,19 +189,31 @@ public class UserService {
 
     /**
      * Deletes the user with the given username and deletes everything (projects, etc.)
-     * associated with the user
+     * associated with the user. The user and the projects are only marked as deleted,
+     * after which they can no longer be found, and are purged in the background by the
+     * {@link PurgeService}.
      *
      * @param username
      *     The username of the user to delete
      *
-     * @return Whether the user was deleted or not
+     * @return The purge job of the user
      */
-    public User delete(String username) {
+    public PurgeJob delete(String username) {
         if (GlobalSettings.DEBUGGING) {
             System.out.println("Deleting user with username = \'" + username + "\'");
         }
         User userToDelete = findByUsername(username);
-        userRepo.delete(userToDelete);
-        return userToDelete;
+        userToDelete.setDeleted(true);
+        userRepo.save(userToDelete);
+        List<Long> projectIds = projectRepo.findIdsOfOwner(userToDelete);
+        if (!projectIds.isEmpty()) {
+            projectRepo.markAsDeleted(projectIds);
+            for (Long projectId : projectIds) {
+                beaconSearchService.projectRemoved(projectId);
+                changeLogService.projectRemoved(projectId);
+            }
+        }
+        accessTokenService.revokeAllOf(userToDelete.getUsername());
+        return purgeService.schedule(PurgeJob.KIND_USER, userToDelete.getUserId());
     }
 }
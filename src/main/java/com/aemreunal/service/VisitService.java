@@ -0,0 +1,404 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import net.minidev.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.domain.Visit;
+import com.aemreunal.helper.JsonBuilder;
+import com.aemreunal.repository.visit.VisitRepo;
+
+/**
+ * Turns the beacon sightings of the devices into {@link Visit visits}, and computes the
+ * dwell time distributions of the beacons and scenarios from them.
+ * <p/>
+ * Only the sightings of the {@link SightingService} that carry a device ID are used.
+ * The first sighting of a beacon by a device starts a visit, and the following ones
+ * extend it as long as each comes within the gap timeout of the previous one. A visit
+ * ends when a sighting comes later than that, or when the periodic sweep finds that the
+ * timeout has passed since its last sighting. Only the visits in progress are kept in memory, as a
+ * few longs per visit in a flat array per device. Ended visits are queued, and written
+ * by a scheduled flush in batches of multi-row inserts. When the queue is full, ended
+ * visits are dropped instead of slowing down the queries.
+ * <p/>
+ * The visits are kept by each server instance on its own, so a device whose queries are
+ * spread over several instances has a visit on each of them.
+ */
+@Service
+public class VisitService implements SightingListener {
+    // The fields of a visit in progress, in the slots of a device
+    private static final int BEACON_ID   = 0;
+    private static final int PROJECT_ID  = 1;
+    private static final int SCENARIO_ID = 2;
+    private static final int ENTER       = 3;
+    private static final int LAST_SEEN   = 4;
+    private static final int SIGHTINGS   = 5;
+    private static final int FIELDS      = 6;
+
+    private static final String INSERT_VISITS = "INSERT INTO visits (project_id, beacon_id, scenario_id, device_id, enter_date, exit_date, dwell_millis, dwell_bucket, sightings) VALUES ";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private VisitRepo visitRepo;
+
+    private final long gapTimeoutMillis = TimeUnit.SECONDS.toMillis(Integer.getInteger(GlobalSettings.VISIT_GAP_TIMEOUT_PROPERTY,
+                                                                                        GlobalSettings.VISIT_GAP_TIMEOUT_SECONDS));
+
+    // Device ID -> visits of the device in progress
+    private final ConcurrentMap<Long, DeviceVisits> devices     = new ConcurrentHashMap<Long, DeviceVisits>();
+    private final BlockingQueue<EndedVisit>         endedVisits = new ArrayBlockingQueue<EndedVisit>(GlobalSettings.VISIT_QUEUE_CAPACITY);
+
+    private final AtomicLong sightings        = new AtomicLong(0);
+    private final AtomicLong droppedSightings = new AtomicLong(0);
+    private final AtomicLong writtenVisits    = new AtomicLong(0);
+    private final AtomicLong droppedVisits    = new AtomicLong(0);
+    private final AtomicLong failedBatches    = new AtomicLong(0);
+
+    @Override
+    public void beaconSighted(Long deviceId, long projectId, long beaconId, String major, String minor, long scenarioId, long timeMillis) {
+        if (deviceId == null) {
+            return;
+        }
+        while (true) {
+            DeviceVisits visits = devices.get(deviceId);
+            if (visits == null) {
+                if (devices.size() >= GlobalSettings.VISIT_MAX_DEVICES) {
+                    droppedSightings.incrementAndGet();
+                    return;
+                }
+                DeviceVisits newVisits = new DeviceVisits(deviceId);
+                visits = devices.putIfAbsent(deviceId, newVisits);
+                if (visits == null) {
+                    visits = newVisits;
+                }
+            }
+            synchronized (visits) {
+                if (visits.removed) {
+                    // Removed by the sweep in the meantime, try again with a new one
+                    continue;
+                }
+                sight(visits, projectId, beaconId, scenarioId, timeMillis);
+            }
+            sightings.incrementAndGet();
+            return;
+        }
+    }
+
+    private void sight(DeviceVisits visits, long projectId, long beaconId, long scenarioId, long now) {
+        long[] slots = visits.slots;
+        for (int visit = 0; visit < visits.count; visit++) {
+            int base = visit * FIELDS;
+            if (slots[base + BEACON_ID] == beaconId) {
+                if (now - slots[base + LAST_SEEN] <= gapTimeoutMillis) {
+                    slots[base + LAST_SEEN] = Math.max(slots[base + LAST_SEEN], now);
+                    slots[base + SIGHTINGS]++;
+                    return;
+                }
+                end(visits, visit);
+                break;
+            }
+        }
+        if (visits.count == GlobalSettings.VISIT_MAX_OPEN_PER_DEVICE) {
+            end(visits, leastRecentlySeen(visits));
+        }
+        if ((visits.count + 1) * FIELDS > visits.slots.length) {
+            long[] grown = new long[Math.min(visits.slots.length * 2, GlobalSettings.VISIT_MAX_OPEN_PER_DEVICE * FIELDS)];
+            System.arraycopy(visits.slots, 0, grown, 0, visits.count * FIELDS);
+            visits.slots = grown;
+        }
+        int base = visits.count * FIELDS;
+        visits.slots[base + BEACON_ID] = beaconId;
+        visits.slots[base + PROJECT_ID] = projectId;
+        visits.slots[base + SCENARIO_ID] = scenarioId;
+        visits.slots[base + ENTER] = now;
+        visits.slots[base + LAST_SEEN] = now;
+        visits.slots[base + SIGHTINGS] = 1;
+        visits.count++;
+    }
+
+    private int leastRecentlySeen(DeviceVisits visits) {
+        int oldest = 0;
+        for (int visit = 1; visit < visits.count; visit++) {
+            if (visits.slots[visit * FIELDS + LAST_SEEN] < visits.slots[oldest * FIELDS + LAST_SEEN]) {
+                oldest = visit;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Queues the given visit of the device to be written, and removes it by moving the
+     * last visit of the device into its slot.
+     */
+    private void end(DeviceVisits visits, int visit) {
+        long[] slots = visits.slots;
+        int base = visit * FIELDS;
+        EndedVisit endedVisit = new EndedVisit(visits.deviceId,
+                                               slots[base + PROJECT_ID],
+                                               slots[base + BEACON_ID],
+                                               slots[base + SCENARIO_ID],
+                                               slots[base + ENTER],
+                                               slots[base + LAST_SEEN],
+                                               (int) slots[base + SIGHTINGS]);
+        if (!endedVisits.offer(endedVisit)) {
+            droppedVisits.incrementAndGet();
+        }
+        visits.count--;
+        System.arraycopy(slots, visits.count * FIELDS, slots, base, FIELDS);
+    }
+
+    /**
+     * Ends the visits whose last sighting is older than the gap timeout, and forgets the
+     * devices without visits in progress.
+     */
+    @Scheduled(fixedDelay = GlobalSettings.VISIT_SWEEP_INTERVAL_MILLIS)
+    public void sweep() {
+        sweep(System.currentTimeMillis());
+    }
+
+    void sweep(long now) {
+        for (Map.Entry<Long, DeviceVisits> entry : devices.entrySet()) {
+            DeviceVisits visits = entry.getValue();
+            synchronized (visits) {
+                // Backwards, as ending a visit moves the last one into its slot
+                for (int visit = visits.count - 1; visit >= 0; visit--) {
+                    if (now - visits.slots[visit * FIELDS + LAST_SEEN] > gapTimeoutMillis) {
+                        end(visits, visit);
+                    }
+                }
+                if (visits.count == 0) {
+                    visits.removed = true;
+                    devices.remove(entry.getKey(), visits);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the queued visits, a batch per transaction.
+     */
+    @Scheduled(fixedDelay = GlobalSettings.VISIT_FLUSH_INTERVAL_MILLIS)
+    public void flush() {
+        List<EndedVisit> batch = new ArrayList<EndedVisit>(GlobalSettings.VISIT_BATCH_SIZE);
+        while (endedVisits.drainTo(batch, GlobalSettings.VISIT_BATCH_SIZE) != 0) {
+            try {
+                write(batch);
+                writtenVisits.addAndGet(batch.size());
+            } catch (RuntimeException e) {
+                failedBatches.incrementAndGet();
+                droppedVisits.addAndGet(batch.size());
+                if (GlobalSettings.DEBUGGING) {
+                    System.out.println("Unable to write " + batch.size() + " visits: " + e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Ends every visit in progress and writes them, so they are not lost when the server
+     * is stopped.
+     */
+    @PreDestroy
+    public void endAllVisits() {
+        for (DeviceVisits visits : devices.values()) {
+            synchronized (visits) {
+                while (visits.count != 0) {
+                    end(visits, visits.count - 1);
+                }
+                visits.removed = true;
+            }
+        }
+        devices.clear();
+        flush();
+    }
+
+    private void write(final List<EndedVisit> batch) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transaction.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                StringBuilder insert = new StringBuilder(INSERT_VISITS);
+                for (int row = 0; row < batch.size(); row++) {
+                    insert.append(row == 0 ? "" : ", ")
+                          .append("(:project").append(row).append(", :beacon").append(row)
+                          .append(", :scenario").append(row).append(", :device").append(row)
+                          .append(", :enter").append(row).append(", :exit").append(row)
+                          .append(", :dwell").append(row).append(", :bucket").append(row)
+                          .append(", :sightings").append(row).append(")");
+                }
+                Query query = entityManager.createNativeQuery(insert.toString());
+                for (int row = 0; row < batch.size(); row++) {
+                    EndedVisit visit = batch.get(row);
+                    long dwellMillis = visit.exitMillis - visit.enterMillis;
+                    query.setParameter("project" + row, visit.projectId)
+                         .setParameter("beacon" + row, visit.beaconId)
+                         .setParameter("scenario" + row, visit.scenarioId == SightingService.NO_SCENARIO ? null : visit.scenarioId)
+                         .setParameter("device" + row, visit.deviceId)
+                         .setParameter("enter" + row, visit.enterMillis)
+                         .setParameter("exit" + row, visit.exitMillis)
+                         .setParameter("dwell" + row, dwellMillis)
+                         .setParameter("bucket" + row, Visit.dwellBucketOf(dwellMillis))
+                         .setParameter("sightings" + row, visit.sightings);
+                }
+                query.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Computes the dwell time distribution of the visits to a beacon that started in
+     * the last given number of days. The beacon must already be checked to belong to
+     * the project.
+     */
+    public JSONObject getBeaconDwell(Long projectId, Long beaconId, int days) {
+        return toDwellDistribution(visitRepo.findBeaconDwellBuckets(projectId, beaconId, daysAgo(days)), days);
+    }
+
+    /**
+     * Computes the dwell time distribution of the visits to the beacons of a scenario
+     * that started in the last given number of days. The scenario must already be
+     * checked to belong to the project.
+     */
+    public JSONObject getScenarioDwell(Long projectId, Long scenarioId, int days) {
+        return toDwellDistribution(visitRepo.findScenarioDwellBuckets(projectId, scenarioId, daysAgo(days)), days);
+    }
+
+    private long daysAgo(int days) {
+        return System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+    }
+
+    private JSONObject toDwellDistribution(List<Object[]> rows, int days) {
+        long[] bucketVisits = new long[Visit.DWELL_BUCKET_SECONDS.length + 1];
+        long visits = 0;
+        long totalDwellMillis = 0;
+        long longestDwellMillis = 0;
+        for (Object[] row : rows) {
+            int bucket = ((Number) row[0]).intValue();
+            long count = ((Number) row[1]).longValue();
+            bucketVisits[Math.min(bucket, bucketVisits.length - 1)] += count;
+            visits += count;
+            totalDwellMillis += ((Number) row[2]).longValue();
+            longestDwellMillis = Math.max(longestDwellMillis, ((Number) row[3]).longValue());
+        }
+        List<JSONObject> histogram = new ArrayList<JSONObject>(bucketVisits.length);
+        for (int bucket = 0; bucket < bucketVisits.length; bucket++) {
+            JsonBuilder entry = new JsonBuilder().add("fromSeconds", bucket == 0 ? 0 : Visit.DWELL_BUCKET_SECONDS[bucket - 1]);
+            if (bucket < Visit.DWELL_BUCKET_SECONDS.length) {
+                entry.add("toSeconds", Visit.DWELL_BUCKET_SECONDS[bucket]);
+            }
+            histogram.add(entry.add("visits", bucketVisits[bucket]).build());
+        }
+        return new JsonBuilder().add("days", days)
+                                .add("visits", visits)
+                                .add("averageDwellSeconds", visits == 0 ? 0 : totalDwellMillis / visits / 1000)
+                                .add("longestDwellSeconds", longestDwellMillis / 1000)
+                                .add("histogram", histogram)
+                                .build();
+    }
+
+    public int getTrackedDevices() {
+        return devices.size();
+    }
+
+    public int getQueuedVisits() {
+        return endedVisits.size();
+    }
+
+    public long getSightings() {
+        return sightings.get();
+    }
+
+    public long getDroppedSightings() {
+        return droppedSightings.get();
+    }
+
+    public long getWrittenVisits() {
+        return writtenVisits.get();
+    }
+
+    public long getDroppedVisits() {
+        return droppedVisits.get();
+    }
+
+    public long getFailedBatches() {
+        return failedBatches.get();
+    }
+
+    /**
+     * The visits of a device in progress, {@link #FIELDS} longs each.
+     */
+    private static class DeviceVisits {
+        private final long    deviceId;
+        private       long[]  slots   = new long[2 * FIELDS];
+        private       int     count   = 0;
+        // Set when removed from the map by the sweep, so no sighting is added anymore
+        private       boolean removed = false;
+
+        private DeviceVisits(long deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+
+    private static class EndedVisit {
+        private final long deviceId;
+        private final long projectId;
+        private final long beaconId;
+        private final long scenarioId;
+        private final long enterMillis;
+        private final long exitMillis;
+        private final int  sightings;
+
+        private EndedVisit(long deviceId, long projectId, long beaconId, long scenarioId, long enterMillis, long exitMillis, int sightings) {
+            this.deviceId = deviceId;
+            this.projectId = projectId;
+            this.beaconId = beaconId;
+            this.scenarioId = scenarioId;
+            this.enterMillis = enterMillis;
+            this.exitMillis = exitMillis;
+            this.sightings = sightings;
+        }
+    }
+}
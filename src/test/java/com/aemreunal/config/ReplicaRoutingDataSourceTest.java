@@ -0,0 +1,88 @@
+package com.aemreunal.config;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class ReplicaRoutingDataSourceTest {
+    private ReplicaRoutingDataSource dataSource;
+
+    @Before
+    public void createDataSource() {
+        // The pools are never connected to, only their routing keys are decided
+        dataSource = new ReplicaRoutingDataSource(new DataSource(), new DataSource());
+    }
+
+    @After
+    public void clearTransactionState() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        ReplicaRoutingDataSource.setCurrentClient(null);
+    }
+
+    @Test
+    public void readOnlyTransactionGoesToAReplica() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        Object key = dataSource.determineCurrentLookupKey();
+        Assert.assertTrue("A read-only transaction wasn't routed to a replica!", key.toString().startsWith(ReplicaRoutingDataSource.REPLICA_KEY_PREFIX));
+        Assert.assertEquals(1, dataSource.getReplicaConnections());
+        Assert.assertEquals(0, dataSource.getPrimaryConnections());
+    }
+
+    @Test
+    public void writeTransactionGoesToThePrimary() {
+        Assert.assertEquals(ReplicaRoutingDataSource.PRIMARY_KEY, dataSource.determineCurrentLookupKey());
+        Assert.assertEquals(1, dataSource.getPrimaryConnections());
+        Assert.assertEquals(0, dataSource.getReplicaConnections());
+    }
+
+    @Test
+    public void readAfterOwnWriteGoesToThePrimary() {
+        ReplicaRoutingDataSource.setCurrentClient("john");
+        commitWriteTransaction();
+
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        Assert.assertEquals("A read right after a write of the same client went to a replica!", ReplicaRoutingDataSource.PRIMARY_KEY, dataSource.determineCurrentLookupKey());
+        Assert.assertEquals(1, dataSource.getReadYourWritesRoutes());
+
+        // The write doesn't keep the other clients off the replicas
+        ReplicaRoutingDataSource.setCurrentClient("jane");
+        Assert.assertTrue(dataSource.determineCurrentLookupKey().toString().startsWith(ReplicaRoutingDataSource.REPLICA_KEY_PREFIX));
+        Assert.assertEquals(1, dataSource.getReadYourWritesRoutes());
+    }
+
+    /**
+     * Routes a write transaction of the current client and runs what the transaction
+     * manager runs after it commits.
+     */
+    private void commitWriteTransaction() {
+        TransactionSynchronizationManager.initSynchronization();
+        Assert.assertEquals(ReplicaRoutingDataSource.PRIMARY_KEY, dataSource.determineCurrentLookupKey());
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCommit();
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+}
@@ -22,6 +22,8 @@ import org.apache.http.HttpStatus;
 import com.aemreunal.domain.EntityGetter;
 import com.jayway.restassured.path.json.JsonPath;
 
+import static org.junit.Assert.assertTrue;
+
 public class ProjectGetter extends EntityGetter {
     public static ArrayList<ProjectInfo> getAllProjects(String username) {
         JsonPath responseJson = getEntity("/" + username + "/projects");
@@ -56,6 +58,7 @@ public class ProjectGetter extends EntityGetter {
     }
 
     public static void failToSearchForProjects(String username, String projectName) {
-        sendGetRequest("/" + username + "/projects?name=" + projectName, HttpStatus.SC_NOT_FOUND);
+        // A search without any matches returns an empty page
+        assertTrue("Search returned projects that shouldn't exist!", searchForProjects(username, projectName).isEmpty());
     }
 }
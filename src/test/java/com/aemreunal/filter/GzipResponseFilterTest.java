@@ -0,0 +1,120 @@
+package com.aemreunal.filter;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import com.aemreunal.config.GlobalSettings;
+
+public class GzipResponseFilterTest {
+    private GzipResponseFilter      filter;
+    private MockHttpServletRequest  request;
+    private MockHttpServletResponse response;
+
+    @Before
+    public void createFilter() {
+        filter = new GzipResponseFilter();
+        request = new MockHttpServletRequest("GET", "/status");
+        response = new MockHttpServletResponse();
+    }
+
+    @Test
+    public void smallResponseIsSentAsItIs() throws Exception {
+        byte[] body = bodyOf(GlobalSettings.GZIP_MIN_RESPONSE_SIZE);
+        request.addHeader("Accept-Encoding", "gzip, deflate");
+        filter.doFilter(request, response, writing(body, null));
+        Assert.assertNull("Small response was compressed!", response.getHeader("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        Assert.assertArrayEquals(body, response.getContentAsByteArray());
+        Assert.assertEquals(body.length, response.getContentLength());
+    }
+
+    @Test
+    public void largeResponseIsCompressed() throws Exception {
+        byte[] body = bodyOf(GlobalSettings.GZIP_MIN_RESPONSE_SIZE + 1);
+        request.addHeader("Accept-Encoding", "deflate, gzip");
+        filter.doFilter(request, response, writing(body, null));
+        Assert.assertEquals("Large response wasn't compressed!", "gzip", response.getHeader("Content-Encoding"));
+        Assert.assertArrayEquals(body, gunzip(response.getContentAsByteArray()));
+    }
+
+    @Test
+    public void gzipWithZeroQualityIsNotUsed() throws Exception {
+        byte[] body = bodyOf(GlobalSettings.GZIP_MIN_RESPONSE_SIZE * 4);
+        request.addHeader("Accept-Encoding", "gzip;q=0, deflate");
+        filter.doFilter(request, response, writing(body, null));
+        Assert.assertNull("Response was compressed for a client that refused gzip!", response.getHeader("Content-Encoding"));
+        Assert.assertArrayEquals(body, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void encodedResponseIsPassedThrough() throws Exception {
+        byte[] body = bodyOf(GlobalSettings.GZIP_MIN_RESPONSE_SIZE * 4);
+        request.addHeader("Accept-Encoding", "gzip");
+        filter.doFilter(request, response, writing(body, "deflate"));
+        Assert.assertEquals("Content-Encoding of the handler was replaced!", "deflate", response.getHeader("Content-Encoding"));
+        Assert.assertArrayEquals(body, response.getContentAsByteArray());
+    }
+
+    /**
+     * @return A chain that sets the given Content-Encoding, if any, then writes the body
+     * in small pieces
+     */
+    private static FilterChain writing(final byte[] body, final String contentEncoding) {
+        return new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                if (contentEncoding != null) {
+                    ((HttpServletResponse) response).setHeader("Content-Encoding", contentEncoding);
+                }
+                for (int offset = 0; offset < body.length; offset += 100) {
+                    response.getOutputStream().write(body, offset, Math.min(100, body.length - offset));
+                }
+            }
+        };
+    }
+
+    private static byte[] bodyOf(int length) {
+        byte[] body = new byte[length];
+        Arrays.fill(body, (byte) 'a');
+        return body;
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,115 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SightingChunkTest {
+    private static final long START = 1414800000000L;
+
+    private SightingChunk chunk;
+
+    @Before
+    public void buildChunk() {
+        // Beacons 7, 3 and 1000000, with the times slightly out of order
+        SightingChunk.Builder builder = new SightingChunk.Builder(2);
+        builder.add(START + 10, 7, 42);
+        builder.add(START + 5, 3, SightingChunk.NO_DEVICE);
+        builder.add(START + 20, 1000000, 9000000000L);
+        builder.add(START + 30, 7, 41);
+        chunk = builder.build();
+    }
+
+    @Test
+    public void rowsAreReadBackInOrder() throws IOException {
+        List<long[]> rows = scan(chunk, Long.MIN_VALUE, Long.MAX_VALUE, null);
+        Assert.assertEquals("Not every row was read back!", 4, rows.size());
+        Assert.assertArrayEquals(new long[] { START + 10, 7, 42 }, rows.get(0));
+        Assert.assertArrayEquals(new long[] { START + 5, 3, SightingChunk.NO_DEVICE }, rows.get(1));
+        Assert.assertArrayEquals(new long[] { START + 20, 1000000, 9000000000L }, rows.get(2));
+        Assert.assertArrayEquals(new long[] { START + 30, 7, 41 }, rows.get(3));
+        Assert.assertEquals(START + 5, chunk.getMinTime());
+        Assert.assertEquals(START + 30, chunk.getMaxTime());
+    }
+
+    @Test
+    public void rowsAreFilteredByTimeAndBeacon() throws IOException {
+        Assert.assertEquals("Time range is not half-open!", 2, scan(chunk, START + 10, START + 30, null).size());
+        List<long[]> rows = scan(chunk, Long.MIN_VALUE, Long.MAX_VALUE, new long[] { 5, 7 });
+        Assert.assertEquals("Rows of other beacons were passed!", 2, rows.size());
+        Assert.assertEquals(41, rows.get(1)[2]);
+    }
+
+    @Test
+    public void chunksAreSkippedByDictionaryAndTimeRange() {
+        Assert.assertTrue(chunk.containsAnyOf(new long[] { 2, 3 }));
+        Assert.assertFalse("Chunk without the beacons wasn't skipped!", chunk.containsAnyOf(new long[] { 2, 4, 8 }));
+        Assert.assertTrue(chunk.overlaps(START + 30, START + 40));
+        Assert.assertFalse("Chunk after the range wasn't skipped!", chunk.overlaps(START, START + 5));
+    }
+
+    @Test
+    public void spilledChunkIsScannedFromItsFile() throws IOException {
+        File file = File.createTempFile("sightings", ".chunk");
+        try {
+            chunk.spillTo(file);
+            Assert.assertTrue(chunk.isSpilled());
+            Assert.assertEquals(file.length(), chunk.getColumnBytes());
+            Assert.assertEquals("Spilled rows weren't read back!", 4, scan(chunk, Long.MIN_VALUE, Long.MAX_VALUE, null).size());
+        } finally {
+            chunk.delete();
+        }
+        Assert.assertFalse("Spill file wasn't deleted!", file.exists());
+    }
+
+    @Test
+    public void snapshotIsScannedAsItIs() {
+        SightingChunk.Builder builder = new SightingChunk.Builder(2);
+        builder.add(START + 10, 7, 42);
+        builder.add(START + 5, 3, SightingChunk.NO_DEVICE);
+        SightingChunk.Builder snapshot = builder.snapshot();
+        builder.add(START + 20, 7, 41);
+        final List<long[]> rows = new ArrayList<long[]>();
+        int matched = snapshot.scan(START, START + 30, new long[] { 7 }, new SightingChunk.Visitor() {
+            @Override
+            public void visit(long timeMillis, long beaconId, long deviceId) {
+                rows.add(new long[] { timeMillis, beaconId, deviceId });
+            }
+        });
+        Assert.assertEquals("The snapshot changed with the builder!", 1, matched);
+        Assert.assertArrayEquals(new long[] { START + 10, 7, 42 }, rows.get(0));
+        Assert.assertEquals(3, builder.size());
+    }
+
+    private static List<long[]> scan(SightingChunk chunk, long from, long to, long[] beaconIds) throws IOException {
+        final List<long[]> rows = new ArrayList<long[]>();
+        int matched = chunk.scan(from, to, beaconIds, new SightingChunk.Visitor() {
+            @Override
+            public void visit(long timeMillis, long beaconId, long deviceId) {
+                rows.add(new long[] { timeMillis, beaconId, deviceId });
+            }
+        });
+        Assert.assertEquals(rows.size(), matched);
+        return rows;
+    }
+}
@@ -0,0 +1,164 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SingleFlightTest {
+    private static final int WAITERS = 8;
+
+    private SingleFlight<String, String> singleFlight;
+    private ExecutorService              executor;
+
+    @Before
+    public void createSingleFlight() {
+        singleFlight = new SingleFlight<String, String>();
+        executor = Executors.newFixedThreadPool(WAITERS + 1);
+    }
+
+    @After
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void identicalCallsShareOneExecution() throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> results = callConcurrently("key", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                executions.incrementAndGet();
+                release.await();
+                return "result";
+            }
+        }, release);
+        for (Future<String> result : results) {
+            Assert.assertEquals("result", result.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals("Identical calls were executed more than once!", 1, executions.get());
+        Assert.assertEquals(WAITERS + 1, singleFlight.getCalls());
+        Assert.assertEquals(WAITERS, singleFlight.getCoalesced());
+    }
+
+    @Test
+    public void failureIsThrownToEveryWaiter() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> results = callConcurrently("key", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                release.await();
+                throw new IllegalArgumentException("failed");
+            }
+        }, release);
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                Assert.fail("A waiter didn't get the failure!");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+                Assert.assertEquals("failed", e.getCause().getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void keyIsRemovedAfterTheCall() {
+        final AtomicInteger executions = new AtomicInteger();
+        Callable<String> call = new Callable<String>() {
+            @Override
+            public String call() {
+                return "result " + executions.incrementAndGet();
+            }
+        };
+        Assert.assertEquals("result 1", singleFlight.execute("key", call));
+        Assert.assertEquals("The result of a completed call was reused!", "result 2", singleFlight.execute("key", call));
+        try {
+            singleFlight.execute("key", new Callable<String>() {
+                @Override
+                public String call() {
+                    throw new IllegalStateException("failed");
+                }
+            });
+            Assert.fail("The failure wasn't thrown!");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        Assert.assertEquals("The key of a failed call wasn't removed!", "result 3", singleFlight.execute("key", call));
+        Assert.assertEquals(0, singleFlight.getCoalesced());
+    }
+
+    @Test
+    public void differentKeysAreNotCoalesced() throws Exception {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (final String key : new String[] { "first", "second" }) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return singleFlight.execute(key, new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            // Only returns if the other key is executing at the same time
+                            bothStarted.countDown();
+                            Assert.assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+                            return key;
+                        }
+                    });
+                }
+            }));
+        }
+        Assert.assertEquals("first", results.get(0).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("second", results.get(1).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, singleFlight.getCoalesced());
+    }
+
+    /**
+     * Makes one call with the given key, then the waiters, and releases the call once
+     * every waiter waits for it.
+     */
+    private List<Future<String>> callConcurrently(final String key, final Callable<String> call, CountDownLatch release) throws InterruptedException {
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i <= WAITERS; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return singleFlight.execute(key, call);
+                }
+            }));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (singleFlight.getCoalesced() < WAITERS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        return results;
+    }
+}
@@ -0,0 +1,76 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TokenBucketsTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private TokenBuckets buckets;
+
+    @Before
+    public void createBuckets() {
+        // 10 tokens per second, bursts of 5, at most 8 keys in 4 stripes
+        buckets = new TokenBuckets(10, 5, 4, 8);
+    }
+
+    @Test
+    public void burstIsLetThroughThenLimited() {
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("Request within the burst was rejected!", 0, buckets.tryAcquire("A", 0));
+        }
+        long wait = buckets.tryAcquire("A", 0);
+        Assert.assertTrue("Request over the burst was let through!", wait > 0);
+        Assert.assertTrue("Wait is longer than a token takes!", wait <= SECOND / 10);
+    }
+
+    @Test
+    public void bucketsAreRefilledAtTheRate() {
+        for (int i = 0; i < 5; i++) {
+            buckets.tryAcquire("A", 0);
+        }
+        Assert.assertEquals("Token wasn't refilled!", 0, buckets.tryAcquire("A", SECOND / 10));
+        Assert.assertTrue("Refilled more than the rate!", buckets.tryAcquire("A", SECOND / 10) > 0);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("Bucket wasn't refilled up to the burst!", 0, buckets.tryAcquire("A", 10 * SECOND));
+        }
+        Assert.assertTrue("Bucket was refilled over the burst!", buckets.tryAcquire("A", 10 * SECOND) > 0);
+    }
+
+    @Test
+    public void keysAreLimitedSeparately() {
+        for (int i = 0; i < 5; i++) {
+            buckets.tryAcquire("A", 0);
+        }
+        Assert.assertTrue("Key A wasn't limited!", buckets.tryAcquire("A", 0) > 0);
+        Assert.assertEquals("Key B was limited by key A!", 0, buckets.tryAcquire("B", 0));
+    }
+
+    @Test
+    public void bucketsAreBoundedAndPruned() {
+        for (int i = 0; i < 1000; i++) {
+            buckets.tryAcquire("key" + i, 0);
+        }
+        Assert.assertTrue("More buckets than the maximum were kept!", buckets.size() <= 8);
+        buckets.pruneFull(SECOND);
+        Assert.assertEquals("Full buckets weren't pruned!", 0, buckets.size());
+    }
+}
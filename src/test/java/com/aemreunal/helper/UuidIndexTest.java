@@ -0,0 +1,81 @@
+package com.aemreunal.helper;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.*;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UuidIndexTest {
+    private UuidIndex index;
+    private Map<Long, String> uuids;
+
+    @Before
+    public void fillIndex() {
+        index = new UuidIndex();
+        uuids = new LinkedHashMap<Long, String>();
+        Random random = new Random(42);
+        for (long beaconId = 1; beaconId <= 5000; beaconId++) {
+            String uuid = new UUID(random.nextLong(), random.nextLong()).toString().toUpperCase();
+            uuids.put(beaconId, uuid);
+            index.put(beaconId, uuid, String.valueOf(beaconId % 3), "1");
+        }
+    }
+
+    @Test
+    public void searchMatchesSubstringScan() {
+        for (String part : Arrays.asList("A", "0F", "ABC", "-4", "12-3", "DEAD", "-", "4A7-B")) {
+            Assert.assertEquals("Index search for '" + part + "' doesn't match a scan!", scan(part, ""), index.search(part, "", ""));
+        }
+    }
+
+    @Test
+    public void searchFiltersMajorAndMinor() {
+        List<Long> matches = index.search("AB", "2", "1");
+        Assert.assertEquals("Index search with major doesn't match a scan!", scan("AB", "2"), matches);
+        Assert.assertTrue("Minor filter didn't exclude beacons!", index.search("AB", "2", "9").isEmpty());
+    }
+
+    @Test
+    public void removedAndUpdatedBeaconsAreNotFound() {
+        String uuid = uuids.get(10L);
+        String part = uuid.substring(3, 20);
+        index.remove(10L);
+        Assert.assertFalse("Removed beacon was found!", index.search(part, "", "").contains(10L));
+        index.put(11L, "00000000-0000-0000-0000-000000000000", "2", "1");
+        uuids.put(11L, "00000000-0000-0000-0000-000000000000");
+        Assert.assertEquals("Updated beacon wasn't found!", Arrays.asList(11L), index.search("00000000-0000", "", ""));
+        // Remove most beacons to trigger a rebuild of the posting lists
+        for (long beaconId = 12; beaconId <= 4000; beaconId++) {
+            index.remove(beaconId);
+        }
+        uuids.keySet().retainAll(index.search("", "", ""));
+        Assert.assertEquals("Index size doesn't match after removals!", uuids.size(), index.size());
+        Assert.assertEquals("Index search doesn't match a scan after removals!", scan("ABC", ""), index.search("ABC", "", ""));
+    }
+
+    private List<Long> scan(String part, String major) {
+        List<Long> matches = new ArrayList<Long>();
+        for (Map.Entry<Long, String> entry : uuids.entrySet()) {
+            if (entry.getValue().contains(part) && (major.isEmpty() || String.valueOf(entry.getKey() % 3).equals(major))) {
+                matches.add(entry.getKey());
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,113 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.aemreunal.config.GlobalSettings;
+import com.aemreunal.exception.user.InvalidAccessTokenException;
+
+public class AccessTokenServiceTest {
+    private static final long LIFETIME = TimeUnit.SECONDS.toMillis(GlobalSettings.ACCESS_TOKEN_LIFETIME_SECONDS);
+
+    private AccessTokenService tokens;
+
+    @Before
+    public void createService() {
+        tokens = new AccessTokenService();
+    }
+
+    @Test
+    public void issuedTokenIsVerified() {
+        String token = tokens.issue("john");
+        Assert.assertEquals("Issued token wasn't verified!", "john", tokens.verify(token));
+    }
+
+    @Test
+    public void usernameWithDotsIsVerified() {
+        String token = tokens.issue("john.doe.");
+        Assert.assertEquals("Username with dots wasn't read back!", "john.doe.", tokens.verify(token));
+    }
+
+    @Test(expected = InvalidAccessTokenException.class)
+    public void tamperedSignatureIsRejected() {
+        String token = tokens.issue("john");
+        char last = token.charAt(token.length() - 1);
+        tokens.verify(token.substring(0, token.length() - 1) + (last == '0' ? '1' : '0'));
+    }
+
+    @Test(expected = InvalidAccessTokenException.class)
+    public void tamperedUsernameIsRejected() {
+        tokens.verify("jane" + tokens.issue("john").substring("john".length()));
+    }
+
+    @Test(expected = InvalidAccessTokenException.class)
+    public void tokenOfAnotherKeyIsRejected() {
+        tokens.verify(new AccessTokenService().issue("john"));
+    }
+
+    @Test(expected = InvalidAccessTokenException.class)
+    public void tokenWithoutSignatureIsRejected() {
+        tokens.verify("john");
+    }
+
+    @Test
+    public void tokenExpiresAfterItsLifetime() {
+        long issuedAt = System.currentTimeMillis();
+        String token = tokens.issue("john", issuedAt);
+        Assert.assertEquals("john", tokens.verify(token, issuedAt + LIFETIME - 1));
+        try {
+            tokens.verify(token, issuedAt + LIFETIME);
+            Assert.fail("Expired token was verified!");
+        } catch (InvalidAccessTokenException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void loggedOutTokenIsRevoked() {
+        String token = tokens.issue("john");
+        String otherToken = tokens.issue("john");
+        tokens.revoke(token);
+        try {
+            tokens.verify(token);
+            Assert.fail("Logged out token was verified!");
+        } catch (InvalidAccessTokenException e) {
+            // Expected
+        }
+        Assert.assertEquals("Another token of the user was revoked!", "john", tokens.verify(otherToken));
+    }
+
+    @Test
+    public void tokensOfDeletedUserAreRevoked() {
+        long now = System.currentTimeMillis();
+        String oldToken = tokens.issue("john.doe", now - 1000);
+        String otherUsersToken = tokens.issue("john", now - 1000);
+        tokens.revokeAllOf("john.doe");
+        try {
+            tokens.verify(oldToken);
+            Assert.fail("Token of a deleted user was verified!");
+        } catch (InvalidAccessTokenException e) {
+            // Expected
+        }
+        Assert.assertEquals("Token of another user was revoked!", "john", tokens.verify(otherUsersToken));
+        // A user registered again with the same username gets new tokens
+        Assert.assertEquals("john.doe", tokens.verify(tokens.issue("john.doe", now + 1000)));
+    }
+}
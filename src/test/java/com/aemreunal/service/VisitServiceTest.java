@@ -0,0 +1,95 @@
+package com.aemreunal.service;
+
+/*
+ ***************************
+ * Copyright (c) 2014      *
+ *                         *
+ * This code belongs to:   *
+ *                         *
+ * @author Ahmet Emre Ünal *
+ * S001974                 *
+ *                         *
+ * aemreunal@gmail.com     *
+ * emre.unal@ozu.edu.tr    *
+ *                         *
+ * aemreunal.com           *
+ ***************************
+ */
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.aemreunal.config.GlobalSettings;
+
+public class VisitServiceTest {
+    private static final long GAP_TIMEOUT = TimeUnit.SECONDS.toMillis(GlobalSettings.VISIT_GAP_TIMEOUT_SECONDS);
+    private static final long DEVICE      = 1L;
+    private static final long PROJECT     = 2L;
+    private static final long START       = 1000000L;
+
+    private VisitService visits;
+
+    @Before
+    public void createService() {
+        visits = new VisitService();
+    }
+
+    @Test
+    public void sightingsWithinTheTimeoutExtendTheVisit() {
+        sight(1L, START);
+        sight(1L, START + GAP_TIMEOUT);
+        sight(1L, START + 2 * GAP_TIMEOUT);
+        Assert.assertEquals("A visit ended within the gap timeout!", 0, visits.getQueuedVisits());
+        Assert.assertEquals(3, visits.getSightings());
+    }
+
+    @Test
+    public void gapLongerThanTheTimeoutSplitsTheVisit() {
+        sight(1L, START);
+        sight(1L, START + GAP_TIMEOUT + 1);
+        Assert.assertEquals("A gap longer than the timeout didn't end the visit!", 1, visits.getQueuedVisits());
+        // The second sighting started a visit of its own
+        sight(1L, START + 2 * GAP_TIMEOUT);
+        Assert.assertEquals(1, visits.getQueuedVisits());
+    }
+
+    @Test
+    public void oldestOpenVisitIsEvicted() {
+        for (long beacon = 1; beacon <= GlobalSettings.VISIT_MAX_OPEN_PER_DEVICE; beacon++) {
+            sight(beacon, START + beacon);
+        }
+        Assert.assertEquals(0, visits.getQueuedVisits());
+        sight(100L, START + 100);
+        Assert.assertEquals("No visit was evicted for one over the limit!", 1, visits.getQueuedVisits());
+        // Every other visit is still in progress, so the evicted one was the oldest
+        for (long beacon = 2; beacon <= GlobalSettings.VISIT_MAX_OPEN_PER_DEVICE; beacon++) {
+            sight(beacon, START + 200);
+        }
+        sight(100L, START + 200);
+        Assert.assertEquals("A visit other than the oldest was evicted!", 1, visits.getQueuedVisits());
+    }
+
+    @Test
+    public void sweepEndsIdleVisits() {
+        sight(1L, START);
+        sight(2L, START + GAP_TIMEOUT);
+        visits.sweep(START + GAP_TIMEOUT + 1);
+        Assert.assertEquals("The sweep didn't end exactly the idle visit!", 1, visits.getQueuedVisits());
+        Assert.assertEquals("A device with a visit in progress was forgotten!", 1, visits.getTrackedDevices());
+        visits.sweep(START + 2 * GAP_TIMEOUT + 1);
+        Assert.assertEquals(2, visits.getQueuedVisits());
+        Assert.assertEquals("A device without visits in progress was kept!", 0, visits.getTrackedDevices());
+    }
+
+    @Test
+    public void sightingsWithoutDeviceAreIgnored() {
+        visits.beaconSighted(null, PROJECT, 1L, "1", "1", SightingService.NO_SCENARIO, START);
+        Assert.assertEquals(0, visits.getSightings());
+        Assert.assertEquals(0, visits.getTrackedDevices());
+    }
+
+    private void sight(long beaconId, long timeMillis) {
+        visits.beaconSighted(DEVICE, PROJECT, beaconId, "1", String.valueOf(beaconId), SightingService.NO_SCENARIO, timeMillis);
+    }
+}